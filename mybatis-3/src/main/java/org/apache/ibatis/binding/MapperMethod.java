@@ -36,6 +36,9 @@ import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 /**
  * 快速获取SQL语句类型、方法的签名信息等
@@ -67,7 +70,20 @@ public class MapperMethod {
      * @param args
      * @return
      */
-    public Object execute(SqlSession sqlSession, Object[] args) {
+    public Object execute(final SqlSession sqlSession, final Object[] args) {
+        if (method.returnsFuture()) {
+            // 返回CompletableFuture的方法在异步线程池中执行，同一SqlSession的操作按调用顺序依次执行
+            return sqlSession.getConfiguration().getAsyncExecutor().submit(sqlSession, new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return executeSync(sqlSession, args);
+                }
+            });
+        }
+        return executeSync(sqlSession, args);
+    }
+
+    private Object executeSync(SqlSession sqlSession, Object[] args) {
         Object result;
         // 其中command为MapperMethod构造是创建的SqlCommand对象
         // 获取SQL语句类型
@@ -303,6 +319,7 @@ public class MapperMethod {
         private final boolean returnsVoid;
         private final boolean returnsCursor;
         private final boolean returnsOptional;
+        private final boolean returnsFuture;
         private final Class<?> returnType;
         private final String mapKey;
         private final Integer resultHandlerIndex;
@@ -314,22 +331,28 @@ public class MapperMethod {
         public MethodSignature(Configuration configuration, Class<?> mapperInterface, Method method) {
             // 获取方法返回值类型
             Type resolvedReturnType = TypeParameterResolver.resolveReturnType(method, mapperInterface);
-            if (resolvedReturnType instanceof Class<?>) {
-                this.returnType = (Class<?>) resolvedReturnType;
-            } else if (resolvedReturnType instanceof ParameterizedType) {
-                this.returnType = (Class<?>) ((ParameterizedType) resolvedReturnType).getRawType();
+            if (!(resolvedReturnType instanceof Class<?>) && !(resolvedReturnType instanceof ParameterizedType)) {
+                resolvedReturnType = method.getReturnType();
+            }
+            // 返回值类型为CompletableFuture或CompletionStage时，以其类型参数作为查询结果的类型
+            this.returnsFuture = CompletableFuture.class.equals(rawType(resolvedReturnType))
+                    || CompletionStage.class.equals(rawType(resolvedReturnType));
+            if (this.returnsFuture) {
+                Type[] typeArguments = resolvedReturnType instanceof ParameterizedType
+                        ? ((ParameterizedType) resolvedReturnType).getActualTypeArguments() : new Type[0];
+                this.returnType = typeArguments.length == 1 ? rawType(typeArguments[0]) : Object.class;
             } else {
-                this.returnType = method.getReturnType();
+                this.returnType = rawType(resolvedReturnType);
             }
             // 返回值类型为void
-            this.returnsVoid = void.class.equals(this.returnType);
+            this.returnsVoid = void.class.equals(this.returnType) || (this.returnsFuture && Void.class.equals(this.returnType));
             // 返回值类型为集合
             this.returnsMany = configuration.getObjectFactory().isCollection(this.returnType) || this.returnType.isArray();
             // 返回值类型为Cursor
             this.returnsCursor = Cursor.class.equals(this.returnType);
             // 返回值类型为Optional
             this.returnsOptional = Jdk.optionalExists && Optional.class.equals(this.returnType);
-            this.mapKey = getMapKey(method);
+            this.mapKey = getMapKey(method, this.returnType);
             // 返回值类型为Map
             this.returnsMap = this.mapKey != null;
             // RowBounds参数位置索引
@@ -394,6 +417,25 @@ public class MapperMethod {
             return returnsOptional;
         }
 
+        /**
+         * return whether return type is {@code CompletableFuture} or {@code CompletionStage},
+         * the other methods then describe the type argument of the future
+         *
+         * @since 3.5.0
+         */
+        public boolean returnsFuture() {
+            return returnsFuture;
+        }
+
+        private static Class<?> rawType(Type type) {
+            if (type instanceof Class<?>) {
+                return (Class<?>) type;
+            } else if (type instanceof ParameterizedType) {
+                return (Class<?>) ((ParameterizedType) type).getRawType();
+            }
+            return Object.class;
+        }
+
         private Integer getUniqueParamIndex(Method method, Class<?> paramType) {
             Integer index = null;
             final Class<?>[] argTypes = method.getParameterTypes();
@@ -409,9 +451,9 @@ public class MapperMethod {
             return index;
         }
 
-        private String getMapKey(Method method) {
+        private String getMapKey(Method method, Class<?> returnType) {
             String mapKey = null;
-            if (Map.class.isAssignableFrom(method.getReturnType())) {
+            if (Map.class.isAssignableFrom(returnType)) {
                 final MapKey mapKeyAnnotation = method.getAnnotation(MapKey.class);
                 if (mapKeyAnnotation != null) {
                     mapKey = mapKeyAnnotation.value();
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -25,6 +25,8 @@ import org.apache.ibatis.io.VFS;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.mapping.DatabaseIdProvider;
 import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.metrics.MetricsCollector;
+import org.apache.ibatis.metrics.QueryTraceListener;
 import org.apache.ibatis.parsing.XNode;
 import org.apache.ibatis.parsing.XPathParser;
 import org.apache.ibatis.plugin.Interceptor;
@@ -41,6 +43,8 @@ import org.apache.ibatis.type.TypeHandler;
 import javax.sql.DataSource;
 import java.io.InputStream;
 import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
 /**
@@ -272,11 +276,25 @@ public class XMLConfigBuilder extends BaseBuilder {
     configuration.setUseColumnLabel(booleanValueOf(props.getProperty("useColumnLabel"), true));
     configuration.setUseGeneratedKeys(booleanValueOf(props.getProperty("useGeneratedKeys"), false));
     configuration.setDefaultExecutorType(ExecutorType.valueOf(props.getProperty("defaultExecutorType", "SIMPLE")));
+    configuration.setBatchStatementCoalescing(booleanValueOf(props.getProperty("batchStatementCoalescing"), false));
+    configuration.setBatchMultiRowInsertSize(integerValueOf(props.getProperty("batchMultiRowInsertSize"), 0));
     configuration.setDefaultStatementTimeout(integerValueOf(props.getProperty("defaultStatementTimeout"), null));
     configuration.setDefaultFetchSize(integerValueOf(props.getProperty("defaultFetchSize"), null));
+    configuration.setAutoMappingCacheSize(integerValueOf(props.getProperty("autoMappingCacheSize"), 1024));
+    configuration.setDynamicSqlCacheSize(integerValueOf(props.getProperty("dynamicSqlCacheSize"), 64));
+    configuration.setInArrayTemplate(props.getProperty("inArrayTemplate", "= ANY(?)"));
+    configuration.setInArrayTemplates(inArrayTemplatesValueOf(props.getProperty("inArrayTemplates")));
+    configuration.setMetricsCollector((MetricsCollector) createInstance(props.getProperty("metricsCollector")));
+    configuration.setSlowQueryThreshold(integerValueOf(props.getProperty("slowQueryThreshold"), 0));
+    configuration.setNestedQueryThreshold(integerValueOf(props.getProperty("nestedQueryThreshold"), 0));
+    configuration.setQueryTraceListener((QueryTraceListener) createInstance(props.getProperty("queryTraceListener")));
+    configuration.setAsyncThreads(integerValueOf(props.getProperty("asyncThreads"), 0));
+    configuration.setAsyncQueueCapacity(integerValueOf(props.getProperty("asyncQueueCapacity"), 1024));
+    configuration.setFusedPlugins(booleanValueOf(props.getProperty("fusedPlugins"), false));
     configuration.setMapUnderscoreToCamelCase(booleanValueOf(props.getProperty("mapUnderscoreToCamelCase"), false));
     configuration.setSafeRowBoundsEnabled(booleanValueOf(props.getProperty("safeRowBoundsEnabled"), false));
     configuration.setLocalCacheScope(LocalCacheScope.valueOf(props.getProperty("localCacheScope", "SESSION")));
+    configuration.setCacheInvalidationScope(CacheInvalidationScope.valueOf(props.getProperty("cacheInvalidationScope", "NAMESPACE")));
     configuration.setJdbcTypeForNull(JdbcType.valueOf(props.getProperty("jdbcTypeForNull", "OTHER")));
     configuration.setLazyLoadTriggerMethods(stringSetValueOf(props.getProperty("lazyLoadTriggerMethods"), "equals,clone,hashCode,toString"));
     configuration.setSafeResultHandlerEnabled(booleanValueOf(props.getProperty("safeResultHandlerEnabled"), true));
@@ -294,6 +312,25 @@ public class XMLConfigBuilder extends BaseBuilder {
     configuration.setConfigurationFactory(resolveClass(props.getProperty("configurationFactory")));
   }
 
+  // 格式为"databaseId:模板; databaseId:模板"
+  private Map<String, String> inArrayTemplatesValueOf(String value) {
+    Map<String, String> templates = new HashMap<String, String>();
+    if (value == null) {
+      return templates;
+    }
+    for (String entry : value.split(";")) {
+      if (entry.trim().isEmpty()) {
+        continue;
+      }
+      int separator = entry.indexOf(':');
+      if (separator <= 0) {
+        throw new BuilderException("Invalid inArrayTemplates entry '" + entry.trim() + "', expected databaseId:template.");
+      }
+      templates.put(entry.substring(0, separator).trim(), entry.substring(separator + 1).trim());
+    }
+    return templates;
+  }
+
   private void environmentsElement(XNode context) throws Exception {
     if (context != null) {
       if (environment == null) {
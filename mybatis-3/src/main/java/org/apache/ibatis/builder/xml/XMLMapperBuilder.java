@@ -381,11 +381,14 @@ public class XMLMapperBuilder extends BaseBuilder {
         String foreignColumn = context.getStringAttribute("foreignColumn");
         // 懒加载，如果未指定fetchType属性,则使用Mybatis主配置文件中的lazyLoadingEnabled属性
         boolean lazy = "lazy".equals(context.getStringAttribute("fetchType", configuration.isLazyLoadingEnabled() ? "lazy" : "eager"));
+        // 批量嵌套查询，每batchSize个父对象执行一次嵌套查询
+        int batchSize = context.getIntAttribute("batchSize", 0);
+        String batchKey = context.getStringAttribute("batchKey");
         Class<?> javaTypeClass = resolveClass(javaType);
         @SuppressWarnings("unchecked")
         Class<? extends TypeHandler<?>> typeHandlerClass = (Class<? extends TypeHandler<?>>) resolveClass(typeHandler);
         JdbcType jdbcTypeEnum = resolveJdbcType(jdbcType);
-        return builderAssistant.buildResultMapping(resultType, property, column, javaTypeClass, jdbcTypeEnum, nestedSelect, nestedResultMap, notNullColumn, columnPrefix, typeHandlerClass, flags, resultSet, foreignColumn, lazy);
+        return builderAssistant.buildResultMapping(resultType, property, column, javaTypeClass, jdbcTypeEnum, nestedSelect, nestedResultMap, notNullColumn, columnPrefix, typeHandlerClass, flags, resultSet, foreignColumn, lazy, batchSize, batchKey);
     }
 
     private String processNestedResultMappings(XNode context, List<ResultMapping> resultMappings) throws Exception {
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -16,56 +16,65 @@
 package org.apache.ibatis.cache;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 import org.apache.ibatis.reflection.ArrayUtil;
 
 /**
+ * The key of a cached query (or of a row while nested result maps are resolved).
+ * <p>
+ * Components are kept in an array that can be sized upfront, and a 64-bit hash is computed as they are
+ * added so that keys that differ are almost always told apart without comparing their components.
+ *
  * @author Clinton Begin
  */
 public class CacheKey implements Cloneable, Serializable {
 
-  private static final long serialVersionUID = 1146682552656046210L;
+  private static final long serialVersionUID = -8215187924371727262L;
 
   public static final CacheKey NULL_CACHE_KEY = new NullCacheKey();
 
-  private static final int DEFAULT_MULTIPLYER = 37;
-  private static final int DEFAULT_HASHCODE = 17;
+  private static final long DEFAULT_MULTIPLIER = 0x9E3779B97F4A7C15L;
+  private static final long DEFAULT_HASHCODE = 17;
+  private static final int DEFAULT_CAPACITY = 8;
 
-  private final int multiplier;
-  private int hashcode;
-  private long checksum;
+  private long hashcode;
   private int count;
   // 8/21/2017 - Sonarlint flags this as needing to be marked transient.  While true if content is not serializable, this is not always true and thus should not be marked transient.
-  private List<Object> updateList;
+  private Object[] updates;
 
   public CacheKey() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param expectedUpdateCount The number of components the key is expected to have. The key still grows if more are added.
+   * @since 3.5.0
+   */
+  public CacheKey(int expectedUpdateCount) {
     this.hashcode = DEFAULT_HASHCODE;
-    this.multiplier = DEFAULT_MULTIPLYER;
     this.count = 0;
-    this.updateList = new ArrayList<Object>();
+    this.updates = new Object[Math.max(expectedUpdateCount, 1)];
   }
 
   public CacheKey(Object[] objects) {
-    this();
+    this(objects.length);
     updateAll(objects);
   }
 
   public int getUpdateCount() {
-    return updateList.size();
+    return count;
   }
 
   public void update(Object object) {
-    int baseHashCode = object == null ? 1 : ArrayUtil.hashCode(object); 
-
-    count++;
-    checksum += baseHashCode;
-    baseHashCode *= count;
+    int baseHashCode = object == null ? 1 : ArrayUtil.hashCode(object);
 
-    hashcode = multiplier * hashcode + baseHashCode;
+    hashcode = (hashcode + baseHashCode) * DEFAULT_MULTIPLIER;
 
-    updateList.add(object);
+    if (count == updates.length) {
+      updates = Arrays.copyOf(updates, count << 1);
+    }
+    updates[count++] = object;
   }
 
   public void updateAll(Object[] objects) {
@@ -88,17 +97,12 @@ public class CacheKey implements Cloneable, Serializable {
     if (hashcode != cacheKey.hashcode) {
       return false;
     }
-    if (checksum != cacheKey.checksum) {
-      return false;
-    }
     if (count != cacheKey.count) {
       return false;
     }
 
-    for (int i = 0; i < updateList.size(); i++) {
-      Object thisObject = updateList.get(i);
-      Object thatObject = cacheKey.updateList.get(i);
-      if (!ArrayUtil.equals(thisObject, thatObject)) {
+    for (int i = 0; i < count; i++) {
+      if (!ArrayUtil.equals(updates[i], cacheKey.updates[i])) {
         return false;
       }
     }
@@ -107,14 +111,14 @@ public class CacheKey implements Cloneable, Serializable {
 
   @Override
   public int hashCode() {
-    return hashcode;
+    return (int) (hashcode ^ (hashcode >>> 32));
   }
 
   @Override
   public String toString() {
-    StringBuilder returnValue = new StringBuilder().append(hashcode).append(':').append(checksum);
-    for (Object object : updateList) {
-      returnValue.append(':').append(ArrayUtil.toString(object));
+    StringBuilder returnValue = new StringBuilder().append(hashCode()).append(':').append(hashcode);
+    for (int i = 0; i < count; i++) {
+      returnValue.append(':').append(ArrayUtil.toString(updates[i]));
     }
     return returnValue.toString();
   }
@@ -122,7 +126,7 @@ public class CacheKey implements Cloneable, Serializable {
   @Override
   public CacheKey clone() throws CloneNotSupportedException {
     CacheKey clonedCacheKey = (CacheKey) super.clone();
-    clonedCacheKey.updateList = new ArrayList<Object>(updateList);
+    clonedCacheKey.updates = updates.clone();
     return clonedCacheKey;
   }
 
@@ -0,0 +1,36 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * Converts the values of a read/write cache to bytes and back, so that each cache hit returns a copy.
+ * <p>
+ * Used by {@link org.apache.ibatis.cache.decorators.SerializedCache}. The serializer of a namespace is set with
+ * the {@code serializer} property of its cache, a class name or one of the {@code JDK_SERIALIZER} (default) and
+ * {@code BINARY_SERIALIZER} aliases. Implementations must have a default constructor and be thread safe.
+ *
+ * @since 3.5.0
+ */
+public interface CacheSerializer {
+
+  /**
+   * @param object a {@link java.io.Serializable} value, or null
+   */
+  byte[] serialize(Object object);
+
+  Object deserialize(byte[] bytes);
+
+}
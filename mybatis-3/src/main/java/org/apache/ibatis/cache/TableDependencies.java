@@ -0,0 +1,156 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the tables and primary key rows a query reads, including those of the nested selects it runs,
+ * and the versions they had before being read.
+ *
+ * @since 3.5.0
+ */
+public class TableDependencies {
+
+  private final TableVersions tableVersions;
+  private long allTablesVersion;
+  private long anyTableVersion;
+  // 表名及其读取前的版本号，同一张表多次读取时保留最小的版本号
+  private final Map<String, Long> versions = new TreeMap<String, Long>();
+  // 按主键读取的行，Key为表名和行版本号槽位
+  private final Map<String, Row> rows = new TreeMap<String, Row>();
+  private boolean unknownTables;
+
+  /**
+   * Must be created before the query runs, so that the tables modified while it runs invalidate its result.
+   */
+  public TableDependencies(TableVersions tableVersions) {
+    this.tableVersions = tableVersions;
+    this.allTablesVersion = tableVersions.getAllTablesVersion();
+    this.anyTableVersion = tableVersions.getAnyTableVersion();
+  }
+
+  /**
+   * Adds tables about to be read.
+   *
+   * @param tables the tables, or null when they are unknown
+   */
+  public void addTables(String[] tables) {
+    if (tables == null) {
+      unknownTables = true;
+      return;
+    }
+    for (String table : tables) {
+      addTable(table, tableVersions.getVersion(table));
+    }
+  }
+
+  /**
+   * Adds a table read when it had the given version.
+   */
+  public void addTable(String table, long version) {
+    Long previous = versions.get(table);
+    if (previous == null || previous > version) {
+      versions.put(table, version);
+    }
+  }
+
+  /**
+   * Adds the row of a table about to be read by primary key. The table itself must also be added when the
+   * row is not found, since inserting it changes the result.
+   */
+  public void addRow(String table, Object key) {
+    int slot = tableVersions.getRowSlot(table, key);
+    addRow(table, slot, tableVersions.getRowVersion(slot), tableVersions.getKeysVersion(table));
+  }
+
+  private void addRow(String table, int slot, long rowVersion, long keysVersion) {
+    String rowKey = table + '#' + slot;
+    Row previous = rows.get(rowKey);
+    if (previous == null) {
+      rows.put(rowKey, new Row(table, slot, rowVersion, keysVersion));
+    } else {
+      previous.rowVersion = Math.min(previous.rowVersion, rowVersion);
+      previous.keysVersion = Math.min(previous.keysVersion, keysVersion);
+    }
+  }
+
+  /**
+   * Adds the tables and rows of a cached result read by the query.
+   */
+  public void addResult(TableDependentResult result) {
+    allTablesVersion = Math.min(allTablesVersion, result.getAllTablesVersion());
+    anyTableVersion = Math.min(anyTableVersion, result.getAnyTableVersion());
+    String[] tables = result.getTables();
+    if (tables == null) {
+      unknownTables = true;
+      return;
+    }
+    long[] resultVersions = result.getVersions();
+    for (int i = 0; i < tables.length; i++) {
+      addTable(tables[i], resultVersions[i]);
+    }
+    String[] rowTables = result.getRowTables();
+    for (int i = 0; i < rowTables.length; i++) {
+      addRow(rowTables[i], result.getRowSlots()[i], result.getRowVersions()[i], result.getKeysVersions()[i]);
+    }
+  }
+
+  public TableDependentResult newResult(Object value) {
+    if (unknownTables) {
+      return new TableDependentResult(null, null, null, null, null, null, allTablesVersion, anyTableVersion, value);
+    }
+    String[] tables = new String[versions.size()];
+    long[] tableVersions = new long[versions.size()];
+    int i = 0;
+    for (Map.Entry<String, Long> entry : versions.entrySet()) {
+      tables[i] = entry.getKey();
+      tableVersions[i] = entry.getValue();
+      i++;
+    }
+    String[] rowTables = new String[rows.size()];
+    int[] rowSlots = new int[rows.size()];
+    long[] rowVersions = new long[rows.size()];
+    long[] keysVersions = new long[rows.size()];
+    i = 0;
+    for (Row row : rows.values()) {
+      rowTables[i] = row.table;
+      rowSlots[i] = row.slot;
+      rowVersions[i] = row.rowVersion;
+      keysVersions[i] = row.keysVersion;
+      i++;
+    }
+    return new TableDependentResult(tables, tableVersions, rowTables, rowSlots, rowVersions, keysVersions,
+        allTablesVersion, anyTableVersion, value);
+  }
+
+  private static class Row {
+
+    final String table;
+    final int slot;
+    long rowVersion;
+    long keysVersion;
+
+    Row(String table, int slot, long rowVersion, long keysVersion) {
+      this.table = table;
+      this.slot = slot;
+      this.rowVersion = rowVersion;
+      this.keysVersion = keysVersion;
+    }
+  }
+
+}
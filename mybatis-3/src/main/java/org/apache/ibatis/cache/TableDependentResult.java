@@ -0,0 +1,125 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.Serializable;
+
+/**
+ * A result cached with the TABLE cache invalidation scope, with the versions of the tables it was read from,
+ * and of the rows it read by primary key.
+ *
+ * @since 3.5.0
+ */
+public class TableDependentResult implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  // 读取的表，为null时表示无法确定
+  private String[] tables;
+  private long[] versions;
+  // 按主键读取的行：所在表、行版本号槽位、行版本号和表的主键版本号
+  private String[] rowTables;
+  private int[] rowSlots;
+  private long[] rowVersions;
+  private long[] keysVersions;
+  private long allTablesVersion;
+  private long anyTableVersion;
+  private Object value;
+
+  private TableDependentResult() {
+    // for deserialization
+  }
+
+  TableDependentResult(String[] tables, long[] versions, String[] rowTables, int[] rowSlots, long[] rowVersions,
+      long[] keysVersions, long allTablesVersion, long anyTableVersion, Object value) {
+    this.tables = tables;
+    this.versions = versions;
+    this.rowTables = rowTables;
+    this.rowSlots = rowSlots;
+    this.rowVersions = rowVersions;
+    this.keysVersions = keysVersions;
+    this.allTablesVersion = allTablesVersion;
+    this.anyTableVersion = anyTableVersion;
+    this.value = value;
+  }
+
+  /**
+   * @return true if none of the tables of the result was modified since it was read
+   */
+  public boolean isCurrent(TableVersions tableVersions) {
+    if (tables == null) {
+      return anyTableVersion == tableVersions.getAnyTableVersion();
+    }
+    if (allTablesVersion != tableVersions.getAllTablesVersion()) {
+      return false;
+    }
+    for (int i = 0; i < tables.length; i++) {
+      if (versions[i] != tableVersions.getVersion(tables[i])) {
+        return false;
+      }
+    }
+    for (int i = 0; i < rowTables.length; i++) {
+      if (rowVersions[i] != tableVersions.getRowVersion(rowSlots[i])
+          || keysVersions[i] != tableVersions.getKeysVersion(rowTables[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the tables the result was read from, or null when they are unknown
+   */
+  public String[] getTables() {
+    return tables;
+  }
+
+  long[] getVersions() {
+    return versions;
+  }
+
+  /**
+   * @return the tables of the rows the result read by primary key, null when its tables are unknown
+   */
+  public String[] getRowTables() {
+    return rowTables;
+  }
+
+  int[] getRowSlots() {
+    return rowSlots;
+  }
+
+  long[] getRowVersions() {
+    return rowVersions;
+  }
+
+  long[] getKeysVersions() {
+    return keysVersions;
+  }
+
+  long getAllTablesVersion() {
+    return allTablesVersion;
+  }
+
+  long getAnyTableVersion() {
+    return anyTableVersion;
+  }
+
+  public Object getValue() {
+    return value;
+  }
+
+}
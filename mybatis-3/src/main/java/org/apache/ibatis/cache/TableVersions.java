@@ -0,0 +1,187 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The version of each table, incremented when a transaction modifying the table commits.
+ * <p>
+ * A result cached with the TABLE cache invalidation scope holds the versions of the tables it was read from,
+ * and is stale once one of them changed. Tables are identified by their lower case names without schema.
+ * <p>
+ * A result read by primary key instead holds the version of its row and the keys version of its table. Row
+ * versions are hashed by table and key into a fixed number of slots, a collision only invalidates more results.
+ * The keys version of a table is incremented by the modifications that cannot be attributed to rows, inserts
+ * do not change it since a new row cannot change the result of a primary key lookup that found a row.
+ * Only the tables whose primary key columns are declared in the {@code tables} attribute of a statement,
+ * like {@code tables="blog(id)"}, are invalidated by row.
+ *
+ * @since 3.5.0
+ */
+public class TableVersions {
+
+  private static final int ROW_SLOTS = 1 << 14;
+
+  // 初始值不同，其他进程或重启前缓存的结果（如OffHeapCache的文件）不会被误认为有效
+  // 任意表被修改时增加，用于无法确定读取了哪些表的缓存结果
+  private final AtomicLong anyTableVersion = new AtomicLong(System.currentTimeMillis());
+  // 无法确定修改了哪些表时增加，使所有缓存结果失效
+  private final AtomicLong allTablesVersion = new AtomicLong(System.currentTimeMillis());
+  private final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<String, AtomicLong>();
+  private final ConcurrentMap<String, AtomicLong> keysVersions = new ConcurrentHashMap<String, AtomicLong>();
+  private final AtomicLongArray rowVersions = new AtomicLongArray(ROW_SLOTS);
+  // 语句的tables属性中声明的每张表的主键列
+  private final ConcurrentMap<String, String[]> keyColumns = new ConcurrentHashMap<String, String[]>();
+
+  public long getVersion(String table) {
+    return getVersion(versions, table);
+  }
+
+  /**
+   * @return the version of the table incremented by all its modifications except inserts and modifications by key
+   */
+  public long getKeysVersion(String table) {
+    return getVersion(keysVersions, table);
+  }
+
+  /**
+   * @return the slot holding the version of the row of the table with the given primary key
+   */
+  public int getRowSlot(String table, Object key) {
+    int hash = 31 * table.hashCode() + (key == null ? 0 : key.hashCode());
+    return (hash ^ (hash >>> 16)) & (ROW_SLOTS - 1);
+  }
+
+  /**
+   * Converts a numeric primary key value to the value identifying the row whatever the type of the parameter,
+   * numbers equal in value being converted to equal values.
+   * <p>
+   * Other values, strings in particular, are not converted: the equality of the database may differ from theirs,
+   * as with case, accent or width insensitive collations, or MySQL comparing {@code '1abc'} equal to {@code 1}.
+   * Statements with such keys are then invalidated by table.
+   *
+   * @return the normalized value, or null when the value is not a finite number
+   */
+  public static Object normalizeKey(Object key) {
+    // 查询和修改的参数类型可能不同，例如Integer与BigDecimal
+    if (key instanceof Number) {
+      return normalizeNumber(key.toString());
+    }
+    return null;
+  }
+
+  private static Object normalizeNumber(String value) {
+    try {
+      return new BigDecimal(value).stripTrailingZeros();
+    } catch (NumberFormatException e) {
+      // NaN、Infinity或非数字
+      return null;
+    }
+  }
+
+  public long getRowVersion(int rowSlot) {
+    return rowVersions.get(rowSlot);
+  }
+
+  public long getAnyTableVersion() {
+    return anyTableVersion.get();
+  }
+
+  public long getAllTablesVersion() {
+    return allTablesVersion.get();
+  }
+
+  /**
+   * @return the declared primary key columns of the table, or null when they were not declared
+   */
+  public String[] getKeyColumns(String table) {
+    return keyColumns.get(table);
+  }
+
+  /**
+   * Declares the primary key columns of a table, unless other columns were declared before.
+   *
+   * @return the declared primary key columns of the table
+   */
+  public String[] declareKeyColumns(String table, String[] columns) {
+    String[] declared = keyColumns.putIfAbsent(table, columns);
+    return declared == null ? columns : declared;
+  }
+
+  /**
+   * Invalidates the results read from the given tables.
+   *
+   * @param tables the modified tables, or null when they are unknown to invalidate all the results
+   */
+  public void invalidate(Iterable<String> tables) {
+    if (tables == null) {
+      allTablesVersion.incrementAndGet();
+    } else {
+      for (String table : tables) {
+        increment(versions, table);
+        increment(keysVersions, table);
+      }
+    }
+    // 最后增加，读取到新版本号的查询一定也能看到表版本号的变化
+    anyTableVersion.incrementAndGet();
+  }
+
+  /**
+   * Invalidates the results read from tables into which rows were inserted, except the primary key lookups.
+   */
+  public void invalidateInserts(Iterable<String> tables) {
+    for (String table : tables) {
+      increment(versions, table);
+    }
+    anyTableVersion.incrementAndGet();
+  }
+
+  /**
+   * Invalidates the results read from a table whose rows were modified by primary key.
+   *
+   * @param rowSlots the slots of the modified rows
+   */
+  public void invalidateRows(String table, Iterable<Integer> rowSlots) {
+    for (Integer rowSlot : rowSlots) {
+      rowVersions.incrementAndGet(rowSlot);
+    }
+    increment(versions, table);
+    anyTableVersion.incrementAndGet();
+  }
+
+  private static long getVersion(ConcurrentMap<String, AtomicLong> versions, String table) {
+    AtomicLong version = versions.get(table);
+    return version == null ? 0 : version.get();
+  }
+
+  private static void increment(ConcurrentMap<String, AtomicLong> versions, String table) {
+    AtomicLong version = versions.get(table);
+    if (version == null) {
+      AtomicLong newVersion = new AtomicLong();
+      version = versions.putIfAbsent(table, newVersion);
+      if (version == null) {
+        version = newVersion;
+      }
+    }
+    version.incrementAndGet();
+  }
+
+}
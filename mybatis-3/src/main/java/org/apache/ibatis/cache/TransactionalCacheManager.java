@@ -1,5 +1,5 @@
 /**
- * Copyright 2009-2017 the original author or authors.
+ * Copyright 2009-2018 the original author or authors.
  * <p>
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,8 +17,11 @@ package org.apache.ibatis.cache;
 
 import org.apache.ibatis.cache.decorators.TransactionalCache;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @author Clinton Begin
@@ -26,11 +29,89 @@ import java.util.Map;
 public class TransactionalCacheManager {
     // 通过HashMap对象维护二级缓存对应的TransactionalCache实例
     private final Map<Cache, TransactionalCache> transactionalCaches = new HashMap<Cache, TransactionalCache>();
+    // TABLE缓存失效范围下当前事务修改的表，提交时增加这些表的版本号
+    private final Set<String> modifiedTables = new HashSet<String>();
+    // 当前事务插入了行的表
+    private final Set<String> insertedTables = new HashSet<String>();
+    // 当前事务按主键修改的行，Value为行版本号槽位
+    private final Map<String, Set<Integer>> modifiedRows = new HashMap<String, Set<Integer>>();
+    private boolean allTablesModified;
+    private TableVersions tableVersions;
 
     public void clear(Cache cache) {
         getTransactionalCache(cache).clear();
     }
 
+    /**
+     * Records tables modified by the transaction, whose versions are incremented on commit.
+     *
+     * @param tables the modified tables, or null when they are unknown
+     * @since 3.5.0
+     */
+    public void invalidateTables(TableVersions tableVersions, String[] tables) {
+        this.tableVersions = tableVersions;
+        if (tables == null) {
+            allTablesModified = true;
+        } else {
+            modifiedTables.addAll(Arrays.asList(tables));
+        }
+    }
+
+    /**
+     * Records tables into which the transaction inserted rows.
+     *
+     * @since 3.5.0
+     */
+    public void invalidateInsertedTables(TableVersions tableVersions, String[] tables) {
+        this.tableVersions = tableVersions;
+        insertedTables.addAll(Arrays.asList(tables));
+    }
+
+    /**
+     * Records a row modified by the transaction, identified by its primary key.
+     *
+     * @since 3.5.0
+     */
+    public void invalidateRow(TableVersions tableVersions, String table, Object key) {
+        this.tableVersions = tableVersions;
+        Set<Integer> rowSlots = modifiedRows.get(table);
+        if (rowSlots == null) {
+            rowSlots = new HashSet<Integer>();
+            modifiedRows.put(table, rowSlots);
+        }
+        rowSlots.add(tableVersions.getRowSlot(table, key));
+    }
+
+    /**
+     * @return true if the result was read from a table or a row modified by the transaction
+     * @since 3.5.0
+     */
+    public boolean isInvalidated(TableDependentResult result) {
+        if (allTablesModified) {
+            return true;
+        }
+        if (modifiedTables.isEmpty() && insertedTables.isEmpty() && modifiedRows.isEmpty()) {
+            return false;
+        }
+        String[] tables = result.getTables();
+        if (tables == null) {
+            return true;
+        }
+        for (String table : tables) {
+            if (modifiedTables.contains(table) || insertedTables.contains(table) || modifiedRows.containsKey(table)) {
+                return true;
+            }
+        }
+        String[] rowTables = result.getRowTables();
+        for (int i = 0; i < rowTables.length; i++) {
+            Set<Integer> rowSlots = modifiedRows.get(rowTables[i]);
+            if (modifiedTables.contains(rowTables[i]) || rowSlots != null && rowSlots.contains(result.getRowSlots()[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public Object getObject(Cache cache, CacheKey key) {
         // 获取二级缓存对应的TransactionalCache对象，然后根据缓存Key获取缓存对象
         return getTransactionalCache(cache).getObject(key);
@@ -44,12 +125,34 @@ public class TransactionalCacheManager {
         for (TransactionalCache txCache : transactionalCaches.values()) {
             txCache.commit();
         }
+        if (allTablesModified) {
+            tableVersions.invalidate(null);
+        } else {
+            if (!modifiedTables.isEmpty()) {
+                tableVersions.invalidate(modifiedTables);
+            }
+            if (!insertedTables.isEmpty()) {
+                tableVersions.invalidateInserts(insertedTables);
+            }
+            for (Map.Entry<String, Set<Integer>> entry : modifiedRows.entrySet()) {
+                tableVersions.invalidateRows(entry.getKey(), entry.getValue());
+            }
+        }
+        resetModifiedTables();
     }
 
     public void rollback() {
         for (TransactionalCache txCache : transactionalCaches.values()) {
             txCache.rollback();
         }
+        resetModifiedTables();
+    }
+
+    private void resetModifiedTables() {
+        modifiedTables.clear();
+        insertedTables.clear();
+        modifiedRows.clear();
+        allTablesModified = false;
     }
 
     private TransactionalCache getTransactionalCache(Cache cache) {
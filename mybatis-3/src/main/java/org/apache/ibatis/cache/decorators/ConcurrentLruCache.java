@@ -0,0 +1,160 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * Thread safe, approximated Lru (least recently used) cache decorator.
+ * <p>
+ * Reads only record the access time of the key and never lock. When the cache grows beyond its size,
+ * the writer that noticed it samples a few keys and evicts the least recently used among them, the way
+ * Redis does. The delegate must be thread safe too, the {@link org.apache.ibatis.mapping.CacheBuilder}
+ * uses a {@link org.apache.ibatis.cache.impl.ConcurrentPerpetualCache} and does not add a
+ * {@link SynchronizedCache} when this decorator is selected with <code>eviction="CONCURRENT_LRU"</code>.
+ */
+public class ConcurrentLruCache implements Cache {
+
+  private static final int SAMPLE_SIZE = 8;
+
+  private final Cache delegate;
+  private final ConcurrentMap<Object, AccessTime> keyMap = new ConcurrentHashMap<Object, AccessTime>();
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  // guarded by evictionLock, keeps going around the keys so that every key gets sampled in turn
+  private Iterator<Map.Entry<Object, AccessTime>> evictionIterator;
+  private volatile int size;
+
+  public ConcurrentLruCache(Cache delegate) {
+    this.delegate = delegate;
+    setSize(1024);
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  public void setSize(int size) {
+    this.size = size;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+    AccessTime accessTime = keyMap.get(key);
+    if (accessTime == null) {
+      keyMap.putIfAbsent(key, new AccessTime());
+      if (keyMap.size() > size) {
+        evict();
+      }
+    } else {
+      accessTime.touch();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    AccessTime accessTime = keyMap.get(key);
+    if (accessTime != null) {
+      accessTime.touch();
+    }
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    keyMap.remove(key);
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    // putObject adds to the delegate before the keys, so clearing the keys first never leaves a value of the
+    // delegate untracked, at worst a key without value that gets evicted like the others
+    keyMap.clear();
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private void evict() {
+    do {
+      // a writer that cannot get the lock leaves the work to the one holding it
+      if (!evictionLock.tryLock()) {
+        return;
+      }
+      try {
+        while (keyMap.size() > size && evictEldestSample()) {
+          // keep evicting
+        }
+      } finally {
+        evictionLock.unlock();
+      }
+      // a key may have been added after the last check but before the lock was released
+    } while (keyMap.size() > size);
+  }
+
+  private boolean evictEldestSample() {
+    Object eldestKey = null;
+    long eldestAccess = Long.MAX_VALUE;
+    for (int i = 0; i < SAMPLE_SIZE; i++) {
+      if (evictionIterator == null || !evictionIterator.hasNext()) {
+        evictionIterator = keyMap.entrySet().iterator();
+        if (!evictionIterator.hasNext()) {
+          break;
+        }
+      }
+      Map.Entry<Object, AccessTime> entry = evictionIterator.next();
+      long lastAccess = entry.getValue().lastAccess;
+      if (lastAccess < eldestAccess) {
+        eldestKey = entry.getKey();
+        eldestAccess = lastAccess;
+      }
+    }
+    if (eldestKey == null) {
+      return false;
+    }
+    keyMap.remove(eldestKey);
+    delegate.removeObject(eldestKey);
+    return true;
+  }
+
+  private static class AccessTime {
+
+    private volatile long lastAccess = System.nanoTime();
+
+    void touch() {
+      lastAccess = System.nanoTime();
+    }
+
+  }
+
+}
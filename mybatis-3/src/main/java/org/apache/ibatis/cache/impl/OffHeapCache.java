@@ -0,0 +1,576 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.builder.InitializingObject;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheSerializer;
+import org.apache.ibatis.cache.serializer.BinaryCacheSerializer;
+import org.apache.ibatis.cache.serializer.JdkCacheSerializer;
+import org.apache.ibatis.io.Resources;
+
+/**
+ * Keeps the serialized values outside of the Java heap, so that large caches do not add to garbage collection pauses.
+ * <p>
+ * The memory is divided in slabs of {@code slabSize} bytes, allocated when first needed up to {@code capacity} bytes.
+ * Each slab holds chunks of one size, a power of two large enough for the entry, and when no chunk is free the
+ * least recently used entry of the same size is evicted, or an entire slab is reclaimed from other sizes. Entries
+ * larger than a slab are not cached. Only the keys and the locations of the entries stay on the heap.
+ * <p>
+ * With the {@code file} property the slabs are mapped from that file instead of direct memory, and the entries found
+ * in the file when the cache is created are kept: use it only for data that is not modified outside the application.
+ * The file is closed once mapped, and the memory of the slabs, mapped or direct, is released when the cache is
+ * garbage collected.
+ * <p>
+ * With {@code hotSize} the values of the entries read {@code hotThreshold} times are also kept on the heap, up to
+ * {@code hotSize} entries. Like other reads, they return a copy of the value, unless the {@code readOnly} property is
+ * set: the deserialized values are then kept and shared by all callers.
+ * <p>
+ * The values are serialized with the {@code serializer} property, {@code BINARY_SERIALIZER} by default.
+ * This cache is thread safe and does its own eviction, so it is not decorated.
+ *
+ * @since 3.5.0
+ */
+public class OffHeapCache implements Cache, InitializingObject {
+
+  // slab头部保存其chunk大小，0表示未分配
+  private static final int SLAB_HEADER = 8;
+  // chunk头部保存key和value的字节数，value字节数为0表示空闲
+  private static final int CHUNK_HEADER = 8;
+  private static final int MIN_CHUNK_SIZE = 64;
+
+  private final String id;
+  private long capacity = 64L * 1024 * 1024;
+  private int slabSize = 1024 * 1024;
+  private int hotSize;
+  private int hotThreshold = 2;
+  private boolean readOnly;
+  private String file;
+  private CacheSerializer serializer = new BinaryCacheSerializer();
+
+  private boolean initialized;
+  private Slab[] slabs;
+  private int[] chunkSizes;
+  private SizeClass[] sizeClasses;
+  // 未分配给任何chunk大小的slab
+  private final Deque<Slab> freeSlabs = new ArrayDeque<Slab>();
+  private final Map<Object, Entry> entries = new HashMap<Object, Entry>();
+  // 只读时保存反序列化后的值，否则保存序列化的字节，每次读取返回副本
+  private final Map<Object, Object> hotValues = new LinkedHashMap<Object, Object>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+      return size() > hotSize;
+    }
+  };
+
+  public OffHeapCache(String id) {
+    this.id = id;
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public synchronized int getSize() {
+    return entries.size();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    if (value != null && !(value instanceof Serializable)) {
+      throw new CacheException("OffHeapCache failed to make a copy of a non-serializable object: " + value);
+    }
+    byte[] valueBytes = serializer.serialize(value);
+    byte[] keyBytes = file != null ? serializer.serialize(key) : new byte[0];
+    synchronized (this) {
+      initialize0();
+      remove(key);
+      int size = CHUNK_HEADER + keyBytes.length + valueBytes.length;
+      int classIndex = getSizeClassIndex(size);
+      if (classIndex < 0) {
+        // 比slab大的对象不缓存
+        return;
+      }
+      SizeClass sizeClass = sizeClasses[classIndex];
+      Slab slab = allocate(classIndex);
+      if (slab == null) {
+        return;
+      }
+      int chunk = slab.takeChunk();
+      int offset = slab.chunkOffset(chunk);
+      slab.buffer.putInt(offset, keyBytes.length);
+      slab.buffer.putInt(offset + 4, valueBytes.length);
+      write(slab.buffer, offset + CHUNK_HEADER, keyBytes);
+      write(slab.buffer, offset + CHUNK_HEADER + keyBytes.length, valueBytes);
+      Entry entry = new Entry(key, slab, chunk);
+      entries.put(key, entry);
+      sizeClass.entries.put(key, entry);
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    byte[] valueBytes;
+    Entry entry;
+    boolean hot;
+    synchronized (this) {
+      initialize0();
+      entry = entries.get(key);
+      if (entry == null) {
+        return null;
+      }
+      sizeClasses[entry.slab.sizeClass].entries.get(key);
+      Object hotValue = hotValues.get(key);
+      hot = hotValue != null;
+      if (hot && readOnly) {
+        return hotValue;
+      }
+      if (hot) {
+        valueBytes = (byte[]) hotValue;
+      } else {
+        int offset = entry.slab.chunkOffset(entry.chunk);
+        int keyLength = entry.slab.buffer.getInt(offset);
+        valueBytes = read(entry.slab.buffer, offset + CHUNK_HEADER + keyLength, entry.slab.buffer.getInt(offset + 4));
+        entry.hits++;
+      }
+    }
+    Object value = serializer.deserialize(valueBytes);
+    if (!hot && hotSize > 0 && entry.hits >= hotThreshold && value != null) {
+      synchronized (this) {
+        // 反序列化期间该条目可能已被删除或替换
+        if (entries.get(key) == entry) {
+          hotValues.put(key, readOnly ? value : valueBytes);
+        }
+      }
+    }
+    return value;
+  }
+
+  @Override
+  public synchronized Object removeObject(Object key) {
+    initialize0();
+    remove(key);
+    return null;
+  }
+
+  @Override
+  public synchronized void clear() {
+    initialize0();
+    entries.clear();
+    hotValues.clear();
+    for (SizeClass sizeClass : sizeClasses) {
+      sizeClass.entries.clear();
+      for (Slab slab : sizeClass.slabs) {
+        slab.release();
+        freeSlabs.add(slab);
+      }
+      sizeClass.slabs.clear();
+      sizeClass.availableSlabs.clear();
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  @Override
+  public synchronized void initialize() {
+    initialize0();
+  }
+
+  private void initialize0() {
+    if (initialized) {
+      return;
+    }
+    if (slabSize <= SLAB_HEADER + MIN_CHUNK_SIZE || capacity < slabSize) {
+      throw new CacheException("OffHeapCache '" + id + "' needs a slabSize above " + (SLAB_HEADER + MIN_CHUNK_SIZE)
+          + " bytes and a capacity of at least one slab.");
+    }
+    if (capacity % slabSize != 0 || capacity / slabSize > Integer.MAX_VALUE) {
+      throw new CacheException("The capacity of OffHeapCache '" + id + "' (" + capacity
+          + " bytes) must be a multiple of its slabSize (" + slabSize + " bytes).");
+    }
+    List<Integer> sizes = new ArrayList<Integer>();
+    for (int size = MIN_CHUNK_SIZE; size < slabSize - SLAB_HEADER; size *= 2) {
+      sizes.add(size);
+    }
+    sizes.add(slabSize - SLAB_HEADER);
+    chunkSizes = new int[sizes.size()];
+    sizeClasses = new SizeClass[sizes.size()];
+    for (int i = 0; i < chunkSizes.length; i++) {
+      chunkSizes[i] = sizes.get(i);
+      sizeClasses[i] = new SizeClass();
+    }
+    slabs = new Slab[(int) (capacity / slabSize)];
+    for (int i = 0; i < slabs.length; i++) {
+      slabs[i] = new Slab(i);
+    }
+    if (file != null) {
+      openFile();
+    } else {
+      freeSlabs.addAll(Arrays.asList(slabs));
+    }
+    initialized = true;
+  }
+
+  private void openFile() {
+    File cacheFile = new File(file);
+    boolean recover = cacheFile.length() == capacity;
+    // 映射建立后不依赖于文件，关闭文件不影响映射的内存
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(cacheFile, "rw")) {
+      randomAccessFile.setLength(capacity);
+      FileChannel channel = randomAccessFile.getChannel();
+      for (Slab slab : slabs) {
+        slab.buffer = channel.map(FileChannel.MapMode.READ_WRITE, (long) slab.index * slabSize, slabSize);
+        int classIndex = recover ? getSizeClassIndex(slab.buffer.getInt(0)) : -1;
+        if (classIndex >= 0 && chunkSizes[classIndex] == slab.buffer.getInt(0)) {
+          recover(slab, classIndex);
+        } else {
+          slab.buffer.putInt(0, 0);
+          freeSlabs.add(slab);
+        }
+      }
+    } catch (IOException e) {
+      throw new CacheException("Could not map the file '" + file + "' of OffHeapCache '" + id + "'. Cause: " + e, e);
+    }
+  }
+
+  // 重新加载文件中保存的条目，无法读取的条目视为空闲
+  private void recover(Slab slab, int classIndex) {
+    SizeClass sizeClass = sizeClasses[classIndex];
+    slab.assign(classIndex, chunkSizes[classIndex], false);
+    sizeClass.slabs.add(slab);
+    for (int chunk = 0; chunk < slab.chunkCount; chunk++) {
+      int offset = slab.chunkOffset(chunk);
+      int keyLength = slab.buffer.getInt(offset);
+      int valueLength = slab.buffer.getInt(offset + 4);
+      Object key = null;
+      if (valueLength > 0 && keyLength > 0 && CHUNK_HEADER + keyLength + valueLength <= slab.chunkSize) {
+        try {
+          key = serializer.deserialize(read(slab.buffer, offset + CHUNK_HEADER, keyLength));
+        } catch (CacheException e) {
+          key = null;
+        }
+      }
+      if (key == null || entries.containsKey(key)) {
+        slab.buffer.putInt(offset + 4, 0);
+        slab.freeChunk(chunk);
+      } else {
+        slab.usedChunks++;
+        Entry entry = new Entry(key, slab, chunk);
+        entries.put(key, entry);
+        sizeClass.entries.put(key, entry);
+      }
+    }
+    if (slab.usedChunks == 0) {
+      sizeClass.slabs.remove(slab);
+      slab.release();
+      freeSlabs.add(slab);
+    } else if (slab.freeCount > 0) {
+      sizeClass.availableSlabs.add(slab);
+    }
+  }
+
+  private int getSizeClassIndex(int size) {
+    for (int i = 0; i < chunkSizes.length; i++) {
+      if (size <= chunkSizes[i]) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private Slab allocate(int classIndex) {
+    SizeClass sizeClass = sizeClasses[classIndex];
+    while (true) {
+      if (!sizeClass.availableSlabs.isEmpty()) {
+        return sizeClass.availableSlabs.iterator().next();
+      }
+      if (!freeSlabs.isEmpty()) {
+        Slab slab = freeSlabs.poll();
+        if (slab.buffer == null) {
+          slab.buffer = ByteBuffer.allocateDirect(slabSize);
+        }
+        slab.assign(classIndex, chunkSizes[classIndex], true);
+        sizeClass.slabs.add(slab);
+        sizeClass.availableSlabs.add(slab);
+        return slab;
+      }
+      // 优先淘汰相同大小中最近最少使用的条目，否则淘汰全局最早的条目直到有slab被释放
+      Iterator<Object> eldest = sizeClass.entries.isEmpty() ? null : sizeClass.entries.keySet().iterator();
+      if (eldest != null) {
+        remove(eldest.next());
+      } else if (!evictFromLargestSizeClass()) {
+        return null;
+      }
+    }
+  }
+
+  private boolean evictFromLargestSizeClass() {
+    SizeClass largest = null;
+    for (SizeClass sizeClass : sizeClasses) {
+      if (!sizeClass.slabs.isEmpty() && (largest == null || sizeClass.slabs.size() > largest.slabs.size())) {
+        largest = sizeClass;
+      }
+    }
+    if (largest == null) {
+      return false;
+    }
+    // 清空该大小使用最少的slab
+    Slab victim = null;
+    for (Slab slab : largest.slabs) {
+      if (victim == null || slab.usedChunks < victim.usedChunks) {
+        victim = slab;
+      }
+    }
+    List<Object> keys = new ArrayList<Object>();
+    for (Entry entry : largest.entries.values()) {
+      if (entry.slab == victim) {
+        keys.add(entry.key);
+      }
+    }
+    for (Object key : keys) {
+      remove(key);
+    }
+    return true;
+  }
+
+  private void remove(Object key) {
+    Entry entry = entries.remove(key);
+    if (entry == null) {
+      return;
+    }
+    hotValues.remove(key);
+    Slab slab = entry.slab;
+    SizeClass sizeClass = sizeClasses[slab.sizeClass];
+    sizeClass.entries.remove(key);
+    slab.buffer.putInt(slab.chunkOffset(entry.chunk) + 4, 0);
+    slab.freeChunk(entry.chunk);
+    slab.usedChunks--;
+    if (slab.usedChunks == 0) {
+      // 整个slab空闲时归还，可分配给其他大小
+      sizeClass.slabs.remove(slab);
+      sizeClass.availableSlabs.remove(slab);
+      slab.release();
+      freeSlabs.add(slab);
+    } else {
+      sizeClass.availableSlabs.add(slab);
+    }
+  }
+
+  private static void write(ByteBuffer buffer, int offset, byte[] bytes) {
+    buffer.position(offset);
+    buffer.put(bytes);
+  }
+
+  private static byte[] read(ByteBuffer buffer, int offset, int length) {
+    byte[] bytes = new byte[length];
+    buffer.position(offset);
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @param capacity the maximum number of bytes used by the entries, a multiple of the slab size, 64MB by default
+   */
+  public void setCapacity(long capacity) {
+    this.capacity = capacity;
+  }
+
+  public int getSlabSize() {
+    return slabSize;
+  }
+
+  /**
+   * @param slabSize the number of bytes allocated at once, also the maximum size of an entry, 1MB by default
+   */
+  public void setSlabSize(int slabSize) {
+    this.slabSize = slabSize;
+  }
+
+  public int getHotSize() {
+    return hotSize;
+  }
+
+  /**
+   * @param hotSize the number of frequently read values kept on the heap, 0 (the default) to disable
+   */
+  public void setHotSize(int hotSize) {
+    this.hotSize = hotSize;
+  }
+
+  public boolean isReadOnly() {
+    return readOnly;
+  }
+
+  /**
+   * @param readOnly true to share the values kept on the heap by {@code hotSize} instead of returning copies.
+   *                 The {@code readOnly} attribute of the cache element does not apply to custom caches.
+   */
+  public void setReadOnly(boolean readOnly) {
+    this.readOnly = readOnly;
+  }
+
+  public int getHotThreshold() {
+    return hotThreshold;
+  }
+
+  /**
+   * @param hotThreshold the number of reads after which a value is kept on the heap, 2 by default
+   */
+  public void setHotThreshold(int hotThreshold) {
+    this.hotThreshold = hotThreshold;
+  }
+
+  public String getFile() {
+    return file;
+  }
+
+  /**
+   * @param file the file to map the slabs from, null (the default) for direct memory
+   */
+  public void setFile(String file) {
+    this.file = file;
+  }
+
+  /**
+   * @param serializer the class name of a {@link CacheSerializer}, or {@code JDK_SERIALIZER} or {@code BINARY_SERIALIZER}
+   */
+  public void setSerializer(String serializer) {
+    if ("JDK_SERIALIZER".equalsIgnoreCase(serializer)) {
+      this.serializer = new JdkCacheSerializer();
+    } else if ("BINARY_SERIALIZER".equalsIgnoreCase(serializer)) {
+      this.serializer = new BinaryCacheSerializer();
+    } else {
+      try {
+        this.serializer = (CacheSerializer) Resources.classForName(serializer).newInstance();
+      } catch (Exception e) {
+        throw new CacheException("Could not instantiate cache serializer (" + serializer + "). Cause: " + e, e);
+      }
+    }
+  }
+
+  private class Slab {
+
+    private final int index;
+    private ByteBuffer buffer;
+    private int sizeClass = -1;
+    private int chunkSize;
+    private int chunkCount;
+    private int[] freeChunks;
+    private int freeCount;
+    private int usedChunks;
+
+    Slab(int index) {
+      this.index = index;
+    }
+
+    void assign(int sizeClass, int chunkSize, boolean empty) {
+      this.sizeClass = sizeClass;
+      this.chunkSize = chunkSize;
+      this.chunkCount = (slabSize - SLAB_HEADER) / chunkSize;
+      this.freeChunks = new int[chunkCount];
+      this.freeCount = 0;
+      this.usedChunks = 0;
+      buffer.putInt(0, chunkSize);
+      if (empty) {
+        // 倒序压栈，从第一个chunk开始分配
+        for (int chunk = chunkCount - 1; chunk >= 0; chunk--) {
+          buffer.putInt(chunkOffset(chunk) + 4, 0);
+          freeChunk(chunk);
+        }
+      }
+    }
+
+    void release() {
+      buffer.putInt(0, 0);
+      sizeClass = -1;
+      freeChunks = null;
+      freeCount = 0;
+      usedChunks = 0;
+    }
+
+    int chunkOffset(int chunk) {
+      return SLAB_HEADER + chunk * chunkSize;
+    }
+
+    int takeChunk() {
+      int chunk = freeChunks[--freeCount];
+      usedChunks++;
+      if (freeCount == 0) {
+        sizeClasses[sizeClass].availableSlabs.remove(this);
+      }
+      return chunk;
+    }
+
+    void freeChunk(int chunk) {
+      freeChunks[freeCount++] = chunk;
+    }
+  }
+
+  private static class SizeClass {
+
+    private final List<Slab> slabs = new ArrayList<Slab>();
+    // 有空闲chunk的slab
+    private final Set<Slab> availableSlabs = new LinkedHashSet<Slab>();
+    // 按访问顺序排列的条目，用于淘汰最近最少使用的条目
+    private final Map<Object, Entry> entries = new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+  }
+
+  private static class Entry {
+
+    private final Object key;
+    private final Slab slab;
+    private final int chunk;
+    private int hits;
+
+    Entry(Object key, Slab slab, int chunk) {
+      this.key = key;
+      this.slab = slab;
+      this.chunk = chunk;
+    }
+  }
+
+}
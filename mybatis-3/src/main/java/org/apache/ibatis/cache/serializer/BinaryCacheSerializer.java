@@ -0,0 +1,682 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.serializer;
+
+import java.io.Externalizable;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheSerializer;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.reflection.Reflector;
+
+/**
+ * A compact binary format for the usual results of queries, several times faster than Java serialization.
+ * <p>
+ * Strings, primitive wrappers, big numbers, dates, enums, arrays, {@code ArrayList}, {@code LinkedList},
+ * {@code HashSet}, {@code LinkedHashSet}, {@code HashMap}, {@code LinkedHashMap} and serializable beans with a
+ * default constructor are written directly. Beans are written as the values of their serializable fields,
+ * found once per class, and shared or circular references are kept. A bean is read back by calling its default
+ * constructor, then its transient fields are reset to their default values as Java serialization leaves them,
+ * but other side effects of the constructor remain.
+ * <p>
+ * A value holding anything else, like lazy loading proxies or classes with custom serialization methods, is
+ * entirely written with Java serialization, so that the references it shares are kept as well.
+ * <p>
+ * Values are written to a buffer reused by each thread, so only the final copy of the bytes is allocated.
+ *
+ * @since 3.5.0
+ */
+public class BinaryCacheSerializer implements CacheSerializer {
+
+  private static final byte NULL = 0;
+  private static final byte REFERENCE = 1;
+  private static final byte STRING = 2;
+  private static final byte INTEGER = 3;
+  private static final byte LONG = 4;
+  private static final byte SHORT = 5;
+  private static final byte BYTE = 6;
+  private static final byte BOOLEAN = 7;
+  private static final byte CHARACTER = 8;
+  private static final byte FLOAT = 9;
+  private static final byte DOUBLE = 10;
+  private static final byte BIG_DECIMAL = 11;
+  private static final byte BIG_INTEGER = 12;
+  private static final byte DATE = 13;
+  private static final byte SQL_DATE = 14;
+  private static final byte SQL_TIME = 15;
+  private static final byte SQL_TIMESTAMP = 16;
+  private static final byte ENUM = 17;
+  private static final byte BYTES = 18;
+  private static final byte ARRAY = 19;
+  private static final byte COLLECTION = 20;
+  private static final byte MAP = 21;
+  private static final byte OBJECT = 22;
+  private static final byte JDK = 23;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int INITIAL_BUFFER_SIZE = 1024;
+  // 超过该大小的缓冲区使用后不再保留，避免每个线程长期占用大块内存
+  private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+  private static final ThreadLocal<Output> OUTPUTS = new ThreadLocal<Output>();
+  // 每个类的序列化元数据，不能直接写入的类为UNSUPPORTED，保存在类中，不会阻止类加载器被回收
+  private static final ClassValue<ClassDescriptor> DESCRIPTORS = new ClassValue<ClassDescriptor>() {
+    @Override
+    protected ClassDescriptor computeValue(Class<?> type) {
+      return createDescriptor(type);
+    }
+  };
+  private static final ClassDescriptor UNSUPPORTED = new ClassDescriptor(null, new Field[0], new Field[0]);
+  private static final Map<String, Class<?>> PRIMITIVE_TYPES = new HashMap<String, Class<?>>();
+
+  static {
+    for (Class<?> type : Arrays.<Class<?>>asList(boolean.class, byte.class, char.class, short.class, int.class,
+        long.class, float.class, double.class)) {
+      PRIMITIVE_TYPES.put(type.getName(), type);
+    }
+  }
+
+  private final JdkCacheSerializer jdkSerializer = new JdkCacheSerializer();
+
+  @Override
+  public byte[] serialize(Object object) {
+    Output out = OUTPUTS.get();
+    if (out == null) {
+      out = new Output();
+      OUTPUTS.set(out);
+    }
+    try {
+      try {
+        new Writer(out).writeObject(object);
+      } catch (UnsupportedValueException e) {
+        // 部分写入Java序列化的对象与其他对象之间的共享引用无法保留
+        out.reset();
+        out.writeByte(JDK);
+        out.writeBytes(jdkSerializer.serialize(object));
+      }
+      return out.toByteArray();
+    } catch (CacheException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CacheException("Error serializing object.  Cause: " + e, e);
+    } finally {
+      out.reset();
+    }
+  }
+
+  @Override
+  public Object deserialize(byte[] bytes) {
+    try {
+      return new Reader(new Input(bytes)).readObject();
+    } catch (CacheException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CacheException("Error deserializing object.  Cause: " + e, e);
+    }
+  }
+
+  private static ClassDescriptor getDescriptor(Class<?> type) {
+    return DESCRIPTORS.get(type);
+  }
+
+  private static ClassDescriptor createDescriptor(Class<?> type) {
+    if (!Serializable.class.isAssignableFrom(type) || Externalizable.class.isAssignableFrom(type)
+        || Proxy.isProxyClass(type) || type.isArray() || type.isEnum() || !Reflector.canControlMemberAccessible()) {
+      return UNSUPPORTED;
+    }
+    List<Field> fields = new ArrayList<Field>();
+    List<Field> transientFields = new ArrayList<Field>();
+    // 与Java序列化一致，只写入可序列化的类中声明的非static、非transient字段
+    for (Class<?> c = type; c != null && Serializable.class.isAssignableFrom(c); c = c.getSuperclass()) {
+      if (hasCustomSerialization(c)) {
+        return UNSUPPORTED;
+      }
+      for (Field field : c.getDeclaredFields()) {
+        int modifiers = field.getModifiers();
+        if (Modifier.isStatic(modifiers)) {
+          continue;
+        }
+        if (Modifier.isTransient(modifiers)) {
+          transientFields.add(field);
+        } else {
+          fields.add(field);
+        }
+      }
+    }
+    try {
+      Constructor<?> constructor = type.getDeclaredConstructor();
+      constructor.setAccessible(true);
+      for (Field field : fields) {
+        field.setAccessible(true);
+      }
+      for (Field field : transientFields) {
+        field.setAccessible(true);
+      }
+      return new ClassDescriptor(constructor, fields.toArray(new Field[fields.size()]),
+          transientFields.toArray(new Field[transientFields.size()]));
+    } catch (NoSuchMethodException e) {
+      return UNSUPPORTED;
+    } catch (SecurityException e) {
+      return UNSUPPORTED;
+    }
+  }
+
+  private static boolean hasCustomSerialization(Class<?> type) {
+    if (hasDeclaredMethod(type, "writeReplace") || hasDeclaredMethod(type, "readResolve")
+        || hasDeclaredMethod(type, "writeObject", ObjectOutputStream.class)
+        || hasDeclaredMethod(type, "readObject", ObjectInputStream.class)
+        || hasDeclaredMethod(type, "readObjectNoData")) {
+      return true;
+    }
+    try {
+      type.getDeclaredField("serialPersistentFields");
+      return true;
+    } catch (NoSuchFieldException e) {
+      return false;
+    }
+  }
+
+  private static boolean hasDeclaredMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+    try {
+      type.getDeclaredMethod(name, parameterTypes);
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  private static boolean isEnum(Class<?> type) {
+    return type.isEnum() || (type.getSuperclass() != null && type.getSuperclass().isEnum());
+  }
+
+  private class Writer {
+
+    private final Output out;
+    // 已写入对象的编号，再次出现时只写入编号
+    private final Map<Object, Integer> handles = new IdentityHashMap<Object, Integer>();
+    private final Map<Class<?>, Integer> classIds = new HashMap<Class<?>, Integer>();
+
+    Writer(Output out) {
+      this.out = out;
+    }
+
+    void writeObject(Object value) throws Exception {
+      if (value == null) {
+        out.writeByte(NULL);
+        return;
+      }
+      Class<?> type = value.getClass();
+      if (type == String.class) {
+        out.writeByte(STRING);
+        out.writeString((String) value);
+      } else if (type == Integer.class) {
+        out.writeByte(INTEGER);
+        out.writeInt((Integer) value);
+      } else if (type == Long.class) {
+        out.writeByte(LONG);
+        out.writeLong((Long) value);
+      } else if (type == Short.class) {
+        out.writeByte(SHORT);
+        out.writeInt((Short) value);
+      } else if (type == Byte.class) {
+        out.writeByte(BYTE);
+        out.writeByte((Byte) value);
+      } else if (type == Boolean.class) {
+        out.writeByte(BOOLEAN);
+        out.writeByte((Boolean) value ? 1 : 0);
+      } else if (type == Character.class) {
+        out.writeByte(CHARACTER);
+        out.writeInt((Character) value);
+      } else if (type == Float.class) {
+        out.writeByte(FLOAT);
+        out.writeInt(Float.floatToIntBits((Float) value));
+      } else if (type == Double.class) {
+        out.writeByte(DOUBLE);
+        out.writeLong(Double.doubleToLongBits((Double) value));
+      } else if (type == BigDecimal.class) {
+        out.writeByte(BIG_DECIMAL);
+        out.writeInt(((BigDecimal) value).scale());
+        out.writeBytes(((BigDecimal) value).unscaledValue().toByteArray());
+      } else if (type == BigInteger.class) {
+        out.writeByte(BIG_INTEGER);
+        out.writeBytes(((BigInteger) value).toByteArray());
+      } else if (type == Date.class) {
+        out.writeByte(DATE);
+        out.writeLong(((Date) value).getTime());
+      } else if (type == java.sql.Date.class) {
+        out.writeByte(SQL_DATE);
+        out.writeLong(((Date) value).getTime());
+      } else if (type == Time.class) {
+        out.writeByte(SQL_TIME);
+        out.writeLong(((Date) value).getTime());
+      } else if (type == Timestamp.class) {
+        out.writeByte(SQL_TIMESTAMP);
+        out.writeLong(((Timestamp) value).getTime());
+        out.writeInt(((Timestamp) value).getNanos());
+      } else if (isEnum(type)) {
+        out.writeByte(ENUM);
+        writeClass(((Enum<?>) value).getDeclaringClass());
+        out.writeString(((Enum<?>) value).name());
+      } else {
+        Integer handle = handles.get(value);
+        if (handle != null) {
+          out.writeByte(REFERENCE);
+          out.writeInt(handle);
+          return;
+        }
+        handles.put(value, handles.size());
+        writeReferenceable(value, type);
+      }
+    }
+
+    private void writeReferenceable(Object value, Class<?> type) throws Exception {
+      if (type == byte[].class) {
+        out.writeByte(BYTES);
+        out.writeBytes((byte[]) value);
+      } else if (type.isArray()) {
+        Class<?> componentType = type.getComponentType();
+        int length = Array.getLength(value);
+        out.writeByte(ARRAY);
+        writeClass(componentType);
+        out.writeInt(length);
+        for (int i = 0; i < length; i++) {
+          writeValue(componentType, Array.get(value, i));
+        }
+      } else if (type == ArrayList.class || type == LinkedList.class || type == HashSet.class || type == LinkedHashSet.class) {
+        Collection<?> collection = (Collection<?>) value;
+        out.writeByte(COLLECTION);
+        writeClass(type);
+        out.writeInt(collection.size());
+        for (Object element : collection) {
+          writeObject(element);
+        }
+      } else if (type == HashMap.class || type == LinkedHashMap.class) {
+        Map<?, ?> map = (Map<?, ?>) value;
+        out.writeByte(MAP);
+        writeClass(type);
+        out.writeInt(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+          writeObject(entry.getKey());
+          writeObject(entry.getValue());
+        }
+      } else {
+        ClassDescriptor descriptor = getDescriptor(type);
+        if (descriptor == UNSUPPORTED) {
+          throw new UnsupportedValueException();
+        } else {
+          out.writeByte(OBJECT);
+          writeClass(type);
+          for (Field field : descriptor.fields) {
+            writeValue(field.getType(), field.get(value));
+          }
+        }
+      }
+    }
+
+    private void writeValue(Class<?> type, Object value) throws Exception {
+      if (!type.isPrimitive()) {
+        writeObject(value);
+      } else if (type == int.class) {
+        out.writeInt((Integer) value);
+      } else if (type == long.class) {
+        out.writeLong((Long) value);
+      } else if (type == boolean.class) {
+        out.writeByte((Boolean) value ? 1 : 0);
+      } else if (type == double.class) {
+        out.writeLong(Double.doubleToLongBits((Double) value));
+      } else if (type == float.class) {
+        out.writeInt(Float.floatToIntBits((Float) value));
+      } else if (type == short.class) {
+        out.writeInt((Short) value);
+      } else if (type == byte.class) {
+        out.writeByte((Byte) value);
+      } else {
+        out.writeInt((Character) value);
+      }
+    }
+
+    private void writeClass(Class<?> type) {
+      Integer id = classIds.get(type);
+      if (id != null) {
+        out.writeInt(id);
+      } else {
+        classIds.put(type, classIds.size());
+        out.writeInt(-1);
+        out.writeString(type.getName());
+      }
+    }
+  }
+
+  private class Reader {
+
+    private final Input in;
+    private final List<Object> objects = new ArrayList<Object>();
+    private final List<Class<?>> classes = new ArrayList<Class<?>>();
+
+    Reader(Input in) {
+      this.in = in;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    Object readObject() throws Exception {
+      byte tag = in.readByte();
+      switch (tag) {
+        case NULL:
+          return null;
+        case REFERENCE:
+          return objects.get(in.readInt());
+        case STRING:
+          return in.readString();
+        case INTEGER:
+          return in.readInt();
+        case LONG:
+          return in.readLong();
+        case SHORT:
+          return (short) in.readInt();
+        case BYTE:
+          return in.readByte();
+        case BOOLEAN:
+          return in.readByte() != 0;
+        case CHARACTER:
+          return (char) in.readInt();
+        case FLOAT:
+          return Float.intBitsToFloat(in.readInt());
+        case DOUBLE:
+          return Double.longBitsToDouble(in.readLong());
+        case BIG_DECIMAL: {
+          int scale = in.readInt();
+          return new BigDecimal(new BigInteger(in.readBytes()), scale);
+        }
+        case BIG_INTEGER:
+          return new BigInteger(in.readBytes());
+        case DATE:
+          return new Date(in.readLong());
+        case SQL_DATE:
+          return new java.sql.Date(in.readLong());
+        case SQL_TIME:
+          return new Time(in.readLong());
+        case SQL_TIMESTAMP: {
+          Timestamp timestamp = new Timestamp(in.readLong());
+          timestamp.setNanos(in.readInt());
+          return timestamp;
+        }
+        case ENUM: {
+          Class enumType = readClass();
+          return Enum.valueOf(enumType, in.readString());
+        }
+        case BYTES: {
+          byte[] bytes = in.readBytes();
+          objects.add(bytes);
+          return bytes;
+        }
+        case ARRAY: {
+          Class<?> componentType = readClass();
+          int length = in.readInt();
+          Object array = Array.newInstance(componentType, length);
+          objects.add(array);
+          for (int i = 0; i < length; i++) {
+            Array.set(array, i, readValue(componentType));
+          }
+          return array;
+        }
+        case COLLECTION: {
+          Class<?> type = readClass();
+          int size = in.readInt();
+          Collection<Object> collection = newCollection(type, size);
+          objects.add(collection);
+          for (int i = 0; i < size; i++) {
+            collection.add(readObject());
+          }
+          return collection;
+        }
+        case MAP: {
+          Class<?> type = readClass();
+          int size = in.readInt();
+          Map<Object, Object> map = type == LinkedHashMap.class
+              ? new LinkedHashMap<Object, Object>(capacity(size)) : new HashMap<Object, Object>(capacity(size));
+          objects.add(map);
+          for (int i = 0; i < size; i++) {
+            Object key = readObject();
+            map.put(key, readObject());
+          }
+          return map;
+        }
+        case OBJECT: {
+          Class<?> type = readClass();
+          ClassDescriptor descriptor = getDescriptor(type);
+          if (descriptor == UNSUPPORTED) {
+            throw new CacheException("Class " + type.getName() + " cannot be read by the binary cache serializer.");
+          }
+          Object object = descriptor.constructor.newInstance();
+          objects.add(object);
+          // Java序列化不调用可序列化类的构造方法，transient字段为默认值而不是字段初始值
+          for (int i = 0; i < descriptor.transientFields.length; i++) {
+            descriptor.transientFields[i].set(object, descriptor.transientDefaults[i]);
+          }
+          for (Field field : descriptor.fields) {
+            field.set(object, readValue(field.getType()));
+          }
+          return object;
+        }
+        case JDK:
+          // 只出现在最外层
+          return jdkSerializer.deserialize(in.readBytes());
+        default:
+          throw new CacheException("Unknown tag " + tag + " in binary cache value.");
+      }
+    }
+
+    private Object readValue(Class<?> type) throws Exception {
+      if (!type.isPrimitive()) {
+        return readObject();
+      } else if (type == int.class) {
+        return in.readInt();
+      } else if (type == long.class) {
+        return in.readLong();
+      } else if (type == boolean.class) {
+        return in.readByte() != 0;
+      } else if (type == double.class) {
+        return Double.longBitsToDouble(in.readLong());
+      } else if (type == float.class) {
+        return Float.intBitsToFloat(in.readInt());
+      } else if (type == short.class) {
+        return (short) in.readInt();
+      } else if (type == byte.class) {
+        return in.readByte();
+      } else {
+        return (char) in.readInt();
+      }
+    }
+
+    private Collection<Object> newCollection(Class<?> type, int size) {
+      if (type == ArrayList.class) {
+        return new ArrayList<Object>(size);
+      } else if (type == LinkedList.class) {
+        return new LinkedList<Object>();
+      } else if (type == HashSet.class) {
+        return new HashSet<Object>(capacity(size));
+      } else {
+        return new LinkedHashSet<Object>(capacity(size));
+      }
+    }
+
+    private int capacity(int size) {
+      return Math.max((int) (size / .75f) + 1, 16);
+    }
+
+    private Class<?> readClass() throws ClassNotFoundException {
+      int id = in.readInt();
+      if (id >= 0) {
+        return classes.get(id);
+      }
+      String name = in.readString();
+      Class<?> type = PRIMITIVE_TYPES.get(name);
+      if (type == null) {
+        type = Resources.classForName(name);
+      }
+      classes.add(type);
+      return type;
+    }
+  }
+
+  private static class ClassDescriptor {
+
+    private final Constructor<?> constructor;
+    private final Field[] fields;
+    private final Field[] transientFields;
+    private final Object[] transientDefaults;
+
+    ClassDescriptor(Constructor<?> constructor, Field[] fields, Field[] transientFields) {
+      this.constructor = constructor;
+      this.fields = fields;
+      this.transientFields = transientFields;
+      this.transientDefaults = new Object[transientFields.length];
+      for (int i = 0; i < transientFields.length; i++) {
+        Class<?> type = transientFields[i].getType();
+        // 基本类型字段的默认值0或false
+        transientDefaults[i] = type.isPrimitive() ? Array.get(Array.newInstance(type, 1), 0) : null;
+      }
+    }
+  }
+
+  /**
+   * Thrown when the value holds an object that must be written with Java serialization.
+   */
+  private static class UnsupportedValueException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    UnsupportedValueException() {
+      super(null, null, false, false);
+    }
+  }
+
+  private static class Output {
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int count;
+
+    void writeByte(int value) {
+      ensureCapacity(1);
+      buffer[count++] = (byte) value;
+    }
+
+    void writeInt(int value) {
+      ensureCapacity(4);
+      buffer[count++] = (byte) (value >>> 24);
+      buffer[count++] = (byte) (value >>> 16);
+      buffer[count++] = (byte) (value >>> 8);
+      buffer[count++] = (byte) value;
+    }
+
+    void writeLong(long value) {
+      writeInt((int) (value >>> 32));
+      writeInt((int) value);
+    }
+
+    void writeBytes(byte[] bytes) {
+      writeInt(bytes.length);
+      ensureCapacity(bytes.length);
+      System.arraycopy(bytes, 0, buffer, count, bytes.length);
+      count += bytes.length;
+    }
+
+    void writeString(String value) {
+      writeBytes(value.getBytes(UTF_8));
+    }
+
+    private void ensureCapacity(int length) {
+      if (count + length > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + length));
+      }
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buffer, count);
+    }
+
+    void reset() {
+      count = 0;
+      if (buffer.length > MAX_POOLED_BUFFER_SIZE) {
+        buffer = new byte[INITIAL_BUFFER_SIZE];
+      }
+    }
+  }
+
+  private static class Input {
+
+    private final byte[] buffer;
+    private int position;
+
+    Input(byte[] buffer) {
+      this.buffer = buffer;
+    }
+
+    byte readByte() {
+      return buffer[position++];
+    }
+
+    int readInt() {
+      int value = ((buffer[position] & 0xFF) << 24) | ((buffer[position + 1] & 0xFF) << 16)
+          | ((buffer[position + 2] & 0xFF) << 8) | (buffer[position + 3] & 0xFF);
+      position += 4;
+      return value;
+    }
+
+    long readLong() {
+      return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+    }
+
+    byte[] readBytes() {
+      int length = readInt();
+      byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+      position += length;
+      return bytes;
+    }
+
+    String readString() {
+      int length = readInt();
+      String value = new String(buffer, position, length, UTF_8);
+      position += length;
+      return value;
+    }
+  }
+
+}
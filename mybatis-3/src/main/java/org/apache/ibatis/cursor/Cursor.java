@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2015 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -20,7 +20,10 @@ import java.io.Closeable;
 /**
  * Cursor contract to handle fetching items lazily using an Iterator.
  * Cursors are a perfect fit to handle millions of items queries that would not normally fits in memory.
- * Cursor SQL queries must be ordered (resultOrdered="true") using the id columns of the resultMap.
+ * Cursor SQL queries must be ordered using the id columns of the resultMap.
+ * Nested result maps are always streamed as if resultOrdered="true" was set: each item is returned once a row with
+ * another id is read, and its nested objects are released at that point.
+ * Rows are only read from the database while the iterator is advanced, so a slow consumer never causes buffering.
  *
  * @author Guillaume Darmont / guillaume@dropinocean.com
  */
@@ -0,0 +1,202 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock free collection of pooled entries.
+ * <p>
+ * Borrowing first looks at the entries recently returned by the calling thread, then scans the shared list and
+ * finally waits on a fair handoff queue, so returning threads wake up waiters one at a time in arrival order.
+ * Entries are claimed with a compare-and-set on their state, which means a borrowed entry must always be
+ * given back with {@link #requite(Entry)} or removed with {@link #remove(Entry)}.
+ *
+ * @param <T> the entry type
+ */
+class ConcurrentBag<T extends ConcurrentBag.Entry> {
+
+  static final int STATE_REMOVED = -1;
+  static final int STATE_NOT_IN_USE = 0;
+  static final int STATE_IN_USE = 1;
+
+  private static final int MAX_THREAD_LOCAL_ENTRIES = 16;
+
+  private final CopyOnWriteArrayList<T> sharedList = new CopyOnWriteArrayList<T>();
+  private final ThreadLocal<List<WeakReference<T>>> threadList = new ThreadLocal<List<WeakReference<T>>>() {
+    @Override
+    protected List<WeakReference<T>> initialValue() {
+      return new ArrayList<WeakReference<T>>(MAX_THREAD_LOCAL_ENTRIES);
+    }
+  };
+  private final AtomicInteger waiters = new AtomicInteger();
+  private final SynchronousQueue<T> handoffQueue = new SynchronousQueue<T>(true);
+
+  /*
+   * Borrows an entry from the bag, waiting at most the given time for one to be returned.
+   *
+   * @param timeout how long to wait, zero or less to return immediately
+   * @param unit the unit of the timeout
+   * @return a borrowed entry or null if none became available in time
+   * @throws InterruptedException if interrupted while waiting
+   */
+  T borrow(long timeout, TimeUnit unit) throws InterruptedException {
+    List<WeakReference<T>> list = threadList.get();
+    for (int i = list.size() - 1; i >= 0; i--) {
+      T entry = list.remove(i).get();
+      if (entry != null && entry.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) {
+        return entry;
+      }
+    }
+
+    waiters.incrementAndGet();
+    try {
+      for (T entry : sharedList) {
+        if (entry.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) {
+          return entry;
+        }
+      }
+
+      long remaining = unit.toNanos(timeout);
+      while (remaining > 0) {
+        long start = System.nanoTime();
+        T entry = handoffQueue.poll(remaining, TimeUnit.NANOSECONDS);
+        if (entry == null || entry.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) {
+          return entry;
+        }
+        remaining -= System.nanoTime() - start;
+      }
+      return null;
+    } finally {
+      waiters.decrementAndGet();
+    }
+  }
+
+  /*
+   * Gives a borrowed entry back to the bag, handing it directly to a waiting thread if there is one.
+   * Entries removed while they were borrowed are ignored.
+   *
+   * @param entry the entry to return
+   */
+  void requite(T entry) {
+    if (!entry.compareAndSetState(STATE_IN_USE, STATE_NOT_IN_USE)) {
+      // removed while it was borrowed
+      return;
+    }
+
+    for (int i = 0; waiters.get() > 0; i++) {
+      if (entry.getState() != STATE_NOT_IN_USE || handoffQueue.offer(entry)) {
+        return;
+      } else if ((i & 0xff) == 0xff) {
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+      } else {
+        Thread.yield();
+      }
+    }
+
+    List<WeakReference<T>> list = threadList.get();
+    if (list.size() < MAX_THREAD_LOCAL_ENTRIES) {
+      list.add(new WeakReference<T>(entry));
+    }
+  }
+
+  /*
+   * Adds a new entry to the bag. The entry keeps the state it was created with, so a caller
+   * that wants to use it right away can add it as in use.
+   *
+   * @param entry the entry to add
+   */
+  void add(T entry) {
+    sharedList.add(entry);
+
+    // spin until a waiter takes the entry or nobody is waiting any more
+    while (waiters.get() > 0 && entry.getState() == STATE_NOT_IN_USE && !handoffQueue.offer(entry)) {
+      Thread.yield();
+    }
+  }
+
+  /*
+   * Removes an entry from the bag for good.
+   *
+   * @param entry the entry to remove
+   * @return true if the entry was still part of the bag
+   */
+  boolean remove(T entry) {
+    entry.setState(STATE_REMOVED);
+    return sharedList.remove(entry);
+  }
+
+  /*
+   * Returns a snapshot of the entries currently in the given state.
+   *
+   * @param state the state to look for
+   * @return the matching entries
+   */
+  List<T> values(int state) {
+    List<T> list = new ArrayList<T>();
+    for (T entry : sharedList) {
+      if (entry.getState() == state) {
+        list.add(entry);
+      }
+    }
+    return list;
+  }
+
+  /*
+   * Returns a snapshot of all the entries in the bag.
+   *
+   * @return the entries
+   */
+  List<T> values() {
+    return new ArrayList<T>(sharedList);
+  }
+
+  int getCount(int state) {
+    int count = 0;
+    for (T entry : sharedList) {
+      if (entry.getState() == state) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  int size() {
+    return sharedList.size();
+  }
+
+  int getWaitingThreadCount() {
+    return waiters.get();
+  }
+
+  interface Entry {
+
+    int getState();
+
+    void setState(int state);
+
+    boolean compareAndSetState(int expect, int update);
+
+  }
+
+}
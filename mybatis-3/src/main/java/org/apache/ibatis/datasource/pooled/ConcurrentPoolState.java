@@ -0,0 +1,108 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool statistics of a {@link ConcurrentPooledDataSource}.
+ * <p>
+ * Counters are striped so that updating them never makes borrowing threads contend, and
+ * the getters do not lock. The connection lists inherited from {@link PoolState} are not used,
+ * the idle and active counts are read from the pool itself.
+ */
+public class ConcurrentPoolState extends PoolState {
+
+  protected final LongAdder requestCounter = new LongAdder();
+  protected final LongAdder accumulatedRequestTimeCounter = new LongAdder();
+  protected final LongAdder accumulatedCheckoutTimeCounter = new LongAdder();
+  protected final LongAdder claimedOverdueConnectionCounter = new LongAdder();
+  protected final LongAdder accumulatedCheckoutTimeOfOverdueConnectionsCounter = new LongAdder();
+  protected final LongAdder accumulatedWaitTimeCounter = new LongAdder();
+  protected final LongAdder hadToWaitCounter = new LongAdder();
+  protected final LongAdder badConnectionCounter = new LongAdder();
+
+  private final ConcurrentPooledDataSource concurrentDataSource;
+
+  public ConcurrentPoolState(ConcurrentPooledDataSource dataSource) {
+    super(dataSource);
+    this.concurrentDataSource = dataSource;
+  }
+
+  @Override
+  public long getRequestCount() {
+    return requestCounter.sum();
+  }
+
+  @Override
+  public long getAverageRequestTime() {
+    long requests = requestCounter.sum();
+    return requests == 0 ? 0 : accumulatedRequestTimeCounter.sum() / requests;
+  }
+
+  @Override
+  public long getAverageWaitTime() {
+    long waits = hadToWaitCounter.sum();
+    return waits == 0 ? 0 : accumulatedWaitTimeCounter.sum() / waits;
+  }
+
+  @Override
+  public long getHadToWaitCount() {
+    return hadToWaitCounter.sum();
+  }
+
+  @Override
+  public long getBadConnectionCount() {
+    return badConnectionCounter.sum();
+  }
+
+  @Override
+  public long getClaimedOverdueConnectionCount() {
+    return claimedOverdueConnectionCounter.sum();
+  }
+
+  @Override
+  public long getAverageOverdueCheckoutTime() {
+    long claimed = claimedOverdueConnectionCounter.sum();
+    return claimed == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnectionsCounter.sum() / claimed;
+  }
+
+  @Override
+  public long getAverageCheckoutTime() {
+    long requests = requestCounter.sum();
+    return requests == 0 ? 0 : accumulatedCheckoutTimeCounter.sum() / requests;
+  }
+
+  @Override
+  public int getIdleConnectionCount() {
+    return concurrentDataSource.getIdleConnectionCount();
+  }
+
+  @Override
+  public int getActiveConnectionCount() {
+    return concurrentDataSource.getActiveConnectionCount();
+  }
+
+  /*
+   * The number of threads currently waiting for a connection
+   *
+   * @return the number of waiting threads
+   */
+  public int getWaitingThreadCount() {
+    return concurrentDataSource.getWaitingThreadCount();
+  }
+
+}
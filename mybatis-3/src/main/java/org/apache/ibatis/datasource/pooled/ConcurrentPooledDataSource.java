@@ -0,0 +1,356 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * A thread-safe database connection pool that does not serialize checkouts on a single monitor.
+ * <p>
+ * Connections are kept in a {@link ConcurrentBag}: a thread first tries the connections it returned
+ * recently, then any idle connection, and only when the pool is exhausted it waits on a fair handoff
+ * queue so that returned connections are given to waiters one at a time. It accepts the same
+ * properties as {@link PooledDataSource}.
+ */
+public class ConcurrentPooledDataSource extends PooledDataSource {
+
+  private static final Log log = LogFactory.getLog(ConcurrentPooledDataSource.class);
+
+  private final ConcurrentPoolState state = new ConcurrentPoolState(this);
+
+  private final ConcurrentBag<PoolEntry> bag = new ConcurrentBag<PoolEntry>();
+
+  private final AtomicInteger totalConnections = new AtomicInteger();
+
+  public ConcurrentPooledDataSource() {
+    super();
+  }
+
+  public ConcurrentPooledDataSource(UnpooledDataSource dataSource) {
+    super(dataSource);
+  }
+
+  public ConcurrentPooledDataSource(String driver, String url, String username, String password) {
+    super(driver, url, username, password);
+  }
+
+  public ConcurrentPooledDataSource(String driver, String url, Properties driverProperties) {
+    super(driver, url, driverProperties);
+  }
+
+  public ConcurrentPooledDataSource(ClassLoader driverClassLoader, String driver, String url, String username, String password) {
+    super(driverClassLoader, driver, url, username, password);
+  }
+
+  public ConcurrentPooledDataSource(ClassLoader driverClassLoader, String driver, String url, Properties driverProperties) {
+    super(driverClassLoader, driver, url, driverProperties);
+  }
+
+  @Override
+  public PoolState getPoolState() {
+    return state;
+  }
+
+  /*
+   * Closes all active and idle connections in the pool
+   */
+  @Override
+  public void forceCloseAll() {
+    super.forceCloseAll();
+    for (PoolEntry entry : bag.values()) {
+      PooledConnection owner = entry.getOwner();
+      if (owner != null) {
+        owner.invalidate();
+      }
+      closeEntry(entry);
+    }
+  }
+
+  @Override
+  protected void pushConnection(PooledConnection conn) throws SQLException {
+    PoolEntry entry = conn.getPoolEntry();
+    if (entry == null || !entry.compareAndSetOwner(conn, null)) {
+      // already returned, claimed as overdue or closed by forceCloseAll
+      conn.invalidate();
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+      }
+      state.badConnectionCounter.increment();
+      return;
+    }
+
+    state.accumulatedCheckoutTimeCounter.add(conn.getCheckoutTime());
+    if (conn.isValid()) {
+      if (!conn.getRealConnection().getAutoCommit()) {
+        conn.getRealConnection().rollback();
+      }
+      conn.invalidate();
+      if (conn.getConnectionTypeCode() == getExpectedConnectionTypeCode() && !isExpired(conn)
+          && bag.getCount(ConcurrentBag.STATE_NOT_IN_USE) < poolMaximumIdleConnections) {
+        entry.setLastUsedTimestamp(conn.getLastUsedTimestamp());
+        bag.requite(entry);
+        if (log.isDebugEnabled()) {
+          log.debug("Returned connection " + conn.getRealHashCode() + " to pool.");
+        }
+      } else {
+        closeEntry(entry);
+        if (log.isDebugEnabled()) {
+          log.debug("Closed connection " + conn.getRealHashCode() + ".");
+        }
+      }
+    } else {
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+      }
+      state.badConnectionCounter.increment();
+      closeEntry(entry);
+    }
+  }
+
+  @Override
+  protected PooledConnection popConnection(String username, String password) throws SQLException {
+    boolean countedWait = false;
+    long t = System.currentTimeMillis();
+    int localBadConnectionCount = 0;
+
+    while (true) {
+      PooledConnection conn = null;
+      PoolEntry entry = borrowEntry(0);
+      if (entry == null) {
+        entry = createEntry();
+      }
+      if (entry != null) {
+        conn = checkout(entry);
+      } else {
+        conn = claimOverdueConnection();
+      }
+
+      if (conn == null) {
+        // Must wait
+        if (!countedWait) {
+          state.hadToWaitCounter.increment();
+          countedWait = true;
+        }
+        if (log.isDebugEnabled()) {
+          log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
+        }
+        long wt = System.currentTimeMillis();
+        entry = borrowEntry(poolTimeToWait);
+        state.accumulatedWaitTimeCounter.add(System.currentTimeMillis() - wt);
+        if (entry == null) {
+          continue;
+        }
+        conn = checkout(entry);
+      }
+
+      // ping to server and check the connection is valid or not
+      if (conn.isValid()) {
+        if (!conn.getRealConnection().getAutoCommit()) {
+          conn.getRealConnection().rollback();
+        }
+        conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
+        conn.setCheckoutTimestamp(System.currentTimeMillis());
+        conn.setLastUsedTimestamp(System.currentTimeMillis());
+        state.requestCounter.increment();
+        state.accumulatedRequestTimeCounter.add(System.currentTimeMillis() - t);
+        return conn;
+      }
+
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
+      }
+      conn.invalidate();
+      if (conn.getPoolEntry().compareAndSetOwner(conn, null)) {
+        closeEntry(conn.getPoolEntry());
+      }
+      state.badConnectionCounter.increment();
+      localBadConnectionCount++;
+      if (localBadConnectionCount > (poolMaximumIdleConnections + poolMaximumLocalBadConnectionTolerance)) {
+        if (log.isDebugEnabled()) {
+          log.debug("ConcurrentPooledDataSource: Could not get a good connection to the database.");
+        }
+        throw new SQLException("ConcurrentPooledDataSource: Could not get a good connection to the database.");
+      }
+    }
+  }
+
+  @Override
+  protected void housekeep() throws SQLException {
+    for (PoolEntry entry : bag.values(ConcurrentBag.STATE_NOT_IN_USE)) {
+      PooledConnection conn = newPooledConnection(entry);
+      boolean expired = isExpired(conn);
+      if (!expired && conn.getTimeElapsedSinceLastUse() <= poolPingConnectionsNotUsedFor) {
+        continue;
+      }
+      if (!entry.compareAndSetState(ConcurrentBag.STATE_NOT_IN_USE, ConcurrentBag.STATE_IN_USE)) {
+        // borrowed in the meantime
+        continue;
+      }
+      if (expired) {
+        if (log.isDebugEnabled()) {
+          log.debug("Retired connection " + entry.getRealHashCode() + " after " + poolMaximumLifetime + " milliseconds.");
+        }
+        closeEntry(entry);
+      } else if (pingConnection(conn)) {
+        bag.requite(entry);
+      } else {
+        state.badConnectionCounter.increment();
+        closeEntry(entry);
+      }
+    }
+
+    int missingConnections = Math.min(poolMinimumIdleConnections, poolMaximumIdleConnections) - getIdleConnectionCount();
+    for (int i = 0; i < missingConnections; i++) {
+      PoolEntry entry = createEntry();
+      if (entry == null) {
+        break;
+      }
+      // interrupted when forceCloseAll stopped the housekeeper
+      if (Thread.currentThread().isInterrupted()) {
+        closeEntry(entry);
+        break;
+      }
+      bag.requite(entry);
+    }
+  }
+
+  int getIdleConnectionCount() {
+    return bag.getCount(ConcurrentBag.STATE_NOT_IN_USE);
+  }
+
+  int getActiveConnectionCount() {
+    return bag.getCount(ConcurrentBag.STATE_IN_USE);
+  }
+
+  int getWaitingThreadCount() {
+    return bag.getWaitingThreadCount();
+  }
+
+  private PoolEntry borrowEntry(long timeout) throws SQLException {
+    try {
+      PoolEntry entry = bag.borrow(timeout, TimeUnit.MILLISECONDS);
+      if (entry != null && log.isDebugEnabled()) {
+        log.debug("Checked out connection " + entry.getRealHashCode() + " from pool.");
+      }
+      return entry;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("ConcurrentPooledDataSource: Interrupted while waiting for a connection.", e);
+    }
+  }
+
+  private PoolEntry createEntry() throws SQLException {
+    int total;
+    do {
+      total = totalConnections.get();
+      if (total >= poolMaximumActiveConnections) {
+        return null;
+      }
+    } while (!totalConnections.compareAndSet(total, total + 1));
+
+    boolean created = false;
+    try {
+      PoolEntry entry = new PoolEntry(dataSource.getConnection(), newStatementCache());
+      bag.add(entry);
+      created = true;
+      if (log.isDebugEnabled()) {
+        log.debug("Created connection " + entry.getRealHashCode() + ".");
+      }
+      return entry;
+    } finally {
+      if (!created) {
+        totalConnections.decrementAndGet();
+      }
+    }
+  }
+
+  private PooledConnection claimOverdueConnection() {
+    PooledConnection oldestActiveConnection = null;
+    long longestCheckoutTime = 0;
+    for (PoolEntry entry : bag.values(ConcurrentBag.STATE_IN_USE)) {
+      PooledConnection owner = entry.getOwner();
+      if (owner != null && owner.getCheckoutTime() > longestCheckoutTime) {
+        oldestActiveConnection = owner;
+        longestCheckoutTime = owner.getCheckoutTime();
+      }
+    }
+    if (oldestActiveConnection == null || longestCheckoutTime <= poolMaximumCheckoutTime) {
+      return null;
+    }
+
+    PoolEntry entry = oldestActiveConnection.getPoolEntry();
+    PooledConnection conn = newPooledConnection(entry);
+    if (!entry.compareAndSetOwner(oldestActiveConnection, conn)) {
+      // returned or claimed by another thread in the meantime
+      return null;
+    }
+    oldestActiveConnection.invalidate();
+    state.claimedOverdueConnectionCounter.increment();
+    state.accumulatedCheckoutTimeOfOverdueConnectionsCounter.add(longestCheckoutTime);
+    state.accumulatedCheckoutTimeCounter.add(longestCheckoutTime);
+    try {
+      if (!conn.getRealConnection().getAutoCommit()) {
+        conn.getRealConnection().rollback();
+      }
+    } catch (SQLException e) {
+      // the connection is validated before it is handed out, see PooledDataSource#popConnection
+      log.debug("Bad connection. Could not roll back");
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
+    }
+    return conn;
+  }
+
+  private PooledConnection checkout(PoolEntry entry) {
+    PooledConnection conn = newPooledConnection(entry);
+    entry.compareAndSetOwner(null, conn);
+    return conn;
+  }
+
+  private PooledConnection newPooledConnection(PoolEntry entry) {
+    PooledConnection conn = new PooledConnection(entry.getRealConnection(), this, entry.getStatementCache());
+    conn.setPoolEntry(entry);
+    conn.setCreatedTimestamp(entry.getCreatedTimestamp());
+    conn.setLastUsedTimestamp(entry.getLastUsedTimestamp());
+    conn.setCheckoutTimestamp(System.currentTimeMillis());
+    return conn;
+  }
+
+  private void closeEntry(PoolEntry entry) {
+    if (bag.remove(entry)) {
+      totalConnections.decrementAndGet();
+    }
+    try {
+      Connection realConn = entry.getRealConnection();
+      if (!realConn.getAutoCommit()) {
+        realConn.rollback();
+      }
+      realConn.close();
+    } catch (Exception e) {
+      // ignore
+    }
+  }
+
+}
@@ -0,0 +1,92 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A physical connection kept in a {@link ConcurrentBag}.
+ * <p>
+ * The entry outlives the {@link PooledConnection} handed out on every checkout. The current handle is
+ * tracked as the owner so that a stale handle (closed twice, or claimed as overdue) can never give the
+ * entry back on behalf of the thread that is actually using it.
+ */
+class PoolEntry implements ConcurrentBag.Entry {
+
+  private final Connection realConnection;
+  private final AtomicInteger state = new AtomicInteger(ConcurrentBag.STATE_IN_USE);
+  private final AtomicReference<PooledConnection> owner = new AtomicReference<PooledConnection>();
+  private final long createdTimestamp;
+  private volatile long lastUsedTimestamp;
+  private final PreparedStatementCache statementCache;
+
+  public PoolEntry(Connection realConnection, PreparedStatementCache statementCache) {
+    this.realConnection = realConnection;
+    this.statementCache = statementCache;
+    this.createdTimestamp = System.currentTimeMillis();
+    this.lastUsedTimestamp = createdTimestamp;
+  }
+
+  public Connection getRealConnection() {
+    return realConnection;
+  }
+
+  public PreparedStatementCache getStatementCache() {
+    return statementCache;
+  }
+
+  public int getRealHashCode() {
+    return realConnection.hashCode();
+  }
+
+  @Override
+  public int getState() {
+    return state.get();
+  }
+
+  @Override
+  public void setState(int state) {
+    this.state.set(state);
+  }
+
+  @Override
+  public boolean compareAndSetState(int expect, int update) {
+    return state.compareAndSet(expect, update);
+  }
+
+  public PooledConnection getOwner() {
+    return owner.get();
+  }
+
+  public boolean compareAndSetOwner(PooledConnection expect, PooledConnection update) {
+    return owner.compareAndSet(expect, update);
+  }
+
+  public long getCreatedTimestamp() {
+    return createdTimestamp;
+  }
+
+  public long getLastUsedTimestamp() {
+    return lastUsedTimestamp;
+  }
+
+  public void setLastUsedTimestamp(long lastUsedTimestamp) {
+    this.lastUsedTimestamp = lastUsedTimestamp;
+  }
+
+}
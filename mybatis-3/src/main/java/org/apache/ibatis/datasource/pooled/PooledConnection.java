@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -21,6 +21,7 @@ import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
 
+import org.apache.ibatis.metrics.MetricsCollector;
 import org.apache.ibatis.reflection.ExceptionUtil;
 
 /**
@@ -29,6 +30,8 @@ import org.apache.ibatis.reflection.ExceptionUtil;
 class PooledConnection implements InvocationHandler {
 
   private static final String CLOSE = "close";
+  private static final String PREPARE_STATEMENT = "prepareStatement";
+  private static final String PREPARE_CALL = "prepareCall";
   private static final Class<?>[] IFACES = new Class<?>[] { Connection.class };
 
   private final int hashCode;
@@ -40,6 +43,9 @@ class PooledConnection implements InvocationHandler {
   private long lastUsedTimestamp;
   private int connectionTypeCode;
   private boolean valid;
+  private PoolEntry poolEntry;
+  // 物理连接的PreparedStatement缓存，连接重新包装时传递给新的PooledConnection，null表示未开启
+  private final PreparedStatementCache statementCache;
 
   /*
    * Constructor for SimplePooledConnection that uses the Connection and PooledDataSource passed in
@@ -48,6 +54,18 @@ class PooledConnection implements InvocationHandler {
    * @param dataSource - the dataSource that the connection is from
    */
   public PooledConnection(Connection connection, PooledDataSource dataSource) {
+    this(connection, dataSource, dataSource.newStatementCache());
+  }
+
+  /*
+   * Constructor for a connection that keeps the prepared statements cached by a previous wrapper of the same connection
+   *
+   * @param connection - the connection that is to be presented as a pooled connection
+   * @param dataSource - the dataSource that the connection is from
+   * @param statementCache - the prepared statements of the connection, or null
+   */
+  public PooledConnection(Connection connection, PooledDataSource dataSource, PreparedStatementCache statementCache) {
+    this.statementCache = statementCache;
     this.hashCode = connection.hashCode();
     this.realConnection = connection;
     this.dataSource = dataSource;
@@ -70,7 +88,7 @@ class PooledConnection implements InvocationHandler {
    * @return True if the connection is usable
    */
   public boolean isValid() {
-    return valid && realConnection != null && dataSource.pingConnection(this);
+    return valid && realConnection != null && dataSource.isUsable(this);
   }
 
   /*
@@ -199,6 +217,33 @@ class PooledConnection implements InvocationHandler {
     return System.currentTimeMillis() - checkoutTimestamp;
   }
 
+  /*
+   * Getter for the pool entry this connection was borrowed from (only used by {@link ConcurrentPooledDataSource})
+   *
+   * @return the entry or null
+   */
+  public PoolEntry getPoolEntry() {
+    return poolEntry;
+  }
+
+  /*
+   * Setter for the pool entry this connection was borrowed from
+   *
+   * @param poolEntry the entry
+   */
+  public void setPoolEntry(PoolEntry poolEntry) {
+    this.poolEntry = poolEntry;
+  }
+
+  /*
+   * Getter for the prepared statements cached for the real connection
+   *
+   * @return the cache or null
+   */
+  public PreparedStatementCache getStatementCache() {
+    return statementCache;
+  }
+
   @Override
   public int hashCode() {
     return hashCode;
@@ -234,7 +279,14 @@ class PooledConnection implements InvocationHandler {
     String methodName = method.getName();
     if (CLOSE.hashCode() == methodName.hashCode() && CLOSE.equals(methodName)) {
       dataSource.pushConnection(this);
+      MetricsCollector collector = dataSource.getMetricsCollector();
+      if (collector != null) {
+        collector.connectionReleased(dataSource.getPoolState());
+      }
       return null;
+    } else if (statementCache != null && (PREPARE_STATEMENT.equals(methodName) || PREPARE_CALL.equals(methodName))) {
+      checkConnection();
+      return statementCache.prepare(realConnection, method, args);
     } else {
       try {
         if (!Object.class.equals(method.getDeclaringClass())) {
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -18,13 +18,22 @@ package org.apache.ibatis.datasource.pooled;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.metrics.MetricsCollector;
 
 import javax.sql.DataSource;
 import java.io.PrintWriter;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
+import java.lang.ref.WeakReference;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 /**
@@ -38,7 +47,7 @@ public class PooledDataSource implements DataSource {
 
   private final PoolState state = new PoolState(this);
 
-  private final UnpooledDataSource dataSource;
+  protected final UnpooledDataSource dataSource;
 
   // OPTIONAL CONFIGURATION FIELDS
   protected int poolMaximumActiveConnections = 10;
@@ -49,9 +58,17 @@ public class PooledDataSource implements DataSource {
   protected String poolPingQuery = "NO PING QUERY SET";
   protected boolean poolPingEnabled;
   protected int poolPingConnectionsNotUsedFor;
+  protected int poolMinimumIdleConnections;
+  protected int poolMaximumLifetime;
+  protected int poolHousekeepingInterval;
+  protected int poolPreparedStatementCacheSize;
+  protected volatile MetricsCollector metricsCollector;
 
   private int expectedConnectionTypeCode;
 
+  private final Object housekeeperLock = new Object();
+  private volatile ScheduledExecutorService housekeeper;
+
   public PooledDataSource() {
     dataSource = new UnpooledDataSource();
   }
@@ -82,12 +99,20 @@ public class PooledDataSource implements DataSource {
 
   @Override
   public Connection getConnection() throws SQLException {
-    return popConnection(dataSource.getUsername(), dataSource.getPassword()).getProxyConnection();
+    return getConnection(dataSource.getUsername(), dataSource.getPassword());
   }
 
   @Override
   public Connection getConnection(String username, String password) throws SQLException {
-    return popConnection(username, password).getProxyConnection();
+    startHousekeeper();
+    MetricsCollector collector = metricsCollector;
+    if (collector == null) {
+      return popConnection(username, password).getProxyConnection();
+    }
+    long start = System.currentTimeMillis();
+    Connection connection = popConnection(username, password).getProxyConnection();
+    collector.connectionAcquired(getPoolState(), System.currentTimeMillis() - start);
+    return connection;
   }
 
   @Override
@@ -231,6 +256,77 @@ public class PooledDataSource implements DataSource {
     forceCloseAll();
   }
 
+  /*
+   * The number of idle connections the housekeeper keeps open, as long as
+   * poolMaximumIdleConnections allows it. Only used when housekeeping is enabled.
+   *
+   * @param poolMinimumIdleConnections The minimum number of idle connections
+   *
+   * @since 3.5.0
+   */
+  public void setPoolMinimumIdleConnections(int poolMinimumIdleConnections) {
+    this.poolMinimumIdleConnections = poolMinimumIdleConnections;
+    forceCloseAll();
+  }
+
+  /*
+   * The maximum time a connection is kept open. Older connections are closed
+   * when they are returned or by the housekeeper. Zero means no limit.
+   *
+   * @param milliseconds the maximum lifetime of a connection
+   *
+   * @since 3.5.0
+   */
+  public void setPoolMaximumLifetime(int milliseconds) {
+    this.poolMaximumLifetime = milliseconds;
+    forceCloseAll();
+  }
+
+  /*
+   * How often a background thread validates idle connections, retires expired ones and
+   * opens new ones up to poolMinimumIdleConnections. When enabled connections are not
+   * pinged on checkout and return anymore. Zero (the default) disables housekeeping.
+   *
+   * @param milliseconds the time between two housekeeping runs
+   *
+   * @since 3.5.0
+   */
+  public void setPoolHousekeepingInterval(int milliseconds) {
+    this.poolHousekeepingInterval = milliseconds;
+    forceCloseAll();
+  }
+
+  /*
+   * How many idle prepared statements each physical connection keeps open. Closing a statement
+   * prepared through a pooled connection puts it back into the cache of the connection, and
+   * preparing the same SQL again on that connection, even from another session, reuses it.
+   * Zero (the default) disables the cache.
+   *
+   * @param size the maximum number of cached statements per connection
+   *
+   * @since 3.5.0
+   */
+  public void setPoolPreparedStatementCacheSize(int size) {
+    this.poolPreparedStatementCacheSize = size;
+    forceCloseAll();
+  }
+
+  /*
+   * The collector notified when connections are borrowed and given back, usually set by the
+   * Configuration the data source is registered with.
+   *
+   * @param metricsCollector the collector, or null to stop collecting
+   *
+   * @since 3.5.0
+   */
+  public void setMetricsCollector(MetricsCollector metricsCollector) {
+    this.metricsCollector = metricsCollector;
+  }
+
+  public MetricsCollector getMetricsCollector() {
+    return metricsCollector;
+  }
+
   public String getDriver() {
     return dataSource.getDriver();
   }
@@ -291,10 +387,31 @@ public class PooledDataSource implements DataSource {
     return poolPingConnectionsNotUsedFor;
   }
 
+  public int getPoolMinimumIdleConnections() {
+    return poolMinimumIdleConnections;
+  }
+
+  public int getPoolMaximumLifetime() {
+    return poolMaximumLifetime;
+  }
+
+  public int getPoolHousekeepingInterval() {
+    return poolHousekeepingInterval;
+  }
+
+  public int getPoolPreparedStatementCacheSize() {
+    return poolPreparedStatementCacheSize;
+  }
+
+  PreparedStatementCache newStatementCache() {
+    return poolPreparedStatementCacheSize > 0 ? new PreparedStatementCache(poolPreparedStatementCacheSize, getPoolState()) : null;
+  }
+
   /*
    * Closes all active and idle connections in the pool
    */
   public void forceCloseAll() {
+    stopHousekeeper();
     synchronized (state) {
       expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
       for (int i = state.activeConnections.size(); i > 0; i--) {
@@ -311,6 +428,8 @@ public class PooledDataSource implements DataSource {
           // ignore
         }
       }
+      // closed by the housekeeper once checked
+      state.checkedConnections.clear();
       for (int i = state.idleConnections.size(); i > 0; i--) {
         try {
           PooledConnection conn = state.idleConnections.remove(i - 1);
@@ -335,21 +454,26 @@ public class PooledDataSource implements DataSource {
     return state;
   }
 
-  private int assembleConnectionTypeCode(String url, String username, String password) {
+  protected int assembleConnectionTypeCode(String url, String username, String password) {
     return ("" + url + username + password).hashCode();
   }
 
+  protected int getExpectedConnectionTypeCode() {
+    return expectedConnectionTypeCode;
+  }
+
   protected void pushConnection(PooledConnection conn) throws SQLException {
 
     synchronized (state) {
       state.activeConnections.remove(conn);
       if (conn.isValid()) {
-        if (state.idleConnections.size() < poolMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
+        if (state.idleConnections.size() < poolMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode
+            && !isExpired(conn)) {
           state.accumulatedCheckoutTime += conn.getCheckoutTime();
           if (!conn.getRealConnection().getAutoCommit()) {
             conn.getRealConnection().rollback();
           }
-          PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
+          PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this, conn.getStatementCache());
           state.idleConnections.add(newConn);
           newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
           newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
@@ -378,7 +502,7 @@ public class PooledDataSource implements DataSource {
     }
   }
 
-  private PooledConnection popConnection(String username, String password) throws SQLException {
+  protected PooledConnection popConnection(String username, String password) throws SQLException {
     boolean countedWait = false;
     PooledConnection conn = null;
     long t = System.currentTimeMillis();
@@ -394,7 +518,7 @@ public class PooledDataSource implements DataSource {
           }
         } else {
           // Pool does not have available connection
-          if (state.activeConnections.size() < poolMaximumActiveConnections) {
+          if (state.activeConnections.size() + state.checkedConnections.size() < poolMaximumActiveConnections) {
             // Can create new connection
             conn = new PooledConnection(dataSource.getConnection(), this);
             if (log.isDebugEnabled()) {
@@ -402,8 +526,8 @@ public class PooledDataSource implements DataSource {
             }
           } else {
             // Cannot create new connection
-            PooledConnection oldestActiveConnection = state.activeConnections.get(0);
-            long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
+            PooledConnection oldestActiveConnection = state.activeConnections.isEmpty() ? null : state.activeConnections.get(0);
+            long longestCheckoutTime = oldestActiveConnection == null ? 0 : oldestActiveConnection.getCheckoutTime();
             if (longestCheckoutTime > poolMaximumCheckoutTime) {
               // Can claim overdue connection
               state.claimedOverdueConnectionCount++;
@@ -425,7 +549,7 @@ public class PooledDataSource implements DataSource {
                   log.debug("Bad connection. Could not roll back");
                 }  
               }
-              conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
+              conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this, oldestActiveConnection.getStatementCache());
               conn.setCreatedTimestamp(oldestActiveConnection.getCreatedTimestamp());
               conn.setLastUsedTimestamp(oldestActiveConnection.getLastUsedTimestamp());
               oldestActiveConnection.invalidate();
@@ -492,6 +616,27 @@ public class PooledDataSource implements DataSource {
     return conn;
   }
 
+  /*
+   * Method called on checkout and return to check if a connection is still usable. When housekeeping
+   * is enabled connections are validated in the background, so this does not hit the database.
+   *
+   * @param conn - the connection to check
+   * @return True if the connection is still usable
+   */
+  protected boolean isUsable(PooledConnection conn) {
+    return poolHousekeepingInterval > 0 || pingConnection(conn);
+  }
+
+  /*
+   * Method to check to see if a connection has been open longer than poolMaximumLifetime
+   *
+   * @param conn - the connection to check
+   * @return True if the connection should be closed
+   */
+  protected boolean isExpired(PooledConnection conn) {
+    return poolMaximumLifetime > 0 && conn.getAge() > poolMaximumLifetime;
+  }
+
   /*
    * Method to check to see if a connection is still usable
    *
@@ -547,6 +692,116 @@ public class PooledDataSource implements DataSource {
     return result;
   }
 
+  /*
+   * Validates idle connections, closes the expired ones and opens new ones up to
+   * poolMinimumIdleConnections. Runs on the housekeeper thread.
+   */
+  protected void housekeep() throws SQLException {
+    List<PooledConnection> expiredConnections = new ArrayList<PooledConnection>();
+    List<PooledConnection> suspectConnections = new ArrayList<PooledConnection>();
+    synchronized (state) {
+      for (Iterator<PooledConnection> it = state.idleConnections.iterator(); it.hasNext();) {
+        PooledConnection conn = it.next();
+        if (isExpired(conn)) {
+          it.remove();
+          expiredConnections.add(conn);
+        } else if (conn.getTimeElapsedSinceLastUse() > poolPingConnectionsNotUsedFor) {
+          // claimed before the ping: the pool size does not change, but it can neither be checked out
+          // nor claimed as overdue by another thread
+          it.remove();
+          state.checkedConnections.add(conn);
+          suspectConnections.add(conn);
+        }
+      }
+    }
+
+    for (PooledConnection conn : expiredConnections) {
+      if (log.isDebugEnabled()) {
+        log.debug("Retired connection " + conn.getRealHashCode() + " after " + poolMaximumLifetime + " milliseconds.");
+      }
+      closeConnection(conn);
+    }
+
+    for (PooledConnection conn : suspectConnections) {
+      boolean good = pingConnection(conn);
+      boolean returned = false;
+      synchronized (state) {
+        // not there anymore if forceCloseAll was called in the meantime
+        if (!good) {
+          state.badConnectionCount++;
+        }
+        if (state.checkedConnections.remove(conn) && good && state.idleConnections.size() < poolMaximumIdleConnections) {
+          state.idleConnections.add(conn);
+          returned = true;
+        }
+        // a connection is available or can be created
+        state.notifyAll();
+      }
+      if (!returned) {
+        closeConnection(conn);
+      }
+    }
+
+    int missingConnections;
+    synchronized (state) {
+      missingConnections = Math.min(poolMinimumIdleConnections, poolMaximumIdleConnections) - state.idleConnections.size();
+    }
+    for (int i = 0; i < missingConnections; i++) {
+      PooledConnection conn = new PooledConnection(dataSource.getConnection(), this);
+      boolean added = false;
+      synchronized (state) {
+        // interrupted when forceCloseAll stopped the housekeeper
+        if (!Thread.currentThread().isInterrupted() && state.idleConnections.size() < poolMaximumIdleConnections) {
+          state.idleConnections.add(conn);
+          state.notifyAll();
+          added = true;
+        }
+      }
+      if (!added) {
+        closeConnection(conn);
+        break;
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("Created idle connection " + conn.getRealHashCode() + ".");
+      }
+    }
+  }
+
+  private void closeConnection(PooledConnection conn) {
+    conn.invalidate();
+    try {
+      Connection realConn = conn.getRealConnection();
+      if (!realConn.getAutoCommit()) {
+        realConn.rollback();
+      }
+      realConn.close();
+    } catch (Exception e) {
+      // ignore
+    }
+  }
+
+  private void startHousekeeper() {
+    if (poolHousekeepingInterval <= 0 || housekeeper != null) {
+      return;
+    }
+    synchronized (housekeeperLock) {
+      if (housekeeper == null) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(HousekeeperThreadFactory.INSTANCE);
+        executor.scheduleWithFixedDelay(new HousekeepingTask(this, executor), 0, poolHousekeepingInterval, TimeUnit.MILLISECONDS);
+        housekeeper = executor;
+      }
+    }
+  }
+
+  private void stopHousekeeper() {
+    synchronized (housekeeperLock) {
+      if (housekeeper != null) {
+        housekeeper.shutdownNow();
+        housekeeper = null;
+      }
+    }
+  }
+
   /*
    * Unwraps a pooled connection to get to the 'real' connection
    *
@@ -580,4 +835,42 @@ public class PooledDataSource implements DataSource {
     return Logger.getLogger(Logger.GLOBAL_LOGGER_NAME); // requires JDK version 1.6
   }
 
+  private static class HousekeepingTask implements Runnable {
+
+    // the housekeeper must not keep an unused data source from being finalized
+    private final WeakReference<PooledDataSource> dataSource;
+    private final ScheduledExecutorService executor;
+
+    HousekeepingTask(PooledDataSource dataSource, ScheduledExecutorService executor) {
+      this.dataSource = new WeakReference<PooledDataSource>(dataSource);
+      this.executor = executor;
+    }
+
+    @Override
+    public void run() {
+      PooledDataSource ds = dataSource.get();
+      if (ds == null) {
+        executor.shutdown();
+        return;
+      }
+      try {
+        ds.housekeep();
+      } catch (Exception e) {
+        log.warn("Housekeeping of the pool failed: " + e.getMessage());
+      }
+    }
+
+  }
+
+  private enum HousekeeperThreadFactory implements ThreadFactory {
+    INSTANCE;
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "mybatis-pool-housekeeper");
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
 }
@@ -0,0 +1,244 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * The prepared statements of one physical connection, kept open when they are closed so that
+ * preparing the same SQL on that connection again, in the same or in a later session, reuses them.
+ * <p>
+ * Only idle statements are cached. A statement leaves the cache while it is in use and goes back
+ * when the proxy handed out is closed, the least recently used ones are really closed when the
+ * cache is full. Statements are keyed by the prepare method and all its arguments, that is the SQL
+ * plus the result set type, concurrency, holdability or generated keys. The settings changed through the
+ * proxy are restored before a statement goes back, and the statements that cannot be restored, after
+ * {@code closeOnCompletion()}, or that were closed meanwhile are not cached.
+ */
+class PreparedStatementCache {
+
+  private final int size;
+  private final PoolState state;
+  private final Map<StatementKey, PreparedStatement> idleStatements = new LinkedHashMap<StatementKey, PreparedStatement>(16, 0.75f, true);
+
+  PreparedStatementCache(int size, PoolState state) {
+    this.size = size;
+    this.state = state;
+  }
+
+  PreparedStatement prepare(Connection realConnection, Method method, Object[] args) throws Throwable {
+    StatementKey key = new StatementKey(method.getName(), args);
+    PreparedStatement statement;
+    synchronized (this) {
+      statement = idleStatements.remove(key);
+    }
+    // 驱动可能已关闭空闲的语句，例如连接出错时
+    if (statement != null && isClosed(statement)) {
+      statement = null;
+    }
+    if (statement != null) {
+      state.statementCacheHitCounter.increment();
+    } else {
+      state.statementCacheMissCounter.increment();
+      try {
+        statement = (PreparedStatement) method.invoke(realConnection, args);
+      } catch (Throwable t) {
+        throw ExceptionUtil.unwrapThrowable(t);
+      }
+    }
+    return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+        new Class<?>[] { method.getReturnType() }, new CachedStatement(key, statement));
+  }
+
+  synchronized int getIdleStatementCount() {
+    return idleStatements.size();
+  }
+
+  private void release(StatementKey key, PreparedStatement statement, Map<String, Object> originalSettings,
+      boolean closeOnCompletion) {
+    // closeOnCompletion()无法撤销，已关闭的语句也不能再使用
+    if (closeOnCompletion || isClosed(statement)) {
+      close(statement);
+      return;
+    }
+    try {
+      // 恢复语句状态，下次使用时与新创建的语句相同
+      statement.clearParameters();
+      statement.clearBatch();
+      statement.clearWarnings();
+      for (Map.Entry<String, Object> setting : originalSettings.entrySet()) {
+        restore(statement, setting.getKey(), setting.getValue());
+      }
+    } catch (SQLException e) {
+      close(statement);
+      return;
+    }
+    PreparedStatement replaced;
+    synchronized (this) {
+      replaced = idleStatements.put(key, statement);
+      if (idleStatements.size() > size) {
+        Iterator<PreparedStatement> eldest = idleStatements.values().iterator();
+        close(eldest.next());
+        eldest.remove();
+      }
+    }
+    if (replaced != null) {
+      close(replaced);
+    }
+  }
+
+  private static void restore(PreparedStatement statement, String setter, Object value) throws SQLException {
+    if ("setFetchSize".equals(setter)) {
+      statement.setFetchSize((Integer) value);
+    } else if ("setQueryTimeout".equals(setter)) {
+      statement.setQueryTimeout((Integer) value);
+    } else if ("setMaxRows".equals(setter)) {
+      statement.setMaxRows((Integer) value);
+    } else if ("setMaxFieldSize".equals(setter)) {
+      statement.setMaxFieldSize((Integer) value);
+    } else if ("setFetchDirection".equals(setter)) {
+      statement.setFetchDirection((Integer) value);
+    } else if ("setPoolable".equals(setter)) {
+      statement.setPoolable((Boolean) value);
+    } else if ("setEscapeProcessing".equals(setter)) {
+      statement.setEscapeProcessing((Boolean) value);
+    }
+  }
+
+  private static Object getOriginalSetting(PreparedStatement statement, String setter) throws Exception {
+    if ("setEscapeProcessing".equals(setter)) {
+      // 没有对应的Getter方法，JDBC规定默认开启
+      return Boolean.TRUE;
+    } else if ("setPoolable".equals(setter)) {
+      return statement.isPoolable();
+    }
+    return Statement.class.getMethod("get" + setter.substring(3)).invoke(statement);
+  }
+
+  private static boolean isClosed(PreparedStatement statement) {
+    try {
+      return statement.isClosed();
+    } catch (SQLException e) {
+      return true;
+    }
+  }
+
+  private static void close(PreparedStatement statement) {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      // ignore
+    }
+  }
+
+  private class CachedStatement implements InvocationHandler {
+
+    private final StatementKey key;
+    private final PreparedStatement statement;
+    // 被修改的语句设置的原始值，Key为Setter方法名称
+    private final Map<String, Object> originalSettings = new HashMap<String, Object>();
+    private boolean closeOnCompletion;
+    private boolean closed;
+
+    CachedStatement(StatementKey key, PreparedStatement statement) {
+      this.key = key;
+      this.statement = statement;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String methodName = method.getName();
+      if ("close".equals(methodName)) {
+        if (!closed) {
+          closed = true;
+          release(key, statement, originalSettings, closeOnCompletion);
+        }
+        return null;
+      } else if ("isClosed".equals(methodName)) {
+        return closed || statement.isClosed();
+      } else if ("equals".equals(methodName) && Object.class.equals(method.getDeclaringClass())) {
+        return proxy == args[0];
+      } else if ("hashCode".equals(methodName) && Object.class.equals(method.getDeclaringClass())) {
+        return System.identityHashCode(proxy);
+      } else if (Object.class.equals(method.getDeclaringClass())) {
+        return method.invoke(statement, args);
+      }
+      if (closed) {
+        throw new SQLException("Statement is closed.");
+      }
+      try {
+        // setLargeMaxRows与setMaxRows修改同一设置，都通过setMaxRows恢复
+        String setting = "setLargeMaxRows".equals(methodName) ? "setMaxRows" : methodName;
+        if (isRestoredSetting(setting) && !originalSettings.containsKey(setting)) {
+          originalSettings.put(setting, getOriginalSetting(statement, setting));
+        } else if ("closeOnCompletion".equals(methodName)) {
+          closeOnCompletion = true;
+        }
+        return method.invoke(statement, args);
+      } catch (Throwable t) {
+        throw ExceptionUtil.unwrapThrowable(t);
+      }
+    }
+
+    private boolean isRestoredSetting(String methodName) {
+      return "setFetchSize".equals(methodName) || "setQueryTimeout".equals(methodName) || "setMaxRows".equals(methodName)
+          || "setMaxFieldSize".equals(methodName) || "setFetchDirection".equals(methodName)
+          || "setPoolable".equals(methodName)
+          || "setEscapeProcessing".equals(methodName);
+    }
+  }
+
+  private static class StatementKey {
+
+    private final String methodName;
+    private final Object[] args;
+    private final int hashCode;
+
+    StatementKey(String methodName, Object[] args) {
+      this.methodName = methodName;
+      this.args = args;
+      this.hashCode = 31 * methodName.hashCode() + Arrays.deepHashCode(args);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof StatementKey)) {
+        return false;
+      }
+      StatementKey other = (StatementKey) obj;
+      return hashCode == other.hashCode && methodName.equals(other.methodName) && Arrays.deepEquals(args, other.args);
+    }
+  }
+
+}
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -23,6 +23,8 @@ import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 import org.apache.ibatis.logging.jdbc.ConnectionLogger;
 import org.apache.ibatis.mapping.*;
+import org.apache.ibatis.metrics.MetricsCollector;
+import org.apache.ibatis.metrics.QueryTrace;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
 import org.apache.ibatis.session.Configuration;
@@ -58,6 +60,8 @@ public abstract class BaseExecutor implements Executor {
   protected Configuration configuration;
 
   protected int queryStack;
+  // 该执行器开始的、正在执行的根查询的跟踪信息
+  private QueryTrace queryTrace;
   private boolean closed;
 
   protected BaseExecutor(Configuration configuration, Transaction transaction) {
@@ -107,12 +111,30 @@ public abstract class BaseExecutor implements Executor {
 
   @Override
   public int update(MappedStatement ms, Object parameter) throws SQLException {
+    return update(ms, parameter, null);
+  }
+
+  @Override
+  public int update(MappedStatement ms, Object parameter, BoundSql boundSql) throws SQLException {
     ErrorContext.instance().resource(ms.getResource()).activity("executing an update").object(ms.getId());
     if (closed) {
       throw new ExecutorException("Executor was closed.");
     }
     clearLocalCache();
-    return doUpdate(ms, parameter);
+    MetricsCollector collector = configuration.getMetricsCollector();
+    if (collector == null) {
+      return doUpdate(ms, parameter, boundSql);
+    }
+    long start = System.nanoTime();
+    Throwable error = null;
+    try {
+      return doUpdate(ms, parameter, boundSql);
+    } catch (SQLException | RuntimeException | Error e) {
+      error = e;
+      throw e;
+    } finally {
+      collector.statementExecuted(ms, System.nanoTime() - start, error);
+    }
   }
 
   @Override
@@ -137,9 +159,27 @@ public abstract class BaseExecutor implements Executor {
     return this.query(ms, parameter, rowBounds, resultHandler, key, boundSql);
  }
 
-  @SuppressWarnings("unchecked")
   @Override
   public <E> List<E> query(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, CacheKey key, BoundSql boundSql) throws SQLException {
+    if (!configuration.isQueryTraceEnabled() || QueryTrace.current() != null) {
+      return queryWithLocalCache(ms, parameter, rowBounds, resultHandler, key, boundSql);
+    }
+    // 跟踪根查询触发的嵌套查询，用于发现慢查询和N+1查询问题
+    queryTrace = new QueryTrace(ms.getId(), configuration);
+    QueryTrace.setCurrent(queryTrace);
+    long start = System.nanoTime();
+    try {
+      return queryWithLocalCache(ms, parameter, rowBounds, resultHandler, key, boundSql);
+    } finally {
+      QueryTrace trace = queryTrace;
+      queryTrace = null;
+      QueryTrace.setCurrent(null);
+      trace.finish(System.nanoTime() - start);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private <E> List<E> queryWithLocalCache(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, CacheKey key, BoundSql boundSql) throws SQLException {
     ErrorContext.instance().resource(ms.getResource()).activity("executing a query").object(ms.getId());
     if (closed) {
       throw new ExecutorException("Executor was closed.");
@@ -153,6 +193,10 @@ public abstract class BaseExecutor implements Executor {
       // 从缓存中获取结果
       System.out.println("一级缓存 读缓存 从一级缓存中获取");
       list = resultHandler == null ? (List<E>) localCache.getObject(key) : null;
+      MetricsCollector collector = configuration.getMetricsCollector();
+      if (collector != null && resultHandler == null) {
+        collector.localCacheAccessed(ms, list != null);
+      }
       if (list != null) {
         handleLocallyCachedOutputParameters(ms, key, parameter, boundSql);
       } else {
@@ -201,12 +245,13 @@ public abstract class BaseExecutor implements Executor {
     if (closed) {
       throw new ExecutorException("Executor was closed.");
     }
-    CacheKey cacheKey = new CacheKey();
+    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+    // statement id, offset, limit, sql, parameters and environment id
+    CacheKey cacheKey = new CacheKey(parameterMappings.size() + 5);
     cacheKey.update(ms.getId()); // Mapper Id
     cacheKey.update(rowBounds.getOffset()); // 偏移量
     cacheKey.update(rowBounds.getLimit()); // 条数
     cacheKey.update(boundSql.getSql()); // SQL语句
-    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
     TypeHandlerRegistry typeHandlerRegistry = ms.getConfiguration().getTypeHandlerRegistry();
     // 所有参数值
     for (ParameterMapping parameterMapping : parameterMappings) {
@@ -273,7 +318,7 @@ public abstract class BaseExecutor implements Executor {
     }
   }
 
-  protected abstract int doUpdate(MappedStatement ms, Object parameter)
+  protected abstract int doUpdate(MappedStatement ms, Object parameter, BoundSql boundSql)
       throws SQLException;
 
   protected abstract List<BatchResult> doFlushStatements(boolean isRollback)
@@ -328,11 +373,31 @@ public abstract class BaseExecutor implements Executor {
   private <E> List<E> queryFromDatabase(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, CacheKey key, BoundSql boundSql) throws SQLException {
     List<E> list;
     localCache.putObject(key, EXECUTION_PLACEHOLDER);
+    MetricsCollector collector = configuration.getMetricsCollector();
+    // 当前线程的根查询执行的其他查询为嵌套查询，根查询本身和延迟加载本身（由ResultLoaderMap计数）除外
+    QueryTrace parentTrace = configuration.isQueryTraceEnabled() ? QueryTrace.current() : null;
+    if (queryStack == 1 && (parentTrace == queryTrace || QueryTrace.isLazyLoading())) {
+      parentTrace = null;
+    }
+    long start = collector == null && parentTrace == null ? 0 : System.nanoTime();
+    Throwable error = null;
     try {
       // 调用doQuery（）方法查询
       list = doQuery(ms, parameter, rowBounds, resultHandler, boundSql);
+    } catch (SQLException | RuntimeException | Error e) {
+      error = e;
+      throw e;
     } finally {
       localCache.removeObject(key);
+      if (collector != null || parentTrace != null) {
+        long elapsed = System.nanoTime() - start;
+        if (collector != null) {
+          collector.statementExecuted(ms, elapsed, error);
+        }
+        if (parentTrace != null) {
+          parentTrace.addNestedQuery(ms.getId(), elapsed);
+        }
+      }
     }
     // 缓存查询结果
     localCache.putObject(key, list);
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -22,6 +22,9 @@ import org.apache.ibatis.executor.keygen.NoKeyGenerator;
 import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.metrics.MetricsCollector;
+import org.apache.ibatis.parsing.SqlTableParser;
+import org.apache.ibatis.session.AsyncExecutor;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
@@ -29,11 +32,17 @@ import org.apache.ibatis.transaction.Transaction;
 
 import java.sql.BatchUpdateException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @author Jeff Butler 
@@ -46,39 +55,125 @@ public class BatchExecutor extends BaseExecutor {
   private final List<BatchResult> batchResultList = new ArrayList<BatchResult>();
   private String currentSql;
   private MappedStatement currentStatement;
+  // index of the last open statement for each SQL, used when batchStatementCoalescing is enabled
+  private final Map<String, Integer> statementIndexes = new HashMap<String, Integer>();
+  // rows of multi-row inserts not yet bound to their statement, by statement index
+  private final Map<Integer, MultiRowInsert> multiRowInserts = new HashMap<Integer, MultiRowInsert>();
 
   public BatchExecutor(Configuration configuration, Transaction transaction) {
     super(configuration, transaction);
   }
 
   @Override
-  public int doUpdate(MappedStatement ms, Object parameterObject) throws SQLException {
+  public int doUpdate(MappedStatement ms, Object parameterObject, BoundSql boundSql) throws SQLException {
     final Configuration configuration = ms.getConfiguration();
-    final StatementHandler handler = configuration.newStatementHandler(this, ms, parameterObject, RowBounds.DEFAULT, null, null);
-    final BoundSql boundSql = handler.getBoundSql();
+    final StatementHandler handler = configuration.newStatementHandler(this, ms, parameterObject, RowBounds.DEFAULT, null, boundSql);
+    // 未传入时由StatementHandler在生成主键后构建
+    boundSql = handler.getBoundSql();
     final String sql = boundSql.getSql();
-    final Statement stmt;
-    if (sql.equals(currentSql) && ms.equals(currentStatement)) {
-      int last = statementList.size() - 1;
-      stmt = statementList.get(last);
+    final int index = findStatement(ms, sql);
+    if (index >= 0 && multiRowInserts.containsKey(index)) {
+      addMultiRowInsertRow(index, boundSql, parameterObject);
+    } else if (index >= 0) {
+      Statement stmt = statementList.get(index);
       applyTransactionTimeout(stmt);
       handler.parameterize(stmt);//fix Issues 322
-      BatchResult batchResult = batchResultList.get(last);
+      BatchResult batchResult = batchResultList.get(index);
       batchResult.addParameterObject(parameterObject);
+      handler.batch(stmt);
     } else {
-      Connection connection = getConnection(ms.getStatementLog());
-      stmt = handler.prepare(connection, transaction.getTimeout());
-      handler.parameterize(stmt);    //fix Issues 322
       currentSql = sql;
       currentStatement = ms;
-      statementList.add(stmt);
-      batchResultList.add(new BatchResult(ms, sql, parameterObject));
+      if (configuration.isBatchStatementCoalescing()) {
+        statementIndexes.put(sql, statementList.size());
+      }
+      MultiRowInsert multiRowInsert = MultiRowInsert.of(ms, boundSql, configuration.getBatchMultiRowInsertSize());
+      if (multiRowInsert != null) {
+        // the statement is prepared once the first chunk of rows is complete
+        multiRowInserts.put(statementList.size(), multiRowInsert);
+        statementList.add(null);
+        batchResultList.add(new BatchResult(ms, multiRowInsert.getSql(configuration.getBatchMultiRowInsertSize())));
+        addMultiRowInsertRow(statementList.size() - 1, boundSql, parameterObject);
+      } else {
+        Connection connection = getConnection(ms.getStatementLog());
+        Statement stmt = handler.prepare(connection, transaction.getTimeout());
+        handler.parameterize(stmt);    //fix Issues 322
+        statementList.add(stmt);
+        batchResultList.add(new BatchResult(ms, sql, parameterObject));
+        handler.batch(stmt);
+      }
     }
-  // handler.parameterize(stmt);
-    handler.batch(stmt);
     return BATCH_UPDATE_RETURN_VALUE;
   }
 
+  private int findStatement(MappedStatement ms, String sql) {
+    if (sql.equals(currentSql) && ms.equals(currentStatement)) {
+      return statementList.size() - 1;
+    }
+    Integer index = statementIndexes.get(sql);
+    if (index != null && ms.equals(batchResultList.get(index).getMappedStatement())
+        && !isTouchedAfter(index, getTables(ms, sql))) {
+      return index;
+    }
+    return -1;
+  }
+
+  // 之后打开的语句读取或修改了相同的表时不能合并，否则会改变对同一行的插入、删除等操作的顺序
+  private boolean isTouchedAfter(int index, String[] tables) {
+    if (tables == null) {
+      return index < statementList.size() - 1;
+    }
+    for (int i = index + 1; i < batchResultList.size(); i++) {
+      BatchResult batchResult = batchResultList.get(i);
+      String[] otherTables = getTables(batchResult.getMappedStatement(), batchResult.getSql());
+      if (otherTables == null || !Collections.disjoint(Arrays.asList(tables), Arrays.asList(otherTables))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the tables read or modified by the statement, or null when they are unknown
+   */
+  private static String[] getTables(MappedStatement ms, String sql) {
+    if (ms.getTables() != null) {
+      return ms.getTables();
+    }
+    String[] modifiedTables = SqlTableParser.parseModifiedTables(sql);
+    String[] readTables = SqlTableParser.parseReadTables(sql);
+    if (modifiedTables == null || readTables == null) {
+      return null;
+    }
+    Set<String> tables = new HashSet<String>(Arrays.asList(modifiedTables));
+    tables.addAll(Arrays.asList(readTables));
+    return tables.toArray(new String[tables.size()]);
+  }
+
+  private void addMultiRowInsertRow(int index, BoundSql boundSql, Object parameterObject) throws SQLException {
+    MultiRowInsert multiRowInsert = multiRowInserts.get(index);
+    multiRowInsert.addRow(boundSql, parameterObject);
+    if (multiRowInsert.isFull()) {
+      Statement stmt = statementList.get(index);
+      if (stmt == null) {
+        stmt = prepareMultiRowInsert(multiRowInsert);
+        statementList.set(index, stmt);
+      }
+      applyTransactionTimeout(stmt);
+      multiRowInsert.addBatch((PreparedStatement) stmt);
+      batchResultList.get(index).getParameterObjects().addAll(multiRowInsert.getParameterObjects());
+      multiRowInsert.clear();
+    }
+  }
+
+  private Statement prepareMultiRowInsert(MultiRowInsert multiRowInsert) throws SQLException {
+    MappedStatement ms = multiRowInsert.getMappedStatement();
+    BoundSql boundSql = multiRowInsert.getBoundSql(multiRowInsert.size());
+    StatementHandler handler = ms.getConfiguration().newStatementHandler(this, ms, boundSql.getParameterObject(), RowBounds.DEFAULT, null, boundSql);
+    Connection connection = getConnection(ms.getStatementLog());
+    return handler.prepare(connection, transaction.getTimeout());
+  }
+
   @Override
   public <E> List<E> doQuery(MappedStatement ms, Object parameterObject, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql)
       throws SQLException {
@@ -116,38 +211,20 @@ public class BatchExecutor extends BaseExecutor {
       }
       for (int i = 0, n = statementList.size(); i < n; i++) {
         Statement stmt = statementList.get(i);
-        applyTransactionTimeout(stmt);
-        BatchResult batchResult = batchResultList.get(i);
-        try {
-          batchResult.setUpdateCounts(stmt.executeBatch());
-          MappedStatement ms = batchResult.getMappedStatement();
-          List<Object> parameterObjects = batchResult.getParameterObjects();
-          KeyGenerator keyGenerator = ms.getKeyGenerator();
-          if (Jdbc3KeyGenerator.class.equals(keyGenerator.getClass())) {
-            Jdbc3KeyGenerator jdbc3KeyGenerator = (Jdbc3KeyGenerator) keyGenerator;
-            jdbc3KeyGenerator.processBatch(ms, stmt, parameterObjects);
-          } else if (!NoKeyGenerator.class.equals(keyGenerator.getClass())) { //issue #141
-            for (Object parameter : parameterObjects) {
-              keyGenerator.processAfter(this, ms, stmt, parameter);
-            }
-          }
-          // Close statement to close cursor #1109
-          closeStatement(stmt);
-        } catch (BatchUpdateException e) {
-          StringBuilder message = new StringBuilder();
-          message.append(batchResult.getMappedStatement().getId())
-              .append(" (batch index #")
-              .append(i + 1)
-              .append(")")
-              .append(" failed.");
-          if (i > 0) {
-            message.append(" ")
-                .append(i)
-                .append(" prior sub executor(s) completed successfully, but will be rolled back.");
-          }
-          throw new BatchExecutorException(message.toString(), e, results, batchResult);
+        if (stmt != null) {
+          executeBatch(stmt, batchResultList.get(i), results);
+        }
+        MultiRowInsert multiRowInsert = multiRowInserts.get(i);
+        if (multiRowInsert != null && multiRowInsert.size() > 0) {
+          // the rows that did not fill a whole statement are sent with a shorter VALUES list
+          BatchResult batchResult = new BatchResult(multiRowInsert.getMappedStatement(), multiRowInsert.getSql(multiRowInsert.size()));
+          batchResult.getParameterObjects().addAll(multiRowInsert.getParameterObjects());
+          stmt = prepareMultiRowInsert(multiRowInsert);
+          // closed by the finally block below if the batch fails
+          statementList.add(stmt);
+          multiRowInsert.addBatch((PreparedStatement) stmt);
+          executeBatch(stmt, batchResult, results);
         }
-        results.add(batchResult);
       }
       return results;
     } finally {
@@ -155,9 +232,54 @@ public class BatchExecutor extends BaseExecutor {
         closeStatement(stmt);
       }
       currentSql = null;
+      currentStatement = null;
       statementList.clear();
       batchResultList.clear();
+      statementIndexes.clear();
+      multiRowInserts.clear();
+    }
+  }
+
+  private void executeBatch(Statement stmt, BatchResult batchResult, List<BatchResult> results) throws SQLException {
+    // 语句可能由之前的异步操作准备
+    AsyncExecutor.statementPrepared(stmt);
+    applyTransactionTimeout(stmt);
+    MetricsCollector collector = configuration.getMetricsCollector();
+    long start = collector == null ? 0 : System.nanoTime();
+    try {
+      batchResult.setUpdateCounts(stmt.executeBatch());
+      MappedStatement ms = batchResult.getMappedStatement();
+      if (collector != null) {
+        collector.batchExecuted(ms, batchResult.getParameterObjects().size(), System.nanoTime() - start);
+      }
+      List<Object> parameterObjects = batchResult.getParameterObjects();
+      KeyGenerator keyGenerator = ms.getKeyGenerator();
+      if (Jdbc3KeyGenerator.class.equals(keyGenerator.getClass())) {
+        Jdbc3KeyGenerator jdbc3KeyGenerator = (Jdbc3KeyGenerator) keyGenerator;
+        jdbc3KeyGenerator.processBatch(ms, stmt, parameterObjects);
+      } else if (!NoKeyGenerator.class.equals(keyGenerator.getClass())) { //issue #141
+        for (Object parameter : parameterObjects) {
+          keyGenerator.processAfter(this, ms, stmt, parameter);
+        }
+      }
+      // Close statement to close cursor #1109
+      closeStatement(stmt);
+    } catch (BatchUpdateException e) {
+      int prior = results.size();
+      StringBuilder message = new StringBuilder();
+      message.append(batchResult.getMappedStatement().getId())
+          .append(" (batch index #")
+          .append(prior + 1)
+          .append(")")
+          .append(" failed.");
+      if (prior > 0) {
+        message.append(" ")
+            .append(prior)
+            .append(" prior sub executor(s) completed successfully, but will be rolled back.");
+      }
+      throw new BatchExecutorException(message.toString(), e, results, batchResult);
     }
+    results.add(batchResult);
   }
 
 }
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -17,15 +17,26 @@ package org.apache.ibatis.executor;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.TableDependencies;
+import org.apache.ibatis.cache.TableDependentResult;
+import org.apache.ibatis.cache.TableVersions;
 import org.apache.ibatis.cache.TransactionalCacheManager;
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.mapping.*;
+import org.apache.ibatis.metrics.MetricsCollector;
+import org.apache.ibatis.parsing.SqlTableParser;
+import org.apache.ibatis.parsing.SqlTableParser.KeyCondition;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.CacheInvalidationScope;
+import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
 
 import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 
 /**
@@ -37,6 +48,8 @@ public class CachingExecutor implements Executor {
   private final Executor delegate;
   // TransactionalCacheManager用于管理所有的二级缓存
   private final TransactionalCacheManager tcm = new TransactionalCacheManager();
+  // TABLE缓存失效范围下正在执行的缓存查询收集的表，栈顶为最内层的查询，嵌套查询读取的表加入栈顶
+  private final Deque<TableDependencies> tableDependencies = new ArrayDeque<TableDependencies>();
 
   public CachingExecutor(Executor delegate) {
     this.delegate = delegate;
@@ -69,9 +82,25 @@ public class CachingExecutor implements Executor {
 
   @Override
   public int update(MappedStatement ms, Object parameterObject) throws SQLException {
+    BoundSql boundSql = null;
+    if (ms.isFlushCacheRequired() && isTableInvalidationScope(ms) && ms.getStatementType() != StatementType.CALLABLE) {
+      // 与StatementHandler一样先生成主键再构建SQL（issue #435），构建的BoundSql同时用于执行语句
+      generateKeys(ms, parameterObject);
+      boundSql = ms.getBoundSql(parameterObject);
+    }
+    return update(ms, parameterObject, boundSql);
+  }
+
+  @Override
+  public int update(MappedStatement ms, Object parameterObject, BoundSql boundSql) throws SQLException {
     // 如果需要刷新，则更新缓存
-    flushCacheIfRequired(ms);
-    return delegate.update(ms, parameterObject);
+    if (ms.isFlushCacheRequired() && isTableInvalidationScope(ms)) {
+      // 提交时使读取了被修改表或行的缓存结果失效
+      invalidateModifiedTables(ms, parameterObject, boundSql);
+    } else {
+      flushCacheIfRequired(ms);
+    }
+    return delegate.update(ms, parameterObject, boundSql);
   }
 
   @Override
@@ -100,21 +129,88 @@ public class CachingExecutor implements Executor {
         ensureNoOutParams(ms, boundSql);
         // 从MappedStatement对象对应的二级缓存中获取数据
         System.out.println("二级缓存 读缓存 从缓存中读取数据");
-        @SuppressWarnings("unchecked")
-        List<E> list = (List<E>) tcm.getObject(cache, key);
+        boolean tableScope = isTableInvalidationScope(ms);
+        List<E> list = tableScope ? this.<E> getCurrentResult(ms, cache, key) : this.<E> getObject(cache, key);
+        MetricsCollector collector = ms.getConfiguration().getMetricsCollector();
+        if (collector != null) {
+          collector.secondLevelCacheAccessed(ms, cache.getId(), list != null);
+        }
         if (list == null) {
           // 如果缓存数据不存在，则从数据库中查询数据
-          list = delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
-          // 將数据存放到MappedStatement对象对应的二级缓存中
-          tcm.putObject(cache, key, list); // issue #578 and #116
+          if (tableScope) {
+            list = queryDependingOnTables(ms, parameterObject, rowBounds, resultHandler, key, boundSql, cache);
+          } else {
+            list = delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+            // 將数据存放到MappedStatement对象对应的二级缓存中
+            tcm.putObject(cache, key, list); // issue #578 and #116
+          }
           System.out.println("二级缓存 写缓存 从数据库中获取并写缓存");
         }
         return list;
       }
     }
+    // 未缓存的嵌套查询读取的表同样是外层缓存结果依赖的表
+    if (!tableDependencies.isEmpty()) {
+      tableDependencies.peek().addTables(getReadTables(ms, boundSql));
+    }
     return delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
   }
 
+  @SuppressWarnings("unchecked")
+  private <E> List<E> getObject(Cache cache, CacheKey key) {
+    return (List<E>) tcm.getObject(cache, key);
+  }
+
+  @SuppressWarnings("unchecked")
+  private <E> List<E> getCurrentResult(MappedStatement ms, Cache cache, CacheKey key) {
+    Object value = tcm.getObject(cache, key);
+    // 其他值可能由NAMESPACE范围缓存，无法判断是否失效
+    if (!(value instanceof TableDependentResult)) {
+      return null;
+    }
+    TableDependentResult result = (TableDependentResult) value;
+    if (!result.isCurrent(ms.getConfiguration().getTableVersions()) || tcm.isInvalidated(result)) {
+      return null;
+    }
+    if (!tableDependencies.isEmpty()) {
+      tableDependencies.peek().addResult(result);
+    }
+    return (List<E>) result.getValue();
+  }
+
+  private <E> List<E> queryDependingOnTables(MappedStatement ms, Object parameterObject, RowBounds rowBounds, ResultHandler resultHandler,
+      CacheKey key, BoundSql boundSql, Cache cache) throws SQLException {
+    // 在查询之前记录表的版本号，查询期间提交的修改会使结果失效
+    TableVersions tableVersions = ms.getConfiguration().getTableVersions();
+    TableDependencies dependencies = new TableDependencies(tableVersions);
+    // 主键查询的结果只依赖于该行
+    EntityKey entityKey = getEntityKey(ms, parameterObject, boundSql);
+    long entityTableVersion = 0;
+    if (entityKey == null) {
+      dependencies.addTables(getReadTables(ms, boundSql));
+    } else {
+      entityTableVersion = tableVersions.getVersion(entityKey.table);
+      dependencies.addRow(entityKey.table, entityKey.key);
+    }
+    List<E> list;
+    tableDependencies.push(dependencies);
+    try {
+      list = delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+    } finally {
+      tableDependencies.pop();
+    }
+    if (entityKey != null && list.isEmpty()) {
+      // 插入该主键的行会改变结果
+      dependencies.addTable(entityKey.table, entityTableVersion);
+    }
+    TableDependentResult result = dependencies.newResult(list);
+    if (!tableDependencies.isEmpty()) {
+      tableDependencies.peek().addResult(result);
+    }
+    tcm.putObject(cache, key, result);
+    return list;
+  }
+
   @Override
   public List<BatchResult> flushStatements() throws SQLException {
     return delegate.flushStatements();
@@ -167,6 +263,121 @@ public class CachingExecutor implements Executor {
     delegate.clearLocalCache();
   }
 
+  private static boolean isTableInvalidationScope(MappedStatement ms) {
+    return ms.getConfiguration().getCacheInvalidationScope() == CacheInvalidationScope.TABLE;
+  }
+
+  private static String[] getReadTables(MappedStatement ms, BoundSql boundSql) {
+    if (ms.getTables() != null) {
+      return ms.getTables();
+    }
+    if (ms.getStatementType() == StatementType.CALLABLE) {
+      return null;
+    }
+    return SqlTableParser.parseReadTables(boundSql.getSql());
+  }
+
+  private void generateKeys(MappedStatement ms, Object parameterObject) {
+    ErrorContext.instance().store();
+    ms.getKeyGenerator().processBefore(delegate, ms, null, parameterObject);
+    ErrorContext.instance().recall();
+  }
+
+  private void invalidateModifiedTables(MappedStatement ms, Object parameterObject, BoundSql boundSql) {
+    TableVersions tableVersions = ms.getConfiguration().getTableVersions();
+    if (ms.getStatementType() == StatementType.CALLABLE) {
+      tcm.invalidateTables(tableVersions, ms.getTables());
+      return;
+    }
+    String sql = boundSql.getSql();
+    // 按主键修改或删除一行
+    KeyCondition condition = getKeyCondition(ms, sql);
+    if (condition != null && !condition.isQuery()) {
+      List<Object> key = getKeyValues(ms, parameterObject, boundSql, condition);
+      if (key != null) {
+        tcm.invalidateRow(tableVersions, condition.getTable(), key);
+        return;
+      }
+    }
+    if (ms.getTables() != null) {
+      tcm.invalidateTables(tableVersions, ms.getTables());
+      return;
+    }
+    String[] insertedTables = SqlTableParser.parseInsertedTables(sql);
+    if (insertedTables != null) {
+      tcm.invalidateInsertedTables(tableVersions, insertedTables);
+      return;
+    }
+    tcm.invalidateTables(tableVersions, SqlTableParser.parseModifiedTables(sql));
+  }
+
+  /**
+   * The table and the primary key of the row read by a select by primary key, that is a select of a single
+   * table whose WHERE clause compares the declared primary key columns of the table to parameters.
+   */
+  private static EntityKey getEntityKey(MappedStatement ms, Object parameterObject, BoundSql boundSql) {
+    if (ms.getStatementType() == StatementType.CALLABLE) {
+      return null;
+    }
+    KeyCondition condition = getKeyCondition(ms, boundSql.getSql());
+    if (condition == null || !condition.isQuery()) {
+      return null;
+    }
+    List<Object> key = getKeyValues(ms, parameterObject, boundSql, condition);
+    if (key == null) {
+      return null;
+    }
+    return new EntityKey(condition.getTable(), key);
+  }
+
+  // 单表语句的等值条件，语句声明了tables属性时只能是该表
+  private static KeyCondition getKeyCondition(MappedStatement ms, String sql) {
+    KeyCondition condition = SqlTableParser.parseKeyCondition(sql);
+    if (condition == null || ms.getTables() != null
+        && (ms.getTables().length != 1 || !ms.getTables()[0].equals(condition.getTable()))) {
+      return null;
+    }
+    return condition;
+  }
+
+  // 声明的主键列对应的参数值，未声明主键列、某一列没有与参数比较、参数为null或类型无法转换时返回null
+  private static List<Object> getKeyValues(MappedStatement ms, Object parameterObject, BoundSql boundSql,
+      KeyCondition condition) {
+    Configuration configuration = ms.getConfiguration();
+    String[] keyColumns = configuration.getTableVersions().getKeyColumns(condition.getTable());
+    if (keyColumns == null) {
+      return null;
+    }
+    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+    List<Object> key = new ArrayList<Object>(keyColumns.length);
+    for (String column : keyColumns) {
+      Integer parameterIndex = condition.getParameterIndex(column);
+      if (parameterIndex == null || parameterIndex >= parameterMappings.size()) {
+        return null;
+      }
+      String property = parameterMappings.get(parameterIndex).getProperty();
+      Object value;
+      if (boundSql.hasAdditionalParameter(property)) {
+        value = boundSql.getAdditionalParameter(property);
+      } else if (parameterObject == null) {
+        value = null;
+      } else if (configuration.getTypeHandlerRegistry().hasTypeHandler(parameterObject.getClass())) {
+        value = parameterObject;
+      } else {
+        value = configuration.newMetaObject(parameterObject).getValue(property);
+      }
+      if (value == null) {
+        return null;
+      }
+      Object normalized = TableVersions.normalizeKey(value);
+      if (normalized == null) {
+        return null;
+      }
+      key.add(normalized);
+    }
+    return key;
+  }
+
   private void flushCacheIfRequired(MappedStatement ms) {
     Cache cache = ms.getCache();
     if (cache != null && ms.isFlushCacheRequired()) {      
@@ -179,4 +390,15 @@ public class CachingExecutor implements Executor {
     throw new UnsupportedOperationException("This method should not be called");
   }
 
+  private static class EntityKey {
+
+    final String table;
+    final List<Object> key;
+
+    EntityKey(String table, List<Object> key) {
+      this.table = table;
+      this.key = key;
+    }
+  }
+
 }
@@ -36,6 +36,14 @@ public interface Executor {
 
   int update(MappedStatement ms, Object parameter) throws SQLException;
 
+  /**
+   * Executes an insert, update or delete with the BoundSql built by the caller. As with a query, the statement
+   * handler then does not run the key generator, so the caller must have run its before step first.
+   *
+   * @since 3.5.0
+   */
+  int update(MappedStatement ms, Object parameter, BoundSql boundSql) throws SQLException;
+
   <E> List<E> query(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, CacheKey cacheKey, BoundSql boundSql) throws SQLException;
 
   <E> List<E> query(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler) throws SQLException;
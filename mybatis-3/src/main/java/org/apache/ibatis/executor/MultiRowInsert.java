@@ -0,0 +1,170 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
+import org.apache.ibatis.executor.keygen.KeyGenerator;
+import org.apache.ibatis.executor.keygen.NoKeyGenerator;
+import org.apache.ibatis.executor.parameter.ParameterHandler;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.scripting.defaults.DefaultParameterHandler;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * Collects the rows of a single row {@code INSERT ... VALUES (...)} statement
+ * so they can be sent as one {@code INSERT ... VALUES (...), (...)} statement.
+ *
+ * @see BatchExecutor
+ */
+class MultiRowInsert {
+
+  private static final Pattern VALUES_PATTERN = Pattern.compile("\\bvalues\\s*\\(", Pattern.CASE_INSENSITIVE);
+
+  private final MappedStatement mappedStatement;
+  private final String insertSql;
+  private final String rowSql;
+  private final int rowsPerStatement;
+  private final List<BoundSql> boundSqls = new ArrayList<BoundSql>();
+  private final List<Object> parameterObjects = new ArrayList<Object>();
+
+  private MultiRowInsert(MappedStatement mappedStatement, String insertSql, String rowSql, int rowsPerStatement) {
+    this.mappedStatement = mappedStatement;
+    this.insertSql = insertSql;
+    this.rowSql = rowSql;
+    this.rowsPerStatement = rowsPerStatement;
+  }
+
+  /**
+   * @return null if the statement is not a prepared single row insert whose SQL ends with its VALUES row,
+   *     if the generated keys cannot be read back from a multi-row statement, or if its parameters are not set by
+   *     the {@link DefaultParameterHandler}.
+   */
+  static MultiRowInsert of(MappedStatement ms, BoundSql boundSql, int rowsPerStatement) {
+    if (rowsPerStatement <= 1
+        || ms.getSqlCommandType() != SqlCommandType.INSERT
+        || ms.getStatementType() != StatementType.PREPARED) {
+      return null;
+    }
+    KeyGenerator keyGenerator = ms.getKeyGenerator();
+    if (!Jdbc3KeyGenerator.class.equals(keyGenerator.getClass()) && !NoKeyGenerator.class.equals(keyGenerator.getClass())) {
+      return null;
+    }
+    // 插件或自定义语言驱动的参数处理器只能设置单行语句的参数
+    ParameterHandler parameterHandler = ms.getConfiguration().newParameterHandler(ms, boundSql.getParameterObject(), boundSql);
+    if (parameterHandler.getClass() != DefaultParameterHandler.class) {
+      return null;
+    }
+    String sql = boundSql.getSql().trim();
+    Matcher matcher = VALUES_PATTERN.matcher(sql);
+    int rowStart = -1;
+    while (matcher.find()) {
+      rowStart = matcher.end() - 1;
+    }
+    if (rowStart < 0 || closingParenthesis(sql, rowStart) != sql.length() - 1) {
+      return null;
+    }
+    String insertSql = sql.substring(0, rowStart);
+    if (insertSql.indexOf('?') >= 0) {
+      return null;
+    }
+    return new MultiRowInsert(ms, insertSql, sql.substring(rowStart), rowsPerStatement);
+  }
+
+  private static int closingParenthesis(String sql, int start) {
+    int depth = 0;
+    boolean quoted = false;
+    for (int i = start; i < sql.length(); i++) {
+      char c = sql.charAt(i);
+      if (c == '\'') {
+        quoted = !quoted;
+      } else if (!quoted && c == '(') {
+        depth++;
+      } else if (!quoted && c == ')' && --depth == 0) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  void addRow(BoundSql boundSql, Object parameterObject) {
+    boundSqls.add(boundSql);
+    parameterObjects.add(parameterObject);
+  }
+
+  boolean isFull() {
+    return boundSqls.size() >= rowsPerStatement;
+  }
+
+  int size() {
+    return boundSqls.size();
+  }
+
+  MappedStatement getMappedStatement() {
+    return mappedStatement;
+  }
+
+  List<Object> getParameterObjects() {
+    return parameterObjects;
+  }
+
+  String getSql(int rows) {
+    StringBuilder sql = new StringBuilder(insertSql.length() + rows * (rowSql.length() + 2));
+    sql.append(insertSql);
+    for (int i = 0; i < rows; i++) {
+      if (i > 0) {
+        sql.append(", ");
+      }
+      sql.append(rowSql);
+    }
+    return sql.toString();
+  }
+
+  BoundSql getBoundSql(int rows) {
+    return new BoundSql(mappedStatement.getConfiguration(), getSql(rows), Collections.<ParameterMapping>emptyList(), parameterObjects.get(0));
+  }
+
+  void addBatch(PreparedStatement ps) throws SQLException {
+    Configuration configuration = mappedStatement.getConfiguration();
+    int offset = 0;
+    for (int i = 0; i < boundSqls.size(); i++) {
+      BoundSql boundSql = boundSqls.get(i);
+      // 每一行的参数设置在前面各行的占位符之后
+      DefaultParameterHandler parameterHandler = (DefaultParameterHandler) configuration.newParameterHandler(
+          mappedStatement, parameterObjects.get(i), boundSql);
+      parameterHandler.setParameters(ps, offset);
+      offset += boundSql.getParameterMappings().size();
+    }
+    ps.addBatch();
+  }
+
+  void clear() {
+    boundSqls.clear();
+    parameterObjects.clear();
+  }
+
+}
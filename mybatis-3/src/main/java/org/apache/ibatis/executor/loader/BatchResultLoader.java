@@ -0,0 +1,286 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.loader;
+
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.TableVersions;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.ResultExtractor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.defaults.DefaultSqlSession.StrictMap;
+
+/**
+ * Loads the nested select of a result mapping with a {@code batchSize} for many parent objects at once.
+ * <p>
+ * The nested select receives the keys of the parents, the values of the mapping column, as a list named
+ * {@code list} or {@code collection}, and returns the results of all of them. Each result is given to the
+ * parents whose key equals its {@code batchKey} property.
+ * <p>
+ * For a lazy mapping the loader groups the parents read by one result set handler, and the first lazy load
+ * of the property loads it for all the parents of the group not loaded yet, {@code batchSize} keys per query.
+ * The parents whose property was set or loaded meanwhile, through their setter or by another thread, are
+ * skipped, and a parent whose batch is being loaded by another thread loads its property alone.
+ *
+ * @since 3.5.0
+ */
+public class BatchResultLoader {
+
+  protected final Configuration configuration;
+  protected final Executor executor;
+  protected final MappedStatement mappedStatement;
+  protected final ResultMapping resultMapping;
+  protected final ResultExtractor resultExtractor;
+  protected final long creatorThreadId;
+  // 等待加载的父对象，Key为父对象column字段的值
+  private final Map<Object, List<Parent>> parents = new LinkedHashMap<Object, List<Parent>>();
+
+  public BatchResultLoader(Configuration configuration, Executor executor, MappedStatement mappedStatement, ResultMapping resultMapping) {
+    this.configuration = configuration;
+    this.executor = executor;
+    this.mappedStatement = mappedStatement;
+    this.resultMapping = resultMapping;
+    this.resultExtractor = new ResultExtractor(configuration, configuration.getObjectFactory());
+    this.creatorThreadId = Thread.currentThread().getId();
+  }
+
+  public void addParent(Object key, MetaObject metaResultObject) {
+    addParent(key, metaResultObject, null);
+  }
+
+  /**
+   * Adds a parent whose property is lazy loaded, which is set only while the loader map of the parent still holds
+   * the loader of the property.
+   */
+  synchronized void addParent(Object key, MetaObject metaResultObject, ResultLoaderMap lazyLoader) {
+    Object normalizedKey = normalizeKey(key);
+    List<Parent> keyParents = parents.get(normalizedKey);
+    if (keyParents == null) {
+      keyParents = new ArrayList<Parent>();
+      parents.put(normalizedKey, keyParents);
+    }
+    keyParents.add(new Parent(key, metaResultObject, lazyLoader));
+  }
+
+  /**
+   * @return true when the parents hold {@code batchSize} distinct keys
+   */
+  public synchronized boolean isFull() {
+    return parents.size() >= resultMapping.getBatchSize();
+  }
+
+  public synchronized boolean isEmpty() {
+    return parents.isEmpty();
+  }
+
+  /**
+   * Runs the nested select for the keys of the parents added since the last load and sets the property of the parents.
+   */
+  public void load() throws SQLException {
+    final List<Map.Entry<Object, List<Parent>>> loading;
+    // 设置属性值时会调用延迟加载代理对象的方法，不能持有锁，否则可能与代理对象的锁形成死锁
+    synchronized (this) {
+      if (parents.isEmpty()) {
+        return;
+      }
+      loading = takeParents();
+    }
+    load(loading, null);
+  }
+
+  /**
+   * Lazy loads the property of a parent with the parents added since the last load, or alone when the parent
+   * is not waiting anymore since another thread is loading its batch.
+   *
+   * @param key the value of the mapping column for the parent
+   */
+  void load(MetaObject metaResultObject, Object key) throws SQLException {
+    final Object normalizedKey = normalizeKey(key);
+    List<Map.Entry<Object, List<Parent>>> loading = null;
+    synchronized (this) {
+      List<Parent> keyParents = parents.get(normalizedKey);
+      if (keyParents != null) {
+        for (Parent parent : keyParents) {
+          if (parent.metaObject == metaResultObject) {
+            loading = takeParents();
+            break;
+          }
+        }
+      }
+    }
+    if (loading == null) {
+      // 其他线程正在加载该父对象所在的批次，不等待其完成，单独加载，该线程不会再设置此父对象的属性
+      loading = new ArrayList<Map.Entry<Object, List<Parent>>>();
+      loading.add(new AbstractMap.SimpleEntry<Object, List<Parent>>(normalizedKey,
+          Collections.singletonList(new Parent(key, metaResultObject, null))));
+    }
+    load(loading, metaResultObject);
+  }
+
+  private List<Map.Entry<Object, List<Parent>>> takeParents() {
+    List<Map.Entry<Object, List<Parent>>> taken = new ArrayList<Map.Entry<Object, List<Parent>>>(
+        new LinkedHashMap<Object, List<Parent>>(parents).entrySet());
+    parents.clear();
+    return taken;
+  }
+
+  private void load(List<Map.Entry<Object, List<Parent>>> loading, MetaObject loadingObject) throws SQLException {
+    final int batchSize = resultMapping.getBatchSize();
+    for (int from = 0; from < loading.size(); from += batchSize) {
+      loadBatch(loading.subList(from, Math.min(from + batchSize, loading.size())), loadingObject);
+    }
+  }
+
+  private void loadBatch(List<Map.Entry<Object, List<Parent>>> loading, MetaObject loadingObject) throws SQLException {
+    final List<Object> keys = new ArrayList<Object>(loading.size());
+    for (Map.Entry<Object, List<Parent>> entry : loading) {
+      // 查询参数使用列的原始值，而不是统一后的值
+      keys.add(entry.getValue().get(0).key);
+    }
+    if (Thread.currentThread().getId() == this.creatorThreadId && !executor.isClosed()) {
+      final Object parameterObject = wrapKeys(keys);
+      final BoundSql boundSql = mappedStatement.getBoundSql(parameterObject);
+      final CacheKey cacheKey = executor.createCacheKey(mappedStatement, parameterObject, RowBounds.DEFAULT, boundSql);
+      // 循环映射时同一批次的嵌套查询可能正在执行，本地缓存中为EXECUTION_PLACEHOLDER，与逐行嵌套查询一样延迟到外层查询完成后设置
+      if (executor.isCached(mappedStatement, cacheKey)) {
+        executor.deferLoad(mappedStatement, configuration.newMetaObject(new DeferredBatch(loading, loadingObject)),
+            "results", cacheKey, List.class);
+        return;
+      }
+    }
+    setValues(loading, selectList(keys), loadingObject);
+  }
+
+  private void setValues(List<Map.Entry<Object, List<Parent>>> loading, List<Object> results, MetaObject loadingObject) {
+    // 按batchKey属性值对嵌套查询结果分组
+    final Map<Object, List<Object>> resultsByKey = new HashMap<Object, List<Object>>();
+    for (Object result : results) {
+      Object key = normalizeKey(configuration.newMetaObject(result).getValue(resultMapping.getBatchKey()));
+      List<Object> keyResults = resultsByKey.get(key);
+      if (keyResults == null) {
+        keyResults = new ArrayList<Object>();
+        resultsByKey.put(key, keyResults);
+      }
+      keyResults.add(result);
+    }
+    final String property = resultMapping.getProperty();
+    final String loaderProperty = property.split("\\.")[0];
+    for (Map.Entry<Object, List<Parent>> entry : loading) {
+      List<Object> keyResults = resultsByKey.get(entry.getKey());
+      if (keyResults == null) {
+        keyResults = new ArrayList<Object>();
+      }
+      Object value = resultExtractor.extractObjectFromList(keyResults, resultMapping.getJavaType());
+      for (Parent parent : entry.getValue()) {
+        if (parent.lazyLoader == null || parent.metaObject == loadingObject) {
+          setValue(parent.metaObject, property, value);
+        } else {
+          // 加载器已被移除说明属性已通过setter设置或已由其他线程单独加载，不能覆盖
+          synchronized (parent.lazyLoader) {
+            if (parent.lazyLoader.hasLoader(loaderProperty)) {
+              // 先移除加载器，调用setter时aggressiveLazyLoading不会再次加载该属性
+              parent.lazyLoader.remove(loaderProperty);
+              setValue(parent.metaObject, property, value);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private void setValue(MetaObject metaObject, String property, Object value) {
+    if (value != null || (configuration.isCallSettersOnNulls() && !metaObject.getSetterType(property).isPrimitive())) {
+      metaObject.setValue(property, value);
+    }
+  }
+
+  protected List<Object> selectList(List<Object> keys) throws SQLException {
+    Executor localExecutor = executor;
+    // 延迟加载可能发生在会话关闭之后或其他线程中
+    if (Thread.currentThread().getId() != this.creatorThreadId || localExecutor.isClosed()) {
+      localExecutor = ResultLoader.newExecutor(configuration);
+    }
+    try {
+      final Object parameterObject = wrapKeys(keys);
+      final BoundSql boundSql = mappedStatement.getBoundSql(parameterObject);
+      final CacheKey cacheKey = localExecutor.createCacheKey(mappedStatement, parameterObject, RowBounds.DEFAULT, boundSql);
+      return localExecutor.query(mappedStatement, parameterObject, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER, cacheKey, boundSql);
+    } finally {
+      if (localExecutor != executor) {
+        localExecutor.close(false);
+      }
+    }
+  }
+
+  static Object wrapKeys(List<Object> keys) {
+    final StrictMap<Object> parameterObject = new StrictMap<Object>();
+    parameterObject.put("collection", keys);
+    parameterObject.put("list", keys);
+    return parameterObject;
+  }
+
+  /**
+   * Sets the properties of the parents when the local cache holds the results of the batch.
+   */
+  private class DeferredBatch {
+
+    private final List<Map.Entry<Object, List<Parent>>> loading;
+    private final MetaObject loadingObject;
+
+    DeferredBatch(List<Map.Entry<Object, List<Parent>>> loading, MetaObject loadingObject) {
+      this.loading = loading;
+      this.loadingObject = loadingObject;
+    }
+
+    public void setResults(List<Object> results) {
+      setValues(loading, results, loadingObject);
+    }
+  }
+
+  private static class Parent {
+
+    final Object key;
+    final MetaObject metaObject;
+    // 延迟加载时父对象的ResultLoaderMap，立即加载时为null
+    final ResultLoaderMap lazyLoader;
+
+    Parent(Object key, MetaObject metaObject, ResultLoaderMap lazyLoader) {
+      this.key = key;
+      this.metaObject = metaObject;
+      this.lazyLoader = lazyLoader;
+    }
+  }
+
+  // 列值与属性值的数值类型可能不同，例如INTEGER列与long属性、NUMBER列与int属性，其他值按equals()比较
+  private static Object normalizeKey(Object key) {
+    Object normalized = TableVersions.normalizeKey(key);
+    return normalized == null ? key : normalized;
+  }
+
+}
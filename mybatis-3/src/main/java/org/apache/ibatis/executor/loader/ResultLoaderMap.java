@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -22,6 +22,8 @@ import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -36,6 +38,7 @@ import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.metrics.QueryTrace;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
@@ -50,13 +53,30 @@ public class ResultLoaderMap {
   private final Map<String, LoadPair> loaderMap = new HashMap<String, LoadPair>();
 
   public void addLoader(String property, MetaObject metaResultObject, ResultLoader resultLoader) {
+    String upperFirst = getUppercaseFirstProperty(property, resultLoader.mappedStatement);
+    loaderMap.put(upperFirst, new LoadPair(property, metaResultObject, resultLoader));
+  }
+
+  /**
+   * Adds a loader that loads the property of all the objects added to the same batch loader at once.
+   *
+   * @param key the value of the mapping column for this object
+   * @since 3.5.0
+   */
+  public void addBatchLoader(String property, MetaObject metaResultObject, BatchResultLoader batchResultLoader, Object key) {
+    String upperFirst = getUppercaseFirstProperty(property, batchResultLoader.mappedStatement);
+    batchResultLoader.addParent(key, metaResultObject, this);
+    loaderMap.put(upperFirst, new LoadPair(property, metaResultObject, batchResultLoader, key));
+  }
+
+  private String getUppercaseFirstProperty(String property, MappedStatement mappedStatement) {
     String upperFirst = getUppercaseFirstProperty(property);
     if (!upperFirst.equalsIgnoreCase(property) && loaderMap.containsKey(upperFirst)) {
       throw new ExecutorException("Nested lazy loaded result property '" + property +
-              "' for query id '" + resultLoader.mappedStatement.getId() +
+              "' for query id '" + mappedStatement.getId() +
               " already exists in the result map. The leftmost property of all lazy loaded properties must be unique within a result map.");
     }
-    loaderMap.put(upperFirst, new LoadPair(property, metaResultObject, resultLoader));
+    return upperFirst;
   }
 
   public final Map<String, LoadPair> getProperties() {
@@ -127,6 +147,18 @@ public class ResultLoaderMap {
      * Wow, logger.
      */
     private transient Log log;
+    /**
+     * Trace of the query which created this loader, null when tracing is disabled.
+     */
+    private transient QueryTrace queryTrace;
+    /**
+     * Batch loader which loads the property of this and of sibling objects, null unless the mapping has a batch size.
+     */
+    private transient BatchResultLoader batchResultLoader;
+    /**
+     * Value of the mapping column identifying this object in the batch loader.
+     */
+    private transient Object batchKey;
     /**
      * Factory class through which we get database connection.
      */
@@ -145,20 +177,34 @@ public class ResultLoaderMap {
     private Serializable mappedParameter;
 
     private LoadPair(final String property, MetaObject metaResultObject, ResultLoader resultLoader) {
+      this(property, metaResultObject, resultLoader.configuration, resultLoader.mappedStatement, resultLoader.parameterObject);
+      this.resultLoader = resultLoader;
+    }
+
+    private LoadPair(final String property, MetaObject metaResultObject, BatchResultLoader batchResultLoader, Object key) {
+      /* After deserialization the property is loaded alone, with a batch of one key. */
+      this(property, metaResultObject, batchResultLoader.configuration, batchResultLoader.mappedStatement,
+              key instanceof Serializable ? BatchResultLoader.wrapKeys(new ArrayList<Object>(Collections.singletonList(key))) : key);
+      this.batchResultLoader = batchResultLoader;
+      this.batchKey = key;
+    }
+
+    private LoadPair(final String property, MetaObject metaResultObject, Configuration configuration,
+                     MappedStatement mappedStatement, Object mappedStatementParameter) {
       this.property = property;
       this.metaResultObject = metaResultObject;
-      this.resultLoader = resultLoader;
+      if (configuration.isQueryTraceEnabled()) {
+        this.queryTrace = QueryTrace.current();
+      }
 
       /* Save required information only if original object can be serialized. */
       if (metaResultObject != null && metaResultObject.getOriginalObject() instanceof Serializable) {
-        final Object mappedStatementParameter = resultLoader.parameterObject;
-
         /* @todo May the parameter be null? */
         if (mappedStatementParameter instanceof Serializable) {
-          this.mappedStatement = resultLoader.mappedStatement.getId();
+          this.mappedStatement = mappedStatement.getId();
           this.mappedParameter = (Serializable) mappedStatementParameter;
 
-          this.configurationFactory = resultLoader.configuration.getConfigurationFactory();
+          this.configurationFactory = configuration.getConfigurationFactory();
         } else {
           Log log = this.getLogger();
           if (log.isDebugEnabled()) {
@@ -177,7 +223,7 @@ public class ResultLoaderMap {
       if (this.metaResultObject == null) {
         throw new IllegalArgumentException("metaResultObject is null");
       }
-      if (this.resultLoader == null) {
+      if (this.resultLoader == null && this.batchResultLoader == null) {
         throw new IllegalArgumentException("resultLoader is null");
       }
 
@@ -185,7 +231,7 @@ public class ResultLoaderMap {
     }
 
     public void load(final Object userObject) throws SQLException {
-      if (this.metaResultObject == null || this.resultLoader == null) {
+      if (this.metaResultObject == null || (this.resultLoader == null && this.batchResultLoader == null)) {
         if (this.mappedParameter == null) {
           throw new ExecutorException("Property [" + this.property + "] cannot be loaded because "
                   + "required parameter of mapped statement ["
@@ -210,13 +256,38 @@ public class ResultLoaderMap {
        * and executors aren't thread safe. (Is this sufficient?)
        *
        * A better approach would be making executors thread safe. */
-      if (this.serializationCheck == null) {
+      if (this.batchResultLoader == null && this.serializationCheck == null) {
         final ResultLoader old = this.resultLoader;
         this.resultLoader = new ResultLoader(old.configuration, new ClosedExecutor(), old.mappedStatement,
                 old.parameterObject, old.targetType, old.cacheKey, old.boundSql);
       }
 
-      this.metaResultObject.setValue(property, this.resultLoader.loadResult());
+      // 创建者的根查询仍在当前线程执行时，执行器已将该查询计为嵌套查询
+      if (queryTrace == null || QueryTrace.current() == queryTrace) {
+        loadProperty();
+        return;
+      }
+      // 延迟加载及其触发的嵌套查询计入创建者的根查询，而不是作为新的根查询
+      boolean lazyLoading = QueryTrace.beginLazyLoad(queryTrace);
+      long start = System.nanoTime();
+      try {
+        loadProperty();
+      } finally {
+        if (lazyLoading) {
+          QueryTrace.endLazyLoad();
+        }
+      }
+      MappedStatement loaded = this.batchResultLoader != null ? this.batchResultLoader.mappedStatement : this.resultLoader.mappedStatement;
+      queryTrace.addLazyLoad(loaded.getId(), System.nanoTime() - start);
+    }
+
+    private void loadProperty() throws SQLException {
+      if (this.batchResultLoader != null) {
+        // 同时加载同一批次中其他对象的该属性，属性值由BatchResultLoader设置
+        this.batchResultLoader.load(this.metaResultObject, this.batchKey);
+      } else {
+        this.metaResultObject.setValue(property, this.resultLoader.loadResult());
+      }
     }
 
     private Configuration getConfiguration() {
@@ -294,7 +365,7 @@ public class ResultLoaderMap {
     }
 
     @Override
-    protected int doUpdate(MappedStatement ms, Object parameter) throws SQLException {
+    protected int doUpdate(MappedStatement ms, Object parameter, BoundSql boundSql) throws SQLException {
       throw new UnsupportedOperationException("Not supported.");
     }
 
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -23,6 +23,7 @@ import org.apache.ibatis.cursor.defaults.DefaultCursor;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.ExecutorException;
+import org.apache.ibatis.executor.loader.BatchResultLoader;
 import org.apache.ibatis.executor.loader.ResultLoader;
 import org.apache.ibatis.executor.loader.ResultLoaderMap;
 import org.apache.ibatis.executor.parameter.ParameterHandler;
@@ -36,15 +37,18 @@ import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.ParameterMode;
 import org.apache.ibatis.mapping.ResultMap;
 import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.metrics.MetricsCollector;
 import org.apache.ibatis.reflection.MetaClass;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.ReflectorFactory;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.reflection.wrapper.ObjectWrapper;
 import org.apache.ibatis.session.AutoMappingBehavior;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultContext;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.type.JdbcType;
 import org.apache.ibatis.type.TypeHandler;
 import org.apache.ibatis.type.TypeHandlerRegistry;
 
@@ -54,8 +58,11 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -87,13 +94,24 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   // 存放嵌套ResultMap关联的Java实体对象，Key为resultMapId，Value为Java实体
   private final Map<String, Object> ancestorObjects = new HashMap<String, Object>();
   private Object previousRowValue;
+  // 通过Cursor读取结果时，嵌套ResultMap按照resultOrdered的方式流式处理，主键变化时即输出已完成的结果对象
+  private boolean streamingNestedResults;
+  // 读取的行数和映射的结果对象数，用于MetricsCollector
+  private int rowsFetched;
+  private int rowsMapped;
 
   // multiple resultsets
   private final Map<String, ResultMapping> nextResultMaps = new HashMap<String, ResultMapping>();
   private final Map<CacheKey, List<PendingRelation>> pendingRelations = new HashMap<CacheKey, List<PendingRelation>>();
 
+  // 配置了batchSize属性的嵌套查询，Key为ResultMapping对象（ResultMapping的equals方法只比较属性名称）
+  private final Map<ResultMapping, BatchResultLoader> batchResultLoaders = new IdentityHashMap<ResultMapping, BatchResultLoader>();
+  // 配置了batchSize属性的延迟加载嵌套查询，同一结果集中的对象在第一次访问该属性时一起加载
+  private final Map<ResultMapping, BatchResultLoader> lazyBatchResultLoaders = new IdentityHashMap<ResultMapping, BatchResultLoader>();
+
   // 缓存所有自动映射的字段
   private final Map<String, List<UnMappedColumnAutoMapping>> autoMappingsCache = new HashMap<String, List<UnMappedColumnAutoMapping>>();
+  private final Map<RowMappingPlanKey, RowMappingPlan> rowMappingPlans = new HashMap<RowMappingPlanKey, RowMappingPlan>();
 
   // 使用构造器映射
   private boolean useConstructorMappings;
@@ -120,6 +138,93 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     }
   }
 
+  private static class AutoMappingKey {
+    private final String mappedStatementId;
+    private final String resultMapId;
+    private final String columnPrefix;
+    private final Class<?> resultType;
+    private final List<String> columnNames;
+    private final List<JdbcType> jdbcTypes;
+    private final List<String> classNames;
+    private final int hashCode;
+
+    public AutoMappingKey(MappedStatement mappedStatement, ResultMap resultMap, String columnPrefix, Class<?> resultType, ResultSetWrapper rsw) {
+      this.mappedStatementId = mappedStatement.getId();
+      this.resultMapId = resultMap.getId();
+      this.columnPrefix = columnPrefix;
+      this.resultType = resultType;
+      // the column signature, type handlers are resolved from the column types
+      this.columnNames = rsw.getColumnNames();
+      this.jdbcTypes = rsw.getJdbcTypes();
+      this.classNames = rsw.getClassNames();
+      int result = mappedStatementId.hashCode();
+      result = 31 * result + resultMapId.hashCode();
+      result = 31 * result + (columnPrefix == null ? 0 : columnPrefix.hashCode());
+      result = 31 * result + resultType.hashCode();
+      result = 31 * result + columnNames.hashCode();
+      result = 31 * result + jdbcTypes.hashCode();
+      this.hashCode = 31 * result + classNames.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof AutoMappingKey)) {
+        return false;
+      }
+      AutoMappingKey that = (AutoMappingKey) o;
+      return hashCode == that.hashCode
+          && resultType == that.resultType
+          && mappedStatementId.equals(that.mappedStatementId)
+          && resultMapId.equals(that.resultMapId)
+          && (columnPrefix == null ? that.columnPrefix == null : columnPrefix.equals(that.columnPrefix))
+          && columnNames.equals(that.columnNames)
+          && jdbcTypes.equals(that.jdbcTypes)
+          && classNames.equals(that.classNames);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  private static class RowMappingPlanKey {
+    private final ResultSetWrapper rsw;
+    private final ResultMap resultMap;
+    private final String columnPrefix;
+    private final boolean autoMapping;
+
+    public RowMappingPlanKey(ResultSetWrapper rsw, ResultMap resultMap, String columnPrefix, boolean autoMapping) {
+      this.rsw = rsw;
+      this.resultMap = resultMap;
+      this.columnPrefix = columnPrefix;
+      this.autoMapping = autoMapping;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof RowMappingPlanKey)) {
+        return false;
+      }
+      RowMappingPlanKey that = (RowMappingPlanKey) o;
+      return rsw == that.rsw && resultMap == that.resultMap && autoMapping == that.autoMapping
+          && (columnPrefix == null ? that.columnPrefix == null : columnPrefix.equals(that.columnPrefix));
+    }
+
+    @Override
+    public int hashCode() {
+      int result = System.identityHashCode(resultMap);
+      result = 31 * result + (columnPrefix == null ? 0 : columnPrefix.hashCode());
+      return 31 * result + (autoMapping ? 1 : 0);
+    }
+  }
+
   public DefaultResultSetHandler(Executor executor, MappedStatement mappedStatement, ParameterHandler parameterHandler, ResultHandler<?> resultHandler, BoundSql boundSql,
                                  RowBounds rowBounds) {
     this.executor = executor;
@@ -170,6 +275,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       } else {
         handleRowValues(rsw, resultMap, resultHandler, new RowBounds(), null);
       }
+      loadNestedQueryBatches();
     } finally {
       closeResultSet(rs);
     }
@@ -217,6 +323,12 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         resultSetCount++;
       }
     }
+    // 执行剩余的批量嵌套查询
+    loadNestedQueryBatches();
+    MetricsCollector collector = configuration.getMetricsCollector();
+    if (collector != null) {
+      collector.resultsHandled(mappedStatement, rowsFetched, rowsMapped);
+    }
     // 对multipleResults进行处理，如果只有一个结果集，则返回结果集中的元素，否则返回多个结果集
     return collapseSingleResultList(multipleResults);
   }
@@ -236,6 +348,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     }
 
     ResultMap resultMap = resultMaps.get(0);
+    streamingNestedResults = true;
     return new DefaultCursor<E>(this, resultMap, rsw, rowBounds);
   }
 
@@ -288,6 +401,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 
   private void cleanUpAfterHandlingResultSet() {
     nestedResultObjects.clear();
+    rowMappingPlans.clear();
   }
 
   private void validateResultMapsCount(ResultSetWrapper rsw, int resultMapCount) {
@@ -362,6 +476,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     skipRows(rsw.getResultSet(), rowBounds);
     // 遍历处理每一行记录
     while (shouldProcessMoreRows(resultContext, rowBounds) && rsw.getResultSet().next()) {
+      rowsFetched++;
       // 对<discriminator>标签配置的鉴别器进行处理，获取实际映射的ResultMap对象
       ResultMap discriminatedResultMap = resolveDiscriminatedResultMap(rsw.getResultSet(), resultMap, null);
       // 调用getRowValue（）把一行数据转换为Java实体对象
@@ -380,6 +495,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 
   @SuppressWarnings("unchecked" /* because ResultHandler<?> is always ResultHandler<Object>*/)
   private void callResultHandler(ResultHandler<?> resultHandler, DefaultResultContext<Object> resultContext, Object rowValue) {
+    rowsMapped++;
     resultContext.nextResultObject(rowValue);
     ((ResultHandler<Object>) resultHandler).handleResult(resultContext);
   }
@@ -408,15 +524,21 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     Object rowValue = createResultObject(rsw, resultMap, lazyLoader, null);
     // 判断该类型是否注册了TypeHandler
     if (rowValue != null && !hasTypeHandlerForResultObject(rsw, resultMap.getType())) {
-      final MetaObject metaObject = configuration.newMetaObject(rowValue);
       boolean foundValues = this.useConstructorMappings;
-      // 判断是否需要处理自动映射
-      if (shouldApplyAutomaticMappings(resultMap, false)) {
-        // 调用applyAutomaticMappings（）方法处理自动映射的字段
-        foundValues = applyAutomaticMappings(rsw, resultMap, metaObject, null) || foundValues;
+      final boolean autoMapping = shouldApplyAutomaticMappings(resultMap, false);
+      final RowMappingPlan plan = getRowMappingPlan(rsw, resultMap, rowValue, null, autoMapping);
+      if (plan != null) {
+        foundValues = plan.applyTo(rsw.getResultSet(), rowValue, configuration.isCallSettersOnNulls()) || foundValues;
+      } else {
+        final MetaObject metaObject = configuration.newMetaObject(rowValue);
+        // 判断是否需要处理自动映射
+        if (autoMapping) {
+          // 调用applyAutomaticMappings（）方法处理自动映射的字段
+          foundValues = applyAutomaticMappings(rsw, resultMap, metaObject, null) || foundValues;
+        }
+        // 处理<result>标签配置映射的字段
+        foundValues = applyPropertyMappings(rsw, resultMap, metaObject, lazyLoader, null) || foundValues;
       }
-      // 处理<result>标签配置映射的字段
-      foundValues = applyPropertyMappings(rsw, resultMap, metaObject, lazyLoader, null) || foundValues;
       foundValues = lazyLoader.size() > 0 || foundValues;
       rowValue = foundValues || configuration.isReturnInstanceForEmptyRow() ? rowValue : null;
     }
@@ -492,10 +614,22 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   }
 
   // 获取所有需要自动映射的数据库字段
+  @SuppressWarnings("unchecked")
   private List<UnMappedColumnAutoMapping> createAutomaticMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, String columnPrefix) throws SQLException {
     final String mapKey = resultMap.getId() + ":" + columnPrefix;
     List<UnMappedColumnAutoMapping> autoMapping = autoMappingsCache.get(mapKey);
     if (autoMapping == null) {
+      // 查找其他语句执行时缓存的自动映射
+      final AutoMappingKey sharedKey = configuration.getAutoMappingCacheSize() > 0
+          ? new AutoMappingKey(mappedStatement, resultMap, columnPrefix, metaObject.getOriginalObject().getClass(), rsw)
+          : null;
+      if (sharedKey != null) {
+        autoMapping = (List<UnMappedColumnAutoMapping>) configuration.getAutoMappingCache().getObject(sharedKey);
+        if (autoMapping != null) {
+          autoMappingsCache.put(mapKey, autoMapping);
+          return autoMapping;
+        }
+      }
       autoMapping = new ArrayList<UnMappedColumnAutoMapping>();
       final List<String> unmappedColumnNames = rsw.getUnmappedColumnNames(resultMap, columnPrefix);
       for (String columnName : unmappedColumnNames) {
@@ -526,6 +660,9 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         }
       }
       autoMappingsCache.put(mapKey, autoMapping);
+      if (sharedKey != null) {
+        configuration.getAutoMappingCache().putObject(sharedKey, Collections.unmodifiableList(autoMapping));
+      }
     }
     return autoMapping;
   }
@@ -550,6 +687,55 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     return foundValues;
   }
 
+  //
+  // COMPILED ROW MAPPING
+  //
+
+  private RowMappingPlan getRowMappingPlan(ResultSetWrapper rsw, ResultMap resultMap, Object rowValue, String columnPrefix, boolean autoMapping) throws SQLException {
+    final RowMappingPlanKey key = new RowMappingPlanKey(rsw, resultMap, columnPrefix, autoMapping);
+    RowMappingPlan plan = rowMappingPlans.get(key);
+    if (plan == null) {
+      plan = compileRowMappingPlan(rsw, resultMap, rowValue, columnPrefix, autoMapping);
+      rowMappingPlans.put(key, plan);
+    }
+    return plan.supports(rowValue) ? plan : null;
+  }
+
+  private RowMappingPlan compileRowMappingPlan(ResultSetWrapper rsw, ResultMap resultMap, Object rowValue, String columnPrefix, boolean autoMapping) throws SQLException {
+    // only plain beans, other objects are set through their ObjectWrapper
+    if (rowValue instanceof ObjectWrapper || rowValue instanceof Map || rowValue instanceof Collection
+        || configuration.getObjectWrapperFactory().hasWrapperFor(rowValue)) {
+      return RowMappingPlan.UNSUPPORTED;
+    }
+    final MetaClass metaClass = MetaClass.forClass(rowValue.getClass(), reflectorFactory);
+    final ResultSet rs = rsw.getResultSet();
+    final RowMappingPlan plan = new RowMappingPlan(rowValue.getClass());
+    if (autoMapping) {
+      final MetaObject metaObject = configuration.newMetaObject(rowValue);
+      for (UnMappedColumnAutoMapping mapping : createAutomaticMappings(rsw, resultMap, metaObject, columnPrefix)) {
+        if (!plan.addColumnMapping(rs, mapping.column, mapping.property, mapping.typeHandler, metaClass)) {
+          return RowMappingPlan.UNSUPPORTED;
+        }
+      }
+    }
+    final List<String> mappedColumnNames = rsw.getMappedColumnNames(resultMap, columnPrefix);
+    for (ResultMapping propertyMapping : resultMap.getPropertyResultMappings()) {
+      if (propertyMapping.getNestedQueryId() != null || propertyMapping.getResultSet() != null || propertyMapping.isCompositeResult()) {
+        return RowMappingPlan.UNSUPPORTED;
+      }
+      final String column = prependPrefix(propertyMapping.getColumn(), columnPrefix);
+      if (propertyMapping.getNestedResultMapId() != null || propertyMapping.getProperty() == null
+          || column == null || !mappedColumnNames.contains(column.toUpperCase(Locale.ENGLISH))) {
+        // nested result maps are applied by applyNestedResultMappings()
+        continue;
+      }
+      if (!plan.addColumnMapping(rs, column, propertyMapping.getProperty(), propertyMapping.getTypeHandler(), metaClass)) {
+        return RowMappingPlan.UNSUPPORTED;
+      }
+    }
+    return plan;
+  }
+
   // 多ResultSet处理
   private void linkToParents(ResultSet rs, ResultMapping parentMapping, Object rowValue) throws SQLException {
     CacheKey parentKey = createKeyForMultipleResults(rs, parentMapping, parentMapping.getColumn(), parentMapping.getForeignColumn());
@@ -774,7 +960,9 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     final Class<?> nestedQueryParameterType = nestedQuery.getParameterMap().getType();
     final Object nestedQueryParameterObject = prepareParameterForNestedQuery(rs, propertyMapping, nestedQueryParameterType, columnPrefix);
     Object value = null;
-    if (nestedQueryParameterObject != null) {
+    if (nestedQueryParameterObject != null && propertyMapping.getBatchSize() > 0) {
+      value = addToNestedQueryBatch(metaResultObject, propertyMapping, nestedQuery, nestedQueryParameterObject, lazyLoader);
+    } else if (nestedQueryParameterObject != null) {
       final BoundSql nestedBoundSql = nestedQuery.getBoundSql(nestedQueryParameterObject);
       final CacheKey key = executor.createCacheKey(nestedQuery, nestedQueryParameterObject, RowBounds.DEFAULT, nestedBoundSql);
       final Class<?> targetType = propertyMapping.getJavaType();
@@ -794,6 +982,39 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     return value;
   }
 
+  // 批量嵌套查询，累积batchSize个父对象后执行一次嵌套查询，结果集处理完成时执行剩余部分
+  private Object addToNestedQueryBatch(MetaObject metaResultObject, ResultMapping propertyMapping, MappedStatement nestedQuery, Object key,
+      ResultLoaderMap lazyLoader) throws SQLException {
+    if (propertyMapping.isLazy()) {
+      // 延迟加载，第一次访问该属性时加载同一结果集中所有对象的该属性
+      lazyLoader.addBatchLoader(propertyMapping.getProperty(), metaResultObject,
+          getBatchResultLoader(lazyBatchResultLoaders, propertyMapping, nestedQuery), key);
+      return DEFERED;
+    }
+    BatchResultLoader batchResultLoader = getBatchResultLoader(batchResultLoaders, propertyMapping, nestedQuery);
+    batchResultLoader.addParent(key, metaResultObject);
+    // 自定义ResultHandler和Cursor会立即取走结果对象，不能延迟到结果集处理完成
+    if (batchResultLoader.isFull() || resultHandler != null || streamingNestedResults) {
+      batchResultLoader.load();
+    }
+    return DEFERED;
+  }
+
+  private BatchResultLoader getBatchResultLoader(Map<ResultMapping, BatchResultLoader> loaders, ResultMapping propertyMapping, MappedStatement nestedQuery) {
+    BatchResultLoader batchResultLoader = loaders.get(propertyMapping);
+    if (batchResultLoader == null) {
+      batchResultLoader = new BatchResultLoader(configuration, executor, nestedQuery, propertyMapping);
+      loaders.put(propertyMapping, batchResultLoader);
+    }
+    return batchResultLoader;
+  }
+
+  private void loadNestedQueryBatches() throws SQLException {
+    for (BatchResultLoader batchResultLoader : batchResultLoaders.values()) {
+      batchResultLoader.load();
+    }
+  }
+
   private Object prepareParameterForNestedQuery(ResultSet rs, ResultMapping resultMapping, Class<?> parameterType, String columnPrefix) throws SQLException {
     if (resultMapping.isCompositeResult()) {
       return prepareCompositeKeyParameter(rs, resultMapping, parameterType, columnPrefix);
@@ -886,12 +1107,13 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     Object rowValue = previousRowValue;
     // 遍历处理每一行记录
     while (shouldProcessMoreRows(resultContext, rowBounds) && rsw.getResultSet().next()) {
+      rowsFetched++;
       // 处理<discriminator>标签配置的鉴别器
       final ResultMap discriminatedResultMap = resolveDiscriminatedResultMap(rsw.getResultSet(), resultMap, null);
       final CacheKey rowKey = createRowKey(discriminatedResultMap, rsw, null);
       // 获取缓存的嵌套实体
       Object partialObject = nestedResultObjects.get(rowKey);
-      if (mappedStatement.isResultOrdered()) {
+      if (isResultOrdered()) {
         // 缓存的嵌套实体对象不为空
         if (partialObject == null && rowValue != null) {
           nestedResultObjects.clear();
@@ -906,7 +1128,8 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         }
       }
     }
-    if (rowValue != null && mappedStatement.isResultOrdered() && shouldProcessMoreRows(resultContext, rowBounds)) {
+    if (rowValue != null && isResultOrdered() && shouldProcessMoreRows(resultContext, rowBounds)) {
+      nestedResultObjects.clear();
       storeObject(resultHandler, resultContext, rowValue, parentMapping, rsw.getResultSet());
       previousRowValue = null;
     } else if (rowValue != null) {
@@ -914,6 +1137,11 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     }
   }
 
+  // 结果是否按主键有序，有序时已完成的结果对象会被立即输出，不再保留在nestedResultObjects中
+  private boolean isResultOrdered() {
+    return streamingNestedResults || mappedStatement.isResultOrdered();
+  }
+
   private Object getRowValue(ResultSetWrapper rsw, ResultMap resultMap, CacheKey combinedKey, String columnPrefix, Object partialObject) throws SQLException {
     final String resultMapId = resultMap.getId();
     // 如果缓存了嵌套ResultMap对应的实体对象，则调用applyNestedResultMappings（）方法处理
@@ -934,13 +1162,19 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         final MetaObject metaObject = configuration.newMetaObject(rowValue);
         // 是否使用构造器映射
         boolean foundValues = this.useConstructorMappings;
-        // 是否指定了自动映射
-        if (shouldApplyAutomaticMappings(resultMap, true)) {
-          // 调用applyAutomaticMappings（）方法处理自动映射
-          foundValues = applyAutomaticMappings(rsw, resultMap, metaObject, columnPrefix) || foundValues;
+        final boolean autoMapping = shouldApplyAutomaticMappings(resultMap, true);
+        final RowMappingPlan plan = getRowMappingPlan(rsw, resultMap, rowValue, columnPrefix, autoMapping);
+        if (plan != null) {
+          foundValues = plan.applyTo(rsw.getResultSet(), rowValue, configuration.isCallSettersOnNulls()) || foundValues;
+        } else {
+          // 是否指定了自动映射
+          if (autoMapping) {
+            // 调用applyAutomaticMappings（）方法处理自动映射
+            foundValues = applyAutomaticMappings(rsw, resultMap, metaObject, columnPrefix) || foundValues;
+          }
+          // 处理非<id>,<constructor>指定的映射
+          foundValues = applyPropertyMappings(rsw, resultMap, metaObject, lazyLoader, columnPrefix) || foundValues;
         }
-        // 处理非<id>,<constructor>指定的映射
-        foundValues = applyPropertyMappings(rsw, resultMap, metaObject, lazyLoader, columnPrefix) || foundValues;
         putAncestor(rowValue, resultMapId);
         // 处理嵌套的映射
         foundValues = applyNestedResultMappings(rsw, resultMap, metaObject, columnPrefix, combinedKey, true) || foundValues;
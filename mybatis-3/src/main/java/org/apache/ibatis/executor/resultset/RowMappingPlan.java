@@ -0,0 +1,132 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+import org.apache.ibatis.reflection.MetaClass;
+import org.apache.ibatis.reflection.ReflectionException;
+import org.apache.ibatis.reflection.invoker.Invoker;
+import org.apache.ibatis.type.TypeHandler;
+
+/**
+ * The column to property mappings of a result map, resolved against the columns of one result set.
+ * <p>
+ * Column indexes, type handlers and setters are looked up once, so that every row is mapped by calling the setters
+ * directly, without a {@link org.apache.ibatis.reflection.MetaObject}. Columns are read by index with the built-in
+ * type handlers, and by name with the others, whose index getter may differ.
+ * A plan can only be compiled when every mapping is a simple column to bean property mapping; result maps with
+ * nested queries, multiple result sets or composite columns are mapped as before.
+ */
+final class RowMappingPlan {
+
+  static final RowMappingPlan UNSUPPORTED = new RowMappingPlan(null);
+
+  private final Class<?> resultType;
+  private final List<ColumnMapping> columnMappings = new ArrayList<ColumnMapping>();
+
+  RowMappingPlan(Class<?> resultType) {
+    this.resultType = resultType;
+  }
+
+  /*
+   * Adds the mapping of a column to a property of the result type
+   *
+   * @return false when the property cannot be set directly
+   */
+  boolean addColumnMapping(ResultSet rs, String column, String property, TypeHandler<?> typeHandler, MetaClass metaClass) {
+    if (property.indexOf('.') > -1 || property.indexOf('[') > -1 || !metaClass.hasSetter(property)) {
+      return false;
+    }
+    final int columnIndex;
+    try {
+      columnIndex = rs.findColumn(column);
+    } catch (SQLException e) {
+      return false;
+    }
+    columnMappings.add(new ColumnMapping(column, isBuiltIn(typeHandler) ? columnIndex : 0, property, typeHandler,
+        metaClass.getSetInvoker(property), metaClass.getSetterType(property).isPrimitive()));
+    return true;
+  }
+
+  // 自定义TypeHandler可能只实现了按列名读取的方法
+  private static boolean isBuiltIn(TypeHandler<?> typeHandler) {
+    Class<?> type = typeHandler.getClass();
+    return type.getClassLoader() == TypeHandler.class.getClassLoader()
+        && type.getName().startsWith(TypeHandler.class.getPackage().getName() + ".");
+  }
+
+  boolean supports(Object resultObject) {
+    return resultType != null && resultType == resultObject.getClass();
+  }
+
+  /*
+   * Maps the current row of the result set to the result object
+   *
+   * @return whether any of the mapped columns had a value
+   */
+  boolean applyTo(ResultSet rs, Object resultObject, boolean callSettersOnNulls) throws SQLException {
+    boolean foundValues = false;
+    for (int i = 0, n = columnMappings.size(); i < n; i++) {
+      final ColumnMapping mapping = columnMappings.get(i);
+      final Object value = mapping.columnIndex > 0
+          ? mapping.typeHandler.getResult(rs, mapping.columnIndex) : mapping.typeHandler.getResult(rs, mapping.column);
+      if (value != null) {
+        foundValues = true;
+      }
+      if (value != null || (callSettersOnNulls && !mapping.primitive)) {
+        mapping.setValue(resultObject, value);
+      }
+    }
+    return foundValues;
+  }
+
+  private static final class ColumnMapping {
+    private final String column;
+    // 按列名读取时为0
+    private final int columnIndex;
+    private final String property;
+    private final TypeHandler<?> typeHandler;
+    private final Invoker setter;
+    private final boolean primitive;
+
+    ColumnMapping(String column, int columnIndex, String property, TypeHandler<?> typeHandler, Invoker setter, boolean primitive) {
+      this.column = column;
+      this.columnIndex = columnIndex;
+      this.property = property;
+      this.typeHandler = typeHandler;
+      this.setter = setter;
+      this.primitive = primitive;
+    }
+
+    void setValue(Object resultObject, Object value) {
+      try {
+        try {
+          setter.invoke(resultObject, new Object[] { value });
+        } catch (Throwable t) {
+          throw ExceptionUtil.unwrapThrowable(t);
+        }
+      } catch (Throwable t) {
+        throw new ReflectionException("Could not set property '" + property + "' of '" + resultObject.getClass() + "' with value '" + value + "' Cause: " + t.toString(), t);
+      }
+    }
+  }
+
+}
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -21,6 +21,7 @@ import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.parsing.SqlTableParser;
 import org.apache.ibatis.scripting.LanguageDriver;
 import org.apache.ibatis.session.Configuration;
 
@@ -49,6 +50,7 @@ public final class MappedStatement {
   private String[] keyColumns;
   private String databaseId;
   private String[] resultSets;
+  private String[] tables; // 查询读取或增删改修改的表，未声明时从SQL中解析
 
   private Cache cache; // 二级缓存实例
   private SqlSource sqlSource; // 解析SQL语句生成的SqlSource实例
@@ -175,6 +177,14 @@ public final class MappedStatement {
       return this;
     }
 
+    /**
+     * @since 3.5.0
+     */
+    public Builder tables(String tables) {
+      mappedStatement.tables = SqlTableParser.normalizeTables(tables);
+      return this;
+    }
+
     /** @deprecated Use {@link #resultSets} */
     @Deprecated
     public Builder resulSets(String resultSet) {
@@ -284,6 +294,14 @@ public final class MappedStatement {
     return resultSets;
   }
 
+  /**
+   * @return the declared tables the statement reads or modifies, or null to parse them from the SQL
+   * @since 3.5.0
+   */
+  public String[] getTables() {
+    return tables;
+  }
+
   /** @deprecated Use {@link #getResultSets()} */
   @Deprecated
   public String[] getResulSets() {
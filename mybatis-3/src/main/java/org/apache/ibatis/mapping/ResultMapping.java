@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2016 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -59,6 +59,10 @@ public class ResultMapping {
   private String foreignColumn;
   // 是否懒加载
   private boolean lazy;
+  // 批量执行嵌套查询时每次查询的父对象数量，0表示每个父对象执行一次嵌套查询
+  private int batchSize;
+  // 批量嵌套查询返回的子对象中，值与父对象column字段相等的属性
+  private String batchKey;
 
   ResultMapping() {
   }
@@ -145,6 +149,16 @@ public class ResultMapping {
       resultMapping.lazy = lazy;
       return this;
     }
+
+    public Builder batchSize(int batchSize) {
+      resultMapping.batchSize = batchSize;
+      return this;
+    }
+
+    public Builder batchKey(String batchKey) {
+      resultMapping.batchKey = batchKey;
+      return this;
+    }
     
     public ResultMapping build() {
       // lock down collections
@@ -181,6 +195,14 @@ public class ResultMapping {
           throw new IllegalStateException("There should be the same number of columns and foreignColumns in property " + resultMapping.property);
         }
       }
+      if (resultMapping.batchSize > 0) {
+        if (resultMapping.nestedQueryId == null || resultMapping.isCompositeResult()) {
+          throw new IllegalStateException("batchSize requires a nested select with a single column in property " + resultMapping.property);
+        }
+        if (resultMapping.batchKey == null) {
+          throw new IllegalStateException("batchSize requires a batchKey in property " + resultMapping.property);
+        }
+      }
     }
     
     private void resolveTypeHandler() {
@@ -264,6 +286,22 @@ public class ResultMapping {
   public void setLazy(boolean lazy) {
     this.lazy = lazy;
   }
+
+  /**
+   * @return the number of parent rows whose nested select runs as a single query, 0 when it runs once per row
+   * @since 3.5.0
+   */
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * @return the property of the results of the batched nested select that holds the value of the column
+   * @since 3.5.0
+   */
+  public String getBatchKey() {
+    return batchKey;
+  }
   
   @Override
   public boolean equals(Object o) {
@@ -312,6 +350,8 @@ public class ResultMapping {
     sb.append(", resultSet='").append(resultSet).append('\'');
     sb.append(", foreignColumn='").append(foreignColumn).append('\'');
     sb.append(", lazy=").append(lazy);
+    sb.append(", batchSize=").append(batchSize);
+    sb.append(", batchKey='").append(batchKey).append('\'');
     sb.append('}');
     return sb.toString();
   }
@@ -0,0 +1,40 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.metrics;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Logs the query trace events as warnings.
+ *
+ * @since 3.5.0
+ */
+public class LoggingQueryTraceListener implements QueryTraceListener {
+
+  private static final Log log = LogFactory.getLog(LoggingQueryTraceListener.class);
+
+  @Override
+  public void slowQuery(QueryTrace trace) {
+    log.warn("Slow query: " + trace);
+  }
+
+  @Override
+  public void tooManyNestedQueries(QueryTrace trace) {
+    log.warn("Too many nested queries: " + trace);
+  }
+
+}
@@ -0,0 +1,82 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.metrics;
+
+import org.apache.ibatis.datasource.pooled.PoolState;
+import org.apache.ibatis.mapping.MappedStatement;
+
+/**
+ * Receives measurements from the executors, the result set handler, the caches and the pooled data sources.
+ * <p>
+ * Registered with the {@code metricsCollector} setting or {@link org.apache.ibatis.session.Configuration#setMetricsCollector}.
+ * When no collector is registered nothing is measured. Methods are called on the thread doing the work,
+ * from every session, so implementations must be thread safe and should not block.
+ *
+ * @since 3.5.0
+ */
+public interface MetricsCollector {
+
+  /**
+   * A query or an update went to the database. For the BATCH executor an update only adds it to the batch,
+   * see {@link #batchExecuted}. A tracer can derive the start of the span from the current time and the latency.
+   *
+   * @param error the exception thrown by the statement, null when it succeeded
+   */
+  void statementExecuted(MappedStatement ms, long elapsedNanos, Throwable error);
+
+  /**
+   * The rows of the result sets of a query were handled.
+   *
+   * @param rowsFetched the rows read from the result sets
+   * @param rowsMapped the result objects returned or passed to the result handler
+   */
+  void resultsHandled(MappedStatement ms, int rowsFetched, int rowsMapped);
+
+  /**
+   * A batch was sent by the BATCH executor.
+   *
+   * @param batchSize the number of updates in the batch
+   */
+  void batchExecuted(MappedStatement ms, int batchSize, long elapsedNanos);
+
+  /**
+   * The session cache was looked up for a query.
+   */
+  void localCacheAccessed(MappedStatement ms, boolean hit);
+
+  /**
+   * The second level cache of a namespace was looked up for a query.
+   *
+   * @param cacheId the id of the cache, that is the namespace that declares it
+   */
+  void secondLevelCacheAccessed(MappedStatement ms, String cacheId, boolean hit);
+
+  /**
+   * A connection was borrowed from a pooled data source.
+   *
+   * @param state the pool, to read the active and idle connection gauges from
+   * @param waitMillis how long the request waited for the connection
+   */
+  void connectionAcquired(PoolState state, long waitMillis);
+
+  /**
+   * A connection was given back to a pooled data source.
+   *
+   * @param state the pool, to read the active and idle connection gauges from
+   */
+  void connectionReleased(PoolState state);
+
+}
@@ -0,0 +1,215 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * The nested selects and lazy loads triggered by a root query, that is a query not executed while
+ * another query of the same thread is running.
+ * <p>
+ * Only created when the {@code slowQueryThreshold} or the {@code nestedQueryThreshold} setting is enabled.
+ * The executors keep the trace of the running root query of each thread, and the lazy loaders
+ * keep the trace of the query that created them so that loads done later, and the nested selects of these
+ * loads, are still counted.
+ * <p>
+ * Cursor queries are not traced: the nested selects run while a cursor is iterated are root queries.
+ *
+ * @since 3.5.0
+ */
+public class QueryTrace {
+
+  private static final ThreadLocal<QueryTrace> CURRENT = new ThreadLocal<QueryTrace>();
+  // 当前线程是否正在为已结束的根查询执行延迟加载
+  private static final ThreadLocal<Boolean> LAZY_LOADING = new ThreadLocal<Boolean>();
+
+  private final String statementId;
+  private final long slowQueryThresholdNanos;
+  private final int nestedQueryThreshold;
+  private final QueryTraceListener listener;
+  // 根查询结束前为-1
+  private long elapsedNanos = -1;
+  private int nestedQueryCount;
+  private long nestedQueryNanos;
+  private int lazyLoadCount;
+  private long lazyLoadNanos;
+  // 嵌套查询和延迟加载执行的MappedStatement及其执行次数
+  private final Map<String, Integer> nestedStatementCounts = new LinkedHashMap<String, Integer>();
+  private boolean nestedQueriesReported;
+
+  public QueryTrace(String statementId, Configuration configuration) {
+    this.statementId = statementId;
+    this.slowQueryThresholdNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getSlowQueryThreshold());
+    this.nestedQueryThreshold = configuration.getNestedQueryThreshold();
+    this.listener = configuration.getQueryTraceListener();
+  }
+
+  /**
+   * @return the trace of the root query running on the current thread, or null
+   */
+  public static QueryTrace current() {
+    return CURRENT.get();
+  }
+
+  public static void setCurrent(QueryTrace trace) {
+    if (trace == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(trace);
+    }
+  }
+
+  /**
+   * Makes the trace of a root query current while a property of one of its results is lazy loaded, unless another
+   * root query is running on the current thread.
+   *
+   * @return true when the trace was made current, {@link #endLazyLoad()} must then be called
+   */
+  public static boolean beginLazyLoad(QueryTrace trace) {
+    if (CURRENT.get() != null) {
+      return false;
+    }
+    CURRENT.set(trace);
+    LAZY_LOADING.set(Boolean.TRUE);
+    return true;
+  }
+
+  public static void endLazyLoad() {
+    CURRENT.remove();
+    LAZY_LOADING.remove();
+  }
+
+  /**
+   * @return true while a lazy load started by {@link #beginLazyLoad} runs on the current thread
+   */
+  public static boolean isLazyLoading() {
+    return LAZY_LOADING.get() != null;
+  }
+
+  /**
+   * Records a select executed while the root query, or one of its lazy loads, was running.
+   */
+  public void addNestedQuery(String nestedStatementId, long elapsedNanos) {
+    boolean report;
+    synchronized (this) {
+      nestedQueryCount++;
+      nestedQueryNanos += elapsedNanos;
+      countNestedStatement(nestedStatementId);
+      // 延迟加载的嵌套查询在根查询结束后执行
+      report = shouldReportNestedQueries();
+    }
+    if (report) {
+      listener.tooManyNestedQueries(this);
+    }
+  }
+
+  /**
+   * Records a lazy load of a property of a result of the root query.
+   */
+  public void addLazyLoad(String nestedStatementId, long elapsedNanos) {
+    boolean report;
+    synchronized (this) {
+      lazyLoadCount++;
+      lazyLoadNanos += elapsedNanos;
+      countNestedStatement(nestedStatementId);
+      report = shouldReportNestedQueries();
+    }
+    if (report) {
+      listener.tooManyNestedQueries(this);
+    }
+  }
+
+  /**
+   * Ends the root query and notifies the listener of the thresholds it crossed.
+   */
+  public void finish(long elapsedNanos) {
+    boolean reportNestedQueries;
+    synchronized (this) {
+      this.elapsedNanos = elapsedNanos;
+      reportNestedQueries = shouldReportNestedQueries();
+    }
+    if (slowQueryThresholdNanos > 0 && elapsedNanos >= slowQueryThresholdNanos) {
+      listener.slowQuery(this);
+    }
+    if (reportNestedQueries) {
+      listener.tooManyNestedQueries(this);
+    }
+  }
+
+  private void countNestedStatement(String nestedStatementId) {
+    Integer count = nestedStatementCounts.get(nestedStatementId);
+    nestedStatementCounts.put(nestedStatementId, count == null ? 1 : count + 1);
+  }
+
+  private boolean shouldReportNestedQueries() {
+    if (nestedQueriesReported || nestedQueryThreshold <= 0 || elapsedNanos < 0
+        || nestedQueryCount + lazyLoadCount <= nestedQueryThreshold) {
+      return false;
+    }
+    nestedQueriesReported = true;
+    return true;
+  }
+
+  public String getStatementId() {
+    return statementId;
+  }
+
+  /**
+   * @return the time spent in the root query including its nested selects, -1 while it is running
+   */
+  public synchronized long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  public synchronized int getNestedQueryCount() {
+    return nestedQueryCount;
+  }
+
+  public synchronized long getNestedQueryNanos() {
+    return nestedQueryNanos;
+  }
+
+  public synchronized int getLazyLoadCount() {
+    return lazyLoadCount;
+  }
+
+  public synchronized long getLazyLoadNanos() {
+    return lazyLoadNanos;
+  }
+
+  /**
+   * @return the ids of the statements executed by nested selects and lazy loads, with their execution counts
+   */
+  public synchronized Map<String, Integer> getNestedStatementCounts() {
+    return new LinkedHashMap<String, Integer>(nestedStatementCounts);
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "statement=" + statementId
+        + ", elapsedMillis=" + TimeUnit.NANOSECONDS.toMillis(elapsedNanos)
+        + ", nestedQueries=" + nestedQueryCount
+        + ", nestedQueryMillis=" + TimeUnit.NANOSECONDS.toMillis(nestedQueryNanos)
+        + ", lazyLoads=" + lazyLoadCount
+        + ", lazyLoadMillis=" + TimeUnit.NANOSECONDS.toMillis(lazyLoadNanos)
+        + ", nestedStatements=" + nestedStatementCounts;
+  }
+
+}
@@ -0,0 +1,41 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.metrics;
+
+/**
+ * Notified when a query crosses the {@code slowQueryThreshold} or the {@code nestedQueryThreshold} setting.
+ * <p>
+ * Registered with the {@code queryTraceListener} setting, the default one logs the events.
+ * Methods may be called from any thread.
+ *
+ * @see LoggingQueryTraceListener
+ * @since 3.5.0
+ */
+public interface QueryTraceListener {
+
+  /**
+   * The query, including the nested selects it triggered, took longer than the slow query threshold.
+   */
+  void slowQuery(QueryTrace trace);
+
+  /**
+   * The nested selects and lazy loads triggered by the query exceeded the nested query threshold,
+   * which usually means a N+1 selects problem. Called once per query, when the query ends or
+   * by the lazy load that crossed the threshold.
+   */
+  void tooManyNestedQueries(QueryTrace trace);
+
+}
@@ -0,0 +1,609 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.parsing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Finds the tables read or modified by SQL statements, for the TABLE cache invalidation scope.
+ * <p>
+ * Read tables are the tables named after {@code FROM} and {@code JOIN}, modified tables the targets of
+ * {@code INSERT}, {@code UPDATE}, {@code DELETE}, {@code MERGE}, {@code REPLACE} and {@code TRUNCATE}.
+ * Names are returned in lower case without schema and quotes. When the tables cannot be found, for instance
+ * for procedure calls, table functions or DDL, null is returned. Tables read through views, functions or
+ * triggers are not found and must be declared with the {@code tables} attribute of the statement.
+ *
+ * @since 3.5.0
+ */
+public final class SqlTableParser {
+
+  // 每种解析缓存的最大SQL数量，超过时清空
+  private static final int MAX_CACHED_STATEMENTS = 1024;
+  // 缓存中表示无法确定表的值
+  private static final String[] UNKNOWN = new String[0];
+
+  private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(
+      "select", "from", "where", "group", "order", "having", "limit", "offset", "fetch", "join", "inner", "left",
+      "right", "full", "cross", "outer", "natural", "straight_join", "on", "using", "union", "except", "intersect",
+      "minus", "set", "values", "for", "into", "as", "with", "window", "lateral", "only", "partition", "start",
+      "connect", "returning", "when", "then", "else", "end", "and", "or", "not", "use", "force", "ignore", "table",
+      "replace", "low_priority", "high_priority", "delayed", "abort", "fail", "rollback"));
+  private static final Set<String> FROM_CLAUSE_ENDS = new HashSet<String>(Arrays.asList(
+      "select", "where", "group", "order", "having", "limit", "offset", "fetch", "union", "except", "intersect",
+      "minus", "window", "for", "start", "connect", "set", "values", "returning"));
+  private static final Set<String> QUERIES = new HashSet<String>(Arrays.asList("select", "with"));
+  private static final Set<String> KEY_CONDITION_EXCLUSIONS = new HashSet<String>(Arrays.asList(
+      "select", "join", "union", "except", "intersect", "minus", "group", "having", "or", "not", "in", "like",
+      "between", "is", "exists", "connect", "start", "with", "limit", "offset", "fetch", "order", "returning"));
+  private static final Set<String> STATEMENTS = new HashSet<String>(Arrays.asList(
+      "select", "with", "values", "insert", "update", "delete", "merge", "replace", "upsert", "truncate"));
+
+  private static final ConcurrentMap<String, String[]> readTablesCache = new ConcurrentHashMap<String, String[]>();
+  private static final ConcurrentMap<String, String[]> modifiedTablesCache = new ConcurrentHashMap<String, String[]>();
+  private static final ConcurrentMap<String, String[]> insertedTablesCache = new ConcurrentHashMap<String, String[]>();
+  private static final ConcurrentMap<String, KeyCondition> keyConditionCache = new ConcurrentHashMap<String, KeyCondition>();
+
+  private SqlTableParser() {
+    // Prevent Instantiation
+  }
+
+  /**
+   * @return the sorted tables read by the SQL, or null when they are unknown. The array must not be modified.
+   */
+  public static String[] parseReadTables(String sql) {
+    return cachedParse(readTablesCache, sql, false);
+  }
+
+  /**
+   * @return the sorted tables modified by the SQL, or null when they are unknown. The array must not be modified.
+   */
+  public static String[] parseModifiedTables(String sql) {
+    return cachedParse(modifiedTablesCache, sql, true);
+  }
+
+  /**
+   * @return the sorted tables into which the SQL only inserts rows, or null when it may also modify rows, for
+   *         instance with {@code ON DUPLICATE KEY UPDATE}. The array must not be modified.
+   */
+  public static String[] parseInsertedTables(String sql) {
+    String[] tables = insertedTablesCache.get(sql);
+    if (tables == null) {
+      tables = UNKNOWN;
+      if (isInsertOnly(tokenize(sql))) {
+        String[] modifiedTables = parseModifiedTables(sql);
+        if (modifiedTables != null) {
+          tables = modifiedTables;
+        }
+      }
+      cache(insertedTablesCache, sql, tables);
+    }
+    return tables == UNKNOWN ? null : tables;
+  }
+
+  /**
+   * Parses the single table {@code SELECT}, {@code UPDATE} and {@code DELETE} statements whose {@code WHERE}
+   * clause only compares columns for equality, like {@code SELECT * FROM blog WHERE id = ?}.
+   *
+   * @return the condition, or null for other statements
+   */
+  public static KeyCondition parseKeyCondition(String sql) {
+    KeyCondition condition = keyConditionCache.get(sql);
+    if (condition == null) {
+      condition = parseKeyCondition(tokenize(sql));
+      if (condition == null) {
+        condition = KeyCondition.NONE;
+      }
+      cache(keyConditionCache, sql, condition);
+    }
+    return condition == KeyCondition.NONE ? null : condition;
+  }
+
+  /**
+   * @return the lower case names of the comma separated tables, or null for a blank string
+   */
+  public static String[] normalizeTables(String tables) {
+    Map<String, String[]> declaredTables = parseDeclaredTables(tables);
+    if (declaredTables == null) {
+      return null;
+    }
+    return declaredTables.keySet().toArray(new String[declaredTables.size()]);
+  }
+
+  /**
+   * Parses the primary key columns declared in parentheses after the tables, like {@code blog(id), post_tag(post_id, tag_id)}.
+   *
+   * @return the sorted lower case key columns of the tables declaring them, by lower case table name
+   */
+  public static Map<String, String[]> parseKeyColumns(String tables) {
+    Map<String, String[]> keyColumns = new TreeMap<String, String[]>();
+    Map<String, String[]> declaredTables = parseDeclaredTables(tables);
+    if (declaredTables != null) {
+      for (Map.Entry<String, String[]> entry : declaredTables.entrySet()) {
+        if (entry.getValue() != null) {
+          keyColumns.put(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+    return keyColumns;
+  }
+
+  // 表名及括号中的主键列，未声明主键列时为null
+  private static Map<String, String[]> parseDeclaredTables(String tables) {
+    if (tables == null || tables.trim().length() == 0) {
+      return null;
+    }
+    Map<String, String[]> declaredTables = new TreeMap<String, String[]>();
+    int start = 0;
+    int depth = 0;
+    for (int i = 0; i <= tables.length(); i++) {
+      char c = i < tables.length() ? tables.charAt(i) : ',';
+      if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+      } else if (c == ',' && depth <= 0) {
+        addDeclaredTable(tables.substring(start, i), declaredTables);
+        start = i + 1;
+        depth = 0;
+      }
+    }
+    return declaredTables;
+  }
+
+  private static void addDeclaredTable(String declaration, Map<String, String[]> declaredTables) {
+    String name = declaration.trim();
+    String[] keyColumns = null;
+    int open = name.indexOf('(');
+    if (open >= 0) {
+      int close = name.lastIndexOf(')');
+      Set<String> columns = new TreeSet<String>();
+      for (String column : name.substring(open + 1, close > open ? close : name.length()).split(",")) {
+        if (column.trim().length() > 0) {
+          columns.add(column.trim().toLowerCase(Locale.ENGLISH));
+        }
+      }
+      keyColumns = columns.isEmpty() ? null : columns.toArray(new String[columns.size()]);
+      name = name.substring(0, open).trim();
+    }
+    name = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ENGLISH);
+    if (name.length() > 0) {
+      declaredTables.put(name, keyColumns);
+    }
+  }
+
+  private static String[] cachedParse(ConcurrentMap<String, String[]> cache, String sql, boolean modified) {
+    String[] tables = cache.get(sql);
+    if (tables == null) {
+      tables = parse(sql, modified);
+      if (tables == null) {
+        tables = UNKNOWN;
+      }
+      cache(cache, sql, tables);
+    }
+    return tables == UNKNOWN ? null : tables;
+  }
+
+  private static <T> void cache(ConcurrentMap<String, T> cache, String sql, T value) {
+    // ${}参数会产生大量不同的SQL
+    if (cache.size() >= MAX_CACHED_STATEMENTS) {
+      cache.clear();
+    }
+    cache.put(sql, value);
+  }
+
+  private static boolean isInsertOnly(List<Token> tokens) {
+    boolean statementStart = true;
+    for (Token token : tokens) {
+      if (statementStart && !token.isKeyword("insert")) {
+        return false;
+      }
+      // INSERT OR REPLACE、ON DUPLICATE KEY UPDATE、ON CONFLICT DO UPDATE会修改已有的行
+      if (token.isKeyword("update") || token.isKeyword("replace")) {
+        return false;
+      }
+      statementStart = token.is(";");
+    }
+    return !tokens.isEmpty();
+  }
+
+  private static KeyCondition parseKeyCondition(List<Token> tokens) {
+    if (tokens.isEmpty()) {
+      return null;
+    }
+    Token head = tokens.get(0);
+    boolean query = head.isKeyword("select");
+    int where = -1;
+    int table = -1;
+    for (int i = 1; i < tokens.size(); i++) {
+      Token token = tokens.get(i);
+      // 子查询、多表、多条语句、分组等
+      if (token.isKeyword(KEY_CONDITION_EXCLUSIONS) || token.is(";") || token.is("(") && where >= 0) {
+        return null;
+      }
+      if (token.isKeyword("from")) {
+        if (table >= 0 || !query && !head.isKeyword("delete") || i != 1 && !query) {
+          return null;
+        }
+        table = i + 1;
+      } else if (token.isKeyword("where")) {
+        if (where >= 0) {
+          return null;
+        }
+        where = i + 1;
+      }
+    }
+    if (head.isKeyword("update")) {
+      table = 1;
+    } else if (!query && !head.isKeyword("delete")) {
+      return null;
+    }
+    if (table < 0 || where < 0 || table >= where - 1 || !tokens.get(table).isName()) {
+      return null;
+    }
+    // 表名之后只能有别名
+    int afterTable = table + 1;
+    if (tokens.get(afterTable).isKeyword("as")) {
+      afterTable++;
+    }
+    if (tokens.get(afterTable).isName()) {
+      afterTable++;
+    }
+    Token next = tokens.get(afterTable);
+    if (!next.isKeyword("where") && !(head.isKeyword("update") && next.isKeyword("set"))) {
+      return null;
+    }
+    Map<String, Integer> parameterIndexes = new HashMap<String, Integer>();
+    int parameterIndex = 0;
+    for (int i = 0; i < where; i++) {
+      if (tokens.get(i).is("?")) {
+        parameterIndex++;
+      }
+    }
+    // column = ? AND column = 'value' AND ...
+    int i = where;
+    while (true) {
+      if (i + 1 >= tokens.size() || !tokens.get(i).isName() || !tokens.get(i + 1).is("=")) {
+        return null;
+      }
+      String column = tokens.get(i).text;
+      i += 2;
+      if (i < tokens.size() && tokens.get(i).is("?")) {
+        parameterIndexes.put(column, parameterIndex++);
+        i++;
+      } else if (i < tokens.size() && tokens.get(i).identifier && !tokens.get(i).isKeyword("and")) {
+        i++;
+      } else if (i < tokens.size() && !tokens.get(i).isKeyword("and")) {
+        return null;
+      }
+      if (i == tokens.size()) {
+        return new KeyCondition(tokens.get(table).text, query, parameterIndexes);
+      }
+      if (!tokens.get(i++).isKeyword("and")) {
+        return null;
+      }
+    }
+  }
+
+  private static String[] parse(String sql, boolean modified) {
+    Set<String> tables = new TreeSet<String>();
+    List<Token> tokens = tokenize(sql);
+    int start = 0;
+    for (int i = 0; i <= tokens.size(); i++) {
+      if (i == tokens.size() || tokens.get(i).is(";")) {
+        List<Token> statement = tokens.subList(start, i);
+        start = i + 1;
+        if (statement.isEmpty()) {
+          continue;
+        }
+        Token head = statement.get(0);
+        if (!head.is("(") && !head.isKeyword(STATEMENTS)) {
+          // 存储过程调用、DDL等
+          return null;
+        }
+        boolean found = modified ? parseModifiedTables(statement, tables) : parseReadTables(statement, tables);
+        if (!found) {
+          return null;
+        }
+      }
+    }
+    if (modified && tables.isEmpty()) {
+      return null;
+    }
+    return tables.toArray(new String[tables.size()]);
+  }
+
+  private static boolean parseReadTables(List<Token> tokens, Set<String> tables) {
+    // 每层括号中是否处于FROM子句，FROM a JOIN b ON ..., c中的c在ON条件之后
+    BitSet fromClauses = new BitSet();
+    // 每层括号是否为子查询，函数参数中的FROM（如SUBSTRING(s FROM 2)）不是FROM子句
+    BitSet subqueries = new BitSet();
+    Set<String> commonTableExpressions = new HashSet<String>();
+    int depth = 0;
+    for (int i = 0; i < tokens.size(); i++) {
+      Token token = tokens.get(i);
+      boolean from = token.isKeyword("from") && (depth == 0 || subqueries.get(depth));
+      if (token.is("(")) {
+        depth++;
+        fromClauses.clear(depth);
+        subqueries.set(depth, i + 1 < tokens.size() && tokens.get(i + 1).isKeyword(QUERIES));
+      } else if (token.is(")")) {
+        fromClauses.clear(depth);
+        depth = Math.max(depth - 1, 0);
+      } else if (from || token.isKeyword("join") || token.is(",") && fromClauses.get(depth)) {
+        if (from) {
+          fromClauses.set(depth);
+        }
+        if (!parseTableList(tokens, i + 1, false, tables)) {
+          return false;
+        }
+      } else if (token.isKeyword(FROM_CLAUSE_ENDS)) {
+        fromClauses.clear(depth);
+      } else if (isCommonTableExpression(tokens, i)) {
+        commonTableExpressions.add(token.text);
+      }
+    }
+    tables.removeAll(commonTableExpressions);
+    tables.remove("dual");
+    return true;
+  }
+
+  // WITH name AS (...), name AS (...)
+  private static boolean isCommonTableExpression(List<Token> tokens, int index) {
+    if (index == 0 || index + 2 >= tokens.size() || !tokens.get(index).isName()
+        || !tokens.get(index + 1).isKeyword("as") || !tokens.get(index + 2).is("(")) {
+      return false;
+    }
+    Token previous = tokens.get(index - 1);
+    return previous.isKeyword("with") || previous.isKeyword("recursive") || previous.is(",");
+  }
+
+  private static boolean parseModifiedTables(List<Token> tokens, Set<String> tables) {
+    boolean found = false;
+    for (int i = 0; i < tokens.size(); i++) {
+      Token token = tokens.get(i);
+      Token previous = i > 0 ? tokens.get(i - 1) : null;
+      int next = i + 1;
+      if (token.isKeyword("insert")) {
+        // MERGE中的WHEN NOT MATCHED THEN INSERT
+        if (previous != null && previous.isKeyword("then")) {
+          continue;
+        }
+        // INSERT IGNORE INTO、INSERT OR REPLACE INTO等
+        while (next < tokens.size() && !tokens.get(next).isName() && !tokens.get(next).is("(")) {
+          if (tokens.get(next++).isKeyword("into")) {
+            break;
+          }
+        }
+      } else if (token.isKeyword("merge") || (i == 0 && (token.isKeyword("replace") || token.isKeyword("upsert")))) {
+        if (next < tokens.size() && tokens.get(next).isKeyword("into")) {
+          next++;
+        }
+      } else if (token.isKeyword("delete")) {
+        // DELETE t1 FROM t1 JOIN t2中的t1可能是别名
+        if (next >= tokens.size() || !tokens.get(next).isKeyword("from")) {
+          return false;
+        }
+        next++;
+      } else if (token.isKeyword("truncate")) {
+        if (next < tokens.size() && tokens.get(next).isKeyword("table")) {
+          next++;
+        }
+      } else if (token.isKeyword("update")) {
+        // SELECT ... FOR UPDATE、ON DUPLICATE KEY UPDATE、ON CONFLICT DO UPDATE和MERGE中的WHEN MATCHED THEN UPDATE SET
+        if (previous != null && (previous.isKeyword("for") || previous.isKeyword("key") || previous.isKeyword("do"))
+            || next < tokens.size() && tokens.get(next).isKeyword("set")) {
+          continue;
+        }
+        // 多表更新：UPDATE t1 JOIN t2 ON ... SET
+        if (!parseTableList(tokens, next, true, tables)) {
+          return false;
+        }
+        for (int j = next; j < tokens.size() && !tokens.get(j).isKeyword("set"); j++) {
+          if (tokens.get(j).isKeyword("join") && !parseTableList(tokens, j + 1, false, tables)) {
+            return false;
+          }
+        }
+        found = true;
+        continue;
+      } else {
+        continue;
+      }
+      if (next >= tokens.size() || !tokens.get(next).isName()) {
+        return false;
+      }
+      tables.add(tokens.get(next).text);
+      found = true;
+    }
+    return found;
+  }
+
+  // 解析FROM、JOIN或UPDATE之后的表及其别名
+  private static boolean parseTableList(List<Token> tokens, int index, boolean list, Set<String> tables) {
+    int i = index;
+    while (i < tokens.size()) {
+      Token token = tokens.get(i);
+      if (token.is("(")) {
+        // 子查询中的表在遍历到其FROM时解析，带括号的JOIN则继续解析第一张表
+        if (i + 1 < tokens.size() && tokens.get(i + 1).isKeyword(QUERIES)) {
+          return true;
+        }
+        i++;
+        continue;
+      }
+      // 表函数、LATERAL、ONLY等
+      if (!token.isName() || i + 1 < tokens.size() && tokens.get(i + 1).is("(")) {
+        return false;
+      }
+      tables.add(token.text);
+      i++;
+      if (i < tokens.size() && tokens.get(i).isKeyword("as")) {
+        i++;
+      }
+      if (i < tokens.size() && tokens.get(i).isName()) {
+        i++;
+      }
+      if (!list || i >= tokens.size() || !tokens.get(i).is(",")) {
+        return true;
+      }
+      i++;
+    }
+    return false;
+  }
+
+  private static List<Token> tokenize(String sql) {
+    List<Token> tokens = new ArrayList<Token>();
+    int length = sql.length();
+    int i = 0;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+        int end = sql.indexOf('\n', i);
+        i = end < 0 ? length : end + 1;
+      } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? length : end + 2;
+      } else if (c == '\'') {
+        i++;
+        while (i < length) {
+          if (sql.charAt(i) == '\'') {
+            if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+              i += 2;
+              continue;
+            }
+            i++;
+            break;
+          }
+          i++;
+        }
+      } else if (c == '"' || c == '`' || c == '[') {
+        int end = sql.indexOf(c == '[' ? ']' : c, i + 1);
+        if (end < 0) {
+          end = length;
+        }
+        addName(tokens, new Token(sql.substring(i + 1, end).toLowerCase(Locale.ENGLISH), true, true));
+        i = end + 1;
+      } else if (isNameChar(c)) {
+        int start = i;
+        while (i < length && isNameChar(sql.charAt(i))) {
+          i++;
+        }
+        addName(tokens, new Token(sql.substring(start, i).toLowerCase(Locale.ENGLISH), true, false));
+      } else {
+        tokens.add(new Token(String.valueOf(c), false, false));
+        i++;
+      }
+    }
+    return tokens;
+  }
+
+  // schema.table只保留表名
+  private static void addName(List<Token> tokens, Token name) {
+    int size = tokens.size();
+    if (size >= 2 && tokens.get(size - 1).is(".") && tokens.get(size - 2).identifier) {
+      tokens.remove(size - 1);
+      tokens.remove(size - 2);
+    }
+    tokens.add(name);
+  }
+
+  private static boolean isNameChar(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#';
+  }
+
+  /**
+   * The equality conditions of the {@code WHERE} clause of a single table statement.
+   */
+  public static final class KeyCondition {
+
+    // 缓存中表示没有条件的值
+    static final KeyCondition NONE = new KeyCondition(null, false, Collections.<String, Integer>emptyMap());
+
+    private final String table;
+    private final boolean query;
+    private final Map<String, Integer> parameterIndexes;
+
+    KeyCondition(String table, boolean query, Map<String, Integer> parameterIndexes) {
+      this.table = table;
+      this.query = query;
+      this.parameterIndexes = parameterIndexes;
+    }
+
+    public String getTable() {
+      return table;
+    }
+
+    /**
+     * @return true for a {@code SELECT}, false for an {@code UPDATE} or a {@code DELETE}
+     */
+    public boolean isQuery() {
+      return query;
+    }
+
+    /**
+     * @return the index of the parameter the lower case column is compared to, or null when the column is not
+     *         compared to a parameter
+     */
+    public Integer getParameterIndex(String column) {
+      return parameterIndexes.get(column);
+    }
+  }
+
+  private static class Token {
+
+    final String text;
+    final boolean identifier;
+    final boolean quoted;
+
+    Token(String text, boolean identifier, boolean quoted) {
+      this.text = text;
+      this.identifier = identifier;
+      this.quoted = quoted;
+    }
+
+    boolean is(String symbol) {
+      return !identifier && text.equals(symbol);
+    }
+
+    boolean isKeyword(String keyword) {
+      return identifier && !quoted && text.equals(keyword);
+    }
+
+    boolean isKeyword(Set<String> keywords) {
+      return identifier && !quoted && keywords.contains(text);
+    }
+
+    // 表名或别名
+    boolean isName() {
+      return identifier && (quoted || !KEYWORDS.contains(text));
+    }
+  }
+
+}
@@ -0,0 +1,327 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.plugin;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtConstructor;
+import javassist.CtField;
+import javassist.CtMethod;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+import javassist.Modifier;
+
+/**
+ * Wraps targets in a single generated class that applies all the interceptors of a chain.
+ * <p>
+ * For each target class the methods of its intercepted interfaces are resolved once: the generated class
+ * calls the methods no interceptor intercepts directly on the target, and the others through an
+ * {@link InterceptedMethod} holding their interceptors. This replaces one {@link Plugin} proxy, signature
+ * lookup and reflective call per interceptor with one dispatcher per target.
+ * <p>
+ * The {@code plugin()} method of the interceptors is not called, the {@link Intercepts} annotation alone
+ * decides what is intercepted, as it does with {@link Plugin#wrap}. Targets whose intercepted interfaces
+ * are not public, which a generated class cannot implement, are wrapped with nested {@link Plugin} proxies.
+ *
+ * @since 3.5.0
+ */
+class FusedPluginFactory {
+
+  private static final AtomicInteger CLASS_COUNTER = new AtomicInteger();
+
+  private final List<Interceptor> interceptors;
+  private final List<Map<Class<?>, Set<Method>>> signatureMaps = new ArrayList<Map<Class<?>, Set<Method>>>();
+  // 每个目标类型的分发器，没有被拦截的接口时为Dispatcher.NONE
+  private final Map<Class<?>, Dispatcher> dispatchers = new ConcurrentHashMap<Class<?>, Dispatcher>();
+
+  FusedPluginFactory(List<Interceptor> interceptors) {
+    this.interceptors = new ArrayList<Interceptor>(interceptors);
+    for (Interceptor interceptor : interceptors) {
+      signatureMaps.add(Plugin.getSignatureMap(interceptor));
+    }
+  }
+
+  Object wrap(Object target) {
+    Class<?> type = target.getClass();
+    Dispatcher dispatcher = dispatchers.get(type);
+    if (dispatcher == null) {
+      synchronized (this) {
+        dispatcher = dispatchers.get(type);
+        if (dispatcher == null) {
+          dispatcher = createDispatcher(type);
+          dispatchers.put(type, dispatcher);
+        }
+      }
+    }
+    return dispatcher.newInstance(target);
+  }
+
+  private Dispatcher createDispatcher(Class<?> type) {
+    Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+    for (Map<Class<?>, Set<Method>> signatureMap : signatureMaps) {
+      interfaces.addAll(Arrays.asList(Plugin.getAllInterfaces(type, signatureMap)));
+    }
+    if (interfaces.isEmpty()) {
+      return Dispatcher.NONE;
+    }
+    // 生成的类无法实现或调用非public的接口，退回到嵌套代理
+    if (!isPublic(interfaces)) {
+      return new ProxyDispatcher(interceptors);
+    }
+    // 同一方法可能在多个接口中声明，只生成一次，但每个接口中的声明都可能被拦截
+    Map<String, List<Method>> methods = new LinkedHashMap<String, List<Method>>();
+    for (Class<?> iface : interfaces) {
+      for (Method method : iface.getMethods()) {
+        if (java.lang.reflect.Modifier.isStatic(method.getModifiers())) {
+          continue;
+        }
+        String key = method.getName() + Arrays.toString(method.getParameterTypes());
+        List<Method> declarations = methods.get(key);
+        if (declarations == null) {
+          declarations = new ArrayList<Method>();
+          methods.put(key, declarations);
+        }
+        declarations.add(method);
+      }
+    }
+    List<Method> generatedMethods = new ArrayList<Method>();
+    Map<Method, List<Method>> interceptedDeclarations = new LinkedHashMap<Method, List<Method>>();
+    Map<Method, Integer> interceptedIndexes = new LinkedHashMap<Method, Integer>();
+    for (List<Method> declarations : methods.values()) {
+      Method method = declarations.get(0);
+      generatedMethods.add(method);
+      for (Method declaration : declarations) {
+        if (!isPublic(declaration)) {
+          return new ProxyDispatcher(interceptors);
+        }
+      }
+      for (Method declaration : declarations) {
+        if (isIntercepted(declaration)) {
+          interceptedIndexes.put(method, interceptedIndexes.size());
+          interceptedDeclarations.put(method, declarations);
+          break;
+        }
+      }
+    }
+    Class<?> dispatcherClass = generateClass(type, interfaces, generatedMethods, interceptedIndexes);
+    Dispatcher dispatcher;
+    try {
+      dispatcher = new Dispatcher(dispatcherClass.getConstructor(Object.class, InterceptedMethod[].class, int.class),
+          interceptors.size());
+    } catch (NoSuchMethodException e) {
+      throw new PluginException("Could not find the constructor of the plugin dispatcher of " + type + ". Cause: " + e, e);
+    }
+    InterceptedMethod[] interceptedMethods = new InterceptedMethod[interceptedIndexes.size()];
+    for (Map.Entry<Method, List<Method>> entry : interceptedDeclarations.entrySet()) {
+      interceptedMethods[interceptedIndexes.get(entry.getKey())] = newInterceptedMethod(entry.getKey(), entry.getValue(), dispatcher);
+    }
+    dispatcher.interceptedMethods = interceptedMethods;
+    return dispatcher;
+  }
+
+  private boolean isIntercepted(Method method) {
+    for (Map<Class<?>, Set<Method>> signatureMap : signatureMaps) {
+      Set<Method> interceptedMethods = signatureMap.get(method.getDeclaringClass());
+      if (interceptedMethods != null && interceptedMethods.contains(method)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // 与嵌套代理的调用顺序一致：最后注册的拦截器包装在最外层，最先执行
+  private InterceptedMethod newInterceptedMethod(Method method, List<Method> declarations, Dispatcher dispatcher) {
+    List<Interceptor> methodInterceptors = new ArrayList<Interceptor>();
+    List<Integer> layers = new ArrayList<Integer>();
+    List<Method> interceptedMethods = new ArrayList<Method>();
+    for (int i = interceptors.size() - 1; i >= 0; i--) {
+      for (Method declaration : declarations) {
+        Set<Method> signatures = signatureMaps.get(i).get(declaration.getDeclaringClass());
+        if (signatures != null && signatures.contains(declaration)) {
+          methodInterceptors.add(interceptors.get(i));
+          layers.add(i);
+          interceptedMethods.add(declaration);
+          break;
+        }
+      }
+    }
+    int[] layerArray = new int[layers.size()];
+    for (int i = 0; i < layerArray.length; i++) {
+      layerArray[i] = layers.get(i);
+    }
+    return new InterceptedMethod(method, methodInterceptors, layerArray, interceptedMethods, dispatcher);
+  }
+
+  private static boolean isPublic(Set<Class<?>> interfaces) {
+    for (Class<?> iface : interfaces) {
+      if (!isPublic(iface)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isPublic(Method method) {
+    if (!isPublic(method.getReturnType())) {
+      return false;
+    }
+    for (Class<?> parameterType : method.getParameterTypes()) {
+      if (!isPublic(parameterType)) {
+        return false;
+      }
+    }
+    for (Class<?> exceptionType : method.getExceptionTypes()) {
+      if (!isPublic(exceptionType)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // 嵌套类型的外部类也必须是public的
+  private static boolean isPublic(Class<?> type) {
+    while (type.isArray()) {
+      type = type.getComponentType();
+    }
+    for (Class<?> c = type; c != null; c = c.getEnclosingClass()) {
+      if (!c.isPrimitive() && !java.lang.reflect.Modifier.isPublic(c.getModifiers())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static Class<?> generateClass(Class<?> type, Set<Class<?>> interfaces, Iterable<Method> methods,
+      Map<Method, Integer> interceptedIndexes) {
+    ClassLoader classLoader = type.getClassLoader() != null ? type.getClassLoader() : InterceptedMethod.class.getClassLoader();
+    ClassPool pool = new ClassPool(true);
+    pool.appendClassPath(new LoaderClassPath(classLoader));
+    pool.appendClassPath(new LoaderClassPath(InterceptedMethod.class.getClassLoader()));
+    String className = FusedPluginFactory.class.getPackage().getName() + ".FusedPlugin$$" + type.getSimpleName()
+        + "$$" + CLASS_COUNTER.incrementAndGet();
+    CtClass ctClass = pool.makeClass(className);
+    try {
+      for (Class<?> iface : interfaces) {
+        ctClass.addInterface(pool.get(iface.getName()));
+      }
+      ctClass.addField(CtField.make("private Object target;", ctClass));
+      ctClass.addField(CtField.make("private " + InterceptedMethod.class.getName() + "[] methods;", ctClass));
+      ctClass.addField(CtField.make("private int layer;", ctClass));
+      CtConstructor constructor = new CtConstructor(new CtClass[] {
+          pool.get(Object.class.getName()), pool.get(InterceptedMethod[].class.getName()), CtClass.intType }, ctClass);
+      constructor.setModifiers(Modifier.PUBLIC);
+      constructor.setBody("{ this.target = $1; this.methods = $2; this.layer = $3; }");
+      ctClass.addConstructor(constructor);
+      for (Method method : methods) {
+        CtMethod ctMethod = new CtMethod(pool.get(method.getReturnType().getName()), method.getName(),
+            toCtClasses(pool, method.getParameterTypes()), ctClass);
+        ctMethod.setExceptionTypes(toCtClasses(pool, method.getExceptionTypes()));
+        ctMethod.setModifiers(Modifier.PUBLIC);
+        boolean returnsVoid = void.class.equals(method.getReturnType());
+        Integer index = interceptedIndexes.get(method);
+        String call;
+        if (index == null) {
+          call = "((" + method.getDeclaringClass().getName() + ") target)." + method.getName() + "($$)";
+        } else {
+          call = "methods[" + index + "].invoke(target, $args, layer)";
+        }
+        ctMethod.setBody(returnsVoid ? "{ " + call + "; }" : "{ return ($r) " + call + "; }");
+        ctClass.addMethod(ctMethod);
+      }
+      ctClass.addMethod(CtNewMethod.make("public String toString() { return target.toString(); }", ctClass));
+      ctClass.addMethod(CtNewMethod.make("public int hashCode() { return target.hashCode(); }", ctClass));
+      ctClass.addMethod(CtNewMethod.make("public boolean equals(Object obj) { return target.equals(obj); }", ctClass));
+      return ctClass.toClass(classLoader, type.getProtectionDomain());
+    } catch (Exception e) {
+      throw new PluginException("Could not generate the plugin dispatcher of " + type + ". Cause: " + e, e);
+    } finally {
+      ctClass.detach();
+    }
+  }
+
+  private static CtClass[] toCtClasses(ClassPool pool, Class<?>[] types) throws javassist.NotFoundException {
+    CtClass[] ctClasses = new CtClass[types.length];
+    for (int i = 0; i < types.length; i++) {
+      ctClasses[i] = pool.get(types[i].getName());
+    }
+    return ctClasses;
+  }
+
+  /**
+   * Creates the dispatchers of a target class. A dispatcher of a layer only applies the interceptors registered
+   * before it, as the nested proxy of that layer did.
+   */
+  static class Dispatcher {
+
+    static final Dispatcher NONE = new Dispatcher(null, 0);
+
+    private final Constructor<?> constructor;
+    // 拦截器的数量，即最外层
+    private final int layers;
+    private InterceptedMethod[] interceptedMethods;
+
+    Dispatcher(Constructor<?> constructor, int layers) {
+      this.constructor = constructor;
+      this.layers = layers;
+    }
+
+    Object newInstance(Object target) {
+      return newInstance(target, layers);
+    }
+
+    Object newInstance(Object target, int layer) {
+      if (constructor == null || layer == 0) {
+        return target;
+      }
+      try {
+        return constructor.newInstance(target, interceptedMethods, layer);
+      } catch (Exception e) {
+        throw new PluginException("Could not create the plugin dispatcher of " + target.getClass() + ". Cause: " + e, e);
+      }
+    }
+  }
+
+  private static class ProxyDispatcher extends Dispatcher {
+
+    private final List<Interceptor> interceptors;
+
+    ProxyDispatcher(List<Interceptor> interceptors) {
+      super(null, interceptors.size());
+      this.interceptors = interceptors;
+    }
+
+    @Override
+    Object newInstance(Object target, int layer) {
+      for (int i = 0; i < layer; i++) {
+        target = Plugin.wrap(target, interceptors.get(i));
+      }
+      return target;
+    }
+  }
+
+}
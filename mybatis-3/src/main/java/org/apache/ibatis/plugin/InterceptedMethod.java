@@ -0,0 +1,131 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.plugin;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.List;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * A method of a fused plugin with the interceptors that intercept it, built once per target class.
+ * <p>
+ * Each interceptor receives an {@link Invocation} whose {@link Invocation#proceed()} calls the next
+ * interceptor, the last one calls the target. Interceptors are called in the same order and see the same
+ * exceptions as with nested {@link Plugin} proxies, and {@link Invocation#getTarget()} returns, as the proxy
+ * of the next interceptor did, a view of the target that only applies the interceptors registered before.
+ *
+ * @since 3.5.0
+ */
+public class InterceptedMethod {
+
+  // 调用目标对象的方法
+  private final Method method;
+  // 按调用顺序排列的拦截器，即最后注册的拦截器在最前
+  private final Interceptor[] interceptors;
+  // 每个拦截器注册的位置，即它在嵌套代理中所在的层
+  private final int[] layers;
+  // 传给每个拦截器的方法，即其Signature注解中声明该方法的接口的方法
+  private final Method[] interceptedMethods;
+  // 创建只应用内层拦截器的目标对象视图
+  private final FusedPluginFactory.Dispatcher dispatcher;
+
+  InterceptedMethod(Method method, List<Interceptor> interceptors, int[] layers, List<Method> interceptedMethods,
+      FusedPluginFactory.Dispatcher dispatcher) {
+    this.method = method;
+    this.interceptors = interceptors.toArray(new Interceptor[interceptors.size()]);
+    this.layers = layers;
+    this.interceptedMethods = interceptedMethods.toArray(new Method[interceptedMethods.size()]);
+    this.dispatcher = dispatcher;
+  }
+
+  /**
+   * Called by the generated dispatcher.
+   *
+   * @param layer the number of interceptors the calling dispatcher applies, the ones registered first
+   */
+  public Object invoke(Object target, Object[] args, int layer) throws Throwable {
+    try {
+      // 跳过不属于该层的外层拦截器
+      int index = 0;
+      while (index < layers.length && layers[index] >= layer) {
+        index++;
+      }
+      return proceed(target, args, index);
+    } catch (Throwable t) {
+      // 与JDK动态代理一致，方法未声明的受检异常包装为UndeclaredThrowableException
+      if (t instanceof RuntimeException || t instanceof Error) {
+        throw t;
+      }
+      for (Class<?> exceptionType : method.getExceptionTypes()) {
+        if (exceptionType.isInstance(t)) {
+          throw t;
+        }
+      }
+      throw new UndeclaredThrowableException(t);
+    }
+  }
+
+  private Object proceed(Object target, Object[] args, int index) throws Throwable {
+    try {
+      if (index == interceptors.length) {
+        return method.invoke(target, args);
+      }
+      return interceptors[index].intercept(new ChainedInvocation(target, args, index));
+    } catch (Exception e) {
+      throw ExceptionUtil.unwrapThrowable(e);
+    }
+  }
+
+  public Method getMethod() {
+    return method;
+  }
+
+  private class ChainedInvocation extends Invocation {
+
+    private final Object realTarget;
+    private final int index;
+    private Object target;
+
+    ChainedInvocation(Object realTarget, Object[] args, int index) {
+      super(realTarget, interceptedMethods[index], args);
+      this.realTarget = realTarget;
+      this.index = index;
+    }
+
+    // 嵌套代理时目标对象为下一层代理，这里按需创建同样只应用内层拦截器的视图
+    @Override
+    public Object getTarget() {
+      if (target == null) {
+        target = dispatcher.newInstance(realTarget, layers[index]);
+      }
+      return target;
+    }
+
+    @Override
+    public Object proceed() throws InvocationTargetException, IllegalAccessException {
+      try {
+        return InterceptedMethod.this.proceed(realTarget, getArgs(), index + 1);
+      } catch (Throwable t) {
+        // 嵌套代理时下一层通过Method.invoke()调用，异常包装为InvocationTargetException
+        throw new InvocationTargetException(t);
+      }
+    }
+  }
+
+}
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2015 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -26,17 +26,47 @@ public class InterceptorChain {
 
   // 通过List对象维护所有拦截器实例
   private final List<Interceptor> interceptors = new ArrayList<Interceptor>();
+  // 为true时使用一个生成的分发器应用所有拦截器，而不是每个拦截器嵌套一层代理
+  private boolean fused;
+  private FusedPluginFactory fusedPluginFactory;
 
   // 调用所有拦截器对象的plugin（）方法执行拦截逻辑
   public Object pluginAll(Object target) {
+    if (fused && !interceptors.isEmpty()) {
+      return getFusedPluginFactory().wrap(target);
+    }
     for (Interceptor interceptor : interceptors) {
       target = interceptor.plugin(target);
     }
     return target;
   }
 
-  public void addInterceptor(Interceptor interceptor) {
+  public synchronized void addInterceptor(Interceptor interceptor) {
     interceptors.add(interceptor);
+    fusedPluginFactory = null;
+  }
+
+  public boolean isFused() {
+    return fused;
+  }
+
+  /**
+   * Applies all the interceptors of a target with a single generated class instead of one nested
+   * {@link Plugin} proxy per interceptor. The {@code plugin()} method of the interceptors is then not called,
+   * so it should only be enabled when they all implement it with {@link Plugin#wrap}.
+   *
+   * @since 3.5.0
+   */
+  public synchronized void setFused(boolean fused) {
+    this.fused = fused;
+    fusedPluginFactory = null;
+  }
+
+  private synchronized FusedPluginFactory getFusedPluginFactory() {
+    if (fusedPluginFactory == null) {
+      fusedPluginFactory = new FusedPluginFactory(interceptors);
+    }
+    return fusedPluginFactory;
   }
   
   public List<Interceptor> getInterceptors() {
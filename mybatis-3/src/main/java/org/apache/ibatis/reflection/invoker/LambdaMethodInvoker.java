@@ -0,0 +1,170 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.reflection.invoker;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * A {@link MethodInvoker} that calls a getter or a setter through a class generated by the {@link LambdaMetafactory},
+ * so that the call can be inlined like a plain method call instead of going through {@link Method#invoke}.
+ *
+ * @since 3.5.0
+ */
+public abstract class LambdaMethodInvoker extends MethodInvoker {
+
+  private static final Log log = LogFactory.getLog(LambdaMethodInvoker.class);
+
+  private static final int ALLOWED_MODES = MethodHandles.Lookup.PRIVATE | MethodHandles.Lookup.PROTECTED
+      | MethodHandles.Lookup.PACKAGE | MethodHandles.Lookup.PUBLIC;
+
+  private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+  private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+  private static final Method privateLookupInMethod;
+  private static final Constructor<MethodHandles.Lookup> lookupConstructor;
+
+  static {
+    Method privateLookupIn;
+    try {
+      // Java 9+
+      privateLookupIn = MethodHandles.class.getMethod("privateLookupIn", Class.class, MethodHandles.Lookup.class);
+    } catch (NoSuchMethodException e) {
+      privateLookupIn = null;
+    }
+    Constructor<MethodHandles.Lookup> constructor = null;
+    if (privateLookupIn == null) {
+      try {
+        constructor = MethodHandles.Lookup.class.getDeclaredConstructor(Class.class, int.class);
+        constructor.setAccessible(true);
+      } catch (Exception e) {
+        constructor = null;
+      }
+    }
+    privateLookupInMethod = privateLookupIn;
+    lookupConstructor = constructor;
+  }
+
+  protected LambdaMethodInvoker(Method method) {
+    super(method);
+  }
+
+  /**
+   * Creates an invoker for the given getter (no parameter) or setter (one parameter).
+   *
+   * @param method the getter or setter
+   * @return a generated invoker, or a reflective {@link MethodInvoker} when the accessor cannot be generated
+   */
+  public static MethodInvoker create(Method method) {
+    int parameterCount = method.getParameterTypes().length;
+    if (!Modifier.isStatic(method.getModifiers()) && parameterCount <= 1) {
+      try {
+        MethodHandles.Lookup lookup = privateLookupIn(method.getDeclaringClass());
+        if (lookup != null) {
+          MethodHandle handle = lookup.unreflect(method);
+          if (parameterCount == 0) {
+            return new Getter(method, generateGetter(lookup, handle));
+          } else {
+            return new Setter(method, generateSetter(lookup, handle));
+          }
+        }
+      } catch (Throwable t) {
+        if (log.isDebugEnabled()) {
+          log.debug("Could not generate an invoker for " + method + ", falling back to reflection. Cause: " + t);
+        }
+      }
+    }
+    return new MethodInvoker(method);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Function<Object, Object> generateGetter(MethodHandles.Lookup lookup, MethodHandle handle) throws Throwable {
+    CallSite site = LambdaMetafactory.metafactory(lookup, "apply", MethodType.methodType(Function.class),
+        GETTER_TYPE, handle, handle.type().wrap());
+    return (Function<Object, Object>) site.getTarget().invokeWithArguments();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static BiConsumer<Object, Object> generateSetter(MethodHandles.Lookup lookup, MethodHandle handle) throws Throwable {
+    CallSite site = LambdaMetafactory.metafactory(lookup, "accept", MethodType.methodType(BiConsumer.class),
+        SETTER_TYPE, handle, handle.type().wrap().changeReturnType(void.class));
+    return (BiConsumer<Object, Object>) site.getTarget().invokeWithArguments();
+  }
+
+  private static MethodHandles.Lookup privateLookupIn(Class<?> type) throws Exception {
+    if (privateLookupInMethod != null) {
+      return (MethodHandles.Lookup) privateLookupInMethod.invoke(null, type, MethodHandles.lookup());
+    }
+    if (lookupConstructor != null) {
+      return lookupConstructor.newInstance(type, ALLOWED_MODES);
+    }
+    return null;
+  }
+
+  private static final class Getter extends LambdaMethodInvoker {
+
+    private final Function<Object, Object> getter;
+
+    Getter(Method method, Function<Object, Object> getter) {
+      super(method);
+      this.getter = getter;
+    }
+
+    @Override
+    public Object invoke(Object target, Object[] args) throws IllegalAccessException, InvocationTargetException {
+      try {
+        return getter.apply(target);
+      } catch (Throwable t) {
+        throw new InvocationTargetException(t);
+      }
+    }
+
+  }
+
+  private static final class Setter extends LambdaMethodInvoker {
+
+    private final BiConsumer<Object, Object> setter;
+
+    Setter(Method method, BiConsumer<Object, Object> setter) {
+      super(method);
+      this.setter = setter;
+    }
+
+    @Override
+    public Object invoke(Object target, Object[] args) throws IllegalAccessException, InvocationTargetException {
+      try {
+        setter.accept(target, args[0]);
+        return null;
+      } catch (Throwable t) {
+        throw new InvocationTargetException(t);
+      }
+    }
+
+  }
+
+}
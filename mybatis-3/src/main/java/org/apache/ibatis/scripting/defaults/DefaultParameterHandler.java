@@ -60,6 +60,16 @@ public class DefaultParameterHandler implements ParameterHandler {
 
   @Override
   public void setParameters(PreparedStatement ps) {
+    setParameters(ps, 0);
+  }
+
+  /**
+   * Sets the parameters of the statement after its first {@code offset} placeholders, for statements made of
+   * several bound SQLs such as the multi-row inserts of the batch executor.
+   *
+   * @since 3.5.0
+   */
+  public void setParameters(PreparedStatement ps, int offset) {
     ErrorContext.instance().activity("setting parameters").object(mappedStatement.getParameterMap().getId());
     // 获取所有参数映射信息
     List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
@@ -89,7 +99,7 @@ public class DefaultParameterHandler implements ParameterHandler {
           }
           try {
             // 调用TypeHandler的setParameter方法，为Statement对象参数占位符设置值
-            typeHandler.setParameter(ps, i + 1, value, jdbcType);
+            typeHandler.setParameter(ps, offset + i + 1, value, jdbcType);
           } catch (TypeException e) {
             throw new TypeException("Could not set parameters for mapping: " + parameterMapping + ". Cause: " + e, e);
           } catch (SQLException e) {
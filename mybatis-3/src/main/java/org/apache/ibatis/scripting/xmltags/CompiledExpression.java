@@ -0,0 +1,612 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.reflection.LambdaReflectorFactory;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.ReflectorFactory;
+
+/**
+ * An OGNL expression compiled to a tree of evaluators that read the values directly, without creating an OGNL
+ * context or going through the OGNL property accessors.
+ * <p>
+ * Only the subset used by most dynamic SQL tests is compiled: property paths, {@code null}, boolean, integer,
+ * decimal and string literals, the {@code size()}, {@code isEmpty()}, {@code length()} and {@code trim()} methods,
+ * comparisons and boolean operators. When an expression or one of its values falls outside of this subset,
+ * {@link #getValue(Object)} returns {@link #UNSUPPORTED} and the caller must evaluate the expression with OGNL,
+ * which keeps the OGNL semantics for everything else. A getter which throws is not called again by OGNL, its
+ * exception is thrown as a {@link GetterException}.
+ *
+ * @see OgnlCache
+ */
+abstract class CompiledExpression {
+
+  static final Object UNSUPPORTED = new Object();
+
+  private static final ReflectorFactory REFLECTOR_FACTORY = new LambdaReflectorFactory();
+
+  /**
+   * @return the value of the expression or {@link #UNSUPPORTED}
+   * @throws GetterException if a getter of a property of the expression throws an exception
+   */
+  abstract Object getValue(Object root);
+
+  /**
+   * @return null if the expression uses a construct that is not compiled
+   */
+  static CompiledExpression compile(String expression) {
+    List<String> tokens = tokenize(expression);
+    if (tokens == null || tokens.isEmpty()) {
+      return null;
+    }
+    Parser parser = new Parser(tokens);
+    CompiledExpression compiled = parser.parseOr();
+    return compiled != null && parser.atEnd() ? compiled : null;
+  }
+
+  private static List<String> tokenize(String expression) {
+    List<String> tokens = new ArrayList<String>();
+    int i = 0;
+    int length = expression.length();
+    while (i < length) {
+      char c = expression.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (Character.isJavaIdentifierStart(c)) {
+        int start = i;
+        while (i < length && Character.isJavaIdentifierPart(expression.charAt(i))) {
+          i++;
+        }
+        tokens.add(expression.substring(start, i));
+      } else if (Character.isDigit(c)) {
+        int start = i;
+        while (i < length && (Character.isDigit(expression.charAt(i)) || expression.charAt(i) == '.')) {
+          i++;
+        }
+        if (i < length && Character.isJavaIdentifierPart(expression.charAt(i))) {
+          // typed literals like 1L or 1.0B
+          return null;
+        }
+        tokens.add(expression.substring(start, i));
+      } else if (c == '\'' || c == '"') {
+        int end = expression.indexOf(c, i + 1);
+        if (end < 0 || expression.substring(i + 1, end).indexOf('\\') >= 0) {
+          return null;
+        }
+        tokens.add(expression.substring(i, end + 1));
+        i = end + 1;
+      } else if (i + 1 < length && isTwoCharOperator(expression.substring(i, i + 2))) {
+        tokens.add(expression.substring(i, i + 2));
+        i += 2;
+      } else if ("()!<>.".indexOf(c) >= 0) {
+        tokens.add(String.valueOf(c));
+        i++;
+      } else {
+        return null;
+      }
+    }
+    return tokens;
+  }
+
+  private static boolean isTwoCharOperator(String s) {
+    return "&&".equals(s) || "||".equals(s) || "==".equals(s) || "!=".equals(s) || "<=".equals(s) || ">=".equals(s);
+  }
+
+  private static class Parser {
+    private final List<String> tokens;
+    private int position;
+
+    Parser(List<String> tokens) {
+      this.tokens = tokens;
+    }
+
+    boolean atEnd() {
+      return position == tokens.size();
+    }
+
+    private String peek() {
+      return position < tokens.size() ? tokens.get(position) : null;
+    }
+
+    private boolean accept(String... candidates) {
+      String token = peek();
+      for (String candidate : candidates) {
+        if (candidate.equals(token)) {
+          position++;
+          return true;
+        }
+      }
+      return false;
+    }
+
+    CompiledExpression parseOr() {
+      CompiledExpression left = parseAnd();
+      while (left != null && accept("||", "or")) {
+        CompiledExpression right = parseAnd();
+        left = right == null ? null : new Or(left, right);
+      }
+      return left;
+    }
+
+    private CompiledExpression parseAnd() {
+      CompiledExpression left = parseEquality();
+      while (left != null && accept("&&", "and")) {
+        CompiledExpression right = parseEquality();
+        left = right == null ? null : new And(left, right);
+      }
+      return left;
+    }
+
+    private CompiledExpression parseEquality() {
+      CompiledExpression left = parseRelational();
+      while (left != null) {
+        if (accept("==", "eq")) {
+          left = comparison(left, Comparison.EQ);
+        } else if (accept("!=", "neq")) {
+          left = comparison(left, Comparison.NE);
+        } else {
+          return left;
+        }
+      }
+      return null;
+    }
+
+    private CompiledExpression parseRelational() {
+      CompiledExpression left = parseUnary();
+      while (left != null) {
+        if (accept("<", "lt")) {
+          left = comparison(left, Comparison.LT);
+        } else if (accept("<=", "lte")) {
+          left = comparison(left, Comparison.LE);
+        } else if (accept(">", "gt")) {
+          left = comparison(left, Comparison.GT);
+        } else if (accept(">=", "gte")) {
+          left = comparison(left, Comparison.GE);
+        } else {
+          return left;
+        }
+      }
+      return null;
+    }
+
+    private CompiledExpression comparison(CompiledExpression left, int operator) {
+      CompiledExpression right = operator == Comparison.EQ || operator == Comparison.NE ? parseRelational() : parseUnary();
+      return right == null ? null : new Comparison(operator, left, right);
+    }
+
+    private CompiledExpression parseUnary() {
+      if (accept("!", "not")) {
+        CompiledExpression operand = parseUnary();
+        return operand == null ? null : new Not(operand);
+      }
+      return parsePrimary();
+    }
+
+    private CompiledExpression parsePrimary() {
+      String token = peek();
+      if (token == null) {
+        return null;
+      }
+      position++;
+      if ("(".equals(token)) {
+        CompiledExpression inner = parseOr();
+        return inner != null && accept(")") ? inner : null;
+      }
+      if ("null".equals(token)) {
+        return new Literal(null);
+      }
+      if ("true".equals(token) || "false".equals(token)) {
+        return new Literal(Boolean.valueOf(token));
+      }
+      char first = token.charAt(0);
+      if (first == '"' || first == '\'') {
+        String value = token.substring(1, token.length() - 1);
+        // OGNL reads a single quoted character as a Character, not as a String
+        return first == '\'' && value.length() == 1 ? null : new Literal(value);
+      }
+      if (Character.isDigit(first)) {
+        return numberLiteral(token);
+      }
+      if (!Character.isJavaIdentifierStart(first) || isKeyword(token)) {
+        return null;
+      }
+      CompiledExpression expression = new RootProperty(token);
+      while (accept(".")) {
+        String name = peek();
+        if (name == null || !Character.isJavaIdentifierStart(name.charAt(0)) || isKeyword(name)) {
+          return null;
+        }
+        position++;
+        if (accept("(")) {
+          if (!accept(")") || !Method.isSupported(name)) {
+            return null;
+          }
+          expression = new Method(expression, name);
+        } else {
+          expression = new Property(expression, name);
+        }
+      }
+      return expression;
+    }
+
+    private static CompiledExpression numberLiteral(String token) {
+      try {
+        if (token.indexOf('.') >= 0) {
+          return new Literal(Double.valueOf(token));
+        }
+        if (token.length() > 1 && token.charAt(0) == '0') {
+          // 以0开头的整数在OGNL中是八进制
+          return null;
+        }
+        return new Literal(Integer.valueOf(token));
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+
+    private static boolean isKeyword(String token) {
+      return "and".equals(token) || "or".equals(token) || "not".equals(token) || "eq".equals(token)
+          || "neq".equals(token) || "lt".equals(token) || "lte".equals(token) || "gt".equals(token)
+          || "gte".equals(token) || "in".equals(token) || "instanceof".equals(token) || "new".equals(token)
+          || "null".equals(token) || "true".equals(token) || "false".equals(token) || "shl".equals(token)
+          || "shr".equals(token) || "ushr".equals(token) || "band".equals(token) || "bor".equals(token)
+          || "xor".equals(token);
+    }
+  }
+
+  // same as OgnlOps.booleanValue()
+  static boolean booleanValue(Object value) {
+    if (value == null) {
+      return false;
+    }
+    if (value instanceof Boolean) {
+      return (Boolean) value;
+    }
+    // 字符串只有"true"（忽略大小写）为真，"false"和空字符串都为假
+    if (value instanceof String) {
+      return Boolean.parseBoolean((String) value);
+    }
+    if (value instanceof Character) {
+      return (Character) value != 0;
+    }
+    if (value instanceof Number) {
+      return ((Number) value).doubleValue() != 0;
+    }
+    return true;
+  }
+
+  private static Object property(Object target, String name) throws Exception {
+    if (target instanceof Map) {
+      // same as OGNL's MapPropertyAccessor
+      Map<?, ?> map = (Map<?, ?>) target;
+      if ("size".equals(name)) {
+        return map.size();
+      } else if ("isEmpty".equals(name)) {
+        return map.isEmpty();
+      } else if ("keys".equals(name) || "keySet".equals(name)) {
+        return map.keySet();
+      } else if ("values".equals(name)) {
+        return map.values();
+      }
+      return map.get(name);
+    }
+    if (target == null || target instanceof Collection || target.getClass().isArray()) {
+      if (target != null && "size".equals(name) && target instanceof Collection) {
+        return ((Collection<?>) target).size();
+      }
+      if (target != null && "length".equals(name) && target.getClass().isArray()) {
+        return Array.getLength(target);
+      }
+      return UNSUPPORTED;
+    }
+    Reflector reflector = REFLECTOR_FACTORY.findForClass(target.getClass());
+    if (!reflector.hasGetter(name)) {
+      return UNSUPPORTED;
+    }
+    try {
+      return reflector.getGetInvoker(name).invoke(target, null);
+    } catch (InvocationTargetException e) {
+      // OGNL调用同一getter会再次抛出异常（并重复其副作用），不交给OGNL处理
+      throw new GetterException(e.getTargetException());
+    }
+  }
+
+  /**
+   * Thrown when a getter called by a compiled expression throws an exception.
+   */
+  static class GetterException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    GetterException(Throwable cause) {
+      super(cause);
+    }
+  }
+
+  private static class Literal extends CompiledExpression {
+    private final Object value;
+
+    Literal(Object value) {
+      this.value = value;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      return value;
+    }
+  }
+
+  private static class RootProperty extends CompiledExpression {
+    private final String name;
+
+    RootProperty(String name) {
+      this.name = name;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      try {
+        if (root instanceof DynamicContext.ContextMap) {
+          // same as DynamicContext.ContextAccessor
+          Map<?, ?> map = (Map<?, ?>) root;
+          Object result = map.get(name);
+          if (result != null || map.containsKey(name)) {
+            return result;
+          }
+          Object parameterObject = map.get(DynamicContext.PARAMETER_OBJECT_KEY);
+          return parameterObject instanceof Map ? ((Map<?, ?>) parameterObject).get(name) : null;
+        }
+        return property(root, name);
+      } catch (GetterException e) {
+        throw e;
+      } catch (Exception e) {
+        return UNSUPPORTED;
+      }
+    }
+  }
+
+  private static class Property extends CompiledExpression {
+    private final CompiledExpression target;
+    private final String name;
+
+    Property(CompiledExpression target, String name) {
+      this.target = target;
+      this.name = name;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      Object value = target.getValue(root);
+      if (value == UNSUPPORTED) {
+        return UNSUPPORTED;
+      }
+      try {
+        return property(value, name);
+      } catch (GetterException e) {
+        throw e;
+      } catch (Exception e) {
+        return UNSUPPORTED;
+      }
+    }
+  }
+
+  private static class Method extends CompiledExpression {
+    private final CompiledExpression target;
+    private final String name;
+
+    Method(CompiledExpression target, String name) {
+      this.target = target;
+      this.name = name;
+    }
+
+    static boolean isSupported(String name) {
+      return "size".equals(name) || "isEmpty".equals(name) || "length".equals(name) || "trim".equals(name);
+    }
+
+    @Override
+    Object getValue(Object root) {
+      Object value = target.getValue(root);
+      if ("size".equals(name)) {
+        if (value instanceof Collection) {
+          return ((Collection<?>) value).size();
+        } else if (value instanceof Map) {
+          return ((Map<?, ?>) value).size();
+        }
+      } else if ("isEmpty".equals(name)) {
+        if (value instanceof Collection) {
+          return ((Collection<?>) value).isEmpty();
+        } else if (value instanceof Map) {
+          return ((Map<?, ?>) value).isEmpty();
+        } else if (value instanceof String) {
+          return ((String) value).isEmpty();
+        }
+      } else if ("length".equals(name)) {
+        if (value instanceof CharSequence) {
+          return ((CharSequence) value).length();
+        }
+      } else if (value instanceof String) {
+        return ((String) value).trim();
+      }
+      return UNSUPPORTED;
+    }
+  }
+
+  private static class Not extends CompiledExpression {
+    private final CompiledExpression operand;
+
+    Not(CompiledExpression operand) {
+      this.operand = operand;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      Object value = operand.getValue(root);
+      return value == UNSUPPORTED ? UNSUPPORTED : Boolean.valueOf(!booleanValue(value));
+    }
+  }
+
+  // like OGNL, returns the first false operand or the last one
+  private static class And extends CompiledExpression {
+    private final CompiledExpression left;
+    private final CompiledExpression right;
+
+    And(CompiledExpression left, CompiledExpression right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      Object value = left.getValue(root);
+      if (value == UNSUPPORTED || !booleanValue(value)) {
+        return value;
+      }
+      return right.getValue(root);
+    }
+  }
+
+  // like OGNL, returns the first true operand or the last one
+  private static class Or extends CompiledExpression {
+    private final CompiledExpression left;
+    private final CompiledExpression right;
+
+    Or(CompiledExpression left, CompiledExpression right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      Object value = left.getValue(root);
+      if (value == UNSUPPORTED || booleanValue(value)) {
+        return value;
+      }
+      return right.getValue(root);
+    }
+  }
+
+  private static class Comparison extends CompiledExpression {
+    static final int EQ = 0;
+    static final int NE = 1;
+    static final int LT = 2;
+    static final int LE = 3;
+    static final int GT = 4;
+    static final int GE = 5;
+
+    private final int operator;
+    private final CompiledExpression left;
+    private final CompiledExpression right;
+
+    Comparison(int operator, CompiledExpression left, CompiledExpression right) {
+      this.operator = operator;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      Object leftValue = left.getValue(root);
+      if (leftValue == UNSUPPORTED) {
+        return UNSUPPORTED;
+      }
+      Object rightValue = right.getValue(root);
+      if (rightValue == UNSUPPORTED) {
+        return UNSUPPORTED;
+      }
+      if (operator == EQ || operator == NE) {
+        Boolean equal = isEqual(leftValue, rightValue);
+        if (equal == null) {
+          return UNSUPPORTED;
+        }
+        return operator == EQ ? equal : !equal;
+      }
+      Integer result = compare(leftValue, rightValue);
+      if (result == null) {
+        return UNSUPPORTED;
+      }
+      switch (operator) {
+        case LT:
+          return result < 0;
+        case LE:
+          return result <= 0;
+        case GT:
+          return result > 0;
+        default:
+          return result >= 0;
+      }
+    }
+
+    // null when OGNL would convert the values
+    private static Boolean isEqual(Object left, Object right) {
+      if (left == right) {
+        return true;
+      }
+      if (left == null || right == null) {
+        return false;
+      }
+      if ((left instanceof String && right instanceof String) || (left instanceof Boolean && right instanceof Boolean)) {
+        return left.equals(right);
+      }
+      Integer result = compareNumbers(left, right);
+      return result == null ? null : result == 0;
+    }
+
+    // null when OGNL would convert the values
+    private static Integer compare(Object left, Object right) {
+      if (left instanceof String && right instanceof String) {
+        return ((String) left).compareTo((String) right);
+      }
+      return compareNumbers(left, right);
+    }
+
+    private static Integer compareNumbers(Object left, Object right) {
+      if (isIntegral(left) && isIntegral(right)) {
+        long l = ((Number) left).longValue();
+        long r = ((Number) right).longValue();
+        return l < r ? -1 : (l == r ? 0 : 1);
+      }
+      if ((isIntegral(left) || isFloating(left)) && (isIntegral(right) || isFloating(right))) {
+        double l = ((Number) left).doubleValue();
+        double r = ((Number) right).doubleValue();
+        if (l == r) {
+          return 0;
+        } else if (l < r) {
+          return -1;
+        } else if (l > r) {
+          return 1;
+        }
+        // NaN
+        return null;
+      }
+      return null;
+    }
+
+    private static boolean isIntegral(Object value) {
+      return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+    }
+
+    private static boolean isFloating(Object value) {
+      return value instanceof Double || value instanceof Float;
+    }
+  }
+
+}
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -16,10 +16,15 @@
 package org.apache.ibatis.scripting.xmltags;
 
 import org.apache.ibatis.builder.SqlSourceBuilder;
+import org.apache.ibatis.cache.decorators.ConcurrentLruCache;
+import org.apache.ibatis.cache.impl.ConcurrentPerpetualCache;
 import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.session.Configuration;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -29,10 +34,18 @@ public class DynamicSqlSource implements SqlSource {
 
   private final Configuration configuration;
   private final SqlNode rootSqlNode;
+  // 缓存解析后的SQL和参数映射，Key为SqlNode生成的SQL，也就是<if>、<choose>的分支结果、<foreach>的次数及${}替换后的SQL
+  private final ConcurrentLruCache parsedSqlCache;
 
   public DynamicSqlSource(Configuration configuration, SqlNode rootSqlNode) {
     this.configuration = configuration;
     this.rootSqlNode = rootSqlNode;
+    if (configuration.getDynamicSqlCacheSize() > 0) {
+      this.parsedSqlCache = new ConcurrentLruCache(new ConcurrentPerpetualCache("DynamicSql"));
+      this.parsedSqlCache.setSize(configuration.getDynamicSqlCacheSize());
+    } else {
+      this.parsedSqlCache = null;
+    }
   }
 
   @Override
@@ -41,14 +54,25 @@ public class DynamicSqlSource implements SqlSource {
     DynamicContext context = new DynamicContext(configuration, parameterObject);
     // 以DynamicContext对象作为参数调用SqlNode的apply（）方法
     rootSqlNode.apply(context);
-    // 创建SqlSourceBuilder对象
-    SqlSourceBuilder sqlSourceParser = new SqlSourceBuilder(configuration);
     Class<?> parameterType = parameterObject == null ? Object.class : parameterObject.getClass();
-    // 调用DynamicContext的getSql()方法获取动态SQL解析后的SQL内容，
-    // 然后调用SqlSourceBuilder的parse（）方法对SQL内容做进一步处理，生成StaticSqlSource对象
-    SqlSource sqlSource = sqlSourceParser.parse(context.getSql(), parameterType, context.getBindings());
-    // 调用StaticSqlSource对象的getBoundSql（）方法，获得BoundSql实例
-    BoundSql boundSql = sqlSource.getBoundSql(parameterObject);
+    String originalSql = context.getSql();
+    // 相同的SQL会得到相同的解析结果，只要参数类型以及<bind>、<foreach>绑定参数的类型不变
+    ParsedSql parsedSql = parsedSqlCache == null ? null : (ParsedSql) parsedSqlCache.getObject(originalSql);
+    if (parsedSql == null || !parsedSql.matches(parameterType, configuration.newMetaObject(context.getBindings()))) {
+      // 创建SqlSourceBuilder对象
+      SqlSourceBuilder sqlSourceParser = new SqlSourceBuilder(configuration);
+      // 调用DynamicContext的getSql()方法获取动态SQL解析后的SQL内容，
+      // 然后调用SqlSourceBuilder的parse（）方法对SQL内容做进一步处理，生成StaticSqlSource对象
+      SqlSource sqlSource = sqlSourceParser.parse(originalSql, parameterType, context.getBindings());
+      // 调用StaticSqlSource对象的getBoundSql（）方法，获得BoundSql实例
+      BoundSql parsedBoundSql = sqlSource.getBoundSql(parameterObject);
+      parsedSql = new ParsedSql(parameterType, parsedBoundSql.getSql(), parsedBoundSql.getParameterMappings(),
+          configuration.newMetaObject(context.getBindings()));
+      if (parsedSqlCache != null) {
+        parsedSqlCache.putObject(originalSql, parsedSql);
+      }
+    }
+    BoundSql boundSql = new BoundSql(configuration, parsedSql.sql, parsedSql.parameterMappings, parameterObject);
     // 將<bind>标签绑定的参数添加到BoundSql对象中
     for (Map.Entry<String, Object> entry : context.getBindings().entrySet()) {
       boundSql.setAdditionalParameter(entry.getKey(), entry.getValue());
@@ -56,4 +80,38 @@ public class DynamicSqlSource implements SqlSource {
     return boundSql;
   }
 
+  private static class ParsedSql {
+    private final Class<?> parameterType;
+    private final String sql;
+    private final List<ParameterMapping> parameterMappings;
+    // 从绑定参数中推断的参数类型，没有对应绑定参数的为null
+    private final Class<?>[] bindingTypes;
+
+    ParsedSql(Class<?> parameterType, String sql, List<ParameterMapping> parameterMappings, MetaObject metaBindings) {
+      this.parameterType = parameterType;
+      this.sql = sql;
+      this.parameterMappings = parameterMappings;
+      this.bindingTypes = new Class<?>[parameterMappings.size()];
+      for (int i = 0; i < bindingTypes.length; i++) {
+        bindingTypes[i] = bindingType(metaBindings, parameterMappings.get(i).getProperty());
+      }
+    }
+
+    boolean matches(Class<?> parameterType, MetaObject metaBindings) {
+      if (this.parameterType != parameterType) {
+        return false;
+      }
+      for (int i = 0; i < bindingTypes.length; i++) {
+        if (bindingTypes[i] != bindingType(metaBindings, parameterMappings.get(i).getProperty())) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static Class<?> bindingType(MetaObject metaBindings, String property) {
+      return property != null && metaBindings.hasGetter(property) ? metaBindings.getGetterType(property) : null;
+    }
+  }
+
 }
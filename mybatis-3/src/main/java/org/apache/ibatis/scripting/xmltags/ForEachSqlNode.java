@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -19,7 +19,12 @@ import org.apache.ibatis.parsing.GenericTokenParser;
 import org.apache.ibatis.parsing.TokenHandler;
 import org.apache.ibatis.session.Configuration;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * @author Clinton Begin
@@ -36,9 +41,24 @@ public class ForEachSqlNode implements SqlNode {
   private final String separator;
   private final String item;
   private final String index;
+  // 每chunkSize个元素关闭一次集合，追加chunkSeparator后重新打开，0表示不分块
+  private final int chunkSize;
+  private final String chunkSeparator;
   private final Configuration configuration;
+  // <foreach>标签内只有静态文本时预先解析的SQL片段，为null时逐个元素处理标签内容
+  private final StaticBody staticBody;
 
   public ForEachSqlNode(Configuration configuration, SqlNode contents, String collectionExpression, String index, String item, String open, String close, String separator) {
+    this(configuration, contents, collectionExpression, index, item, open, close, separator, 0, null);
+  }
+
+  /**
+   * @param chunkSize when the collection has more items, the items are split in chunks of this size,
+   *     each one enclosed in open and close and joined with the chunk separator, e.g. {@code id in (...) or id in (...)}
+   * @since 3.5.0
+   */
+  public ForEachSqlNode(Configuration configuration, SqlNode contents, String collectionExpression, String index, String item, String open, String close, String separator,
+      int chunkSize, String chunkSeparator) {
     this.evaluator = new ExpressionEvaluator();
     this.collectionExpression = collectionExpression;
     this.contents = contents;
@@ -47,7 +67,11 @@ public class ForEachSqlNode implements SqlNode {
     this.separator = separator;
     this.index = index;
     this.item = item;
+    this.chunkSize = chunkSize;
+    this.chunkSeparator = chunkSeparator;
     this.configuration = configuration;
+    this.staticBody = item == null ? null : StaticBody.parse(contents, item, index);
+    OgnlCache.compileExpression(collectionExpression);
   }
 
   @Override
@@ -57,10 +81,22 @@ public class ForEachSqlNode implements SqlNode {
     if (!iterable.iterator().hasNext()) {
       return true;
     }
+    if (staticBody != null) {
+      applyStaticBody(context, iterable);
+      return true;
+    }
     boolean first = true;
     applyOpen(context);
     int i = 0;
     for (Object o : iterable) {
+      if (isChunkStart(i)) {
+        applyClose(context);
+        if (chunkSeparator != null) {
+          context.appendSql(chunkSeparator);
+        }
+        applyOpen(context);
+        first = true;
+      }
       DynamicContext oldContext = context;
       if (first || separator == null) {
         context = new PrefixedContext(context, "");
@@ -91,6 +127,57 @@ public class ForEachSqlNode implements SqlNode {
     return true;
   }
 
+  private boolean isChunkStart(int i) {
+    return chunkSize > 0 && i > 0 && i % chunkSize == 0;
+  }
+
+  // 与逐个元素处理的结果相同，但不为每个元素创建DynamicContext，只绑定SQL中引用的元素，并一次追加所有SQL
+  // 生成的#{__frch_item_N}占位符仍由SqlSourceBuilder逐个解析为ParameterMapping
+  private void applyStaticBody(DynamicContext context, Iterable<?> iterable) {
+    StringBuilder sql = new StringBuilder();
+    appendPiece(sql, open);
+    boolean first = true;
+    int i = 0;
+    for (Object o : iterable) {
+      if (isChunkStart(i)) {
+        appendPiece(sql, close);
+        appendPiece(sql, chunkSeparator);
+        appendPiece(sql, open);
+        first = true;
+      }
+      int uniqueNumber = context.getUniqueNumber();
+      Object key = i;
+      Object value = o;
+      if (o instanceof Map.Entry) {
+        Map.Entry<?, ?> mapEntry = (Map.Entry<?, ?>) o;
+        key = mapEntry.getKey();
+        value = mapEntry.getValue();
+      }
+      if (staticBody.referencesItem) {
+        context.bind(itemizeItem(item, uniqueNumber), value);
+      }
+      if (staticBody.referencesIndex) {
+        context.bind(itemizeItem(index, uniqueNumber), key);
+      }
+      appendPiece(sql, first || separator == null ? "" : separator);
+      staticBody.append(sql, item, index, uniqueNumber);
+      first = false;
+      i++;
+    }
+    appendPiece(sql, close);
+    // DynamicContext.appendSql() adds the last space
+    sql.setLength(sql.length() - 1);
+    context.appendSql(sql.toString());
+    context.getBindings().remove(item);
+    context.getBindings().remove(index);
+  }
+
+  private static void appendPiece(StringBuilder sql, String piece) {
+    if (piece != null) {
+      sql.append(piece).append(' ');
+    }
+  }
+
   private void applyIndex(DynamicContext context, Object o, int i) {
     if (index != null) {
       context.bind(index, o);
@@ -121,6 +208,102 @@ public class ForEachSqlNode implements SqlNode {
     return new StringBuilder(ITEM_PREFIX).append(item).append("_").append(i).toString();
   }
 
+  /**
+   * The static text of a foreach, split around its placeholders and with the references to the item and the index
+   * resolved once, so that each item only appends text. Produces the same SQL as {@link FilteredDynamicContext}.
+   * <p>
+   * Only the expansion of the foreach is shortened: each element is still bound under its itemized name, and its
+   * placeholders are still parsed into parameter mappings by {@link org.apache.ibatis.builder.SqlSourceBuilder}
+   * with the rest of the SQL.
+   */
+  private static class StaticBody {
+    private static final int NONE = 0;
+    private static final int ITEM = 1;
+    private static final int INDEX = 2;
+    private static final char MARKER = '\u0000';
+
+    // texts.get(i) is followed by the placeholder i, the last text by nothing
+    private final List<String> texts = new ArrayList<String>();
+    private final List<String> placeholders = new ArrayList<String>();
+    private final List<Integer> references = new ArrayList<Integer>();
+    private boolean referencesItem;
+    private boolean referencesIndex;
+
+    static StaticBody parse(SqlNode contents, String item, String index) {
+      List<SqlNode> nodes = contents instanceof MixedSqlNode ? ((MixedSqlNode) contents).getContents() : Collections.singletonList(contents);
+      if (nodes.isEmpty()) {
+        return null;
+      }
+      Pattern itemPattern = Pattern.compile("^\\s*" + item + "(?![^.,:\\s])");
+      Pattern indexPattern = index == null ? null : Pattern.compile("^\\s*" + index + "(?![^.,:\\s])");
+      StaticBody body = new StaticBody();
+      StringBuilder text = new StringBuilder();
+      for (SqlNode node : nodes) {
+        if (!(node instanceof StaticTextSqlNode)) {
+          return null;
+        }
+        String nodeText = ((StaticTextSqlNode) node).getText();
+        // a separator is only added before the first text that is not blank
+        if ((node == nodes.get(0) && nodeText.trim().length() == 0) || nodeText.indexOf(MARKER) >= 0) {
+          return null;
+        }
+        final List<String> contentsOfNode = new ArrayList<String>();
+        String parsed = new GenericTokenParser("#{", "}", new TokenHandler() {
+          @Override
+          public String handleToken(String content) {
+            contentsOfNode.add(content);
+            return String.valueOf(MARKER);
+          }
+        }).parse(nodeText);
+        int start = 0;
+        for (String content : contentsOfNode) {
+          int marker = parsed.indexOf(MARKER, start);
+          text.append(parsed, start, marker);
+          body.texts.add(text.toString());
+          text.setLength(0);
+          body.addPlaceholder(content, itemPattern, indexPattern);
+          start = marker + 1;
+        }
+        text.append(parsed, start, parsed.length()).append(' ');
+      }
+      body.texts.add(text.toString());
+      return body;
+    }
+
+    private void addPlaceholder(String content, Pattern itemPattern, Pattern indexPattern) {
+      Matcher matcher = itemPattern.matcher(content);
+      if (matcher.find()) {
+        placeholders.add(content.substring(matcher.end()));
+        references.add(ITEM);
+        referencesItem = true;
+        return;
+      }
+      if (indexPattern != null) {
+        matcher = indexPattern.matcher(content);
+        if (matcher.find()) {
+          placeholders.add(content.substring(matcher.end()));
+          references.add(INDEX);
+          referencesIndex = true;
+          return;
+        }
+      }
+      placeholders.add(content);
+      references.add(NONE);
+    }
+
+    void append(StringBuilder sql, String item, String index, int uniqueNumber) {
+      for (int i = 0; i < placeholders.size(); i++) {
+        sql.append(texts.get(i)).append("#{");
+        int reference = references.get(i);
+        if (reference != NONE) {
+          sql.append(ITEM_PREFIX).append(reference == ITEM ? item : index).append('_').append(uniqueNumber);
+        }
+        sql.append(placeholders.get(i)).append('}');
+      }
+      sql.append(texts.get(texts.size() - 1));
+    }
+  }
+
   private static class FilteredDynamicContext extends DynamicContext {
     private final DynamicContext delegate;
     private final int index;
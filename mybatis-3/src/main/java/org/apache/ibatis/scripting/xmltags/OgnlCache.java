@@ -35,12 +35,30 @@ public final class OgnlCache {
   private static final OgnlMemberAccess MEMBER_ACCESS = new OgnlMemberAccess();
   private static final OgnlClassResolver CLASS_RESOLVER = new OgnlClassResolver();
   private static final Map<String, Object> expressionCache = new ConcurrentHashMap<String, Object>();
+  // 编译后的表达式，不能编译的表达式对应NOT_COMPILED
+  private static final Map<String, CompiledExpression> compiledExpressionCache = new ConcurrentHashMap<String, CompiledExpression>();
+  private static final CompiledExpression NOT_COMPILED = new CompiledExpression() {
+    @Override
+    Object getValue(Object root) {
+      return UNSUPPORTED;
+    }
+  };
 
   private OgnlCache() {
     // Prevent Instantiation of Static Class
   }
 
   public static Object getValue(String expression, Object root) {
+    // 优先使用编译后的表达式，不支持的表达式和值交给OGNL处理
+    Object value;
+    try {
+      value = compileExpression(expression).getValue(root);
+    } catch (CompiledExpression.GetterException e) {
+      throw new BuilderException("Error evaluating expression '" + expression + "'. Cause: " + e.getCause(), e.getCause());
+    }
+    if (value != CompiledExpression.UNSUPPORTED) {
+      return value;
+    }
     try {
       Map context = Ognl.createDefaultContext(root, MEMBER_ACCESS, CLASS_RESOLVER, null);
       return Ognl.getValue(parseExpression(expression), context, root);
@@ -49,6 +67,21 @@ public final class OgnlCache {
     }
   }
 
+  /**
+   * Compiles the expression ahead of its first evaluation, called when the dynamic SQL nodes are built.
+   */
+  static CompiledExpression compileExpression(String expression) {
+    CompiledExpression compiled = compiledExpressionCache.get(expression);
+    if (compiled == null) {
+      compiled = CompiledExpression.compile(expression);
+      if (compiled == null) {
+        compiled = NOT_COMPILED;
+      }
+      compiledExpressionCache.put(expression, compiled);
+    }
+    return compiled;
+  }
+
   private static Object parseExpression(String expression) throws OgnlException {
     Object node = expressionCache.get(expression);
     if (node == null) {
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -26,6 +26,10 @@ public class StaticTextSqlNode implements SqlNode {
     this.text = text;
   }
 
+  String getText() {
+    return text;
+  }
+
   @Override
   public boolean apply(DynamicContext context) {
     // 追加SQL内容
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -21,6 +21,7 @@ import org.apache.ibatis.mapping.SqlSource;
 import org.apache.ibatis.parsing.XNode;
 import org.apache.ibatis.scripting.defaults.RawSqlSource;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.ArrayTypeHandler;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
@@ -61,6 +62,7 @@ public class XMLScriptBuilder extends BaseBuilder {
     nodeHandlerMap.put("when", new IfHandler());
     nodeHandlerMap.put("otherwise", new OtherwiseHandler());
     nodeHandlerMap.put("bind", new BindHandler());
+    nodeHandlerMap.put("inArray", new InArrayHandler());
   }
 
   public SqlSource parseScriptNode() {
@@ -101,8 +103,14 @@ public class XMLScriptBuilder extends BaseBuilder {
         if (handler == null) {
           throw new BuilderException("Unknown element <" + nodeName + "> in SQL statement.");
         }
+        int size = contents.size();
         handler.handleNode(child, contents);
-        isDynamic = true;
+        // 标签只生成静态文本时（如<inArray>）不影响SQL是否为动态SQL
+        for (SqlNode sqlNode : contents.subList(size, contents.size())) {
+          if (!(sqlNode instanceof StaticTextSqlNode)) {
+            isDynamic = true;
+          }
+        }
       }
     }
     return new MixedSqlNode(contents);
@@ -126,6 +134,23 @@ public class XMLScriptBuilder extends BaseBuilder {
     }
   }
 
+  private class InArrayHandler implements NodeHandler {
+    public InArrayHandler() {
+      // Prevent Synthetic Access
+    }
+
+    @Override
+    public void handleNode(XNode nodeToHandle, List<SqlNode> targetContents) {
+      // 集合参数以一个SQL数组绑定，SQL不随集合大小变化
+      final String column = nodeToHandle.getStringAttribute("column");
+      final String property = nodeToHandle.getStringAttribute("property");
+      final String parameter = "#{" + property + ",jdbcType=ARRAY,typeHandler=" + ArrayTypeHandler.class.getName() + "}";
+      // 模板与数据库有关，语句按当前databaseId构建
+      String template = configuration.getInArrayTemplate(configuration.getDatabaseId());
+      targetContents.add(new StaticTextSqlNode(column + " " + template.replace("?", parameter)));
+    }
+  }
+
   private class TrimHandler implements NodeHandler {
     public TrimHandler() {
       // Prevent Synthetic Access
@@ -184,7 +209,9 @@ public class XMLScriptBuilder extends BaseBuilder {
       String open = nodeToHandle.getStringAttribute("open");
       String close = nodeToHandle.getStringAttribute("close");
       String separator = nodeToHandle.getStringAttribute("separator");
-      ForEachSqlNode forEachSqlNode = new ForEachSqlNode(configuration, mixedSqlNode, collection, index, item, open, close, separator);
+      int chunkSize = nodeToHandle.getIntAttribute("chunkSize", 0);
+      String chunkSeparator = nodeToHandle.getStringAttribute("chunkSeparator");
+      ForEachSqlNode forEachSqlNode = new ForEachSqlNode(configuration, mixedSqlNode, collection, index, item, open, close, separator, chunkSize, chunkSeparator);
       targetContents.add(forEachSqlNode);
     }
   }
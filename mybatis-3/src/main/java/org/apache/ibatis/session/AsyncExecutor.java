@@ -0,0 +1,284 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs SqlSession operations on a bounded thread pool and returns their results as {@link CompletableFuture}s.
+ * <p>
+ * Mapper methods returning {@code CompletableFuture<T>} or {@code CompletionStage<T>} are submitted here, other
+ * operations can be submitted with {@link #submit}. The operations of a session run one after the other, in the
+ * order they were submitted, because a session is not thread safe. The session must not be used directly while
+ * it has pending operations, and should be committed and closed once they have completed.
+ * <p>
+ * When the pool and its queue are full the returned future fails with a {@link RejectedExecutionException}
+ * instead of queueing more work. Operations waiting for a previous operation of their session count against the
+ * same limit. Cancelling a future before it runs skips the operation, cancelling it while it runs cancels the last
+ * JDBC statement it executed.
+ *
+ * @since 3.5.0
+ */
+public class AsyncExecutor {
+
+  private static final ThreadLocal<AsyncCall<?>> CURRENT = new ThreadLocal<AsyncCall<?>>();
+
+  private final Executor executor;
+  private final int maxWaitingCalls;
+  // 等待同一SqlSession之前的操作完成、尚未提交给线程池的操作数
+  private final AtomicInteger waitingCalls = new AtomicInteger();
+  // 每个SqlSession最后提交且未执行完成的操作，同一SqlSession的操作按提交顺序依次执行
+  private final Map<SqlSession, AsyncCall<?>> lastCalls = new IdentityHashMap<SqlSession, AsyncCall<?>>();
+
+  /**
+   * Runs the operations on the given executor, which should be bounded and reject work when it is full.
+   * The operations waiting for a previous operation of their session are not limited.
+   */
+  public AsyncExecutor(Executor executor) {
+    this(executor, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Runs the operations on the given executor, which should be bounded and reject work when it is full.
+   *
+   * @param maxWaitingCalls the number of operations waiting for a previous operation of their session, or for a
+   *     thread when the executor is a {@link ThreadPoolExecutor}, above which new operations are rejected
+   */
+  public AsyncExecutor(Executor executor, int maxWaitingCalls) {
+    this.executor = executor;
+    this.maxWaitingCalls = maxWaitingCalls;
+  }
+
+  /**
+   * Runs the operations on a pool of daemon threads.
+   *
+   * @param threads the number of threads, that is the number of connections used by asynchronous operations
+   * @param queueCapacity the number of operations waiting for a thread or for a previous operation of their
+   *     session above which new operations are rejected
+   */
+  public AsyncExecutor(int threads, int queueCapacity) {
+    this(newThreadPool(threads, queueCapacity), queueCapacity);
+  }
+
+  private static ThreadPoolExecutor newThreadPool(int threads, int queueCapacity) {
+    ThreadPoolExecutor threadPool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(queueCapacity), new DaemonThreadFactory());
+    threadPool.allowCoreThreadTimeOut(true);
+    return threadPool;
+  }
+
+  /**
+   * Runs the operation of the session once its previously submitted operations have completed.
+   */
+  public <T> CompletableFuture<T> submit(final SqlSession sqlSession, Callable<T> operation) {
+    final AsyncCall<T> call = new AsyncCall<T>(operation);
+    final AsyncCall<?> previous;
+    synchronized (lastCalls) {
+      previous = lastCalls.get(sqlSession);
+      if (previous != null) {
+        if (waitingCalls.get() + getQueuedCalls() >= maxWaitingCalls) {
+          call.completeExceptionally(new RejectedExecutionException(
+              "Too many asynchronous operations are waiting, the limit is " + maxWaitingCalls));
+          return call;
+        }
+        waitingCalls.incrementAndGet();
+      }
+      lastCalls.put(sqlSession, call);
+    }
+    call.whenFinished(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (lastCalls) {
+          if (lastCalls.get(sqlSession) == call) {
+            lastCalls.remove(sqlSession);
+          }
+        }
+      }
+    });
+    if (previous == null) {
+      dispatch(call);
+    } else {
+      previous.whenFinished(new Runnable() {
+        @Override
+        public void run() {
+          waitingCalls.decrementAndGet();
+          dispatch(call);
+        }
+      });
+    }
+    return call;
+  }
+
+  private int getQueuedCalls() {
+    if (executor instanceof ThreadPoolExecutor) {
+      return ((ThreadPoolExecutor) executor).getQueue().size();
+    }
+    return 0;
+  }
+
+  private void dispatch(AsyncCall<?> call) {
+    if (call.isDone()) {
+      // 执行前已取消
+      call.finish();
+      return;
+    }
+    try {
+      executor.execute(call);
+    } catch (RejectedExecutionException e) {
+      call.completeExceptionally(e);
+      call.finish();
+    }
+  }
+
+  /**
+   * Stops the threads of the pool created by this instance once the submitted operations have completed.
+   */
+  public void shutdown() {
+    if (executor instanceof ExecutorService) {
+      ((ExecutorService) executor).shutdown();
+    }
+  }
+
+  /**
+   * Registers the statement prepared, or reused, by the running asynchronous operation of the current thread,
+   * if any, so that cancelling the operation cancels the statement.
+   */
+  public static void statementPrepared(Statement statement) {
+    AsyncCall<?> call = CURRENT.get();
+    if (call != null) {
+      call.setStatement(statement);
+    }
+  }
+
+  private static class AsyncCall<T> extends CompletableFuture<T> implements Runnable {
+
+    private Callable<T> operation;
+    private volatile Statement statement;
+    // 操作执行结束（或被跳过）后执行的回调，与Future完成不同，取消操作时Future立即完成而操作可能仍在执行
+    private final List<Runnable> finishCallbacks = new ArrayList<Runnable>();
+    private boolean finished;
+
+    AsyncCall(Callable<T> operation) {
+      this.operation = operation;
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (!isDone()) {
+          T result = null;
+          Throwable error = null;
+          CURRENT.set(this);
+          try {
+            result = operation.call();
+          } catch (Throwable t) {
+            error = t;
+          } finally {
+            CURRENT.remove();
+            statement = null;
+          }
+          // 在清除CURRENT之后完成，调用方注册的回调可能在当前线程中执行
+          if (error == null) {
+            complete(result);
+          } else {
+            completeExceptionally(error);
+          }
+        }
+      } finally {
+        operation = null;
+        finish();
+      }
+    }
+
+    void setStatement(Statement statement) {
+      this.statement = statement;
+      if (isCancelled()) {
+        cancelStatement(statement);
+      }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+      Statement running = statement;
+      if (cancelled && running != null) {
+        cancelStatement(running);
+      }
+      return cancelled;
+    }
+
+    private static void cancelStatement(Statement statement) {
+      try {
+        statement.cancel();
+      } catch (SQLException e) {
+        // ignore, the statement may already be closed
+      }
+    }
+
+    void whenFinished(Runnable callback) {
+      synchronized (finishCallbacks) {
+        if (!finished) {
+          finishCallbacks.add(callback);
+          return;
+        }
+      }
+      callback.run();
+    }
+
+    void finish() {
+      List<Runnable> callbacks;
+      synchronized (finishCallbacks) {
+        if (finished) {
+          return;
+        }
+        finished = true;
+        callbacks = new ArrayList<Runnable>(finishCallbacks);
+        finishCallbacks.clear();
+      }
+      for (Runnable callback : callbacks) {
+        callback.run();
+      }
+    }
+  }
+
+  private static class DaemonThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "mybatis-async-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+}
@@ -21,12 +21,20 @@ import org.apache.ibatis.builder.ResultMapResolver;
 import org.apache.ibatis.builder.annotation.MethodResolver;
 import org.apache.ibatis.builder.xml.XMLStatementBuilder;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.TableVersions;
+import org.apache.ibatis.cache.decorators.ConcurrentLruCache;
 import org.apache.ibatis.cache.decorators.FifoCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.SoftCache;
 import org.apache.ibatis.cache.decorators.WeakCache;
+import org.apache.ibatis.cache.impl.ConcurrentPerpetualCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.serializer.BinaryCacheSerializer;
+import org.apache.ibatis.cache.serializer.JdkCacheSerializer;
 import org.apache.ibatis.datasource.jndi.JndiDataSourceFactory;
+import org.apache.ibatis.datasource.pooled.ConcurrentPooledDataSourceFactory;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
 import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
 import org.apache.ibatis.executor.*;
@@ -42,6 +50,9 @@ import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.io.VFS;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.metrics.LoggingQueryTraceListener;
+import org.apache.ibatis.metrics.MetricsCollector;
+import org.apache.ibatis.metrics.QueryTraceListener;
 import org.apache.ibatis.logging.commons.JakartaCommonsLoggingImpl;
 import org.apache.ibatis.logging.jdk14.Jdk14LoggingImpl;
 import org.apache.ibatis.logging.log4j.Log4jImpl;
@@ -110,6 +121,10 @@ public class Configuration {
     // MyBatis利用本地缓存机制防止循环引用和加速重复查询，默认值为SESSION.这种情况下会缓存一个会话中所有的查询。
     // 若没设置只为STATEMENT，本地会话仅在语句执行上，对相同SqlSession的不同调用将不会共享数据。
     protected LocalCacheScope localCacheScope = LocalCacheScope.SESSION;
+    // 增删改语句刷新二级缓存的范围，NAMESPACE清空语句所在命名空间的缓存，TABLE使所有命名空间中读取了被修改表的缓存结果失效
+    protected CacheInvalidationScope cacheInvalidationScope = CacheInvalidationScope.NAMESPACE;
+    // 每张表的版本号，TABLE范围下缓存结果记录读取时各表的版本号，版本号变化后结果失效
+    protected final TableVersions tableVersions = new TableVersions();
     // 当没有参数指定JDBC类型是，指定JDBC类型的值为null.一些驱动需要指定JDBC类型，多数情况下直接使用一般类型即可。
     protected JdbcType jdbcTypeForNull = JdbcType.OTHER;
     // 指定那个对象的方法会触发一次延迟加载
@@ -123,6 +138,10 @@ public class Configuration {
     //REUSE     执行器会复用Statement
     //BATCH     将会批量执行所有的更新语句
     protected ExecutorType defaultExecutorType = ExecutorType.SIMPLE;
+    // BATCH执行器是否为每个MappedStatement和SQL保留一个Statement，交替执行的语句不再中断批处理，语句按首次出现的顺序分组执行，之后的语句读取或修改了相同的表时不合并。
+    protected boolean batchStatementCoalescing;
+    // BATCH执行器将单行INSERT ... VALUES (...)语句合并为多行VALUES语句时每条语句包含的行数，0或1表示不合并。
+    protected int batchMultiRowInsertSize;
     // 指定MyBatis应该如何自动映射列到Java实体属性：
     // NONE     表示取消自动映射。
     // PARTIAL  只会自动映射没有定义嵌套结果映射的结果集。
@@ -133,6 +152,30 @@ public class Configuration {
     // WARNING  输出提醒日志
     // FAILING  映射失败，抛出SqlSessionException异常
     protected AutoMappingUnknownColumnBehavior autoMappingUnknownColumnBehavior = AutoMappingUnknownColumnBehavior.NONE;
+    // 跨语句执行共享的自动映射缓存的最大条目数，Key由MappedStatement、ResultMap、列前缀和结果集的列签名组成，0表示不共享。
+    protected int autoMappingCacheSize = 1024;
+    // 每个动态SQL语句缓存的解析结果（SQL和参数映射）的最大条目数，0表示不缓存。
+    protected int dynamicSqlCacheSize = 64;
+    // <inArray>标签生成的SQL模板，?为以SQL数组绑定的集合参数，HSQLDB可使用IN (UNNEST(?))
+    protected String inArrayTemplate = "= ANY(?)";
+    // 各databaseId的<inArray>模板，没有对应模板的数据库使用inArrayTemplate
+    protected final Map<String, String> inArrayTemplates = new HashMap<String, String>();
+    // 接收语句执行、结果处理、缓存和连接池度量数据的收集器，为null时不做任何度量
+    protected MetricsCollector metricsCollector;
+    // 根查询（包括其嵌套查询）耗时达到该毫秒数时通知QueryTraceListener，0表示不检测慢查询
+    protected int slowQueryThreshold;
+    // 根查询触发的嵌套查询和延迟加载次数超过该值时通知QueryTraceListener（N+1查询），0表示不检测
+    protected int nestedQueryThreshold;
+    // 接收慢查询和N+1查询通知的监听器，默认输出警告日志
+    protected QueryTraceListener queryTraceListener = new LoggingQueryTraceListener();
+    // 执行异步Mapper方法的线程数，0表示使用连接池的最大活动连接数
+    protected int asyncThreads;
+    // 等待执行的异步操作的最大数量，超过时新的异步操作以RejectedExecutionException失败
+    protected int asyncQueueCapacity = 1024;
+    // 执行返回CompletableFuture的Mapper方法，第一次使用时创建
+    protected volatile AsyncExecutor asyncExecutor;
+    // asyncExecutor是否由Configuration创建，由Configuration创建的线程池在shutdownAsyncExecutor()时关闭
+    protected boolean asyncExecutorCreated;
 
     protected Properties variables = new Properties();
     protected ReflectorFactory reflectorFactory = new DefaultReflectorFactory();
@@ -171,6 +214,8 @@ public class Configuration {
     protected final Map<String, MappedStatement> mappedStatements = new StrictMap<MappedStatement>("Mapped Statements collection");
     // 用于注册Mapper中配置的所有缓存信息，其中Key为Cache的ID，也就是Mapper的命名空间，Value为Cache对象。
     protected final Map<String, Cache> caches = new StrictMap<Cache>("Caches collection");
+    // 缓存自动映射的字段，所有ResultSetHandler共享
+    protected final ConcurrentLruCache autoMappingCache = new ConcurrentLruCache(new ConcurrentPerpetualCache("AutoMappings"));
     // 用于注册Mapper配置文件中通过<resultMap>标签配置的ResultMap信息，ResultMap用于建立Java实体属性与数据库字段之间的映射关系，
     // 其中Key为ResultMap的Id，该Id为Mapper命名空间和<resultMap>标签的id属性组成的，Value为解析<resultMap>标签后得到的ResultMap对象。
     protected final Map<String, ResultMap> resultMaps = new StrictMap<ResultMap>("Result Maps collection");
@@ -211,13 +256,18 @@ public class Configuration {
 
         typeAliasRegistry.registerAlias("JNDI", JndiDataSourceFactory.class);
         typeAliasRegistry.registerAlias("POOLED", PooledDataSourceFactory.class);
+        typeAliasRegistry.registerAlias("CONCURRENT_POOLED", ConcurrentPooledDataSourceFactory.class);
         typeAliasRegistry.registerAlias("UNPOOLED", UnpooledDataSourceFactory.class);
 
         typeAliasRegistry.registerAlias("PERPETUAL", PerpetualCache.class);
         typeAliasRegistry.registerAlias("FIFO", FifoCache.class);
         typeAliasRegistry.registerAlias("LRU", LruCache.class);
+        typeAliasRegistry.registerAlias("CONCURRENT_LRU", ConcurrentLruCache.class);
         typeAliasRegistry.registerAlias("SOFT", SoftCache.class);
         typeAliasRegistry.registerAlias("WEAK", WeakCache.class);
+        typeAliasRegistry.registerAlias("OFF_HEAP", OffHeapCache.class);
+        typeAliasRegistry.registerAlias("JDK_SERIALIZER", JdkCacheSerializer.class);
+        typeAliasRegistry.registerAlias("BINARY_SERIALIZER", BinaryCacheSerializer.class);
 
         typeAliasRegistry.registerAlias("DB_VENDOR", VendorDatabaseIdProvider.class);
 
@@ -348,6 +398,7 @@ public class Configuration {
 
     public void setEnvironment(Environment environment) {
         this.environment = environment;
+        registerPoolMetrics();
     }
 
     public AutoMappingBehavior getAutoMappingBehavior() {
@@ -431,6 +482,33 @@ public class Configuration {
         this.defaultExecutorType = defaultExecutorType;
     }
 
+    public boolean isBatchStatementCoalescing() {
+        return batchStatementCoalescing;
+    }
+
+    /**
+     * Keeps one open batch statement per mapped statement and SQL, so that interleaved updates do not
+     * start a new JDBC batch each time. Statements are then executed grouped in order of their first use, so a
+     * statement is only added to an earlier batch when none of the statements opened since then reads or modifies
+     * the same tables.
+     */
+    public void setBatchStatementCoalescing(boolean batchStatementCoalescing) {
+        this.batchStatementCoalescing = batchStatementCoalescing;
+    }
+
+    public int getBatchMultiRowInsertSize() {
+        return batchMultiRowInsertSize;
+    }
+
+    /**
+     * Sets how many rows of a single row {@code INSERT ... VALUES (...)} the batch executor sends as one
+     * multi-row {@code VALUES (...), (...)} statement. 0 or 1 sends every row as its own batch entry.
+     * The update counts of such a batch are reported per statement, not per row.
+     */
+    public void setBatchMultiRowInsertSize(int batchMultiRowInsertSize) {
+        this.batchMultiRowInsertSize = batchMultiRowInsertSize;
+    }
+
     public boolean isCacheEnabled() {
         return cacheEnabled;
     }
@@ -447,6 +525,298 @@ public class Configuration {
         this.defaultStatementTimeout = defaultStatementTimeout;
     }
 
+    public int getAutoMappingCacheSize() {
+        return autoMappingCacheSize;
+    }
+
+    /**
+     * Sets how many auto-mappings are kept for reuse by later executions of a statement.
+     * 0 disables the shared cache, auto-mappings are then only reused within one result set.
+     */
+    public void setAutoMappingCacheSize(int autoMappingCacheSize) {
+        this.autoMappingCacheSize = autoMappingCacheSize;
+        autoMappingCache.setSize(autoMappingCacheSize);
+        if (autoMappingCacheSize <= 0) {
+            autoMappingCache.clear();
+        }
+    }
+
+    public Cache getAutoMappingCache() {
+        return autoMappingCache;
+    }
+
+    public int getDynamicSqlCacheSize() {
+        return dynamicSqlCacheSize;
+    }
+
+    /**
+     * Sets how many parsed SQL texts with their parameter mappings each dynamic SQL statement keeps,
+     * keyed by the SQL its nodes generate. 0 parses the generated SQL on every execution.
+     * Only applies to statements built after the setting is changed.
+     */
+    public void setDynamicSqlCacheSize(int dynamicSqlCacheSize) {
+        this.dynamicSqlCacheSize = dynamicSqlCacheSize;
+    }
+
+    public String getInArrayTemplate() {
+        return inArrayTemplate;
+    }
+
+    /**
+     * Sets the SQL rendered after the column of an {@code <inArray>} element, where {@code ?} stands for
+     * the collection bound as a single SQL ARRAY, e.g. {@code = ANY(?)} or {@code IN (UNNEST(?))}.
+     * It is used for the databases without their own template, see {@link #setInArrayTemplate(String, String)}.
+     * Only applies to statements built after the setting is changed.
+     */
+    public void setInArrayTemplate(String inArrayTemplate) {
+        this.inArrayTemplate = inArrayTemplate;
+    }
+
+    /**
+     * @return the {@code <inArray>} template of the database, or the default template when it has none
+     * @since 3.5.0
+     */
+    public String getInArrayTemplate(String databaseId) {
+        String template = databaseId == null ? null : inArrayTemplates.get(databaseId);
+        return template == null ? inArrayTemplate : template;
+    }
+
+    /**
+     * Sets the {@code <inArray>} template of the statements built for the given {@code databaseId}.
+     * Only applies to statements built after the setting is changed.
+     *
+     * @since 3.5.0
+     */
+    public void setInArrayTemplate(String databaseId, String inArrayTemplate) {
+        inArrayTemplates.put(databaseId, inArrayTemplate);
+    }
+
+    /**
+     * Sets the {@code <inArray>} templates by {@code databaseId}, like the {@code inArrayTemplates} setting
+     * {@code hsqldb:IN (UNNEST(?)); postgresql:= ANY(?)}.
+     *
+     * @since 3.5.0
+     */
+    public void setInArrayTemplates(Map<String, String> inArrayTemplates) {
+        this.inArrayTemplates.putAll(inArrayTemplates);
+    }
+
+    public MetricsCollector getMetricsCollector() {
+        return metricsCollector;
+    }
+
+    /**
+     * Registers the collector of the statement, cache and connection pool measurements.
+     * It is also registered on the data source of the environment when it is a {@link PooledDataSource}.
+     *
+     * @since 3.5.0
+     */
+    public void setMetricsCollector(MetricsCollector metricsCollector) {
+        this.metricsCollector = metricsCollector;
+        registerPoolMetrics();
+    }
+
+    /**
+     * @since 3.5.0
+     */
+    public int getSlowQueryThreshold() {
+        return slowQueryThreshold;
+    }
+
+    /**
+     * Sets the time in milliseconds from which a root query, including its nested selects,
+     * is reported to the {@link QueryTraceListener}. 0 disables the check.
+     *
+     * @since 3.5.0
+     */
+    public void setSlowQueryThreshold(int slowQueryThreshold) {
+        this.slowQueryThreshold = slowQueryThreshold;
+    }
+
+    /**
+     * @since 3.5.0
+     */
+    public int getNestedQueryThreshold() {
+        return nestedQueryThreshold;
+    }
+
+    /**
+     * Sets the number of nested selects and lazy loads above which a root query is reported
+     * to the {@link QueryTraceListener} as a N+1 query. 0 disables the check.
+     * Cursor queries are not traced.
+     *
+     * @since 3.5.0
+     */
+    public void setNestedQueryThreshold(int nestedQueryThreshold) {
+        this.nestedQueryThreshold = nestedQueryThreshold;
+    }
+
+    /**
+     * @since 3.5.0
+     */
+    public QueryTraceListener getQueryTraceListener() {
+        return queryTraceListener;
+    }
+
+    /**
+     * @since 3.5.0
+     */
+    public void setQueryTraceListener(QueryTraceListener queryTraceListener) {
+        if (queryTraceListener == null) {
+            queryTraceListener = new LoggingQueryTraceListener();
+        }
+        this.queryTraceListener = queryTraceListener;
+    }
+
+    /**
+     * @return true if root queries are traced, that is if a slow or a nested query threshold is set
+     * @since 3.5.0
+     */
+    public boolean isQueryTraceEnabled() {
+        return slowQueryThreshold > 0 || nestedQueryThreshold > 0;
+    }
+
+    /**
+     * @since 3.5.0
+     */
+    public boolean isFusedPlugins() {
+        return interceptorChain.isFused();
+    }
+
+    /**
+     * Applies the plugins of each Executor, StatementHandler, ParameterHandler and ResultSetHandler with
+     * one generated class instead of one nested proxy per plugin. Only for plugins whose {@code plugin()}
+     * method calls {@code Plugin.wrap()}, which is then not called.
+     *
+     * @since 3.5.0
+     */
+    public void setFusedPlugins(boolean fusedPlugins) {
+        interceptorChain.setFused(fusedPlugins);
+    }
+
+    /**
+     * @since 3.5.0
+     */
+    public CacheInvalidationScope getCacheInvalidationScope() {
+        return cacheInvalidationScope;
+    }
+
+    /**
+     * Sets what the insert, update and delete statements flushing the cache invalidate. NAMESPACE, the default,
+     * clears the cache of the namespace of the statement. TABLE invalidates the cached results of all namespaces
+     * that read the tables the statement modifies. The results of selects by primary key of the tables whose
+     * primary key columns are declared in the {@code tables} attribute of a statement, like {@code blog(id)},
+     * are then invalidated only by the updates and deletes of their row by primary key, or of rows not
+     * identified by primary key.
+     *
+     * @since 3.5.0
+     */
+    public void setCacheInvalidationScope(CacheInvalidationScope cacheInvalidationScope) {
+        this.cacheInvalidationScope = cacheInvalidationScope;
+    }
+
+    /**
+     * @return the versions of the tables, used by the TABLE cache invalidation scope
+     * @since 3.5.0
+     */
+    public TableVersions getTableVersions() {
+        return tableVersions;
+    }
+
+    /**
+     * @since 3.5.0
+     */
+    public int getAsyncThreads() {
+        return asyncThreads;
+    }
+
+    /**
+     * Sets the number of threads running the mapper methods that return a {@code CompletableFuture}.
+     * 0, the default, uses as many threads as the maximum active connections of a {@link PooledDataSource},
+     * or the number of processors for other data sources. Only applies before the first asynchronous call.
+     *
+     * @since 3.5.0
+     */
+    public void setAsyncThreads(int asyncThreads) {
+        this.asyncThreads = asyncThreads;
+    }
+
+    /**
+     * @since 3.5.0
+     */
+    public int getAsyncQueueCapacity() {
+        return asyncQueueCapacity;
+    }
+
+    /**
+     * Sets the number of asynchronous operations that may wait for a thread. Only applies before the first asynchronous call.
+     *
+     * @since 3.5.0
+     */
+    public void setAsyncQueueCapacity(int asyncQueueCapacity) {
+        this.asyncQueueCapacity = asyncQueueCapacity;
+    }
+
+    /**
+     * @return the executor of the asynchronous mapper methods, created on first use from the async settings
+     * @since 3.5.0
+     */
+    public AsyncExecutor getAsyncExecutor() {
+        // 每次异步调用都会获取，创建之后不再加锁
+        AsyncExecutor executor = asyncExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = asyncExecutor;
+                if (executor == null) {
+                    int threads = asyncThreads;
+                    if (threads <= 0) {
+                        if (environment != null && environment.getDataSource() instanceof PooledDataSource) {
+                            threads = ((PooledDataSource) environment.getDataSource()).getPoolMaximumActiveConnections();
+                        } else {
+                            threads = Runtime.getRuntime().availableProcessors();
+                        }
+                    }
+                    executor = new AsyncExecutor(threads, asyncQueueCapacity);
+                    asyncExecutorCreated = true;
+                    asyncExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Sets the executor of the asynchronous mapper methods, for instance an {@link AsyncExecutor} running on an
+     * {@code ExecutorService} of the application. The application then owns that executor and shuts it down.
+     *
+     * @since 3.5.0
+     */
+    public synchronized void setAsyncExecutor(AsyncExecutor asyncExecutor) {
+        shutdownAsyncExecutor();
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    /**
+     * Shuts down the thread pool this configuration created for the asynchronous mapper methods, once their
+     * submitted operations have completed. A pool is created again on the next asynchronous call.
+     * Executors set with {@link #setAsyncExecutor} are not shut down.
+     *
+     * @since 3.5.0
+     */
+    public synchronized void shutdownAsyncExecutor() {
+        if (asyncExecutorCreated) {
+            asyncExecutor.shutdown();
+            asyncExecutor = null;
+            asyncExecutorCreated = false;
+        }
+    }
+
+    private void registerPoolMetrics() {
+        if (environment != null && environment.getDataSource() instanceof PooledDataSource) {
+            ((PooledDataSource) environment.getDataSource()).setMetricsCollector(metricsCollector);
+        }
+    }
+
     /**
      * @since 3.3.0
      */
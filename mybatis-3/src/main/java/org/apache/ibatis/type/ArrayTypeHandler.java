@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2015 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -15,24 +15,121 @@
  */
 package org.apache.ibatis.type;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.sql.Array;
 import java.sql.CallableStatement;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
+ * Binds a {@link java.sql.Array}, a Java array or a {@link Collection} as a single SQL ARRAY parameter,
+ * and reads SQL ARRAY columns as Java arrays.
+ *
  * @author Clinton Begin
  */
 public class ArrayTypeHandler extends BaseTypeHandler<Object> {
 
+  // 元素类型对应的SQL数组元素类型名称，用于Connection.createArrayOf()
+  private static final Map<Class<?>, String> STANDARD_MAPPING = new HashMap<Class<?>, String>();
+
+  static {
+    STANDARD_MAPPING.put(Boolean.class, JdbcType.BOOLEAN.name());
+    STANDARD_MAPPING.put(boolean.class, JdbcType.BOOLEAN.name());
+    STANDARD_MAPPING.put(Byte.class, JdbcType.TINYINT.name());
+    STANDARD_MAPPING.put(byte.class, JdbcType.TINYINT.name());
+    STANDARD_MAPPING.put(Short.class, JdbcType.SMALLINT.name());
+    STANDARD_MAPPING.put(short.class, JdbcType.SMALLINT.name());
+    STANDARD_MAPPING.put(Integer.class, JdbcType.INTEGER.name());
+    STANDARD_MAPPING.put(int.class, JdbcType.INTEGER.name());
+    STANDARD_MAPPING.put(Long.class, JdbcType.BIGINT.name());
+    STANDARD_MAPPING.put(long.class, JdbcType.BIGINT.name());
+    STANDARD_MAPPING.put(Float.class, JdbcType.REAL.name());
+    STANDARD_MAPPING.put(float.class, JdbcType.REAL.name());
+    STANDARD_MAPPING.put(Double.class, JdbcType.DOUBLE.name());
+    STANDARD_MAPPING.put(double.class, JdbcType.DOUBLE.name());
+    STANDARD_MAPPING.put(BigInteger.class, JdbcType.BIGINT.name());
+    STANDARD_MAPPING.put(BigDecimal.class, JdbcType.NUMERIC.name());
+    STANDARD_MAPPING.put(String.class, JdbcType.VARCHAR.name());
+    STANDARD_MAPPING.put(Character.class, JdbcType.CHAR.name());
+    STANDARD_MAPPING.put(char.class, JdbcType.CHAR.name());
+    STANDARD_MAPPING.put(java.sql.Date.class, JdbcType.DATE.name());
+    STANDARD_MAPPING.put(Time.class, JdbcType.TIME.name());
+    STANDARD_MAPPING.put(Timestamp.class, JdbcType.TIMESTAMP.name());
+    STANDARD_MAPPING.put(java.util.Date.class, JdbcType.TIMESTAMP.name());
+  }
+
   public ArrayTypeHandler() {
     super();
   }
 
   @Override
   public void setNonNullParameter(PreparedStatement ps, int i, Object parameter, JdbcType jdbcType) throws SQLException {
-    ps.setArray(i, (Array) parameter);
+    if (parameter instanceof Array) {
+      // 用户自行创建的Array对象由用户负责释放
+      ps.setArray(i, (Array) parameter);
+      return;
+    }
+    Object[] elements = toElements(parameter);
+    Array array = ps.getConnection().createArrayOf(resolveTypeName(parameter, elements), elements);
+    ps.setArray(i, array);
+    array.free();
+  }
+
+  private Object[] toElements(Object parameter) {
+    if (parameter instanceof Collection) {
+      return ((Collection<?>) parameter).toArray();
+    }
+    if (parameter instanceof Object[]) {
+      return (Object[]) parameter;
+    }
+    if (parameter.getClass().isArray()) {
+      // 基本类型数组需要装箱
+      int length = java.lang.reflect.Array.getLength(parameter);
+      Object[] elements = new Object[length];
+      for (int i = 0; i < length; i++) {
+        elements[i] = java.lang.reflect.Array.get(parameter, i);
+      }
+      return elements;
+    }
+    throw new TypeException("ArrayTypeHandler requires a java.sql.Array, an array or a Collection but was " + parameter.getClass().getName());
+  }
+
+  /**
+   * Resolves the SQL type name of the elements passed to {@link java.sql.Connection#createArrayOf(String, Object[])},
+   * from the array component type or from the first non null element.
+   *
+   * @throws TypeException if the element type has no standard SQL type, or if it cannot be determined because
+   *     the collection has no non null element
+   */
+  protected String resolveTypeName(Object parameter, Object[] elements) {
+    Class<?> componentType = parameter.getClass().getComponentType();
+    if (componentType == null || componentType == Object.class) {
+      componentType = null;
+      for (Object element : elements) {
+        if (element != null) {
+          componentType = element.getClass();
+          break;
+        }
+      }
+    }
+    if (componentType == null) {
+      throw new TypeException("ArrayTypeHandler cannot determine the SQL type of the elements of a collection without"
+          + " non null elements. Pass a typed Java array or a java.sql.Array instead.");
+    }
+    // JAVA_OBJECT数组大多数驱动不支持，传给驱动只会在执行时以难以理解的错误失败
+    String typeName = STANDARD_MAPPING.get(componentType);
+    if (typeName == null) {
+      throw new TypeException("ArrayTypeHandler has no SQL type for elements of type " + componentType.getName()
+          + ". Pass a java.sql.Array or override resolveTypeName().");
+    }
+    return typeName;
   }
 
   @Override
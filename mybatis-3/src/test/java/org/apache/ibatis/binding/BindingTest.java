@@ -31,6 +31,8 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import javassist.util.proxy.Proxy;
 
@@ -308,6 +310,31 @@ public class BindingTest {
     }
   }
 
+  @Test
+  public void shouldExecuteBoundSelectsReturningFuturesInOrder() throws Exception {
+    Configuration configuration = sqlSessionFactory.getConfiguration();
+    String namespace = BoundBlogMapper.class.getName();
+    assertEquals(Blog.class, configuration.getMappedStatement(namespace + ".selectBlogAsync").getResultMaps().get(0).getType());
+    assertEquals(Post.class, configuration.getMappedStatement(namespace + ".selectPostsAsync").getResultMaps().get(0).getType());
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      BoundBlogMapper mapper = session.getMapper(BoundBlogMapper.class);
+      CompletableFuture<Blog> blog = mapper.selectBlogAsync(1);
+      CompletableFuture<List<Post>> posts = mapper.selectPostsAsync().toCompletableFuture();
+      Blog mappedBlog = blog.get(10, TimeUnit.SECONDS);
+      assertEquals(1, mappedBlog.getId());
+      assertEquals("Jim Business", mappedBlog.getTitle());
+      List<Post> mappedPosts = posts.get(10, TimeUnit.SECONDS);
+      assertEquals(5, mappedPosts.size());
+      assertEquals(Post.class, mappedPosts.get(0).getClass());
+      assertEquals(1, mappedPosts.get(0).getId());
+      assertEquals("Corn nuts", mappedPosts.get(0).getSubject());
+      assertEquals(Section.VIDEOS, mappedPosts.get(1).getSection());
+      // the pool is created again after being shut down
+      configuration.shutdownAsyncExecutor();
+      assertEquals("Jim Business", mapper.selectBlogAsync(1).get(10, TimeUnit.SECONDS).getTitle());
+    }
+  }
+
   @Test
   public void shouldExecuteBoundSelectOneBlogStatementWithConstructor() {
     try (SqlSession session = sqlSessionFactory.openSession()) {
@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2016 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -27,6 +27,8 @@ import org.apache.ibatis.session.RowBounds;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 @CacheNamespace(readWrite = false)
 public interface BoundBlogMapper {
@@ -122,6 +124,17 @@ public interface BoundBlogMapper {
 
   //======================================================
 
+  @Select("SELECT * FROM " +
+      "blog WHERE id = #{id}")
+  CompletableFuture<Blog> selectBlogAsync(int id);
+
+  //======================================================
+
+  @Select("SELECT * FROM post ORDER BY id")
+  CompletionStage<List<Post>> selectPostsAsync();
+
+  //======================================================
+
   @Select("SELECT * FROM " +
       "blog WHERE id = #{id}")
   @ConstructorArgs({
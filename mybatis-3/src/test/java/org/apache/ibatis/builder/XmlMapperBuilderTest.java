@@ -16,15 +16,21 @@
 package org.apache.ibatis.builder;
 
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.regex.Pattern;
 
 import org.apache.ibatis.builder.xml.XMLMapperBuilder;
 import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ResultSetType;
 import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.scripting.defaults.RawSqlSource;
 import org.apache.ibatis.session.Configuration;
 import org.junit.Rule;
+import org.apache.ibatis.type.ArrayTypeHandler;
+import org.apache.ibatis.type.JdbcType;
 import org.apache.ibatis.type.TypeHandler;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -67,6 +73,27 @@ public class XmlMapperBuilderTest {
     }
   }
 
+  @Test
+  public void inArrayElementBindsCollectionAsSingleArrayParameter() throws Exception {
+    Configuration configuration = new Configuration();
+    configuration.setInArrayTemplate("hsqldb", "IN (UNNEST(?))");
+    configuration.setDatabaseId("hsqldb");
+    assertThat(configuration.getInArrayTemplate("postgresql")).isEqualTo("= ANY(?)");
+    String resource = "org/apache/ibatis/builder/AuthorMapper.xml";
+    try (InputStream inputStream = Resources.getResourceAsStream(resource)) {
+      XMLMapperBuilder builder = new XMLMapperBuilder(inputStream, configuration, resource, configuration.getSqlFragments());
+      builder.parse();
+
+      MappedStatement mappedStatement = configuration.getMappedStatement("selectAuthorsInIds");
+      assertThat(mappedStatement.getSqlSource()).isInstanceOf(RawSqlSource.class);
+      BoundSql boundSql = mappedStatement.getBoundSql(Collections.singletonMap("ids", Arrays.asList(1, 2, 3)));
+      assertThat(boundSql.getSql()).isEqualTo("select * from author where id IN (UNNEST(?))");
+      assertThat(boundSql.getParameterMappings()).hasSize(1);
+      assertThat(boundSql.getParameterMappings().get(0).getJdbcType()).isEqualTo(JdbcType.ARRAY);
+      assertThat(boundSql.getParameterMappings().get(0).getTypeHandler()).isInstanceOf(ArrayTypeHandler.class);
+    }
+  }
+
   @Test
   public void parseExpression() {
     BaseBuilder builder = new BaseBuilder(new Configuration()){{}};
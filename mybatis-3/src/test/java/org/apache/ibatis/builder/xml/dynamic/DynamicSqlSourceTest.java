@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2015 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -36,6 +36,7 @@ import org.apache.ibatis.scripting.xmltags.IfSqlNode;
 import org.apache.ibatis.scripting.xmltags.MixedSqlNode;
 import org.apache.ibatis.scripting.xmltags.SetSqlNode;
 import org.apache.ibatis.scripting.xmltags.SqlNode;
+import org.apache.ibatis.scripting.xmltags.StaticTextSqlNode;
 import org.apache.ibatis.scripting.xmltags.TextSqlNode;
 import org.apache.ibatis.scripting.xmltags.WhereSqlNode;
 import org.apache.ibatis.session.Configuration;
@@ -364,6 +365,54 @@ public class DynamicSqlSourceTest extends BaseDataTest {
     assertEquals("__frch_u_0", boundSql.getParameterMappings().get(3).getProperty());
   }
 
+  @Test
+  public void shouldReuseParameterMappingsForSameGeneratedSql() throws Exception {
+    DynamicSqlSource source = createDynamicSqlSource(new TextSqlNode("SELECT * FROM BLOG"),
+        new ForEachSqlNode(new Configuration(), mixedContents(
+            new TextSqlNode("#{item}")), "list", null, "item", "WHERE id in (", ")", ","));
+    final Map<String, Object> first = new HashMap<String, Object>();
+    first.put("list", Arrays.asList(1, 2));
+    final Map<String, Object> second = new HashMap<String, Object>();
+    second.put("list", Arrays.asList(3, 4));
+    final Map<String, Object> third = new HashMap<String, Object>();
+    third.put("list", Arrays.asList("a", "b"));
+
+    BoundSql firstBoundSql = source.getBoundSql(first);
+    BoundSql secondBoundSql = source.getBoundSql(second);
+    assertEquals(firstBoundSql.getSql(), secondBoundSql.getSql());
+    Assert.assertSame(firstBoundSql.getParameterMappings(), secondBoundSql.getParameterMappings());
+    assertEquals(Integer.valueOf(4), secondBoundSql.getAdditionalParameter("__frch_item_1"));
+
+    // the foreach items are bound with another type, so the parameter mappings must be resolved again
+    BoundSql thirdBoundSql = source.getBoundSql(third);
+    Assert.assertNotSame(firstBoundSql.getParameterMappings(), thirdBoundSql.getParameterMappings());
+    assertEquals(String.class, thirdBoundSql.getParameterMappings().get(0).getJavaType());
+  }
+
+  @Test
+  public void shouldExpandStaticForEachLikeDynamicForEachAndSplitItInChunks() throws Exception {
+    final Map<String, Object> param = new HashMap<String, Object>();
+    param.put("list", Arrays.asList("a", "b", "c"));
+    DynamicSqlSource staticSource = createDynamicSqlSource(new TextSqlNode("SELECT * FROM BLOG WHERE"),
+        new ForEachSqlNode(new Configuration(), mixedContents(
+            new StaticTextSqlNode("#{item} = #{ index}")), "list", "index", "item", "id in (", ")", ",", 2, "or"));
+    DynamicSqlSource dynamicSource = createDynamicSqlSource(new TextSqlNode("SELECT * FROM BLOG WHERE"),
+        new ForEachSqlNode(new Configuration(), mixedContents(
+            new TextSqlNode("#{item} = #{ index}")), "list", "index", "item", "id in (", ")", ",", 2, "or"));
+
+    BoundSql staticBoundSql = staticSource.getBoundSql(param);
+    BoundSql dynamicBoundSql = dynamicSource.getBoundSql(param);
+    assertEquals("SELECT * FROM BLOG WHERE id in (  ? = ? , ? = ? ) or id in (  ? = ? )", staticBoundSql.getSql());
+    assertEquals(dynamicBoundSql.getSql(), staticBoundSql.getSql());
+    assertEquals(6, staticBoundSql.getParameterMappings().size());
+    for (int i = 0; i < 6; i++) {
+      assertEquals(dynamicBoundSql.getParameterMappings().get(i).getProperty(), staticBoundSql.getParameterMappings().get(i).getProperty());
+    }
+    assertEquals("__frch_item_2", staticBoundSql.getParameterMappings().get(4).getProperty());
+    assertEquals("c", staticBoundSql.getAdditionalParameter("__frch_item_2"));
+    assertEquals(2, staticBoundSql.getAdditionalParameter("__frch_index_2"));
+  }
+
   private DynamicSqlSource createDynamicSqlSource(SqlNode... contents) throws IOException, SQLException {
     createBlogDataSource();
     final String resource = "org/apache/ibatis/builder/MapperConfig.xml";
@@ -17,8 +17,11 @@ package org.apache.ibatis.builder.xml.dynamic;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.ibatis.builder.BuilderException;
 import org.apache.ibatis.domain.blog.Author;
 import org.apache.ibatis.domain.blog.Section;
 import org.apache.ibatis.scripting.xmltags.ExpressionEvaluator;
@@ -85,5 +88,74 @@ public class ExpressionEvaluatorTest {
     }
   }
 
+  @Test
+  public void shouldEvaluateCommonTestExpressions() {
+    Author author = new Author(1, "cbegin", null, "cbegin@apache.org", "N/A", Section.NEWS);
+    assertTrue(evaluator.evaluateBoolean("username != null and username != ''", author));
+    assertFalse(evaluator.evaluateBoolean("password != null && password != ''", author));
+    assertTrue(evaluator.evaluateBoolean("id > 0 and id <= 1", author));
+    assertTrue(evaluator.evaluateBoolean("id == 1.0 || password.length() > 0", author));
+    assertTrue(evaluator.evaluateBoolean("!(id lt 1) and not (username.trim().length() eq 0)", author));
+  }
+
+  @Test
+  public void shouldEvaluateSizeOfCollectionsAndMaps() {
+    final HashMap<String, Object> parameterObject = new HashMap<String, Object>();
+    parameterObject.put("list", Arrays.asList(1, 2, 3));
+    parameterObject.put("empty", new HashMap<String, Object>());
+    assertTrue(evaluator.evaluateBoolean("list != null and list.size() == 3", parameterObject));
+    assertTrue(evaluator.evaluateBoolean("list.size == 3L", parameterObject));
+    assertTrue(evaluator.evaluateBoolean("empty.isEmpty()", parameterObject));
+    assertFalse(evaluator.evaluateBoolean("missing != null", parameterObject));
+  }
+
+  @Test
+  public void shouldConvertStringOperandsToBooleansLikeOgnl() {
+    final HashMap<String, Object> parameterObject = new HashMap<String, Object>();
+    parameterObject.put("flag", "false");
+    parameterObject.put("enabled", "TRUE");
+    assertTrue(evaluator.evaluateBoolean("!flag", parameterObject));
+    assertFalse(evaluator.evaluateBoolean("!enabled", parameterObject));
+    assertTrue(evaluator.evaluateBoolean("enabled && !flag", parameterObject));
+  }
+
+  @Test
+  public void shouldFallBackToOgnlForUnsupportedValues() {
+    Author author = new Author(1, "c", null, "cbegin@apache.org", "N/A", Section.NEWS);
+    // a single quoted character is a Character in OGNL
+    assertTrue(evaluator.evaluateBoolean("username == 'c'.toString()", author));
+    assertTrue(evaluator.evaluateBoolean("favouriteSection == @org.apache.ibatis.domain.blog.Section@NEWS", author));
+    assertTrue(evaluator.evaluateBoolean("favouriteSection.name() == 'NEWS'", author));
+  }
+
+  @Test
+  public void shouldReadIntegerLiteralsWithLeadingZerosAsOctal() {
+    final HashMap<String, Object> parameterObject = new HashMap<String, Object>();
+    parameterObject.put("value", 8);
+    assertTrue(evaluator.evaluateBoolean("value == 010", parameterObject));
+    assertFalse(evaluator.evaluateBoolean("value == 10", parameterObject));
+  }
+
+  @Test
+  public void shouldCallThrowingGetterOnce() {
+    ThrowingBean bean = new ThrowingBean();
+    try {
+      evaluator.evaluateBoolean("name != null", bean);
+      fail("Expected the exception of the getter");
+    } catch (BuilderException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    assertEquals(1, bean.calls.get());
+  }
+
+  public static class ThrowingBean {
+    private final AtomicInteger calls = new AtomicInteger();
+
+    public String getName() {
+      calls.incrementAndGet();
+      throw new IllegalStateException("broken getter");
+    }
+  }
+
 
 }
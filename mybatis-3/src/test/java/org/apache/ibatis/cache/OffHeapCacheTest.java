@@ -0,0 +1,133 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.cache.impl.OffHeapCache;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.junit.Test;
+
+public class OffHeapCacheTest {
+
+  @Test
+  public void shouldReturnCopiesOfTheValues() {
+    OffHeapCache cache = new OffHeapCache("default");
+    Author author = new Author(101, "jim", "********", "jim@ibatis.apache.org", "Software Developer", Section.NEWS);
+    cache.putObject("author", author);
+    assertEquals(author, cache.getObject("author"));
+    assertNotSame(author, cache.getObject("author"));
+    cache.removeObject("author");
+    assertNull(cache.getObject("author"));
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedEntriesWhenFull() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setCapacity(4096);
+    cache.setSlabSize(1024);
+    for (int i = 0; i < 1000; i++) {
+      cache.putObject(i, "value " + i);
+      cache.getObject(0);
+    }
+    assertTrue(cache.getSize() < 1000);
+    assertEquals("value 0", cache.getObject(0));
+    assertEquals("value 999", cache.getObject(999));
+    assertNull(cache.getObject(1));
+  }
+
+  @Test
+  public void shouldReclaimSlabsForLargerEntries() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setCapacity(4096);
+    cache.setSlabSize(1024);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, i);
+    }
+    List<Integer> large = new ArrayList<Integer>();
+    for (int i = 0; i < 100; i++) {
+      large.add(i);
+    }
+    for (int i = 0; i < 4; i++) {
+      cache.putObject("large" + i, large);
+      assertEquals(large, cache.getObject("large" + i));
+    }
+  }
+
+  @Test
+  public void shouldShareFrequentlyReadValuesOfReadOnlyCaches() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setHotSize(10);
+    cache.setReadOnly(true);
+    cache.putObject("key", new ArrayList<String>());
+    Object first = cache.getObject("key");
+    Object second = cache.getObject("key");
+    assertNotSame(first, second);
+    assertSame(second, cache.getObject("key"));
+  }
+
+  @Test
+  public void shouldReturnCopiesOfFrequentlyReadValues() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setHotSize(10);
+    cache.putObject("key", new ArrayList<String>());
+    cache.getObject("key");
+    List<String> hot = (List<String>) cache.getObject("key");
+    hot.add("modified");
+    Object copy = cache.getObject("key");
+    assertNotSame(hot, copy);
+    assertEquals(new ArrayList<String>(), copy);
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldRejectACapacityThatIsNotAMultipleOfTheSlabSize() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setCapacity(4096 + 512);
+    cache.setSlabSize(1024);
+    cache.initialize();
+  }
+
+  @Test
+  public void shouldKeepTheEntriesOfTheFile() throws Exception {
+    File file = File.createTempFile("offheap", ".cache");
+    file.deleteOnExit();
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setFile(file.getAbsolutePath());
+    cache.setCapacity(64 * 1024);
+    cache.setSlabSize(4096);
+    cache.putObject("key", "value");
+    cache.putObject("removed", "value");
+    cache.removeObject("removed");
+
+    OffHeapCache reopened = new OffHeapCache("default");
+    reopened.setFile(file.getAbsolutePath());
+    reopened.setCapacity(64 * 1024);
+    reopened.setSlabSize(4096);
+    assertEquals("value", reopened.getObject("key"));
+    assertNull(reopened.getObject("removed"));
+    assertEquals(1, reopened.getSize());
+  }
+
+}
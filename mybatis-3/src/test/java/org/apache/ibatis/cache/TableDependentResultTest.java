@@ -0,0 +1,143 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.Test;
+
+public class TableDependentResultTest {
+
+  @Test
+  public void shouldInvalidateOnlyTheResultsOfTheModifiedTables() {
+    TableVersions tableVersions = new TableVersions();
+    TableDependentResult blogs = newResult(tableVersions, new String[] { "blog" }, "blogs");
+    TableDependentResult authors = newResult(tableVersions, new String[] { "author" }, "authors");
+    TableDependentResult unknown = newResult(tableVersions, null, "unknown");
+    tableVersions.invalidate(Arrays.asList("blog"));
+    assertFalse(blogs.isCurrent(tableVersions));
+    assertTrue(authors.isCurrent(tableVersions));
+    assertFalse(unknown.isCurrent(tableVersions));
+    tableVersions.invalidate(null);
+    assertFalse(authors.isCurrent(tableVersions));
+  }
+
+  @Test
+  public void shouldDependOnTheTablesOfNestedResults() {
+    TableVersions tableVersions = new TableVersions();
+    tableVersions.invalidate(Arrays.asList("author"));
+    TableDependencies dependencies = new TableDependencies(tableVersions);
+    dependencies.addTables(new String[] { "blog" });
+    // 嵌套查询读取的缓存结果在其表被修改之前读取
+    dependencies.addResult(newResult(new TableVersions(), new String[] { "author" }, "stale authors"));
+    TableDependentResult blogs = dependencies.newResult("blogs");
+    assertEquals(Arrays.asList("author", "blog"), Arrays.asList(blogs.getTables()));
+    assertFalse(blogs.isCurrent(tableVersions));
+  }
+
+  @Test
+  public void shouldBumpTheVersionsOfTheTablesModifiedByATransactionOnCommit() {
+    TableVersions tableVersions = new TableVersions();
+    Cache cache = new PerpetualCache("blogs");
+    CacheKey key = new CacheKey(new Object[] { "selectBlogs" });
+    TransactionalCacheManager writer = new TransactionalCacheManager();
+    TransactionalCacheManager reader = new TransactionalCacheManager();
+    reader.putObject(cache, key, newResult(tableVersions, new String[] { "blog" }, "blogs"));
+    reader.commit();
+    writer.invalidateTables(tableVersions, new String[] { "blog" });
+    TableDependentResult cached = (TableDependentResult) writer.getObject(cache, key);
+    assertTrue(writer.isInvalidated(cached));
+    assertTrue(cached.isCurrent(tableVersions));
+    writer.commit();
+    assertFalse(cached.isCurrent(tableVersions));
+    assertFalse(writer.isInvalidated(cached));
+    writer.invalidateTables(tableVersions, null);
+    writer.rollback();
+    assertFalse(writer.isInvalidated(newResult(tableVersions, null, null)));
+    assertNull(newResult(tableVersions, null, null).getTables());
+  }
+
+  @Test
+  public void shouldInvalidatePrimaryKeyLookupsOnlyByTheirRowOrByModificationsOfUnknownRows() {
+    TableVersions tableVersions = new TableVersions();
+    TableDependencies dependencies = new TableDependencies(tableVersions);
+    dependencies.addRow("blog", Arrays.<Object>asList(1L));
+    TableDependentResult blog = dependencies.newResult("blog 1");
+    tableVersions.invalidateInserts(Arrays.asList("blog"));
+    tableVersions.invalidateRows("blog", Arrays.asList(tableVersions.getRowSlot("blog", Arrays.<Object>asList(2L))));
+    assertTrue(blog.isCurrent(tableVersions));
+    tableVersions.invalidateRows("blog", Arrays.asList(tableVersions.getRowSlot("blog", Arrays.<Object>asList(1L))));
+    assertFalse(blog.isCurrent(tableVersions));
+    dependencies = new TableDependencies(tableVersions);
+    dependencies.addRow("blog", Arrays.<Object>asList(1L));
+    blog = dependencies.newResult("blog 1");
+    tableVersions.invalidate(Arrays.asList("blog"));
+    assertFalse(blog.isCurrent(tableVersions));
+  }
+
+  @Test
+  public void shouldInvalidateTheRowsModifiedByATransaction() {
+    TableVersions tableVersions = new TableVersions();
+    TableDependencies dependencies = new TableDependencies(tableVersions);
+    dependencies.addRow("blog", Arrays.<Object>asList(1L));
+    TableDependentResult blog = dependencies.newResult("blog 1");
+    TransactionalCacheManager tcm = new TransactionalCacheManager();
+    tcm.invalidateInsertedTables(tableVersions, new String[] { "blog" });
+    tcm.invalidateRow(tableVersions, "author", Arrays.<Object>asList(1L));
+    assertFalse(tcm.isInvalidated(blog));
+    assertTrue(tcm.isInvalidated(newResult(tableVersions, new String[] { "author" }, "authors")));
+    tcm.invalidateRow(tableVersions, "blog", Arrays.<Object>asList(1L));
+    assertTrue(tcm.isInvalidated(blog));
+    tcm.commit();
+    assertFalse(blog.isCurrent(tableVersions));
+  }
+
+  @Test
+  public void shouldInvalidateTheRowWhateverTheTypeOfItsKeyParameters() {
+    TableVersions tableVersions = new TableVersions();
+    TableDependencies dependencies = new TableDependencies(tableVersions);
+    dependencies.addRow("blog", Arrays.asList(TableVersions.normalizeKey(1)));
+    TableDependentResult blog = dependencies.newResult("blog 1");
+    int rowSlot = tableVersions.getRowSlot("blog", Arrays.asList(TableVersions.normalizeKey(Long.valueOf(1))));
+    for (Object key : new Object[] { (short) 1, 1.0d, new BigDecimal("1.00"), BigInteger.ONE }) {
+      assertEquals(rowSlot, tableVersions.getRowSlot("blog", Arrays.asList(TableVersions.normalizeKey(key))));
+    }
+    tableVersions.invalidateRows("blog", Arrays.asList(
+        tableVersions.getRowSlot("blog", Arrays.asList(TableVersions.normalizeKey(new BigDecimal("1.0"))))));
+    assertFalse(blog.isCurrent(tableVersions));
+    // 数据库比较字符串的方式未知（排序规则、隐式转换），字符串与其他类型按表失效
+    assertNull(TableVersions.normalizeKey("1"));
+    assertNull(TableVersions.normalizeKey('1'));
+    assertNull(TableVersions.normalizeKey(new Date(0)));
+    assertNull(TableVersions.normalizeKey(Double.NaN));
+  }
+
+  private static TableDependentResult newResult(TableVersions tableVersions, String[] tables, Object value) {
+    TableDependencies dependencies = new TableDependencies(tableVersions);
+    dependencies.addTables(tables);
+    return dependencies.newResult(value);
+  }
+
+}
@@ -0,0 +1,127 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.serializer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.junit.Test;
+
+public class BinaryCacheSerializerTest {
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void shouldReturnEqualCopiesKeepingSharedReferences() {
+    Cache cache = new SerializedCache(new PerpetualCache("default"), new BinaryCacheSerializer());
+    Author author = new Author(101, "jim", "********", "jim@ibatis.apache.org", "Software Developer", Section.NEWS);
+    Map<String, Object> row = new HashMap<String, Object>();
+    row.put("amount", new BigDecimal("12.50"));
+    row.put("created", new Timestamp(1234567890123L));
+    row.put("data", new int[] { 1, 2, 3 });
+    row.put("self", row);
+    List<Object> list = new ArrayList<Object>();
+    list.add(author);
+    list.add(author);
+    list.add(row);
+    list.add(null);
+    cache.putObject("key", list);
+
+    List<Object> copy = (List<Object>) cache.getObject("key");
+    assertNotSame(list, copy);
+    assertEquals(4, copy.size());
+    assertEquals(author, copy.get(0));
+    assertNotSame(author, copy.get(0));
+    assertSame(copy.get(0), copy.get(1));
+    assertEquals(Section.NEWS, ((Author) copy.get(0)).getFavouriteSection());
+    Map<String, Object> rowCopy = (Map<String, Object>) copy.get(2);
+    assertEquals(new BigDecimal("12.50"), rowCopy.get("amount"));
+    assertEquals(new Timestamp(1234567890123L), rowCopy.get("created"));
+    assertArrayEquals(new int[] { 1, 2, 3 }, (int[]) rowCopy.get("data"));
+    assertSame(rowCopy, rowCopy.get("self"));
+    assertEquals(null, copy.get(3));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void shouldKeepReferencesSharedWithValuesWrittenWithJavaSerialization() {
+    BinaryCacheSerializer serializer = new BinaryCacheSerializer();
+    Author author = new Author(101, "jim", "********", "jim@ibatis.apache.org", "Software Developer", Section.NEWS);
+    List<Object> list = new ArrayList<Object>();
+    list.add(author);
+    list.add(new CustomSerialization(author));
+
+    List<Object> copy = (List<Object>) serializer.deserialize(serializer.serialize(list));
+    assertEquals(author, copy.get(0));
+    assertSame(copy.get(0), ((CustomSerialization) copy.get(1)).author);
+  }
+
+  @Test
+  public void shouldResetTransientFieldsToTheirDefaultValues() {
+    BinaryCacheSerializer serializer = new BinaryCacheSerializer();
+    TransientFields value = new TransientFields();
+    value.name = "jim";
+    value.count = 3;
+    value.cached = "cached";
+
+    TransientFields copy = (TransientFields) serializer.deserialize(serializer.serialize(value));
+    assertEquals("jim", copy.name);
+    assertEquals(0, copy.count);
+    assertNull(copy.cached);
+  }
+
+  static class CustomSerialization implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Author author;
+
+    CustomSerialization(Author author) {
+      this.author = author;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+      out.defaultWriteObject();
+    }
+  }
+
+  static class TransientFields implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String name;
+    private transient int count = 1;
+    private transient String cached = "initial";
+  }
+
+}
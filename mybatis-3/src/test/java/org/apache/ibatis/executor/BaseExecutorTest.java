@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2015 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -20,6 +20,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,11 +30,15 @@ import javassist.util.proxy.Proxy;
 import javax.sql.DataSource;
 
 import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.datasource.pooled.PoolState;
 import org.apache.ibatis.domain.blog.Author;
 import org.apache.ibatis.domain.blog.Blog;
 import org.apache.ibatis.domain.blog.Post;
 import org.apache.ibatis.domain.blog.Section;
 import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.metrics.MetricsCollector;
+import org.apache.ibatis.metrics.QueryTrace;
+import org.apache.ibatis.metrics.QueryTraceListener;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
@@ -461,6 +466,147 @@ public class BaseExecutorTest extends BaseDataTest {
     }
   }
 
+  @Test
+  public void shouldReportQueriesToMetricsCollector() throws Exception {
+    RecordingMetricsCollector collector = new RecordingMetricsCollector();
+    config.setMetricsCollector(collector);
+    Executor executor = createExecutor(new JdbcTransaction(ds, null, false));
+    try {
+      MappedStatement selectStatement = ExecutorTestHelper.prepareSelectAllAuthorsAutoMappedStatement(config);
+      executor.query(selectStatement, null, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+      executor.query(selectStatement, null, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+      assertEquals(1, collector.statementsExecuted);
+      assertEquals(1, collector.localCacheMisses);
+      assertEquals(1, collector.localCacheHits);
+      assertEquals(2, collector.rowsFetched);
+      assertEquals(2, collector.rowsMapped);
+    } finally {
+      config.setMetricsCollector(null);
+      executor.rollback(true);
+      executor.close(false);
+    }
+  }
+
+  @Test
+  public void shouldReportLazyLoadsAboveNestedQueryThreshold() throws Exception {
+    RecordingQueryTraceListener listener = new RecordingQueryTraceListener();
+    config.setNestedQueryThreshold(1);
+    config.setQueryTraceListener(listener);
+    Executor executor = createExecutor(new JdbcTransaction(ds, null, false));
+    try {
+      MappedStatement selectBlog = ExecutorTestHelper.prepareComplexSelectBlogMappedStatement(config);
+      MappedStatement selectPosts = ExecutorTestHelper.prepareSelectPostsForBlogMappedStatement(config);
+      config.addMappedStatement(selectBlog);
+      config.addMappedStatement(selectPosts);
+      List<Post> posts = executor.query(selectPosts, 1, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+      assertEquals(2, posts.size());
+      assertTrue(listener.nestedQueryTraces.isEmpty());
+      posts.get(0).getBlog();
+      assertTrue(listener.nestedQueryTraces.isEmpty());
+      posts.get(1).getBlog();
+      assertEquals(1, listener.nestedQueryTraces.size());
+      QueryTrace trace = listener.nestedQueryTraces.get(0);
+      assertEquals("selectPostsForBlog", trace.getStatementId());
+      assertEquals(2, trace.getLazyLoadCount());
+      assertEquals(Integer.valueOf(2), trace.getNestedStatementCounts().get("selectBlogById"));
+      assertTrue(listener.slowQueryTraces.isEmpty());
+    } finally {
+      config.setNestedQueryThreshold(0);
+      config.setQueryTraceListener(null);
+      executor.rollback(true);
+      executor.close(false);
+    }
+  }
+
+  @Test
+  public void shouldCountLazyLoadsOfLazyLoadedResultsInTheOriginatingTrace() throws Exception {
+    RecordingQueryTraceListener listener = new RecordingQueryTraceListener();
+    config.setNestedQueryThreshold(1);
+    config.setQueryTraceListener(listener);
+    Executor executor = createExecutor(new JdbcTransaction(ds, null, false));
+    try {
+      MappedStatement selectBlog = ExecutorTestHelper.prepareComplexSelectBlogMappedStatement(config);
+      MappedStatement selectPosts = ExecutorTestHelper.prepareSelectPostsForBlogMappedStatement(config);
+      config.addMappedStatement(selectBlog);
+      config.addMappedStatement(selectPosts);
+      List<Post> posts = executor.query(selectPosts, 1, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+      Blog blog = posts.get(0).getBlog();
+      // 延迟加载的blog不是新的根查询，加载其posts仍计入selectPostsForBlog
+      assertTrue(listener.nestedQueryTraces.isEmpty());
+      assertEquals(2, blog.getPosts().size());
+      assertEquals(1, listener.nestedQueryTraces.size());
+      QueryTrace trace = listener.nestedQueryTraces.get(0);
+      assertEquals("selectPostsForBlog", trace.getStatementId());
+      assertEquals(2, trace.getLazyLoadCount());
+      assertEquals(Integer.valueOf(1), trace.getNestedStatementCounts().get("selectBlogById"));
+      assertEquals(Integer.valueOf(1), trace.getNestedStatementCounts().get("selectPostsForBlog"));
+    } finally {
+      config.setNestedQueryThreshold(0);
+      config.setQueryTraceListener(null);
+      executor.rollback(true);
+      executor.close(false);
+    }
+  }
+
+  private static class RecordingQueryTraceListener implements QueryTraceListener {
+    final List<QueryTrace> slowQueryTraces = new ArrayList<QueryTrace>();
+    final List<QueryTrace> nestedQueryTraces = new ArrayList<QueryTrace>();
+
+    @Override
+    public void slowQuery(QueryTrace trace) {
+      slowQueryTraces.add(trace);
+    }
+
+    @Override
+    public void tooManyNestedQueries(QueryTrace trace) {
+      nestedQueryTraces.add(trace);
+    }
+  }
+
+  private static class RecordingMetricsCollector implements MetricsCollector {
+    int statementsExecuted;
+    int rowsFetched;
+    int rowsMapped;
+    int localCacheHits;
+    int localCacheMisses;
+
+    @Override
+    public void statementExecuted(MappedStatement ms, long elapsedNanos, Throwable error) {
+      statementsExecuted++;
+    }
+
+    @Override
+    public void resultsHandled(MappedStatement ms, int rowsFetched, int rowsMapped) {
+      this.rowsFetched += rowsFetched;
+      this.rowsMapped += rowsMapped;
+    }
+
+    @Override
+    public void batchExecuted(MappedStatement ms, int batchSize, long elapsedNanos) {
+    }
+
+    @Override
+    public void localCacheAccessed(MappedStatement ms, boolean hit) {
+      if (hit) {
+        localCacheHits++;
+      } else {
+        localCacheMisses++;
+      }
+    }
+
+    @Override
+    public void secondLevelCacheAccessed(MappedStatement ms, String cacheId, boolean hit) {
+    }
+
+    @Override
+    public void connectionAcquired(PoolState state, long waitMillis) {
+    }
+
+    @Override
+    public void connectionReleased(PoolState state) {
+    }
+  }
+
   protected Executor createExecutor(Transaction transaction) {
     return new SimpleExecutor(config,transaction);
   }
@@ -0,0 +1,151 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Blog;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class BatchResultLoaderTest {
+
+  private final Configuration configuration = new Configuration();
+
+  @Test
+  public void shouldNotOverwriteAPropertySetThroughTheSetter() throws Exception {
+    AuthorLoader loader = new AuthorLoader(configuration, null, null);
+    Blog first = new Blog();
+    Blog second = new Blog();
+    ResultLoaderMap firstLoaders = addParent(loader, first, 101);
+    ResultLoaderMap secondLoaders = addParent(loader, second, 102);
+    Author author = new Author(999);
+    // what the proxy does when the setter is called
+    secondLoaders.remove("author");
+    second.setAuthor(author);
+    firstLoaders.load("author");
+    assertEquals(101, first.getAuthor().getId());
+    assertSame(author, second.getAuthor());
+    assertEquals(Arrays.asList(Arrays.<Object>asList(101, 102)), loader.selectedKeys);
+  }
+
+  @Test
+  public void shouldBatchEqualKeysOfDifferentNumericTypesOnce() throws Exception {
+    AuthorLoader loader = new AuthorLoader(configuration, null, null);
+    Blog first = new Blog();
+    Blog second = new Blog();
+    Blog third = new Blog();
+    ResultLoaderMap firstLoaders = addParent(loader, first, 101);
+    addParent(loader, second, 101L);
+    addParent(loader, third, new BigDecimal("101.0"));
+    firstLoaders.load("author");
+    assertEquals(Arrays.asList(Arrays.<Object>asList(101)), loader.selectedKeys);
+    assertEquals(101, first.getAuthor().getId());
+    assertSame(first.getAuthor(), second.getAuthor());
+    assertSame(first.getAuthor(), third.getAuthor());
+  }
+
+  @Test
+  public void shouldLoadAPropertyAloneWhileItsBatchIsLoadedByAnotherThread() throws Exception {
+    CountDownLatch selecting = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AuthorLoader loader = new AuthorLoader(configuration, selecting, release);
+    Blog first = new Blog();
+    Blog second = new Blog();
+    final ResultLoaderMap firstLoaders = addParent(loader, first, 101);
+    ResultLoaderMap secondLoaders = addParent(loader, second, 102);
+    FutureTask<Void> firstLoad = new FutureTask<Void>(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        firstLoaders.load("author");
+        return null;
+      }
+    });
+    new Thread(firstLoad).start();
+    selecting.await();
+    secondLoaders.load("author");
+    Author loadedAlone = second.getAuthor();
+    assertEquals(102, loadedAlone.getId());
+    release.countDown();
+    firstLoad.get();
+    assertEquals(101, first.getAuthor().getId());
+    assertSame(loadedAlone, second.getAuthor());
+    assertEquals(Arrays.asList(Arrays.<Object>asList(101, 102), Arrays.<Object>asList(102)), loader.selectedKeys);
+  }
+
+  private ResultLoaderMap addParent(BatchResultLoader loader, Blog blog, Object authorId) {
+    ResultLoaderMap lazyLoader = new ResultLoaderMap();
+    lazyLoader.addBatchLoader("author", configuration.newMetaObject(blog), loader, authorId);
+    return lazyLoader;
+  }
+
+  private static class AuthorLoader extends BatchResultLoader {
+
+    final List<List<Object>> selectedKeys = new ArrayList<List<Object>>();
+    private final CountDownLatch selecting;
+    private final CountDownLatch release;
+
+    AuthorLoader(Configuration configuration, CountDownLatch selecting, CountDownLatch release) {
+      super(configuration, mock(Executor.class),
+          new MappedStatement.Builder(configuration, "selectAuthors", new StaticSqlSource(configuration, "select"), SqlCommandType.SELECT).build(),
+          new ResultMapping.Builder(configuration, "author").column("author_id").javaType(Author.class)
+              .nestedQueryId("selectAuthors").lazy(true).batchSize(10).batchKey("id").build());
+      this.selecting = selecting;
+      this.release = release;
+    }
+
+    @Override
+    protected List<Object> selectList(List<Object> keys) throws SQLException {
+      boolean first;
+      synchronized (selectedKeys) {
+        selectedKeys.add(new ArrayList<Object>(keys));
+        first = selectedKeys.size() == 1;
+      }
+      // the first batch waits until the property of the second blog was loaded alone
+      if (first && release != null) {
+        selecting.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new SQLException(e);
+        }
+      }
+      List<Object> authors = new ArrayList<Object>();
+      for (Object key : keys) {
+        authors.add(new Author(((Number) key).intValue()));
+      }
+      return authors;
+    }
+  }
+
+}
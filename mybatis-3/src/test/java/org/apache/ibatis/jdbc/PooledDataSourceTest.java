@@ -91,6 +91,109 @@ public class PooledDataSourceTest extends BaseDataTest {
     c.close();
   }
 
+  @Test
+  public void shouldReusePreparedStatementsAcrossCheckouts() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      runScript(ds, JPETSTORE_DDL);
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolPreparedStatementCacheSize(1);
+      String sql = "SELECT * FROM PRODUCT WHERE PRODUCTID = ?";
+      for (int i = 0; i < 3; i++) {
+        Connection c = ds.getConnection();
+        PreparedStatement ps = c.prepareStatement(sql);
+        ps.setString(1, "FI-SW-01");
+        ps.setMaxRows(1);
+        ps.setPoolable(false);
+        ResultSet rs = ps.executeQuery();
+        rs.close();
+        ps.close();
+        assertTrue(ps.isClosed());
+        c.close();
+      }
+      assertEquals(1, ds.getPoolState().getStatementCacheMissCount());
+      assertEquals(2, ds.getPoolState().getStatementCacheHitCount());
+
+      Connection c = ds.getConnection();
+      PreparedStatement cached = c.prepareStatement(sql);
+      assertEquals(0, cached.getMaxRows());
+      assertTrue(cached.isPoolable());
+      PreparedStatement concurrent = c.prepareStatement(sql);
+      c.prepareStatement("SELECT * FROM CATEGORY").close();
+      cached.close();
+      concurrent.close();
+      c.close();
+      assertEquals(3, ds.getPoolState().getStatementCacheHitCount());
+      assertEquals(3, ds.getPoolState().getStatementCacheMissCount());
+
+      c = ds.getConnection();
+      PreparedStatement closing = c.prepareStatement(sql);
+      closing.closeOnCompletion();
+      closing.close();
+      // closeOnCompletion() cannot be undone, so the statement was not cached
+      c.prepareStatement(sql).close();
+      c.close();
+      assertEquals(4, ds.getPoolState().getStatementCacheHitCount());
+      assertEquals(4, ds.getPoolState().getStatementCacheMissCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldFillMinimumIdleConnectionsInTheBackground() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumIdleConnections(3);
+      ds.setPoolMinimumIdleConnections(3);
+      ds.setPoolHousekeepingInterval(10);
+      ds.getConnection().close();
+      for (int i = 0; i < 100 && ds.getPoolState().getIdleConnectionCount() < 3; i++) {
+        Thread.sleep(10);
+      }
+      assertEquals(3, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldRetireConnectionsAfterMaximumLifetime() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumLifetime(20);
+      Connection c = ds.getConnection();
+      Connection realConnection = PooledDataSource.unwrapConnection(c);
+      Thread.sleep(50);
+      c.close();
+      assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+      assertTrue(realConnection.isClosed());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldValidateIdleConnectionsInTheBackground() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolPingEnabled(true);
+      ds.setPoolPingQuery("SELECT 1 FROM INFORMATION_SCHEMA.SYSTEM_USERS");
+      ds.setPoolHousekeepingInterval(10);
+      Connection c = ds.getConnection();
+      Connection realConnection = PooledDataSource.unwrapConnection(c);
+      c.close();
+      realConnection.close();
+      for (int i = 0; i < 100 && ds.getPoolState().getIdleConnectionCount() > 0; i++) {
+        Thread.sleep(10);
+      }
+      assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+      assertEquals(1, ds.getPoolState().getBadConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
   @Ignore("See the comments")
   @Test
   public void shouldReconnectWhenServerKilledLeakedConnection() throws Exception {
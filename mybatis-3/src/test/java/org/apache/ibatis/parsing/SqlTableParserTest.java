@@ -0,0 +1,127 @@
+/**
+ *    Copyright 2009-2016 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.parsing;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SqlTableParserTest {
+
+  @Test
+  public void shouldFindTheTablesOfFromAndJoinClauses() {
+    assertArrayEquals(new String[] { "author", "blog", "post" }, SqlTableParser.parseReadTables(
+        "select * from Blog b left outer join AUTHOR a on b.author_id = a.id, post p where p.blog_id = b.id"));
+    assertArrayEquals(new String[] { "author", "blog" }, SqlTableParser.parseReadTables(
+        "select * from blog where author_id in (select id from \"public\".\"Author\" where username = 'from x')"));
+    assertArrayEquals(new String[] { "blog" }, SqlTableParser.parseReadTables(
+        "select b.* from app.blog as b -- join comment\n where b.id = ? order by b.id"));
+    assertArrayEquals(new String[] { "blog", "tag" }, SqlTableParser.parseReadTables(
+        "with t as (select id, name from tag) select substring(title from 2), t.name from blog, t order by 1, 2"));
+    assertArrayEquals(new String[] { "author", "blog" }, SqlTableParser.parseReadTables(
+        "select * from (blog b join author a on b.author_id = a.id) where exists (select 1 from dual)"));
+    assertArrayEquals(new String[0], SqlTableParser.parseReadTables("select 1 from dual"));
+  }
+
+  @Test
+  public void shouldNotFindTheTablesOfCallsAndTableFunctions() {
+    assertNull(SqlTableParser.parseReadTables("{call selectBlogs(?)}"));
+    assertNull(SqlTableParser.parseReadTables("select * from table(blogs_of(?))"));
+    assertNull(SqlTableParser.parseReadTables("select * from generate_series(1, 10)"));
+  }
+
+  @Test
+  public void shouldFindTheTablesModifiedByWrites() {
+    assertArrayEquals(new String[] { "blog" }, SqlTableParser.parseModifiedTables(
+        "insert into Blog (id, title) select id, title from draft"));
+    assertArrayEquals(new String[] { "post" }, SqlTableParser.parseModifiedTables(
+        "update post set subject = (select title from blog where id = ?) where id = ?"));
+    assertArrayEquals(new String[] { "comment" }, SqlTableParser.parseModifiedTables("delete from `comment` where id = ?"));
+    assertArrayEquals(new String[] { "blog", "post" }, SqlTableParser.parseModifiedTables(
+        "update blog set title = ?; delete from post where blog_id = ?"));
+    assertArrayEquals(new String[] { "tag" }, SqlTableParser.parseModifiedTables(
+        "insert ignore into tag (id, name) values (?, ?) on duplicate key update name = ?"));
+    assertArrayEquals(new String[] { "author" }, SqlTableParser.parseModifiedTables(
+        "merge into author a using dual on (a.id = ?) when matched then update set a.bio = ? "
+            + "when not matched then insert (id, bio) values (?, ?)"));
+    assertArrayEquals(new String[] { "author" }, SqlTableParser.parseModifiedTables("truncate table author"));
+  }
+
+  @Test
+  public void shouldNotFindTheTablesModifiedByCallsAndDdl() {
+    assertNull(SqlTableParser.parseModifiedTables("call update_blogs(?)"));
+    assertNull(SqlTableParser.parseModifiedTables("alter table blog add column views int"));
+    assertNull(SqlTableParser.parseModifiedTables("delete b from blog b join author a on b.author_id = a.id"));
+  }
+
+  @Test
+  public void shouldFindTheTablesIntoWhichRowsAreOnlyInserted() {
+    assertArrayEquals(new String[] { "blog" }, SqlTableParser.parseInsertedTables("insert into blog (id, title) values (?, ?)"));
+    assertNull(SqlTableParser.parseInsertedTables("insert into blog (id, title) values (?, ?) on duplicate key update title = ?"));
+    assertNull(SqlTableParser.parseInsertedTables("insert or replace into blog (id, title) values (?, ?)"));
+    assertNull(SqlTableParser.parseInsertedTables("insert into blog (id) values (?); delete from post"));
+  }
+
+  @Test
+  public void shouldParseTheEqualityConditionsOfSingleTableStatements() {
+    SqlTableParser.KeyCondition condition = SqlTableParser.parseKeyCondition(
+        "select b.id, b.title, ? from app.Blog b where b.ID = ? and b.deleted = 'N' and b.author_id = ?");
+    assertEquals("blog", condition.getTable());
+    assertTrue(condition.isQuery());
+    assertEquals(Integer.valueOf(1), condition.getParameterIndex("id"));
+    assertEquals(Integer.valueOf(2), condition.getParameterIndex("author_id"));
+    assertNull(condition.getParameterIndex("deleted"));
+    condition = SqlTableParser.parseKeyCondition("update post set subject = ?, body = ? where id = ?");
+    assertEquals("post", condition.getTable());
+    assertFalse(condition.isQuery());
+    assertEquals(Integer.valueOf(2), condition.getParameterIndex("id"));
+    assertEquals(Integer.valueOf(0), SqlTableParser.parseKeyCondition("delete from post where id = ?").getParameterIndex("id"));
+  }
+
+  @Test
+  public void shouldNotParseOtherConditions() {
+    assertNull(SqlTableParser.parseKeyCondition("select * from blog b join author a on b.author_id = a.id where b.id = ?"));
+    assertNull(SqlTableParser.parseKeyCondition("select * from blog where id = ? or id = ?"));
+    assertNull(SqlTableParser.parseKeyCondition("select * from blog where id in (?, ?)"));
+    assertNull(SqlTableParser.parseKeyCondition("select * from blog where id > ?"));
+    assertNull(SqlTableParser.parseKeyCondition("update blog set title = ? from author where blog.author_id = author.id"));
+    assertNull(SqlTableParser.parseKeyCondition("delete from post"));
+    assertNull(SqlTableParser.parseKeyCondition("select * from blog where id = ? for update"));
+  }
+
+  @Test
+  public void shouldNormalizeDeclaredTables() {
+    assertArrayEquals(new String[] { "author", "blog" }, SqlTableParser.normalizeTables(" Blog, app.AUTHOR ,blog"));
+    assertNull(SqlTableParser.normalizeTables(" "));
+    assertArrayEquals(new String[] { "blog", "post_tag" }, SqlTableParser.normalizeTables("blog(id), app.post_tag (post_id, tag_id)"));
+  }
+
+  @Test
+  public void shouldParseDeclaredKeyColumns() {
+    Map<String, String[]> keyColumns = SqlTableParser.parseKeyColumns("Blog(ID), author, app.post_tag (tag_id, post_id)");
+    assertEquals(2, keyColumns.size());
+    assertArrayEquals(new String[] { "id" }, keyColumns.get("blog"));
+    assertArrayEquals(new String[] { "post_id", "tag_id" }, keyColumns.get("post_tag"));
+    assertTrue(SqlTableParser.parseKeyColumns("blog, author").isEmpty());
+  }
+
+}
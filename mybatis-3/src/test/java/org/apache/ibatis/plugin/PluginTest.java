@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2015 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -17,8 +17,13 @@ package org.apache.ibatis.plugin;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Test;
 
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
@@ -39,6 +44,104 @@ public class PluginTest {
     assertFalse("Always".equals(map.toString()));
   }
 
+  @Test
+  public void fusedPluginsShouldInterceptInTheOrderOfNestedPlugins() {
+    InterceptorChain chain = new InterceptorChain();
+    chain.addInterceptor(new SuffixMapPlugin("A"));
+    chain.addInterceptor(new SuffixMapPlugin("B"));
+    Map<String, String> map = new HashMap<String, String>();
+    map.put("key", "value");
+    Map<String, String> nested = (Map<String, String>) chain.pluginAll(map);
+    chain.setFused(true);
+    Map<String, String> fused = (Map<String, String>) chain.pluginAll(map);
+    assertFalse(Proxy.isProxyClass(fused.getClass()));
+    assertEquals("valueAB", nested.get("key"));
+    assertEquals("valueAB", fused.get("key"));
+    assertEquals(1, fused.size());
+    assertEquals(map.toString(), fused.toString());
+    assertSame(fused.getClass(), chain.pluginAll(new HashMap<String, String>()).getClass());
+  }
+
+  @Test
+  public void fusedPluginsShouldPassTheNextLayerAsTarget() {
+    InterceptorChain chain = new InterceptorChain();
+    chain.addInterceptor(new SuffixMapPlugin("A"));
+    chain.addInterceptor(new TargetCallingMapPlugin("B"));
+    chain.addInterceptor(new SuffixMapPlugin("C"));
+    Map<String, String> map = new HashMap<String, String>();
+    map.put("key", "value");
+    Map<String, String> nested = (Map<String, String>) chain.pluginAll(map);
+    chain.setFused(true);
+    Map<String, String> fused = (Map<String, String>) chain.pluginAll(map);
+    assertEquals("valueABC", nested.get("key"));
+    assertEquals("valueABC", fused.get("key"));
+  }
+
+  @Test
+  public void fusedPluginsShouldInterceptMethodsDeclaredByAnyInterface() {
+    InterceptorChain chain = new InterceptorChain();
+    chain.addInterceptor(new FirstNamePlugin());
+    chain.addInterceptor(new SecondNamePlugin());
+    chain.setFused(true);
+    Object fused = chain.pluginAll(new Named());
+    assertFalse(Proxy.isProxyClass(fused.getClass()));
+    assertEquals("name of First of Second", ((First) fused).name());
+    assertEquals("name of First of Second", ((Second) fused).name());
+  }
+
+  @Test
+  public void fusedPluginsShouldUseNestedPluginsForNonPublicInterfaces() {
+    InterceptorChain chain = new InterceptorChain();
+    chain.addInterceptor(new GreeterPlugin());
+    chain.setFused(true);
+    Greeter fused = (Greeter) chain.pluginAll(new SimpleGreeter());
+    assertTrue(Proxy.isProxyClass(fused.getClass()));
+    assertEquals("Hello, World!", fused.greet("World"));
+  }
+
+  @Test
+  public void fusedPluginsShouldWrapUndeclaredCheckedExceptionsAsNestedPluginsDo() {
+    InterceptorChain chain = new InterceptorChain();
+    chain.addInterceptor(new FailingMapPlugin());
+    Map<String, String> nested = (Map<String, String>) chain.pluginAll(new HashMap<String, String>());
+    chain.setFused(true);
+    Map<String, String> fused = (Map<String, String>) chain.pluginAll(new HashMap<String, String>());
+    for (Map<String, String> map : new Map[] { nested, fused }) {
+      try {
+        map.get("key");
+        fail();
+      } catch (UndeclaredThrowableException e) {
+        assertEquals("checked", e.getUndeclaredThrowable().getMessage());
+      }
+      assertEquals(0, map.size());
+    }
+  }
+
+  @Intercepts({
+      @Signature(type = Map.class, method = "get", args = {Object.class})})
+  public static class SuffixMapPlugin implements Interceptor {
+
+    private final String suffix;
+
+    public SuffixMapPlugin(String suffix) {
+      this.suffix = suffix;
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+      return invocation.proceed() + suffix;
+    }
+
+    @Override
+    public Object plugin(Object target) {
+      return Plugin.wrap(target, this);
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+    }
+  }
+
   @Intercepts({
       @Signature(type = Map.class, method = "get", args = {Object.class})})
   public static class AlwaysMapPlugin implements Interceptor {
@@ -57,4 +160,114 @@ public class PluginTest {
     }
   }
 
+  @Intercepts({
+      @Signature(type = Map.class, method = "get", args = {Object.class})})
+  public static class TargetCallingMapPlugin implements Interceptor {
+
+    private final String suffix;
+
+    public TargetCallingMapPlugin(String suffix) {
+      this.suffix = suffix;
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+      return ((Map) invocation.getTarget()).get(invocation.getArgs()[0]) + suffix;
+    }
+
+    @Override
+    public Object plugin(Object target) {
+      return Plugin.wrap(target, this);
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+    }
+  }
+
+  @Intercepts({
+      @Signature(type = Map.class, method = "get", args = {Object.class})})
+  public static class FailingMapPlugin implements Interceptor {
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+      throw new Exception("checked");
+    }
+
+    @Override
+    public Object plugin(Object target) {
+      return Plugin.wrap(target, this);
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+    }
+  }
+
+  public interface First {
+    String name();
+  }
+
+  public interface Second {
+    String name();
+  }
+
+  public static class Named implements First, Second {
+    @Override
+    public String name() {
+      return "name";
+    }
+  }
+
+  @Intercepts({
+      @Signature(type = First.class, method = "name", args = {})})
+  public static class FirstNamePlugin extends SecondNamePlugin {
+  }
+
+  @Intercepts({
+      @Signature(type = Second.class, method = "name", args = {})})
+  public static class SecondNamePlugin implements Interceptor {
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+      return invocation.proceed() + " of " + invocation.getMethod().getDeclaringClass().getSimpleName();
+    }
+
+    @Override
+    public Object plugin(Object target) {
+      return Plugin.wrap(target, this);
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+    }
+  }
+
+  interface Greeter {
+    String greet(String name);
+  }
+
+  static class SimpleGreeter implements Greeter {
+    @Override
+    public String greet(String name) {
+      return "Hello, " + name;
+    }
+  }
+
+  @Intercepts({
+      @Signature(type = Greeter.class, method = "greet", args = {String.class})})
+  public static class GreeterPlugin implements Interceptor {
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+      return invocation.proceed() + "!";
+    }
+
+    @Override
+    public Object plugin(Object target) {
+      return Plugin.wrap(target, this);
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+    }
+  }
+
 }
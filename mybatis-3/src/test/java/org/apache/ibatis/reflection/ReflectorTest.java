@@ -1,5 +1,5 @@
 /**
- *    Copyright 2009-2017 the original author or authors.
+ *    Copyright 2009-2018 the original author or authors.
  *
  *    Licensed under the Apache License, Version 2.0 (the "License");
  *    you may not use this file except in compliance with the License.
@@ -18,8 +18,12 @@ package org.apache.ibatis.reflection;
 import static org.junit.Assert.*;
 
 import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
 import java.util.List;
 
+import org.apache.ibatis.reflection.invoker.Invoker;
+import org.apache.ibatis.reflection.invoker.LambdaMethodInvoker;
+import org.apache.ibatis.reflection.invoker.SetFieldInvoker;
 import org.junit.Assert;
 import org.junit.Test;
 import static com.googlecode.catchexception.apis.BDDCatchException.*;
@@ -210,4 +214,67 @@ public class ReflectorTest {
     Reflector reflector = reflectorFactory.findForClass(Bean.class);
     assertTrue((Boolean)reflector.getGetInvoker("bool").invoke(new Bean(), new Byte[0]));
   }
+
+  @Test
+  public void shouldCallGettersAndSettersThroughGeneratedInvokers() throws Exception {
+    ReflectorFactory reflectorFactory = new LambdaReflectorFactory();
+    Reflector reflector = reflectorFactory.findForClass(Child.class);
+    Child child = new Child();
+    assertTrue(reflector.getSetInvoker("id") instanceof LambdaMethodInvoker);
+    assertTrue(reflector.getGetInvoker("id") instanceof LambdaMethodInvoker);
+    reflector.getSetInvoker("id").invoke(child, new Object[] { "1" });
+    assertEquals("1", reflector.getGetInvoker("id").invoke(child, new Object[0]));
+    // fields are still accessed by reflection
+    assertTrue(reflector.getSetInvoker("fld") instanceof SetFieldInvoker);
+    reflector.getSetInvoker("fld").invoke(child, new Object[] { "2" });
+    assertEquals("2", child.getFld());
+  }
+
+  @Test
+  public void shouldBoxAndUnboxPrimitivesOfPrivateAccessors() throws Exception {
+    ReflectorFactory reflectorFactory = new LambdaReflectorFactory();
+    Reflector reflector = reflectorFactory.findForClass(PrimitiveBean.class);
+    PrimitiveBean bean = new PrimitiveBean();
+    reflector.getSetInvoker("count").invoke(bean, new Object[] { 3 });
+    assertTrue(reflector.getGetInvoker("count") instanceof LambdaMethodInvoker);
+    assertEquals(3, reflector.getGetInvoker("count").invoke(bean, new Object[0]));
+    assertEquals(Boolean.TRUE, reflector.getGetInvoker("positive").invoke(bean, new Object[0]));
+  }
+
+  @Test
+  public void shouldWrapExceptionsOfGeneratedInvokers() throws Exception {
+    ReflectorFactory reflectorFactory = new LambdaReflectorFactory();
+    Reflector reflector = reflectorFactory.findForClass(PrimitiveBean.class);
+    when(reflector.getGetInvoker("failing")).invoke(new PrimitiveBean(), new Object[0]);
+    then(caughtException()).isInstanceOf(InvocationTargetException.class)
+      .hasCauseInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  public void shouldFallBackToReflectionForStaticGetters() throws Exception {
+    ReflectorFactory reflectorFactory = new LambdaReflectorFactory();
+    Reflector reflector = reflectorFactory.findForClass(PrimitiveBean.class);
+    Invoker invoker = reflector.getGetInvoker("defaultCount");
+    assertFalse(invoker instanceof LambdaMethodInvoker);
+    assertEquals(42, invoker.invoke(null, new Object[0]));
+  }
+
+  static class PrimitiveBean {
+    private int count;
+    private int getCount() {
+      return count;
+    }
+    private void setCount(int count) {
+      this.count = count;
+    }
+    boolean isPositive() {
+      return count > 0;
+    }
+    public String getFailing() {
+      throw new IllegalStateException("failing getter");
+    }
+    public static int getDefaultCount() {
+      return 42;
+    }
+  }
 }
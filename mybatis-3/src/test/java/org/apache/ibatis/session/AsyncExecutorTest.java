@@ -0,0 +1,78 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.session.defaults.DefaultSqlSession;
+import org.junit.Test;
+
+public class AsyncExecutorTest {
+
+  @Test
+  public void shouldCountOperationsWaitingForTheirSessionAgainstTheQueueCapacity() throws Exception {
+    AsyncExecutor asyncExecutor = new AsyncExecutor(1, 1);
+    SqlSession sqlSession = new DefaultSqlSession(new Configuration(), null);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    try {
+      CompletableFuture<String> running = asyncExecutor.submit(sqlSession, new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          started.countDown();
+          release.await();
+          return "first";
+        }
+      });
+      assertTrue(started.await(10, TimeUnit.SECONDS));
+      CompletableFuture<String> waiting = asyncExecutor.submit(sqlSession, constant("second"));
+      CompletableFuture<String> rejected = asyncExecutor.submit(sqlSession, constant("third"));
+      try {
+        rejected.get(10, TimeUnit.SECONDS);
+        fail("Expected the operation to be rejected");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof RejectedExecutionException);
+      }
+      release.countDown();
+      assertEquals("first", running.get(10, TimeUnit.SECONDS));
+      assertEquals("second", waiting.get(10, TimeUnit.SECONDS));
+      // 等待的操作执行后不再占用容量
+      assertEquals("fourth", asyncExecutor.submit(sqlSession, constant("fourth")).get(10, TimeUnit.SECONDS));
+    } finally {
+      release.countDown();
+      asyncExecutor.shutdown();
+    }
+  }
+
+  private static Callable<String> constant(final String value) {
+    return new Callable<String>() {
+      @Override
+      public String call() {
+        return value;
+      }
+    };
+  }
+
+}
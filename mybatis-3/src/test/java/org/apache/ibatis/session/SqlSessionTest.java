@@ -22,6 +22,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.Reader;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -330,6 +331,52 @@ public class SqlSessionTest extends BaseDataTest {
     }
   }
 
+  @Test
+  public void shouldSelectBlogsWithPostsAndAuthorsUsingBatchedSubSelects() {
+    try (SqlSession session = sqlMapper.openSession()) {
+      List<Blog> blogs = session.selectList("org.apache.ibatis.domain.blog.mappers.BlogMapper.selectAllBlogsWithPostsInBatches");
+      assertEquals(2, blogs.size());
+      assertEquals(101, blogs.get(0).getAuthor().getId());
+      assertEquals("jim", blogs.get(0).getAuthor().getUsername());
+      assertEquals(2, blogs.get(0).getPosts().size());
+      assertEquals("Corn nuts", blogs.get(0).getPosts().get(0).getSubject());
+      assertEquals(102, blogs.get(1).getAuthor().getId());
+      assertEquals(2, blogs.get(1).getPosts().size());
+      assertEquals("Monster Trucks", blogs.get(1).getPosts().get(0).getSubject());
+    }
+  }
+
+  @Test
+  public void shouldSelectCircularlyMappedBlogsAndPostsUsingBatchedSubSelects() {
+    try (SqlSession session = sqlMapper.openSession()) {
+      List<Blog> blogs = session.selectList("org.apache.ibatis.domain.blog.mappers.BlogMapper.selectAllBlogsWithPostsInCircularBatches");
+      assertEquals(2, blogs.size());
+      assertEquals(2, blogs.get(0).getPosts().size());
+      Blog blog = blogs.get(0).getPosts().get(0).getBlog();
+      assertEquals(1, blog.getId());
+      // the posts of the nested blogs are selected by the batch still running and set once the outer select completes
+      assertEquals(2, blog.getPosts().size());
+      assertEquals("Corn nuts", blog.getPosts().get(0).getSubject());
+      assertEquals(2, blogs.get(1).getPosts().get(0).getBlog().getPosts().size());
+    }
+  }
+
+  @Test
+  public void shouldLazyLoadPostsOfAllBlogsWhenPostsOfOneBlogAreAccessed() throws Exception {
+    try (SqlSession session = sqlMapper.openSession()) {
+      List<Blog> blogs = session.selectList("org.apache.ibatis.domain.blog.mappers.BlogMapper.selectAllBlogsWithPostsInLazyBatches");
+      assertEquals(2, blogs.size());
+      Field posts = Blog.class.getDeclaredField("posts");
+      posts.setAccessible(true);
+      assertNull(posts.get(blogs.get(1)));
+      assertEquals(2, blogs.get(0).getPosts().size());
+      // reading the field does not go through the proxy, so the posts of the second blog were loaded with the first ones
+      assertNotNull(posts.get(blogs.get(1)));
+      assertEquals(2, blogs.get(1).getPosts().size());
+      assertEquals("Monster Trucks", blogs.get(1).getPosts().get(0).getSubject());
+    }
+  }
+
   @Test
   public void shouldSelectBlogWithPostsAndAuthorUsingSubSelectsLazily() {
     try (SqlSession session = sqlMapper.openSession()) {
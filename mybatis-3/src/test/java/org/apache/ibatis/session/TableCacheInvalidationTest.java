@@ -0,0 +1,202 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Blog;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Second level cache invalidation with the TABLE scope, across the namespaces of the blog database.
+ */
+public class TableCacheInvalidationTest {
+
+  private static final String AUTHOR = "org.apache.ibatis.session.TableCacheAuthorMapper";
+  private static final String BLOG = "org.apache.ibatis.session.TableCacheBlogMapper";
+
+  private SqlSessionFactory sqlSessionFactory;
+
+  @Before
+  public void setUp() throws Exception {
+    DataSource dataSource = BaseDataTest.createBlogDataSource();
+    Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), dataSource));
+    configuration.setCacheInvalidationScope(CacheInvalidationScope.TABLE);
+    addMapper(configuration, "org/apache/ibatis/session/TableCacheAuthorMapper.xml");
+    addMapper(configuration, "org/apache/ibatis/session/TableCacheBlogMapper.xml");
+    sqlSessionFactory = new SqlSessionFactoryBuilder().build(configuration);
+  }
+
+  private static void addMapper(Configuration configuration, String resource) throws Exception {
+    InputStream inputStream = Resources.getResourceAsStream(resource);
+    try {
+      new XMLMapperBuilder(inputStream, configuration, resource, configuration.getSqlFragments()).parse();
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  @Test
+  public void shouldInvalidateResultsOfAnotherNamespaceReadingTheUpdatedTable() {
+    List<String> names;
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      names = session.selectList(BLOG + ".selectBlogAuthorNames");
+    }
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      assertSame(names, session.selectList(BLOG + ".selectBlogAuthorNames"));
+      session.update(AUTHOR + ".updateAuthorName", author(101, "jimmy"));
+      session.commit();
+    }
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      List<String> current = session.selectList(BLOG + ".selectBlogAuthorNames");
+      assertNotSame(names, current);
+      assertEquals(Arrays.asList("jimmy", "sally"), current);
+    }
+  }
+
+  @Test
+  public void shouldKeepResultsOfUnrelatedTables() {
+    List<String> subjects;
+    List<String> names;
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      subjects = session.selectList(BLOG + ".selectPostSubjects");
+      names = session.selectList(AUTHOR + ".selectAuthorNames");
+    }
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      // 同一命名空间的更新语句在NAMESPACE范围下会清空post的查询结果
+      Map<String, Object> blog = new HashMap<String, Object>();
+      blog.put("id", 1);
+      blog.put("title", "Jim's Business");
+      session.update(BLOG + ".updateBlogTitle", blog);
+      session.commit();
+    }
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      assertSame(subjects, session.selectList(BLOG + ".selectPostSubjects"));
+      assertSame(names, session.selectList(AUTHOR + ".selectAuthorNames"));
+    }
+  }
+
+  @Test
+  public void shouldInvalidateResultsDependingOnTheTablesOfTheirNestedSelects() {
+    Blog blog;
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      blog = session.selectOne(BLOG + ".selectBlogWithAuthor", 1);
+      assertEquals("jim", blog.getAuthor().getUsername());
+    }
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      assertSame(blog, session.selectOne(BLOG + ".selectBlogWithAuthor", 1));
+      // 外层语句只读取blog表，author表来自嵌套查询
+      session.update(AUTHOR + ".updateAuthorName", author(101, "jimmy"));
+      session.commit();
+    }
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      Blog current = session.selectOne(BLOG + ".selectBlogWithAuthor", 1);
+      assertNotSame(blog, current);
+      assertEquals("jimmy", current.getAuthor().getUsername());
+    }
+  }
+
+  @Test
+  public void shouldInvalidateResultsDependingOnCachedNestedSelects() {
+    Blog blog;
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      // 嵌套查询的结果已在缓存中，外层结果通过它依赖author表
+      Author author = session.selectOne(AUTHOR + ".selectAuthor", 102);
+      session.commit();
+      blog = session.selectOne(BLOG + ".selectBlogWithAuthor", 2);
+      assertSame(author, blog.getAuthor());
+    }
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      assertSame(blog, session.selectOne(BLOG + ".selectBlogWithAuthor", 2));
+      session.update(AUTHOR + ".updateAuthorName", author(102, "sal"));
+      session.commit();
+    }
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      Blog current = session.selectOne(BLOG + ".selectBlogWithAuthor", 2);
+      assertNotSame(blog, current);
+      assertEquals("sal", current.getAuthor().getUsername());
+    }
+  }
+
+  @Test
+  public void shouldNotReadResultsInvalidatedByTheCurrentTransaction() {
+    List<String> names;
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      names = session.selectList(AUTHOR + ".selectAuthorNames");
+    }
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      assertSame(names, session.selectList(AUTHOR + ".selectAuthorNames"));
+      session.update(AUTHOR + ".updateAuthorName", author(102, "sal"));
+      assertEquals(Arrays.asList("jim", "sal"), session.<String> selectList(AUTHOR + ".selectAuthorNames"));
+      session.rollback();
+    }
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      assertSame(names, session.selectList(AUTHOR + ".selectAuthorNames"));
+    }
+  }
+
+  @Test
+  public void shouldOnlyInvalidateTheRowUpdatedByKey() {
+    Author jim;
+    Author sally;
+    List<String> names;
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      jim = session.selectOne(AUTHOR + ".selectAuthor", 101);
+      sally = session.selectOne(AUTHOR + ".selectAuthor", 102);
+      names = session.selectList(AUTHOR + ".selectAuthorNames");
+    }
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      assertSame(jim, session.selectOne(AUTHOR + ".selectAuthor", 101));
+      session.update(AUTHOR + ".updateAuthorName", author(101, "jimmy"));
+      session.commit();
+    }
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      Author current = session.selectOne(AUTHOR + ".selectAuthor", 101);
+      assertNotSame(jim, current);
+      assertEquals("jimmy", current.getUsername());
+      assertSame(sally, session.selectOne(AUTHOR + ".selectAuthor", 102));
+      // 未按主键读取的结果仍按表失效
+      List<String> currentNames = session.selectList(AUTHOR + ".selectAuthorNames");
+      assertNotSame(names, currentNames);
+      assertEquals(Arrays.asList("jimmy", "sally"), currentNames);
+    }
+  }
+
+  private static Map<String, Object> author(int id, String username) {
+    Map<String, Object> author = new HashMap<String, Object>();
+    author.put("id", id);
+    author.put("username", username);
+    return author;
+  }
+
+}
@@ -26,6 +26,7 @@ import java.sql.Statement;
 import java.util.List;
 
 import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.executor.BatchResult;
 import org.junit.Assert;
 
 import org.apache.ibatis.io.Resources;
@@ -150,6 +151,56 @@ public class BatchKeysTest {
     }
   }
 
+  @Test
+  public void testMultiRowInsertJdbc3() {
+    sqlSessionFactory.getConfiguration().setBatchStatementCoalescing(true);
+    sqlSessionFactory.getConfiguration().setBatchMultiRowInsertSize(2);
+    try (SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH)) {
+      User user1 = new User(null, "Pocoyo");
+      sqlSession.insert("insertIdentity", user1);
+      sqlSession.insert("insert", new User(null, "Pato"));
+      User user2 = new User(null, "Valentina");
+      sqlSession.insert("insertIdentity", user2);
+      User user3 = new User(null, "Elly");
+      sqlSession.insert("insertIdentity", user3);
+      List<BatchResult> results = sqlSession.flushStatements();
+      assertEquals(3, results.size());
+      assertEquals("insert into users2 (name) values(?), (?)", results.get(0).getSql());
+      assertEquals(2, results.get(0).getParameterObjects().size());
+      assertEquals("org.apache.ibatis.submitted.batch_keys.Mapper.insert", results.get(1).getMappedStatement().getId());
+      assertEquals(1, results.get(2).getParameterObjects().size());
+      assertEquals(Integer.valueOf(0), user1.getId());
+      assertEquals(Integer.valueOf(1), user2.getId());
+      assertEquals(Integer.valueOf(2), user3.getId());
+      sqlSession.commit();
+    }
+
+    try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+      List<User> users = sqlSession.selectList("selectIdentity");
+      Assert.assertTrue(users.size() == 3);
+    }
+  }
+
+  @Test
+  public void testMultiRowInsertKeepsOrderOfStatementsOnTheSameTable() {
+    sqlSessionFactory.getConfiguration().setBatchStatementCoalescing(true);
+    sqlSessionFactory.getConfiguration().setBatchMultiRowInsertSize(2);
+    try (SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH)) {
+      sqlSession.insert("insertIdentity", new User(null, "Pocoyo"));
+      sqlSession.delete("deleteIdentity", new User(null, "Pocoyo"));
+      sqlSession.insert("insertIdentity", new User(null, "Pocoyo"));
+      List<BatchResult> results = sqlSession.flushStatements();
+      assertEquals(3, results.size());
+      assertEquals("org.apache.ibatis.submitted.batch_keys.Mapper.deleteIdentity", results.get(1).getMappedStatement().getId());
+      sqlSession.commit();
+    }
+
+    try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+      List<User> users = sqlSession.selectList("selectIdentity");
+      assertEquals(1, users.size());
+    }
+  }
+
   @Test
   public void testInsertMapperNoBatchJdbc3() {
     try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
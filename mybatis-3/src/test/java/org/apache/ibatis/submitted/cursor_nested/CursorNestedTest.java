@@ -85,6 +85,36 @@ public class CursorNestedTest {
         Assert.assertFalse(usersCursor.isOpen());
     }
 
+    @Test
+    public void shouldStreamNestedResultsWithoutResultOrdered() {
+        try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+            Cursor<User> usersCursor = sqlSession.selectCursor("getAllUsersNotResultOrdered");
+
+            Iterator<User> iterator = usersCursor.iterator();
+
+            User user = iterator.next();
+            Assert.assertEquals("User1", user.getName());
+            Assert.assertEquals(2, user.getGroups().size());
+            Assert.assertEquals(3, user.getRoles().size());
+
+            user = iterator.next();
+            Assert.assertEquals("User2", user.getName());
+            Assert.assertEquals(1, user.getGroups().size());
+            Assert.assertEquals(3, user.getRoles().size());
+
+            user = iterator.next();
+            Assert.assertEquals(3, user.getGroups().size());
+            Assert.assertEquals(1, user.getRoles().size());
+
+            user = iterator.next();
+            Assert.assertEquals(2, user.getGroups().size());
+            Assert.assertEquals(2, user.getRoles().size());
+
+            Assert.assertFalse(iterator.hasNext());
+            Assert.assertTrue(usersCursor.isConsumed());
+        }
+    }
+
     @Test
     public void testCursorWithRowBound() {
         try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
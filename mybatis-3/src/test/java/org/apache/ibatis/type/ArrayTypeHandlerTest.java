@@ -19,9 +19,13 @@ import org.junit.Test;
 import org.mockito.Mock;
 
 import java.sql.Array;
+import java.sql.Connection;
+import java.util.Arrays;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -32,6 +36,9 @@ public class ArrayTypeHandlerTest extends BaseTypeHandlerTest {
   @Mock
   Array mockArray;
 
+  @Mock
+  Connection connection;
+
   @Override
   @Test
   public void shouldSetParameter() throws Exception {
@@ -39,6 +46,38 @@ public class ArrayTypeHandlerTest extends BaseTypeHandlerTest {
     verify(ps).setArray(1, mockArray);
   }
 
+  @Test
+  public void shouldSetCollectionParameterAsSqlArray() throws Exception {
+    when(ps.getConnection()).thenReturn(connection);
+    when(connection.createArrayOf(eq("INTEGER"), any(Object[].class))).thenReturn(mockArray);
+    TYPE_HANDLER.setParameter(ps, 1, Arrays.asList(1, 2, 3), JdbcType.ARRAY);
+    verify(connection).createArrayOf("INTEGER", new Object[] {1, 2, 3});
+    verify(ps).setArray(1, mockArray);
+    verify(mockArray).free();
+  }
+
+  @Test
+  public void shouldSetPrimitiveArrayParameterAsSqlArray() throws Exception {
+    when(ps.getConnection()).thenReturn(connection);
+    when(connection.createArrayOf(eq("BIGINT"), any(Object[].class))).thenReturn(mockArray);
+    TYPE_HANDLER.setParameter(ps, 1, new long[] {1L, 2L}, JdbcType.ARRAY);
+    verify(connection).createArrayOf("BIGINT", new Object[] {1L, 2L});
+    verify(ps).setArray(1, mockArray);
+  }
+
+  @Test(expected = TypeException.class)
+  public void shouldFailForElementsWithoutStandardSqlType() throws Exception {
+    TYPE_HANDLER.setParameter(ps, 1, Arrays.asList(new Object(), new Object()), JdbcType.ARRAY);
+  }
+
+  @Test
+  public void shouldSetEmptyTypedArrayParameterAsSqlArray() throws Exception {
+    when(ps.getConnection()).thenReturn(connection);
+    when(connection.createArrayOf(eq("VARCHAR"), any(Object[].class))).thenReturn(mockArray);
+    TYPE_HANDLER.setParameter(ps, 1, new String[0], JdbcType.ARRAY);
+    verify(connection).createArrayOf("VARCHAR", new Object[0]);
+  }
+
   @Override
   @Test
   public void shouldGetResultFromResultSetByName() throws Exception {
@@ -0,0 +1,129 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.benchmarks;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Date;
+import java.util.Properties;
+
+import org.apache.ibatis.benchmarks.domain.Author;
+import org.apache.ibatis.benchmarks.domain.Blog;
+import org.apache.ibatis.benchmarks.domain.BlogMapper;
+import org.apache.ibatis.benchmarks.domain.Post;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.jdbc.ScriptRunner;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+
+/**
+ * Builds the in-memory HSQLDB database the benchmarks run against.
+ */
+public final class BenchmarkDatabase {
+
+  public static final int AUTHORS = 100;
+  public static final int BLOGS = 20;
+  public static final int POSTS_PER_BLOG = 10;
+
+  private static final String CONFIG = "org/apache/ibatis/benchmarks/mybatis-config.xml";
+  private static final String SCHEMA = "org/apache/ibatis/benchmarks/CreateDB.sql";
+
+  private BenchmarkDatabase() {
+    // Prevent Instantiation
+  }
+
+  public static SqlSessionFactory createSqlSessionFactory() throws IOException {
+    return createSqlSessionFactory("POOLED");
+  }
+
+  public static SqlSessionFactory createSqlSessionFactory(String dataSourceType) throws IOException {
+    Properties properties = new Properties();
+    properties.setProperty("dataSourceType", dataSourceType);
+    SqlSessionFactory sqlSessionFactory;
+    Reader reader = Resources.getResourceAsReader(CONFIG);
+    try {
+      sqlSessionFactory = new SqlSessionFactoryBuilder().build(reader, properties);
+    } finally {
+      reader.close();
+    }
+    createSchema(sqlSessionFactory);
+    loadData(sqlSessionFactory);
+    return sqlSessionFactory;
+  }
+
+  public static Author newAuthor(int id) {
+    Author author = new Author();
+    author.setId(id);
+    author.setUsername("author" + id);
+    author.setPassword("password" + id);
+    author.setEmail("author" + id + "@mybatis.org");
+    author.setBio("Bio of author " + id);
+    author.setFavouriteSection(id % 2 == 0 ? "NEWS" : "VIDEOS");
+    return author;
+  }
+
+  private static void createSchema(SqlSessionFactory sqlSessionFactory) throws IOException {
+    SqlSession session = sqlSessionFactory.openSession();
+    try {
+      ScriptRunner runner = new ScriptRunner(session.getConnection());
+      runner.setAutoCommit(true);
+      runner.setStopOnError(true);
+      runner.setLogWriter(null);
+      Reader reader = Resources.getResourceAsReader(SCHEMA);
+      try {
+        runner.runScript(reader);
+      } finally {
+        reader.close();
+      }
+    } finally {
+      session.close();
+    }
+  }
+
+  private static void loadData(SqlSessionFactory sqlSessionFactory) {
+    SqlSession session = sqlSessionFactory.openSession(ExecutorType.BATCH);
+    try {
+      BlogMapper mapper = session.getMapper(BlogMapper.class);
+      for (int i = 1; i <= AUTHORS; i++) {
+        mapper.insertAuthor(newAuthor(i));
+      }
+      int postId = 1;
+      for (int i = 1; i <= BLOGS; i++) {
+        Blog blog = new Blog();
+        blog.setId(i);
+        blog.setTitle("Blog " + i);
+        blog.setAuthor(newAuthor(i));
+        mapper.insertBlog(blog);
+        for (int j = 0; j < POSTS_PER_BLOG; j++) {
+          Post post = new Post();
+          post.setId(postId);
+          post.setBlogId(i);
+          post.setCreatedOn(new Date());
+          post.setSubject("Post " + postId);
+          post.setBody("Body of post " + postId);
+          mapper.insertPost(post);
+          postId++;
+        }
+      }
+      session.commit();
+    } finally {
+      session.close();
+    }
+  }
+
+}
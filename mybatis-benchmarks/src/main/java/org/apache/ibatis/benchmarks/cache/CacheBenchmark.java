@@ -0,0 +1,101 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.benchmarks.cache;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.benchmarks.BenchmarkDatabase;
+import org.apache.ibatis.benchmarks.domain.Author;
+import org.apache.ibatis.benchmarks.domain.BlogMapper;
+import org.apache.ibatis.benchmarks.domain.CachedBlogMapper;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures selects answered by the local (session) cache and by the second level cache of a namespace.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBenchmark {
+
+  private SqlSessionFactory sqlSessionFactory;
+  private SqlSession session;
+  private BlogMapper mapper;
+  private int next;
+
+  @Setup
+  public void setup() throws Exception {
+    sqlSessionFactory = BenchmarkDatabase.createSqlSessionFactory();
+    SqlSession warmupSession = sqlSessionFactory.openSession();
+    try {
+      CachedBlogMapper cachedMapper = warmupSession.getMapper(CachedBlogMapper.class);
+      for (int i = 1; i <= BenchmarkDatabase.AUTHORS; i++) {
+        cachedMapper.selectAuthor(i);
+      }
+      // the second level cache is filled on commit
+      warmupSession.commit();
+    } finally {
+      warmupSession.close();
+    }
+    session = sqlSessionFactory.openSession();
+    mapper = session.getMapper(BlogMapper.class);
+    for (int i = 1; i <= BenchmarkDatabase.AUTHORS; i++) {
+      mapper.selectAuthor(i);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    session.close();
+  }
+
+  @Benchmark
+  public Author localCacheHit() {
+    return mapper.selectAuthor(nextId());
+  }
+
+  @Benchmark
+  public Author secondLevelCacheHit() {
+    SqlSession session = sqlSessionFactory.openSession();
+    try {
+      return session.getMapper(CachedBlogMapper.class).selectAuthor(nextId());
+    } finally {
+      session.close();
+    }
+  }
+
+  private int nextId() {
+    next = next % BenchmarkDatabase.AUTHORS + 1;
+    return next;
+  }
+
+}
@@ -0,0 +1,121 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.benchmarks.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.SimpleExecutor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures building the {@link CacheKey} of a query and looking it up in the local cache and in a
+ * second level cache that holds as many entries as the local one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheKeyBenchmark {
+
+  private static final int CACHED_QUERIES = 256;
+
+  @Param({ "1", "4", "16" })
+  public int parameterCount;
+
+  private Executor executor;
+  private MappedStatement ms;
+  private Map<?, ?>[] parameters;
+  private Cache localCache;
+  private Cache secondLevelCache;
+  private int next;
+
+  @Setup
+  public void setup() {
+    Configuration configuration = new Configuration();
+    StringBuilder sql = new StringBuilder("SELECT id, username, password, email FROM users WHERE status = 'ACTIVE'");
+    List<ParameterMapping> parameterMappings = new ArrayList<ParameterMapping>();
+    for (int i = 0; i < parameterCount; i++) {
+      sql.append(" AND attribute").append(i).append(" = ?");
+      parameterMappings.add(new ParameterMapping.Builder(configuration, "p" + i, Object.class).build());
+    }
+    StaticSqlSource sqlSource = new StaticSqlSource(configuration, sql.toString(), parameterMappings);
+    ms = new MappedStatement.Builder(configuration, "org.apache.ibatis.benchmarks.UserMapper.selectUsers", sqlSource, SqlCommandType.SELECT).build();
+    executor = new SimpleExecutor(configuration, null);
+    localCache = new PerpetualCache("LocalCache");
+    secondLevelCache = new CacheBuilder("org.apache.ibatis.benchmarks.UserMapper").size(CACHED_QUERIES).build();
+
+    parameters = new Map<?, ?>[CACHED_QUERIES];
+    for (int q = 0; q < CACHED_QUERIES; q++) {
+      Map<String, Object> parameter = new HashMap<String, Object>();
+      for (int i = 0; i < parameterCount; i++) {
+        parameter.put("p" + i, q * parameterCount + i);
+      }
+      parameters[q] = parameter;
+    }
+    for (int q = 0; q < CACHED_QUERIES; q++) {
+      CacheKey key = createCacheKey();
+      localCache.putObject(key, key);
+      secondLevelCache.putObject(key, key);
+    }
+  }
+
+  @Benchmark
+  public CacheKey createCacheKey() {
+    Object parameter = parameters[next];
+    next = (next + 1) % CACHED_QUERIES;
+    BoundSql boundSql = ms.getBoundSql(parameter);
+    return executor.createCacheKey(ms, parameter, RowBounds.DEFAULT, boundSql);
+  }
+
+  @Benchmark
+  public Object localCacheLookup() {
+    return localCache.getObject(createCacheKey());
+  }
+
+  @Benchmark
+  public Object secondLevelCacheLookup() {
+    return secondLevelCache.getObject(createCacheKey());
+  }
+
+}
@@ -0,0 +1,40 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.benchmarks.domain;
+
+import java.util.List;
+
+import org.apache.ibatis.annotations.Param;
+
+public interface BlogMapper {
+
+  Author selectAuthor(int id);
+
+  List<Author> selectAuthors();
+
+  List<Author> selectAuthorsAutoMapped();
+
+  List<Blog> selectBlogsWithPosts();
+
+  List<Author> selectAuthorsIn(@Param("ids") List<Integer> ids, @Param("favouriteSection") String favouriteSection);
+
+  int insertAuthor(Author author);
+
+  int insertBlog(Blog blog);
+
+  int insertPost(Post post);
+
+}
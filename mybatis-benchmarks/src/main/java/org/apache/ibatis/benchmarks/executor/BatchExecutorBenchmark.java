@@ -0,0 +1,83 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.benchmarks.executor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.benchmarks.BenchmarkDatabase;
+import org.apache.ibatis.benchmarks.domain.Author;
+import org.apache.ibatis.benchmarks.domain.BlogMapper;
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures inserting {@link #batchSize} rows through the {@code BatchExecutor}. Every batch is rolled back
+ * so that the table does not grow during the run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchExecutorBenchmark {
+
+  @Param({ "10", "100", "1000" })
+  public int batchSize;
+
+  private SqlSessionFactory sqlSessionFactory;
+  private List<Author> authors;
+
+  @Setup
+  public void setup() throws Exception {
+    sqlSessionFactory = BenchmarkDatabase.createSqlSessionFactory();
+    authors = new ArrayList<Author>();
+    for (int i = 0; i < batchSize; i++) {
+      authors.add(BenchmarkDatabase.newAuthor(BenchmarkDatabase.AUTHORS + i + 1));
+    }
+  }
+
+  @Benchmark
+  public List<BatchResult> insertBatch() {
+    SqlSession session = sqlSessionFactory.openSession(ExecutorType.BATCH);
+    try {
+      BlogMapper mapper = session.getMapper(BlogMapper.class);
+      for (Author author : authors) {
+        mapper.insertAuthor(author);
+      }
+      return session.flushStatements();
+    } finally {
+      session.rollback(true);
+      session.close();
+    }
+  }
+
+}
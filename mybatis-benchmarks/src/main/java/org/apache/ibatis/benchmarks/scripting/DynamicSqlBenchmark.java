@@ -0,0 +1,91 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.benchmarks.scripting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.benchmarks.BenchmarkDatabase;
+import org.apache.ibatis.benchmarks.domain.Author;
+import org.apache.ibatis.benchmarks.domain.BlogMapper;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@code DynamicSqlSource.getBoundSql} of a statement with {@code <where>}, {@code <if>} and a
+ * {@code <foreach>} over {@link #size} items, on its own and as part of a select.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DynamicSqlBenchmark {
+
+  @Param({ "10", "100", "1000" })
+  public int size;
+
+  private SqlSessionFactory sqlSessionFactory;
+  private MappedStatement mappedStatement;
+  private List<Integer> ids;
+  private Map<String, Object> parameter;
+
+  @Setup
+  public void setup() throws Exception {
+    sqlSessionFactory = BenchmarkDatabase.createSqlSessionFactory();
+    mappedStatement = sqlSessionFactory.getConfiguration().getMappedStatement("org.apache.ibatis.benchmarks.domain.BlogMapper.selectAuthorsIn");
+    ids = new ArrayList<Integer>();
+    for (int i = 0; i < size; i++) {
+      ids.add(i % BenchmarkDatabase.AUTHORS + 1);
+    }
+    parameter = new HashMap<String, Object>();
+    parameter.put("ids", ids);
+    parameter.put("favouriteSection", "NEWS");
+  }
+
+  @Benchmark
+  public BoundSql getBoundSqlWithForeach() {
+    return mappedStatement.getBoundSql(parameter);
+  }
+
+  @Benchmark
+  public List<Author> selectListWithForeach() {
+    SqlSession session = sqlSessionFactory.openSession();
+    try {
+      return session.getMapper(BlogMapper.class).selectAuthorsIn(ids, "NEWS");
+    } finally {
+      session.close();
+    }
+  }
+
+}
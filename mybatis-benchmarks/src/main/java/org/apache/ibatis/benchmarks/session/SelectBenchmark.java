@@ -0,0 +1,106 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.benchmarks.session;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.benchmarks.BenchmarkDatabase;
+import org.apache.ibatis.benchmarks.domain.Author;
+import org.apache.ibatis.benchmarks.domain.Blog;
+import org.apache.ibatis.benchmarks.domain.BlogMapper;
+import org.apache.ibatis.reflection.ReflectorFactory;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the select path: opening a session, {@code DefaultSqlSession.selectList}, {@code MapperProxy.invoke}
+ * and {@code DefaultResultSetHandler.handleResultSets} for simple, auto-mapped and nested result maps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectBenchmark {
+
+  private static final String NAMESPACE = "org.apache.ibatis.benchmarks.domain.BlogMapper.";
+
+  @Param({ "org.apache.ibatis.reflection.DefaultReflectorFactory", "org.apache.ibatis.reflection.LambdaReflectorFactory" })
+  public String reflectorFactory;
+
+  private SqlSessionFactory sqlSessionFactory;
+
+  @Setup
+  public void setup() throws Exception {
+    sqlSessionFactory = BenchmarkDatabase.createSqlSessionFactory();
+    sqlSessionFactory.getConfiguration().setReflectorFactory((ReflectorFactory) Class.forName(reflectorFactory).newInstance());
+  }
+
+  @Benchmark
+  public Author selectOneWithMapper() {
+    SqlSession session = sqlSessionFactory.openSession();
+    try {
+      return session.getMapper(BlogMapper.class).selectAuthor(ThreadLocalRandom.current().nextInt(BenchmarkDatabase.AUTHORS) + 1);
+    } finally {
+      session.close();
+    }
+  }
+
+  @Benchmark
+  public List<Author> selectListWithResultMap() {
+    SqlSession session = sqlSessionFactory.openSession();
+    try {
+      return session.selectList(NAMESPACE + "selectAuthors");
+    } finally {
+      session.close();
+    }
+  }
+
+  @Benchmark
+  public List<Author> selectListWithAutoMapping() {
+    SqlSession session = sqlSessionFactory.openSession();
+    try {
+      return session.selectList(NAMESPACE + "selectAuthorsAutoMapped");
+    } finally {
+      session.close();
+    }
+  }
+
+  @Benchmark
+  public List<Blog> selectListWithNestedResultMap() {
+    SqlSession session = sqlSessionFactory.openSession();
+    try {
+      return session.selectList(NAMESPACE + "selectBlogsWithPosts");
+    } finally {
+      session.close();
+    }
+  }
+
+}
@@ -0,0 +1,45 @@
+--
+--    Copyright 2009-2018 the original author or authors.
+--
+--    Licensed under the Apache License, Version 2.0 (the "License");
+--    you may not use this file except in compliance with the License.
+--    You may obtain a copy of the License at
+--
+--       http://www.apache.org/licenses/LICENSE-2.0
+--
+--    Unless required by applicable law or agreed to in writing, software
+--    distributed under the License is distributed on an "AS IS" BASIS,
+--    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+--    See the License for the specific language governing permissions and
+--    limitations under the License.
+--
+
+DROP TABLE post IF EXISTS;
+DROP TABLE blog IF EXISTS;
+DROP TABLE author IF EXISTS;
+
+CREATE TABLE author (
+  id                 INT NOT NULL,
+  username           VARCHAR(255) NOT NULL,
+  password           VARCHAR(255) NOT NULL,
+  email              VARCHAR(255) NOT NULL,
+  bio                VARCHAR(1000),
+  favourite_section  VARCHAR(25),
+  PRIMARY KEY (id)
+);
+
+CREATE TABLE blog (
+  id          INT NOT NULL,
+  author_id   INT NOT NULL,
+  title       VARCHAR(255),
+  PRIMARY KEY (id)
+);
+
+CREATE TABLE post (
+  id          INT NOT NULL,
+  blog_id     INT NOT NULL,
+  created_on  TIMESTAMP NOT NULL,
+  subject     VARCHAR(255) NOT NULL,
+  body        VARCHAR(4000) NOT NULL,
+  PRIMARY KEY (id)
+);